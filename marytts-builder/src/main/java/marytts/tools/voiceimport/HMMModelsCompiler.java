@@ -0,0 +1,63 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.tools.voiceimport;
+
+import java.io.File;
+
+import marytts.htsengine.HMMData;
+import marytts.htsengine.HMMModelsWriter;
+
+/**
+ * Compiles the HTS trees, pdfs, GV models and context features of an HMM voice
+ * into one binary file, which the voice loads much faster than the separate files.
+ * To use the compiled file, set <code>voice.(voicename).compiledModels</code> in the voice config file.
+ * <p>
+ * Usage: <code>HMMModelsCompiler voicename basedir configfile outputfile</code>, where
+ * <code>basedir</code> is the directory that <code>jar:</code> prefixes in the config file refer to
+ * (e.g., the voice's <code>src/main/resources</code> directory) and <code>configfile</code> is relative to it.
+ *
+ * @author marc
+ *
+ */
+public class HMMModelsCompiler
+{
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length != 4) {
+            System.err.println("Usage: java "+HMMModelsCompiler.class.getName()+" voicename basedir configfile outputfile");
+            System.exit(1);
+        }
+        String voiceName = args[0];
+        String baseDir = args[1];
+        String configFile = args[2];
+        String outputFile = args[3];
+
+        long startTime = System.currentTimeMillis();
+        HMMData htsData = new HMMData();
+        // GV models are written without the GV weights, which are applied from the config file at load time;
+        // they are only included if the config file sets useGV:
+        htsData.initHMMData(voiceName, baseDir, configFile);
+        long loadTime = System.currentTimeMillis() - startTime;
+
+        new HMMModelsWriter().dumpHMMModels(htsData, outputFile);
+        System.out.println("Loaded models of voice "+voiceName+" in "+loadTime+" ms; wrote "
+                + new File(outputFile).length() + " bytes to "+outputFile);
+    }
+}
@@ -49,6 +49,7 @@ import marytts.unitselection.data.Unit;
 import marytts.unitselection.data.UnitFileReader;
 import marytts.unitselection.select.JoinCostFeatures;
 import marytts.unitselection.select.PrecompiledJoinCostReader;
+import marytts.unitselection.select.SparseCostMatrix;
 import marytts.util.data.MaryHeader;
 
 
@@ -109,7 +110,7 @@ public class JoinCostPrecomputer extends VoiceImportComponent
         /* HEADER */
         /**********/
         /* Make a new mary header and ouput it */
-        MaryHeader hdr = new MaryHeader( MaryHeader.PRECOMPUTED_JOINCOSTS );
+        MaryHeader hdr = new MaryHeader( MaryHeader.PRECOMPUTED_JOINCOSTS_SPARSE );
         hdr.writeTo( jc );
         hdr = null;
         
@@ -151,7 +152,7 @@ public class JoinCostPrecomputer extends VoiceImportComponent
         for (int i=0; i<nPhonemes; i++) {
             totalLeftUnits += left[i].size();
         }
-        jc.writeInt(totalLeftUnits);
+        SparseCostMatrix.Builder retained = new SparseCostMatrix.Builder();
         for (int i=0; i<nPhonemes; i++) {
             String phoneSymbol = def.getFeatureValueAsString(iPhoneme, i);
             int nLeftPhoneme = left[i].size();
@@ -162,7 +163,6 @@ public class JoinCostPrecomputer extends VoiceImportComponent
                 SortedMap sortedCosts = new TreeMap();
                 int ileft = uleft.index;
                 //System.out.println("Left unit "+j+" (index "+ileft+")");
-                jc.writeInt(ileft);
                 // Now for this left halfphone, compute the cost of joining to each
                 // right halfphones of the same phone, and remember only the best.
                 for (int k=0; k<nRightPhoneme; k++) {
@@ -189,7 +189,6 @@ public class JoinCostPrecomputer extends VoiceImportComponent
                 int nRetain = nRightPhoneme * retainPercent / 100;
                 if (nRetain < retainMin) nRetain = retainMin;
                 if (nRetain > nRightPhoneme) nRetain = nRightPhoneme;
-                jc.writeInt(nRetain);
                 Iterator it=sortedCosts.keySet().iterator();
                 for (int k=0; k<nRetain; ) {
                     Double cost = (Double) it.next();
@@ -198,8 +197,7 @@ public class JoinCostPrecomputer extends VoiceImportComponent
                     if (ob instanceof Unit) {
                         Unit u = (Unit) ob;
                         int iright = u.index;
-                        jc.writeInt(iright);
-                        jc.writeFloat(fcost);
+                        retained.add(ileft, iright, fcost);
                         k++;
                     } else {
                         assert ob instanceof List;
@@ -207,8 +205,7 @@ public class JoinCostPrecomputer extends VoiceImportComponent
                         for (Iterator li = l.iterator(); k<nRetain && li.hasNext(); ) {
                             Unit u = (Unit) li.next();
                             int iright = u.index;
-                            jc.writeInt(iright);
-                            jc.writeFloat(fcost);
+                            retained.add(ileft, iright, fcost);
                             k++;
                         }
                     }
@@ -216,6 +213,7 @@ public class JoinCostPrecomputer extends VoiceImportComponent
             }
             percent += 100*nLeftPhoneme/totalLeftUnits;
         }
+        retained.build(numUnits).writeTo(jc);
         jc.close();
         PrecompiledJoinCostReader tester = new PrecompiledJoinCostReader(getProp(JOINCOSTFILE));
         return true;
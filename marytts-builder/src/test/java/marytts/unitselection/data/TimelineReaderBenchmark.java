@@ -0,0 +1,79 @@
+package marytts.unitselection.data;
+
+import java.io.File;
+import java.util.Random;
+
+import marytts.tools.voiceimport.TimelineWriter;
+import marytts.util.data.Datagram;
+
+/**
+ * Micro-benchmark for fetching the datagrams of units from a timeline, with and without
+ * a dense index. The timeline is synthetic but shaped like the wave timeline of an
+ * arctic-sized unit selection voice such as cmu-slt: 16 kHz, one datagram per pitch period
+ * of 16-bit samples, and a sparse index every 0.1 seconds, as written by WaveTimelineMaker.
+ * This is not run as part of the unit tests; start it with
+ * <code>java marytts.unitselection.data.TimelineReaderBenchmark [numDatagrams]</code>.
+ *
+ * @author marc
+ *
+ */
+public class TimelineReaderBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int NUM_UNITS = 200000;
+
+    public static void main(String[] args) throws Exception {
+        int numDatagrams = args.length > 0 ? Integer.parseInt(args[0]) : 400000;
+        File file = File.createTempFile("timelinebenchmark", ".bin");
+        file.deleteOnExit();
+        long totalDuration = writeTimeline(file, numDatagrams);
+        System.out.println(numDatagrams+" datagrams, "+(totalDuration/SAMPLE_RATE)+" seconds, "+(file.length()>>20)+" MB");
+
+        // units of about one halfphone: 2-10 pitch periods
+        Random random = new Random(1);
+        long[] unitStarts = new long[NUM_UNITS];
+        long[] unitDurations = new long[NUM_UNITS];
+        for (int i=0; i<NUM_UNITS; i++) {
+            unitStarts[i] = (long) (random.nextDouble() * (totalDuration - 2000));
+            unitDurations[i] = 200 + random.nextInt(1000);
+        }
+
+        for (boolean memoryMapping : new boolean[] {true, false}) {
+            TimelineReader sparse = new TimelineReader(file.getPath(), memoryMapping);
+            TimelineReader dense = new TimelineReader(file.getPath(), memoryMapping);
+            long t0 = System.nanoTime();
+            dense.buildDenseIndex();
+            long indexTime = System.nanoTime() - t0;
+            String mode = memoryMapping ? "mapped" : "piecewise";
+            System.out.printf("%s: building dense index took %d ms%n", mode, indexTime / 1000000);
+            for (int round = 0; round < 3; round++) {
+                measure(mode+", sparse index", sparse, unitStarts, unitDurations);
+                measure(mode+", dense index", dense, unitStarts, unitDurations);
+            }
+        }
+    }
+
+    private static long writeTimeline(File file, int numDatagrams) throws Exception {
+        TimelineWriter writer = new TimelineWriter(file.getPath(), "benchmark", SAMPLE_RATE, 0.1);
+        Random random = new Random(0);
+        long totalDuration = 0;
+        for (int i=0; i<numDatagrams; i++) {
+            int period = 80 + random.nextInt(120); // 5 - 12.5 ms
+            writer.feed(new Datagram(period, new byte[2*period]), SAMPLE_RATE);
+            totalDuration += period;
+        }
+        writer.close();
+        return totalDuration;
+    }
+
+    private static void measure(String name, TimelineReader reader, long[] unitStarts, long[] unitDurations) throws Exception {
+        long numDatagrams = 0;
+        long t0 = System.nanoTime();
+        for (int i=0; i<unitStarts.length; i++) {
+            Datagram[] datagrams = reader.getDatagrams(unitStarts[i], unitDurations[i], SAMPLE_RATE);
+            numDatagrams += datagrams.length;
+        }
+        long t = System.nanoTime() - t0;
+        System.out.printf("  %-30s %7.2f us/unit (%.1f datagrams/unit)%n", name,
+                t / 1000. / unitStarts.length, (double) numDatagrams / unitStarts.length);
+    }
+}
@@ -366,6 +366,58 @@ public class TimelineTest {
         
     }
 
+    @Test
+    public void segmentedMapping() throws Exception {
+        // segments of 1.6 MB which overlap by more than the largest datagram
+        TimelineReader segmented = new TimelineReader(tlFileName, true) {
+            @Override
+            protected long getMaxMappedSegmentSize() {
+                return 1600000;
+            }
+            @Override
+            protected long getMappedSegmentOverlap() {
+                return 1300000;
+            }
+        };
+        assertReadsAllDatagrams(segmented);
+    }
+    
+    @Test
+    public void piecewiseReading() throws Exception {
+        assertReadsAllDatagrams(new TimelineReader(tlFileName, false));
+    }
+    
+    @Test
+    public void denseIndex() throws Exception {
+        TimelineReader mapped = new TimelineReader(tlFileName, true);
+        mapped.buildDenseIndex();
+        Assert.assertTrue(mapped.hasDenseIndex());
+        assertEquals(tlr.getTotalDuration(), mapped.getTotalDuration());
+        assertReadsAllDatagrams(mapped);
+        TimelineReader piecewise = new TimelineReader(tlFileName, false);
+        piecewise.buildDenseIndex();
+        assertReadsAllDatagrams(piecewise);
+        // a time within a datagram, and a span across datagrams:
+        final int testIdx = NUMDATAGRAMS / 2;
+        long midTime = getTimeOfIndex(testIdx) + origDatagrams[testIdx].getDuration() / 2;
+        long span = origDatagrams[testIdx].getDuration() + origDatagrams[testIdx+1].getDuration();
+        long[] offset = new long[1];
+        long[] denseOffset = new long[1];
+        Datagram[] D = tlr.getDatagrams(midTime, span, sampleRate, offset);
+        Datagram[] denseD = mapped.getDatagrams(midTime, span, sampleRate, denseOffset);
+        Assert.assertArrayEquals(D, denseD);
+        assertEquals(offset[0], denseOffset[0]);
+    }
+    
+    private void assertReadsAllDatagrams(TimelineReader reader) throws IOException {
+        Datagram[] D = reader.getDatagrams(0, NUMDATAGRAMS, sampleRate, null);
+        assertEquals(NUMDATAGRAMS, D.length);
+        for (int i=0; i<NUMDATAGRAMS; i++) {
+            assertEquals(origDatagrams[i], D[i]);
+            assertEquals(origDatagrams[i], reader.getDatagram(getTimeOfIndex(i)));
+        }
+    }
+
     /**
      * @param testIdx
      * @return
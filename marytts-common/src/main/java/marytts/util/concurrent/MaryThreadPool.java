@@ -0,0 +1,221 @@
+/**
+ * Copyright 2009 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded thread pool with named threads, a bounded work queue and simple usage statistics.
+ * When all threads are busy and the queue is full, new tasks are rejected
+ * with a {@link RejectedExecutionException} rather than creating more threads
+ * or queueing without limit; callers are expected to report this as an overload
+ * condition to their client.
+ * 
+ * @author marc
+ *
+ */
+public class MaryThreadPool extends ThreadPoolExecutor {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final String name;
+    private final int queueCapacity;
+    private final AtomicLong numSubmitted = new AtomicLong(0);
+    private final AtomicLong numCompleted = new AtomicLong(0);
+    private final AtomicLong numRejected = new AtomicLong(0);
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong(0);
+    private final AtomicLong totalRunNanos = new AtomicLong(0);
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong(0);
+    private final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+
+    /**
+     * Create a pool of up to numThreads daemon threads named "<code>name</code>-<i>n</i>".
+     * Idle threads are stopped after a while, so an unused pool does not hold any threads.
+     * @param name the name of the pool, used as prefix for the thread names and in messages.
+     * @param numThreads maximum number of threads processing tasks in parallel, must be positive.
+     * @param queueCapacity maximum number of tasks waiting for a thread; if 0, tasks never wait
+     * but are only accepted if a thread can take them right away.
+     */
+    public MaryThreadPool(String name, int numThreads, int queueCapacity) {
+        super(numThreads, numThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                createQueue(queueCapacity), new NamedThreadFactory(name));
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                numRejected.incrementAndGet();
+                throw new RejectedExecutionException(MaryThreadPool.this.name + " is saturated: all " 
+                        + getMaximumPoolSize() + " threads busy and " + getQueue().size() + " tasks waiting");
+            }
+        });
+    }
+
+    private static BlockingQueue<Runnable> createQueue(int capacity) {
+        if (capacity == 0) {
+            return new SynchronousQueue<Runnable>();
+        }
+        return new ArrayBlockingQueue<Runnable>(capacity);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) throw new NullPointerException();
+        numSubmitted.incrementAndGet();
+        super.execute(new TimedTask(command));
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        long now = System.nanoTime();
+        if (r instanceof TimedTask) {
+            long waited = now - ((TimedTask) r).enqueued;
+            totalQueueWaitNanos.addAndGet(waited);
+            long max;
+            while (waited > (max = maxQueueWaitNanos.get())) {
+                if (maxQueueWaitNanos.compareAndSet(max, waited)) break;
+            }
+        }
+        startTime.set(now);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        Long started = startTime.get();
+        if (started != null) {
+            totalRunNanos.addAndGet(System.nanoTime() - started);
+            startTime.remove();
+        }
+        numCompleted.incrementAndGet();
+        super.afterExecute(r, t);
+    }
+
+    /**
+     * Remove a task given to {@link #execute(Runnable)} from the queue, if it has not been started yet.
+     * @return true if the task was removed, so that it will not be run.
+     */
+    @Override
+    public boolean remove(Runnable task) {
+        for (Runnable queued : getQueue()) {
+            if (queued instanceof TimedTask && ((TimedTask) queued).task == task) {
+                return super.remove(queued);
+            }
+        }
+        return super.remove(task);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The number of tasks currently waiting for a thread.
+     * @return
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public long getSubmittedCount() {
+        return numSubmitted.get();
+    }
+
+    public long getCompletedCount() {
+        return numCompleted.get();
+    }
+
+    public long getRejectedCount() {
+        return numRejected.get();
+    }
+
+    /**
+     * The average time tasks spent in the queue before being run, in milliseconds.
+     * @return
+     */
+    public double getMeanQueueWaitMillis() {
+        long started = numCompleted.get() + getActiveCount();
+        if (started == 0) return 0;
+        return totalQueueWaitNanos.get() / 1.e6 / started;
+    }
+
+    /**
+     * The longest time any task spent in the queue before being run, in milliseconds.
+     * @return
+     */
+    public double getMaxQueueWaitMillis() {
+        return maxQueueWaitNanos.get() / 1.e6;
+    }
+
+    /**
+     * The average run time of completed tasks, in milliseconds.
+     * @return
+     */
+    public double getMeanRunMillis() {
+        long completed = numCompleted.get();
+        if (completed == 0) return 0;
+        return totalRunNanos.get() / 1.e6 / completed;
+    }
+
+    /**
+     * A one-line summary of the current state and statistics of this pool.
+     */
+    @Override
+    public String toString() {
+        return String.format("%s: %d/%d threads active, %d/%d queued, %d submitted, %d completed, %d rejected, "
+                + "queue wait mean %.1f ms max %.1f ms, run time mean %.1f ms",
+                name, getActiveCount(), getMaximumPoolSize(), getQueueDepth(), queueCapacity,
+                getSubmittedCount(), getCompletedCount(), getRejectedCount(),
+                getMeanQueueWaitMillis(), getMaxQueueWaitMillis(), getMeanRunMillis());
+    }
+
+    /**
+     * Parse a thread count setting, where values less than 1 mean "as many as there are processors".
+     * @param setting
+     * @return a positive number of threads
+     */
+    public static int threadsFromSetting(int setting) {
+        if (setting > 0) return setting;
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    private static class TimedTask implements Runnable {
+        private final Runnable task;
+        private final long enqueued = System.nanoTime();
+
+        TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            task.run();
+        }
+    }
+}
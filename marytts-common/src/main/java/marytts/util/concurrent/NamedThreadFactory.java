@@ -0,0 +1,55 @@
+/**
+ * Copyright 2009 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.concurrent;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread factory creating threads named "<code>prefix</code>-<i>n</i>",
+ * so that pooled threads can be recognised in thread dumps and log messages.
+ * 
+ * @author marc
+ *
+ */
+public class NamedThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final boolean daemon;
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    /**
+     * Create a factory for daemon threads with the given name prefix.
+     * @param prefix
+     */
+    public NamedThreadFactory(String prefix) {
+        this(prefix, true);
+    }
+
+    public NamedThreadFactory(String prefix, boolean daemon) {
+        this.prefix = prefix;
+        this.daemon = daemon;
+    }
+
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+        t.setDaemon(daemon);
+        return t;
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.concurrent;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a list of independent tasks, using the calling thread and some helper threads from a shared pool.
+ * The calling thread and the helpers each take the next task that has not been started yet,
+ * until all tasks are started; the call returns when all tasks are completed.
+ * <p>
+ * Since the calling thread works through the tasks itself and only waits for tasks that
+ * a helper has actually started, this never deadlocks, even if the pool is saturated or
+ * the tasks are run from threads of the same pool; in the worst case, all tasks are
+ * run one after the other in the calling thread.
+ *
+ * @author marc
+ *
+ */
+public class ParallelTasks {
+
+    private ParallelTasks() {}
+
+    /**
+     * Run all tasks, using up to <code>parallelism - 1</code> helper threads from the given executor.
+     * @param executor the executor providing helper threads, or null to run all tasks in the calling thread.
+     * @param tasks the tasks to run
+     * @param parallelism the maximum number of threads working on the tasks at the same time, including the calling thread.
+     * @throws RuntimeException or Error if any of the tasks throws one; the first one thrown is rethrown
+     * after all started tasks have completed.
+     */
+    public static void runAll(Executor executor, List<? extends Runnable> tasks, int parallelism) {
+        Batch batch = new Batch(tasks);
+        int numHelpers = executor == null ? 0 : Math.min(parallelism, tasks.size()) - 1;
+        for (int i=0; i<numHelpers; i++) {
+            try {
+                executor.execute(batch);
+            } catch (RejectedExecutionException e) {
+                break; // pool is saturated, do the rest ourselves
+            }
+        }
+        batch.run();
+        batch.awaitCompletion();
+        Throwable t = batch.failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+    }
+
+    private static class Batch implements Runnable {
+        private final List<? extends Runnable> tasks;
+        private final AtomicInteger next = new AtomicInteger(0);
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        private int numUnfinished;
+
+        Batch(List<? extends Runnable> tasks) {
+            this.tasks = tasks;
+            this.numUnfinished = tasks.size();
+        }
+
+        public void run() {
+            int i;
+            while ((i = next.getAndIncrement()) < tasks.size()) {
+                try {
+                    if (failure.get() == null) {
+                        tasks.get(i).run();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    synchronized (this) {
+                        numUnfinished--;
+                        if (numUnfinished == 0) notifyAll();
+                    }
+                }
+            }
+        }
+
+        synchronized void awaitCompletion() {
+            // every task is finished by the thread that took it, even after a failure:
+            boolean interrupted = false;
+            while (numUnfinished > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
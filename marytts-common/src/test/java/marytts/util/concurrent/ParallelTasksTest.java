@@ -0,0 +1,111 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package marytts.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class ParallelTasksTest {
+
+    private static List<Runnable> counting(int n, final AtomicInteger counter) {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i=0; i<n; i++) {
+            tasks.add(new Runnable() {
+                public void run() {
+                    counter.incrementAndGet();
+                }
+            });
+        }
+        return tasks;
+    }
+
+    @Test
+    public void runsAllTasks() {
+        MaryThreadPool pool = new MaryThreadPool("test", 4, 10);
+        AtomicInteger counter = new AtomicInteger();
+        ParallelTasks.runAll(pool, counting(1000, counter), 4);
+        assertEquals(1000, counter.get());
+        pool.shutdown();
+    }
+
+    @Test
+    public void runsWithoutExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        ParallelTasks.runAll(null, counting(10, counter), 4);
+        assertEquals(10, counter.get());
+    }
+
+    @Test
+    public void runsInCallerWhenPoolIsBlocked() throws Exception {
+        MaryThreadPool pool = new MaryThreadPool("test", 1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch blocking = new CountDownLatch(1);
+        Runnable block = new Runnable() {
+            public void run() {
+                blocking.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        pool.execute(block); // occupies the thread
+        blocking.await();
+        pool.execute(block); // fills the queue
+        AtomicInteger counter = new AtomicInteger();
+        ParallelTasks.runAll(pool, counting(10, counter), 4);
+        assertEquals(10, counter.get());
+        release.countDown();
+        pool.shutdown();
+    }
+
+    @Test
+    public void rethrowsFailure() {
+        MaryThreadPool pool = new MaryThreadPool("test", 4, 10);
+        AtomicInteger counter = new AtomicInteger();
+        List<Runnable> tasks = counting(100, counter);
+        tasks.add(50, new Runnable() {
+            public void run() {
+                throw new IllegalStateException("failed");
+            }
+        });
+        try {
+            ParallelTasks.runAll(pool, tasks, 4);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertTrue(counter.get() <= 100);
+        pool.shutdown();
+    }
+}
@@ -19,6 +19,7 @@
  */
 package marytts.tests.junit4;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -112,6 +113,17 @@ public class MaryIT {
         assertTrue(modules != null && !modules.isEmpty());
     }
 
+    @Test
+    public void testRoutesAreStable() {
+        List<MaryModule> modules =
+            ModuleRegistry.modulesRequiredForProcessing(MaryDataType.TEXT, MaryDataType.AUDIO, Locale.US);
+        int length = modules.size();
+        modules.clear();
+        List<MaryModule> again =
+            ModuleRegistry.modulesRequiredForProcessing(MaryDataType.TEXT, MaryDataType.AUDIO, Locale.US);
+        assertEquals(length, again.size());
+    }
+
     @Test
     public void testValidMaryXML1() throws Exception {
         convertToAndValidate("test1.maryxml", MaryDataType.RAWMARYXML, MaryDataType.TOKENS, Locale.ENGLISH);
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import marytts.exceptions.SynthesisException;
+import marytts.util.concurrent.MaryThreadPool;
+
+/**
+ * The results of processing a sequence of texts, in the order of the texts.
+ * The texts are processed by a pool of threads, a few texts ahead of the one
+ * whose result is requested by {@link #next()}; so the texts can come from a
+ * very long, lazily read source without all results being held in memory.
+ * <p>
+ * Obtain a BatchSynthesis from {@link LocalMaryInterface}, e.g.
+ * <pre>
+ * BatchSynthesis&lt;AudioInputStream&gt; batch = mary.generateAudio(spec, sentences.iterator(), 0);
+ * try {
+ *     while (batch.hasNext()) {
+ *         try {
+ *             AudioInputStream audio = batch.next();
+ *             ...
+ *         } catch (SynthesisException e) {
+ *             // this text failed, continue with the next one
+ *         }
+ *     }
+ * } finally {
+ *     batch.close();
+ * }
+ * </pre>
+ * The results must be read from a single thread.
+ *
+ * @author marc
+ *
+ */
+public class BatchSynthesis<T> {
+
+	/**
+	 * Processes a single text.
+	 */
+	interface Generator<T> {
+		T generate(String text) throws SynthesisException;
+	}
+
+	private final Iterator<String> texts;
+	private final Generator<T> generator;
+	private final int lookahead;
+	private final MaryThreadPool pool;
+	private final Deque<Future<T>> pending = new ArrayDeque<Future<T>>();
+
+	/**
+	 * @param texts
+	 * @param generator
+	 * @param numThreads the number of texts to process in parallel; values less than 1 mean one per processor.
+	 */
+	BatchSynthesis(Iterator<String> texts, Generator<T> generator, int numThreads) {
+		this.texts = texts;
+		this.generator = generator;
+		int threads = MaryThreadPool.threadsFromSetting(numThreads);
+		// keep every thread busy while the caller is consuming a result:
+		this.lookahead = 2 * threads;
+		this.pool = new MaryThreadPool("BatchSynthesis", threads, lookahead);
+		fill();
+	}
+
+	private void fill() {
+		while (pending.size() < lookahead && texts.hasNext()) {
+			final String text = texts.next();
+			pending.add(pool.submit(new Callable<T>() {
+				public T call() throws SynthesisException {
+					return generator.generate(text);
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Whether there are more results.
+	 */
+	public boolean hasNext() {
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * Get the result for the next text, waiting for it to be processed if necessary.
+	 * If processing the text failed, this throws a SynthesisException; the remaining results
+	 * can still be read.
+	 * @return the result for the next text.
+	 * @throws SynthesisException if the text could not be processed
+	 * @throws NoSuchElementException if there are no more results
+	 */
+	public T next() throws SynthesisException {
+		Future<T> result = pending.poll();
+		if (result == null) {
+			throw new NoSuchElementException();
+		}
+		// refill only once this result is done: while it may still be waiting in the pool's queue,
+		// submitting another text could exceed the queue's capacity.
+		try {
+			T value = result.get();
+			fill();
+			return value;
+		} catch (InterruptedException e) {
+			result.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new SynthesisException("Interrupted while waiting for result", e);
+		} catch (ExecutionException e) {
+			fill();
+			Throwable cause = e.getCause();
+			if (cause instanceof SynthesisException) {
+				throw (SynthesisException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new SynthesisException(cause);
+		}
+	}
+
+	/**
+	 * Stop processing: texts which have not been processed yet are skipped, and the threads are released.
+	 */
+	public void close() {
+		for (Future<T> result : pending) {
+			result.cancel(false);
+		}
+		pending.clear();
+		pool.shutdown();
+	}
+}
@@ -20,13 +20,11 @@
 package marytts;
 
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.Set;
 
-import javax.sound.sampled.AudioFileFormat;
-import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 
 import org.w3c.dom.Document;
 
@@ -42,20 +40,17 @@ import marytts.util.MaryRuntimeUtils;
 
 /**
  * This class and its subclasses are intended to grow into a simple-to-use, unified interface for both the local MARY server and a MARY client.
+ * <p>
+ * The settings are held in an immutable {@link SynthesisSpec}, which each request reads once, so that
+ * an instance can be used by several threads. Threads that need different settings should not
+ * change the settings of a shared instance, but pass their own SynthesisSpec to the methods taking one;
+ * these can also process many texts concurrently.
  * @author marc
  *
  */
 public class LocalMaryInterface implements MaryInterface {
 	
-	private MaryDataType inputType;
-	private MaryDataType outputType;
-	private Locale locale;
-	private Voice voice;
-	private AudioFileFormat audioFileFormat;
-	private String effects;
-	private String style;
-	private String outputTypeParams;
-	private boolean isStreaming;
+	private volatile SynthesisSpec spec;
 
 	
 	public LocalMaryInterface() throws MaryConfigurationException {
@@ -73,38 +68,33 @@ public class LocalMaryInterface implements MaryInterface {
 	}
 	
 	protected void setReasonableDefaults() {
-		inputType = MaryDataType.TEXT;
-		outputType = MaryDataType.AUDIO;
-		locale = Locale.US;
-        voice = Voice.getDefaultVoice(locale);
-        setAudioFileFormatForVoice();
-        effects = null;
-        style = null;
-        outputTypeParams = null;
-        isStreaming = false;
-
-	}
-
-	private void setAudioFileFormatForVoice() {
-    	if (voice != null) {
-    		AudioFormat af = voice.dbAudioFormat();
-    		audioFileFormat = new AudioFileFormat(AudioFileFormat.Type.WAVE, af, AudioSystem.NOT_SPECIFIED);
-    	} else {
-    		audioFileFormat = null;
-    	}
+		spec = new SynthesisSpec();
+	}
+
+	/**
+	 * The current settings of this interface, which can be modified and passed to the methods taking a SynthesisSpec.
+	 */
+	public SynthesisSpec getSpec() {
+		return spec;
+	}
+
+	/**
+	 * Replace all settings of this interface at once.
+	 * @param newSpec
+	 */
+	public synchronized void setSpec(SynthesisSpec newSpec) {
+		if (newSpec == null) {
+			throw new NullPointerException("Null spec");
+		}
+		spec = newSpec;
 	}
 	
 	/* (non-Javadoc)
 	 * @see marytts.MaryInterface#setInputType(java.lang.String)
 	 */
 	@Override
-	public void setInputType(String newInputType) throws IllegalArgumentException {
-		inputType = MaryDataType.get(newInputType);
-		if (inputType == null) {
-			throw new IllegalArgumentException("No such type: "+newInputType);
-		} else if (!inputType.isInputType()) {
-			throw new IllegalArgumentException("Not an input type: "+newInputType);
-		}
+	public synchronized void setInputType(String newInputType) throws IllegalArgumentException {
+		spec = spec.withInputType(newInputType);
 	}
 	
 	/* (non-Javadoc)
@@ -112,20 +102,15 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public String getInputType() {
-		return inputType.name();
+		return spec.getInputType();
 	}
 
 	/* (non-Javadoc)
 	 * @see marytts.MaryInterface#setOutputType(java.lang.String)
 	 */
 	@Override
-	public void setOutputType(String newOutputType) throws IllegalArgumentException {
-		outputType = MaryDataType.get(newOutputType);
-		if (outputType == null) {
-			throw new IllegalArgumentException("No such type: "+newOutputType);
-		} else if (!outputType.isOutputType()) {
-			throw new IllegalArgumentException("Not an output type: "+newOutputType);
-		}
+	public synchronized void setOutputType(String newOutputType) throws IllegalArgumentException {
+		spec = spec.withOutputType(newOutputType);
 	}
 	
 	/* (non-Javadoc)
@@ -133,20 +118,15 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public String getOutputType() {
-		return outputType.name();
+		return spec.getOutputType();
 	}
 
 	/* (non-Javadoc)
 	 * @see marytts.MaryInterface#setLocale(java.util.Locale)
 	 */
 	@Override
-	public void setLocale(Locale newLocale) throws IllegalArgumentException {
-		if (MaryConfig.getLanguageConfig(newLocale) == null) {
-			throw new IllegalArgumentException("Unsupported locale: "+newLocale);
-		}
-		locale = newLocale;
-		voice = Voice.getDefaultVoice(locale);
-		setAudioFileFormatForVoice();
+	public synchronized void setLocale(Locale newLocale) throws IllegalArgumentException {
+		spec = spec.withLocale(newLocale);
 	}
 	
 	/* (non-Javadoc)
@@ -154,19 +134,15 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public Locale getLocale() {
-		return locale;
+		return spec.getLocale();
 	}
 	
 	/* (non-Javadoc)
 	 * @see marytts.MaryInterface#setVoice(java.lang.String)
 	 */
 	@Override
-	public void setVoice(String voiceName) throws IllegalArgumentException {
-		voice = Voice.getVoice(voiceName);
-		if (voice == null) {
-			throw new IllegalArgumentException("No such voice: "+voiceName);
-		}
-		locale = voice.getLocale();
+	public synchronized void setVoice(String voiceName) throws IllegalArgumentException {
+		spec = spec.withVoice(voiceName);
 	}
 	
 	/* (non-Javadoc)
@@ -174,18 +150,15 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public String getVoice() {
-		if (voice == null) {
-			return null;
-		}
-		return voice.getName();
+		return spec.getVoice();
 	}
 	
 	/* (non-Javadoc)
 	 * @see marytts.MaryInterface#setAudioEffects(java.lang.String)
 	 */
 	@Override
-	public void setAudioEffects(String audioEffects) {
-		effects = audioEffects;
+	public synchronized void setAudioEffects(String audioEffects) {
+		spec = spec.withAudioEffects(audioEffects);
 	}
 	
 	/* (non-Javadoc)
@@ -193,15 +166,15 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public String getAudioEffects() {
-		return effects;
+		return spec.getAudioEffects();
 	}
 	
 	/* (non-Javadoc)
 	 * @see marytts.MaryInterface#setStyle(java.lang.String)
 	 */
 	@Override
-	public void setStyle(String newStyle) {
-		style = newStyle;
+	public synchronized void setStyle(String newStyle) {
+		spec = spec.withStyle(newStyle);
 	}
 	
 	/* (non-Javadoc)
@@ -209,15 +182,15 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public String getStyle() {
-		return style;
+		return spec.getStyle();
 	}
 	
 	/* (non-Javadoc)
 	 * @see marytts.MaryInterface#setOutputTypeParams(java.lang.String)
 	 */
 	@Override
-	public void setOutputTypeParams(String params) {
-		this.outputTypeParams = params;
+	public synchronized void setOutputTypeParams(String params) {
+		spec = spec.withOutputTypeParams(params);
 	}
 	
 	/* (non-Javadoc)
@@ -225,15 +198,15 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public String getOutputTypeParams() {
-		return outputTypeParams;
+		return spec.getOutputTypeParams();
 	}
 	
 	/* (non-Javadoc)
 	 * @see marytts.MaryInterface#setStreamingAudio(boolean)
 	 */
 	@Override
-	public void setStreamingAudio(boolean newIsStreaming) {
-		isStreaming = newIsStreaming;
+	public synchronized void setStreamingAudio(boolean newIsStreaming) {
+		spec = spec.withStreamingAudio(newIsStreaming);
 	}
 	
 	/* (non-Javadoc)
@@ -241,7 +214,7 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public boolean isStreamingAudio() {
-		return isStreaming;
+		return spec.isStreamingAudio();
 	}
 
 	/* (non-Javadoc)
@@ -249,11 +222,7 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public String generateText(String text) throws SynthesisException {
-		verifyInputTypeIsText();
-		verifyOutputTypeIsText();
-		MaryData in = getMaryDataFromText(text);
-		MaryData out = process(in);
-		return out.getPlainText();
+		return generateText(spec, text);
 	}
 
 	/* (non-Javadoc)
@@ -261,11 +230,7 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public String generateText(Document doc) throws SynthesisException {
-		verifyInputTypeIsXML();
-		verifyOutputTypeIsText();
-		MaryData in = getMaryDataFromXML(doc);
-		MaryData out = process(in);
-		return out.getPlainText();
+		return generateText(spec, doc);
 	}
 
 	
@@ -274,11 +239,7 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public Document generateXML(String text) throws SynthesisException {
-		verifyInputTypeIsText();
-		verifyOutputTypeIsXML();
-		MaryData in = getMaryDataFromText(text);
-		MaryData out = process(in);
-		return out.getDocument();
+		return generateXML(spec, text);
 	}
 
 
@@ -288,11 +249,7 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public Document generateXML(Document doc) throws SynthesisException {
-		verifyInputTypeIsXML();
-		verifyOutputTypeIsXML();
-		MaryData in = getMaryDataFromXML(doc);
-		MaryData out = process(in);
-		return out.getDocument();
+		return generateXML(spec, doc);
 	}
 
 	/* (non-Javadoc)
@@ -300,11 +257,7 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public AudioInputStream generateAudio(String text) throws SynthesisException {
-		verifyInputTypeIsText();
-		verifyOutputTypeIsAudio();
-		MaryData in = getMaryDataFromText(text);
-		MaryData out = process(in);
-		return out.getAudio();
+		return generateAudio(spec, text);
 	}
 
 	/* (non-Javadoc)
@@ -312,45 +265,162 @@ public class LocalMaryInterface implements MaryInterface {
 	 */
 	@Override
 	public AudioInputStream generateAudio(Document doc) throws SynthesisException {
-		verifyInputTypeIsXML();
-		verifyOutputTypeIsAudio();
-		MaryData in = getMaryDataFromXML(doc);
-		MaryData out = process(in);
+		return generateAudio(spec, doc);
+	}
+
+	/**
+	 * Same as {@link #generateText(String)}, with the given settings instead of those of this interface.
+	 */
+	public String generateText(SynthesisSpec s, String text) throws SynthesisException {
+		verifyInputTypeIsText(s);
+		verifyOutputTypeIsText(s);
+		MaryData in = getMaryDataFromText(s, text);
+		MaryData out = process(s, in);
+		return out.getPlainText();
+	}
+
+	/**
+	 * Same as {@link #generateText(Document)}, with the given settings instead of those of this interface.
+	 */
+	public String generateText(SynthesisSpec s, Document doc) throws SynthesisException {
+		verifyInputTypeIsXML(s);
+		verifyOutputTypeIsText(s);
+		MaryData in = getMaryDataFromXML(s, doc);
+		MaryData out = process(s, in);
+		return out.getPlainText();
+	}
+
+	/**
+	 * Same as {@link #generateXML(String)}, with the given settings instead of those of this interface.
+	 */
+	public Document generateXML(SynthesisSpec s, String text) throws SynthesisException {
+		verifyInputTypeIsText(s);
+		verifyOutputTypeIsXML(s);
+		MaryData in = getMaryDataFromText(s, text);
+		MaryData out = process(s, in);
+		return out.getDocument();
+	}
+
+	/**
+	 * Same as {@link #generateXML(Document)}, with the given settings instead of those of this interface.
+	 */
+	public Document generateXML(SynthesisSpec s, Document doc) throws SynthesisException {
+		verifyInputTypeIsXML(s);
+		verifyOutputTypeIsXML(s);
+		MaryData in = getMaryDataFromXML(s, doc);
+		MaryData out = process(s, in);
+		return out.getDocument();
+	}
+
+	/**
+	 * Same as {@link #generateAudio(String)}, with the given settings instead of those of this interface.
+	 */
+	public AudioInputStream generateAudio(SynthesisSpec s, String text) throws SynthesisException {
+		verifyInputTypeIsText(s);
+		verifyOutputTypeIsAudio(s);
+		MaryData in = getMaryDataFromText(s, text);
+		MaryData out = process(s, in);
+		return out.getAudio();
+	}
+
+	/**
+	 * Same as {@link #generateAudio(Document)}, with the given settings instead of those of this interface.
+	 */
+	public AudioInputStream generateAudio(SynthesisSpec s, Document doc) throws SynthesisException {
+		verifyInputTypeIsXML(s);
+		verifyOutputTypeIsAudio(s);
+		MaryData in = getMaryDataFromXML(s, doc);
+		MaryData out = process(s, in);
 		return out.getAudio();
 	}
 
-	private void verifyOutputTypeIsXML() {
-		if (!outputType.isXMLType()) {
-			throw new IllegalArgumentException("Cannot provide XML output for non-XML-based output type "+outputType);
+	/**
+	 * Process the given texts to plain text, on several threads.
+	 * @param s the settings for all texts
+	 * @param texts
+	 * @param numThreads the number of texts to process in parallel; values less than 1 mean one per processor.
+	 * @return the results in the order of the texts
+	 * @throws IllegalArgumentException if the settings do not allow text input and text output
+	 */
+	public BatchSynthesis<String> generateText(final SynthesisSpec s, Iterator<String> texts, int numThreads) {
+		verifyInputTypeIsText(s);
+		verifyOutputTypeIsText(s);
+		return new BatchSynthesis<String>(texts, new BatchSynthesis.Generator<String>() {
+			public String generate(String text) throws SynthesisException {
+				return generateText(s, text);
+			}
+		}, numThreads);
+	}
+
+	/**
+	 * Process the given texts to XML, on several threads.
+	 * @param s the settings for all texts
+	 * @param texts
+	 * @param numThreads the number of texts to process in parallel; values less than 1 mean one per processor.
+	 * @return the results in the order of the texts
+	 * @throws IllegalArgumentException if the settings do not allow text input and XML output
+	 */
+	public BatchSynthesis<Document> generateXML(final SynthesisSpec s, Iterator<String> texts, int numThreads) {
+		verifyInputTypeIsText(s);
+		verifyOutputTypeIsXML(s);
+		return new BatchSynthesis<Document>(texts, new BatchSynthesis.Generator<Document>() {
+			public Document generate(String text) throws SynthesisException {
+				return generateXML(s, text);
+			}
+		}, numThreads);
+	}
+
+	/**
+	 * Synthesize the given texts on several threads.
+	 * @param s the settings for all texts
+	 * @param texts
+	 * @param numThreads the number of texts to process in parallel; values less than 1 mean one per processor.
+	 * @return the audio in the order of the texts
+	 * @throws IllegalArgumentException if the settings do not allow text input and audio output
+	 */
+	public BatchSynthesis<AudioInputStream> generateAudio(final SynthesisSpec s, Iterator<String> texts, int numThreads) {
+		verifyInputTypeIsText(s);
+		verifyOutputTypeIsAudio(s);
+		return new BatchSynthesis<AudioInputStream>(texts, new BatchSynthesis.Generator<AudioInputStream>() {
+			public AudioInputStream generate(String text) throws SynthesisException {
+				return generateAudio(s, text);
+			}
+		}, numThreads);
+	}
+
+	private void verifyOutputTypeIsXML(SynthesisSpec s) {
+		if (!s.getOutputDataType().isXMLType()) {
+			throw new IllegalArgumentException("Cannot provide XML output for non-XML-based output type "+s.getOutputType());
 		}
 	}
 
-	private void verifyInputTypeIsXML() {
-		if (!inputType.isXMLType()) {
-			throw new IllegalArgumentException("Cannot provide XML input for non-XML-based input type "+inputType);
+	private void verifyInputTypeIsXML(SynthesisSpec s) {
+		if (!s.getInputDataType().isXMLType()) {
+			throw new IllegalArgumentException("Cannot provide XML input for non-XML-based input type "+s.getInputType());
 		}
 	}
 	
-	private void verifyInputTypeIsText() {
-		if (inputType.isXMLType()) {
-			throw new IllegalArgumentException("Cannot provide plain-text input for XML-based input type "+inputType);
+	private void verifyInputTypeIsText(SynthesisSpec s) {
+		if (s.getInputDataType().isXMLType()) {
+			throw new IllegalArgumentException("Cannot provide plain-text input for XML-based input type "+s.getInputType());
 		}
 	}
 
-	private void verifyOutputTypeIsAudio() {
-		if (!outputType.equals(MaryDataType.AUDIO)) {
-			throw new IllegalArgumentException("Cannot provide audio output for non-audio output type "+outputType);
+	private void verifyOutputTypeIsAudio(SynthesisSpec s) {
+		if (!s.getOutputDataType().equals(MaryDataType.AUDIO)) {
+			throw new IllegalArgumentException("Cannot provide audio output for non-audio output type "+s.getOutputType());
 		}
 	}
 
-	private void verifyOutputTypeIsText() {
+	private void verifyOutputTypeIsText(SynthesisSpec s) {
+		MaryDataType outputType = s.getOutputDataType();
 		if (outputType.isXMLType() || !outputType.isTextType()) {
 			throw new IllegalArgumentException("Cannot provide text output for non-text output type "+outputType);
 		}
 	}
 
-	private MaryData getMaryDataFromText(String text) throws SynthesisException {
-		MaryData in = new MaryData(inputType, locale);
+	private MaryData getMaryDataFromText(SynthesisSpec s, String text) throws SynthesisException {
+		MaryData in = new MaryData(s.getInputDataType(), s.getLocale());
 		try {
 			in.setData(text);
 		} catch (Exception ioe) {
@@ -359,8 +429,8 @@ public class LocalMaryInterface implements MaryInterface {
 		return in;
 	}
 	
-	private MaryData getMaryDataFromXML(Document doc) throws SynthesisException {
-		MaryData in = new MaryData(inputType, locale);
+	private MaryData getMaryDataFromXML(SynthesisSpec s, Document doc) throws SynthesisException {
+		MaryData in = new MaryData(s.getInputDataType(), s.getLocale());
 		try {
 			in.setDocument(doc);
 		} catch (Exception ioe) {
@@ -369,8 +439,9 @@ public class LocalMaryInterface implements MaryInterface {
 		return in;
 	}
 
-	private MaryData process(MaryData in) throws SynthesisException {		
-		Request r = new Request(inputType, outputType, locale, voice, effects, style, 1, audioFileFormat, isStreaming, outputTypeParams);
+	private MaryData process(SynthesisSpec s, MaryData in) throws SynthesisException {		
+		Request r = new Request(s.getInputDataType(), s.getOutputDataType(), s.getLocale(), s.getVoiceObject(),
+				s.getAudioEffects(), s.getStyle(), 1, s.getAudioFileFormat(), s.isStreamingAudio(), s.getOutputTypeParams());
 		r.setInputData(in);
 		try {
 			r.process();
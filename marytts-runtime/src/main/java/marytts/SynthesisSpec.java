@@ -0,0 +1,234 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts;
+
+import java.util.Locale;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+
+import marytts.config.MaryConfig;
+import marytts.datatypes.MaryDataType;
+import marytts.modules.synthesis.Voice;
+
+/**
+ * The settings of a request to a {@link LocalMaryInterface}: input and output type,
+ * locale, voice, audio effects etc. A SynthesisSpec is immutable; the <code>with...()</code>
+ * methods return a modified copy and check the new values just like the corresponding
+ * setters of {@link MaryInterface}. This means that one spec can be shared by any number
+ * of threads, for example:
+ * <pre>
+ * LocalMaryInterface mary = new LocalMaryInterface();
+ * SynthesisSpec spec = mary.getSpec().withVoice("cmu-slt-hsmm").withAudioEffects("Robot(amount=50)");
+ * AudioInputStream audio = mary.generateAudio(spec, "Hello world");
+ * </pre>
+ *
+ * @author marc
+ *
+ */
+public final class SynthesisSpec {
+
+	private final MaryDataType inputType;
+	private final MaryDataType outputType;
+	private final Locale locale;
+	private final Voice voice;
+	private final AudioFileFormat audioFileFormat;
+	private final String effects;
+	private final String style;
+	private final String outputTypeParams;
+	private final boolean isStreaming;
+
+	/**
+	 * The default settings: text to audio, in US English with the default voice for that locale.
+	 * The MARY server must have been started, e.g. by creating a {@link LocalMaryInterface}.
+	 */
+	public SynthesisSpec() {
+		this(MaryDataType.TEXT, MaryDataType.AUDIO, Locale.US, Voice.getDefaultVoice(Locale.US),
+				null, null, null, false);
+	}
+
+	private SynthesisSpec(MaryDataType inputType, MaryDataType outputType, Locale locale, Voice voice,
+			String effects, String style, String outputTypeParams, boolean isStreaming) {
+		this(inputType, outputType, locale, voice, audioFileFormatFor(voice), effects, style, outputTypeParams, isStreaming);
+	}
+
+	private SynthesisSpec(MaryDataType inputType, MaryDataType outputType, Locale locale, Voice voice, AudioFileFormat audioFileFormat,
+			String effects, String style, String outputTypeParams, boolean isStreaming) {
+		this.inputType = inputType;
+		this.outputType = outputType;
+		this.locale = locale;
+		this.voice = voice;
+		this.audioFileFormat = audioFileFormat;
+		this.effects = effects;
+		this.style = style;
+		this.outputTypeParams = outputTypeParams;
+		this.isStreaming = isStreaming;
+	}
+
+	private static AudioFileFormat audioFileFormatFor(Voice voice) {
+		if (voice == null) {
+			return null;
+		}
+		AudioFormat af = voice.dbAudioFormat();
+		return new AudioFileFormat(AudioFileFormat.Type.WAVE, af, AudioSystem.NOT_SPECIFIED);
+	}
+
+	/**
+	 * @see MaryInterface#setInputType(String)
+	 */
+	public SynthesisSpec withInputType(String newInputType) throws IllegalArgumentException {
+		MaryDataType type = MaryDataType.get(newInputType);
+		if (type == null) {
+			throw new IllegalArgumentException("No such type: "+newInputType);
+		} else if (!type.isInputType()) {
+			throw new IllegalArgumentException("Not an input type: "+newInputType);
+		}
+		return new SynthesisSpec(type, outputType, locale, voice, audioFileFormat, effects, style, outputTypeParams, isStreaming);
+	}
+
+	/**
+	 * @see MaryInterface#setOutputType(String)
+	 */
+	public SynthesisSpec withOutputType(String newOutputType) throws IllegalArgumentException {
+		MaryDataType type = MaryDataType.get(newOutputType);
+		if (type == null) {
+			throw new IllegalArgumentException("No such type: "+newOutputType);
+		} else if (!type.isOutputType()) {
+			throw new IllegalArgumentException("Not an output type: "+newOutputType);
+		}
+		return new SynthesisSpec(inputType, type, locale, voice, audioFileFormat, effects, style, outputTypeParams, isStreaming);
+	}
+
+	/**
+	 * Set the locale and the default voice for it.
+	 * @see MaryInterface#setLocale(Locale)
+	 */
+	public SynthesisSpec withLocale(Locale newLocale) throws IllegalArgumentException {
+		if (MaryConfig.getLanguageConfig(newLocale) == null) {
+			throw new IllegalArgumentException("Unsupported locale: "+newLocale);
+		}
+		return new SynthesisSpec(inputType, outputType, newLocale, Voice.getDefaultVoice(newLocale),
+				effects, style, outputTypeParams, isStreaming);
+	}
+
+	/**
+	 * Set the voice and its locale.
+	 * @see MaryInterface#setVoice(String)
+	 */
+	public SynthesisSpec withVoice(String voiceName) throws IllegalArgumentException {
+		Voice v = Voice.getVoice(voiceName);
+		if (v == null) {
+			throw new IllegalArgumentException("No such voice: "+voiceName);
+		}
+		return new SynthesisSpec(inputType, outputType, v.getLocale(), v, audioFileFormat, effects, style, outputTypeParams, isStreaming);
+	}
+
+	/**
+	 * @see MaryInterface#setAudioEffects(String)
+	 */
+	public SynthesisSpec withAudioEffects(String audioEffects) {
+		return new SynthesisSpec(inputType, outputType, locale, voice, audioFileFormat, audioEffects, style, outputTypeParams, isStreaming);
+	}
+
+	/**
+	 * @see MaryInterface#setStyle(String)
+	 */
+	public SynthesisSpec withStyle(String newStyle) {
+		return new SynthesisSpec(inputType, outputType, locale, voice, audioFileFormat, effects, newStyle, outputTypeParams, isStreaming);
+	}
+
+	/**
+	 * @see MaryInterface#setOutputTypeParams(String)
+	 */
+	public SynthesisSpec withOutputTypeParams(String params) {
+		return new SynthesisSpec(inputType, outputType, locale, voice, audioFileFormat, effects, style, params, isStreaming);
+	}
+
+	/**
+	 * @see MaryInterface#setStreamingAudio(boolean)
+	 */
+	public SynthesisSpec withStreamingAudio(boolean newIsStreaming) {
+		return new SynthesisSpec(inputType, outputType, locale, voice, audioFileFormat, effects, style, outputTypeParams, newIsStreaming);
+	}
+
+	public String getInputType() {
+		return inputType.name();
+	}
+
+	public String getOutputType() {
+		return outputType.name();
+	}
+
+	public Locale getLocale() {
+		return locale;
+	}
+
+	/**
+	 * @return the name of the voice, or null if there is no voice for the locale.
+	 */
+	public String getVoice() {
+		if (voice == null) {
+			return null;
+		}
+		return voice.getName();
+	}
+
+	public String getAudioEffects() {
+		return effects;
+	}
+
+	public String getStyle() {
+		return style;
+	}
+
+	public String getOutputTypeParams() {
+		return outputTypeParams;
+	}
+
+	public boolean isStreamingAudio() {
+		return isStreaming;
+	}
+
+	MaryDataType getInputDataType() {
+		return inputType;
+	}
+
+	MaryDataType getOutputDataType() {
+		return outputType;
+	}
+
+	Voice getVoiceObject() {
+		return voice;
+	}
+
+	AudioFileFormat getAudioFileFormat() {
+		return audioFileFormat;
+	}
+
+	@Override
+	public String toString() {
+		return inputType.name()+" -> "+outputType.name()+", "+locale+", voice "+getVoice()
+			+ (effects != null ? ", effects "+effects : "")
+			+ (style != null ? ", style "+style : "")
+			+ (outputTypeParams != null ? ", output type params "+outputTypeParams : "")
+			+ (isStreaming ? ", streaming" : "");
+	}
+}
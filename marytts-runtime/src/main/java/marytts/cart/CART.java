@@ -46,6 +46,8 @@ import marytts.unitselection.select.Target;
  */
 public class CART extends DirectedGraph
 {
+    /** the tree compiled for fast interpretation; rebuilt when the tree changes */
+    private volatile CompiledCART compiled;
 
     /**
      * Build a new empty cart
@@ -115,6 +117,21 @@ public class CART extends DirectedGraph
      * @return the Node
      */
     public Node interpretToNode(FeatureVector featureVector, int minNumberOfData) {
+        CompiledCART c = getCompiled();
+        Node currentNode = c != null ? c.interpretToNode(featureVector, minNumberOfData)
+                : walkToNode(featureVector, minNumberOfData);
+
+        assert currentNode.getNumberOfData() >= minNumberOfData
+            || currentNode == rootNode; 
+        
+        return currentNode;
+    }
+
+    /**
+     * Same as {@link #interpretToNode(FeatureVector, int)}, but following the nodes
+     * instead of the compiled tree.
+     */
+    Node walkToNode(FeatureVector featureVector, int minNumberOfData) {
         Node currentNode = rootNode;
         Node prevNode = null;
 
@@ -135,12 +152,38 @@ public class CART extends DirectedGraph
                    && prevNode != null) {
             currentNode = prevNode;
         }
-
-        assert currentNode.getNumberOfData() >= minNumberOfData
-            || currentNode == rootNode; 
-        
         return currentNode;
-        
+    }
+
+    /**
+     * Walk down the tree to the leaf for the given feature vector, and return its data.
+     * @param fv
+     * @return the leaf's data, or null if there is no leaf for fv.
+     */
+    @Override
+    public Object interpret(FeatureVector fv)
+    {
+        CompiledCART c = getCompiled();
+        if (c == null) {
+            return super.interpret(fv);
+        }
+        Node leaf = c.interpretToLeaf(fv);
+        return leaf != null ? leaf.getAllData() : null;
+    }
+
+    /**
+     * Get the compiled form of this tree, compiling it if the tree has changed since it was last compiled.
+     * @return the compiled tree, or null if this tree cannot be compiled.
+     */
+    CompiledCART getCompiled() {
+        CompiledCART c = compiled;
+        int version = rootNode != null ? rootNode.getStructureVersion() : 0;
+        if (c == null || c.rootNode != rootNode || c.version != version) {
+            // concurrent callers may compile at the same time; any of the results will do
+            c = CompiledCART.compile(rootNode, version);
+            compiled = c;
+        }
+        return c.isCompiled() ? c : null;
     }
 
     /**
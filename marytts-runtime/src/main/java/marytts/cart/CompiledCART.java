@@ -0,0 +1,276 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.cart;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import marytts.cart.DecisionNode.BinaryByteDecisionNode;
+import marytts.cart.DecisionNode.BinaryFloatDecisionNode;
+import marytts.cart.DecisionNode.BinaryShortDecisionNode;
+import marytts.cart.DecisionNode.ByteDecisionNode;
+import marytts.cart.DecisionNode.ShortDecisionNode;
+import marytts.features.FeatureVector;
+
+/**
+ * A CART compiled into a single int array, which is walked down without
+ * virtual calls on the decision nodes. Each decision node is a record of
+ * {@link #CHILDREN} ints, holding the kind of decision and the feature index,
+ * the criterion value, the number of data below the node and the node's number,
+ * followed by the codes of its daughters. The records are laid out breadth-first,
+ * so that the top levels of the tree, which are visited most often, are close together.
+ * A child code <code>&gt;= 0</code> is the offset of a decision node record,
+ * {@link #NO_NODE} is a missing daughter, and any other negative code
+ * <code>c</code> is leaf number <code>-c-1</code>.
+ * <p>
+ * A compiled CART is a snapshot: {@link CART} recompiles it when
+ * the tree has been modified since.
+ *
+ * @author marc
+ *
+ */
+final class CompiledCART
+{
+    private static final int BINARY_BYTE = 0;
+    private static final int BINARY_SHORT = 1;
+    private static final int BINARY_FLOAT = 2;
+    private static final int BINARY_BYTE_AS_FLOAT = 3;
+    private static final int BYTE = 4;
+    private static final int SHORT = 5;
+    private static final int KIND_BITS = 3;
+    private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+    // the fields of a decision node record:
+    private static final int KIND_AND_FEATURE = 0;
+    private static final int VALUE = 1; // the number of daughters for multi-way decisions
+    private static final int NUM_DATA = 2;
+    private static final int NODE_NUMBER = 3;
+    private static final int CHILDREN = 4;
+
+    private static final int NO_NODE = Integer.MIN_VALUE;
+
+    /** the root node and tree version this was compiled from */
+    final Node rootNode;
+    final int version;
+
+    private final int root;
+    private final int[] tree;
+    private final Node[] decisionNodes;
+    private final Node[] leaves;
+
+    private CompiledCART(Node rootNode, int version, int root, int[] tree, Node[] decisionNodes, Node[] leaves)
+    {
+        this.rootNode = rootNode;
+        this.version = version;
+        this.root = root;
+        this.tree = tree;
+        this.decisionNodes = decisionNodes;
+        this.leaves = leaves;
+    }
+
+    /**
+     * Compile the tree below the given root node.
+     * @param rootNode
+     * @param version the tree version at the time of compiling
+     * @return the compiled tree; if the tree contains nodes that cannot be compiled,
+     * such as directed graph nodes or unknown decision node types, a placeholder
+     * for which {@link #isCompiled()} is false.
+     */
+    static CompiledCART compile(Node rootNode, int version)
+    {
+        Compiler c = new Compiler();
+        int root = c.code(rootNode);
+        // number the nodes breadth-first:
+        for (int i=0; i<c.decisions.size() && c.compilable; i++) {
+            for (Node daughter : c.decisions.get(i).daughters) {
+                c.code(daughter);
+            }
+        }
+        if (!c.compilable) {
+            return new CompiledCART(rootNode, version, NO_NODE, null, null, null);
+        }
+        int[] tree = new int[c.size];
+        for (int i=0; i<c.decisions.size(); i++) {
+            DecisionNode d = c.decisions.get(i);
+            int offset = c.codes.get(d);
+            int kind;
+            int value;
+            Class<?> nodeClass = d.getClass();
+            if (nodeClass == BinaryByteDecisionNode.class) {
+                kind = BINARY_BYTE;
+                value = ((BinaryByteDecisionNode) d).getCriterionValueAsByte();
+            } else if (nodeClass == BinaryShortDecisionNode.class) {
+                kind = BINARY_SHORT;
+                value = ((BinaryShortDecisionNode) d).getCriterionValueAsShort();
+            } else if (nodeClass == BinaryFloatDecisionNode.class) {
+                kind = d.featureDefinition.isByteFeature(d.featureIndex) ? BINARY_BYTE_AS_FLOAT : BINARY_FLOAT;
+                value = Float.floatToRawIntBits(((BinaryFloatDecisionNode) d).getCriterionValueAsFloat());
+            } else {
+                kind = nodeClass == ByteDecisionNode.class ? BYTE : SHORT;
+                value = d.daughters.length;
+            }
+            tree[offset + KIND_AND_FEATURE] = d.featureIndex << KIND_BITS | kind;
+            tree[offset + VALUE] = value;
+            tree[offset + NUM_DATA] = d.nData;
+            tree[offset + NODE_NUMBER] = i;
+            for (int k=0; k<d.daughters.length; k++) {
+                tree[offset + CHILDREN + k] = c.code(d.daughters[k]);
+            }
+        }
+        return new CompiledCART(rootNode, version, root, tree,
+                c.decisions.toArray(new Node[c.decisions.size()]), c.leaves.toArray(new Node[c.leaves.size()]));
+    }
+
+    /**
+     * Assigns codes to the nodes of a tree.
+     */
+    private static final class Compiler
+    {
+        final List<DecisionNode> decisions = new ArrayList<DecisionNode>();
+        final List<Node> leaves = new ArrayList<Node>();
+        final IdentityHashMap<Node, Integer> codes = new IdentityHashMap<Node, Integer>();
+        int size = 0;
+        boolean compilable = true;
+
+        int code(Node node)
+        {
+            if (node == null) return NO_NODE;
+            Integer code = codes.get(node);
+            if (code != null) return code;
+            if (node instanceof LeafNode) {
+                leaves.add(node);
+                code = -leaves.size();
+            } else if (isSupported(node)) {
+                DecisionNode d = (DecisionNode) node;
+                code = size;
+                size += CHILDREN + d.daughters.length;
+                decisions.add(d);
+            } else {
+                compilable = false;
+                return NO_NODE;
+            }
+            codes.put(node, code);
+            return code;
+        }
+
+        private static boolean isSupported(Node node)
+        {
+            Class<?> c = node.getClass();
+            return c == BinaryByteDecisionNode.class || c == BinaryShortDecisionNode.class
+                || c == BinaryFloatDecisionNode.class || c == ByteDecisionNode.class
+                || c == ShortDecisionNode.class;
+        }
+    }
+
+    /**
+     * Get the code of the daughter of the decision node at offset d selected by the given features.
+     */
+    private int next(int d, byte[] bytes, short[] shorts, float[] floats)
+    {
+        int f = tree[d + KIND_AND_FEATURE];
+        int kind = f & KIND_MASK;
+        f >>>= KIND_BITS;
+        switch (kind) {
+        case BINARY_BYTE:
+            return tree[d + CHILDREN + (bytes[f] == tree[d + VALUE] ? 0 : 1)];
+        case BINARY_SHORT:
+            return tree[d + CHILDREN + (shorts[f - bytes.length] == tree[d + VALUE] ? 0 : 1)];
+        case BINARY_FLOAT:
+            return tree[d + CHILDREN + (floats[f - bytes.length - shorts.length] < Float.intBitsToFloat(tree[d + VALUE]) ? 0 : 1)];
+        case BINARY_BYTE_AS_FLOAT:
+            return tree[d + CHILDREN + ((float) bytes[f] < Float.intBitsToFloat(tree[d + VALUE]) ? 0 : 1)];
+        case BYTE:
+            return child(d, bytes[f]);
+        default:
+            return child(d, shorts[f - bytes.length]);
+        }
+    }
+
+    private int child(int d, int index)
+    {
+        if (index < 0 || index >= tree[d + VALUE]) {
+            // like the decision node itself
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return tree[d + CHILDREN + index];
+    }
+
+    private Node node(int code)
+    {
+        if (code >= 0) return decisionNodes[tree[code + NODE_NUMBER]];
+        if (code == NO_NODE) return null;
+        return leaves[-code - 1];
+    }
+
+    private int getNumberOfData(int code)
+    {
+        return code >= 0 ? tree[code + NUM_DATA] : leaves[-code - 1].getNumberOfData();
+    }
+
+    /**
+     * Same as {@link CART#interpretToNode(FeatureVector, int)}.
+     */
+    Node interpretToNode(FeatureVector featureVector, int minNumberOfData)
+    {
+        byte[] bytes = featureVector.getByteValuedDiscreteFeatures();
+        short[] shorts = featureVector.getShortValuedDiscreteFeatures();
+        float[] floats = featureVector.getContinuousFeatures();
+        int current = root;
+        int prev = NO_NODE;
+        while (current >= 0 && tree[current + NUM_DATA] > minNumberOfData) {
+            prev = current;
+            current = next(current, bytes, shorts, floats);
+        }
+        if (current == NO_NODE
+                || getNumberOfData(current) < minNumberOfData
+                   && prev != NO_NODE) {
+            current = prev;
+        }
+        return node(current);
+    }
+
+    /**
+     * Walk down to the leaf selected by the given feature vector.
+     * @param featureVector
+     * @return the leaf, or null if the walk ends at a missing daughter.
+     */
+    Node interpretToLeaf(FeatureVector featureVector)
+    {
+        byte[] bytes = featureVector.getByteValuedDiscreteFeatures();
+        short[] shorts = featureVector.getShortValuedDiscreteFeatures();
+        float[] floats = featureVector.getContinuousFeatures();
+        int current = root;
+        while (current >= 0) {
+            current = next(current, bytes, shorts, floats);
+        }
+        return node(current);
+    }
+
+    boolean isCompiled()
+    {
+        return tree != null;
+    }
+
+    int getNumberOfDecisionNodes()
+    {
+        return decisionNodes.length;
+    }
+}
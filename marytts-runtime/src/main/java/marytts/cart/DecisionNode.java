@@ -139,6 +139,7 @@ public abstract class DecisionNode extends Node
                     + daughters.length + " daughters!");
         }
         daughters[lastDaughter] = daughter;
+        structureChanged();
         if (daughter != null) {
             daughter.setMother(this, lastDaughter);
         }
@@ -174,6 +175,7 @@ public abstract class DecisionNode extends Node
                     + (daughters.length - 1) + "!");
         }
         daughters[index] = newDaughter;
+        structureChanged();
         newDaughter.setMother(this, index);
     }
 
@@ -253,6 +255,7 @@ public abstract class DecisionNode extends Node
      */
     //protected void countData() {
     public void countData() {
+        structureChanged();
         nData = 0;
         for (int i = 0; i < daughters.length; i++) {
             if (daughters[i] instanceof DecisionNode)
@@ -360,6 +363,7 @@ public abstract class DecisionNode extends Node
             this.feature = feature;
             this.featureIndex = featureDefinition.getFeatureIndex(feature);
             this.value = featureDefinition.getFeatureValueAsByte(feature, value);
+            structureChanged();
         }
         
         public byte getCriterionValueAsByte()
@@ -527,6 +527,22 @@ public abstract class LeafNode extends Node {
           
         }
              
+        /**
+         * @param idx, a unique index number
+         * @param mean, the mean vector
+         * @param variance, the diagonal covariance, of the same length as mean
+         * @param voicedWeight, the voiced weight (only for lf0 trees)
+         */
+        public PdfLeafNode(int idx, double[] mean, double[] variance, double voicedWeight)
+        {
+          super();
+          this.setUniqueLeafId(idx);
+          this.vectorSize = mean.length;
+          this.mean = mean;
+          this.variance = variance;
+          this.voicedWeight = voicedWeight;
+        }
+             
         public int getDataLength() {return mean.length; }
         public double[] getMean() { return mean; }
         public double[] getVariance() { return variance; }
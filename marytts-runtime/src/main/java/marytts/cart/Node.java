@@ -46,6 +46,10 @@ public abstract class Node
     // the index of the node in the daughters array of its mother
     protected int nodeIndex;
 
+    // changed whenever a decision node in the tree below this node is modified;
+    // only maintained for root nodes, see structureChanged()
+    private volatile int structureVersion;
+
  
     /**
      * set the mother node of this node, and remember this node's index in mother.
@@ -113,6 +117,29 @@ public abstract class Node
 
     
     
+    /**
+     * Record that the tree containing this node has been modified, by changing the
+     * structure version of its topmost node, so that a {@link CART} with that root
+     * can tell when its compiled form must be rebuilt.
+     */
+    protected void structureChanged()
+    {
+        Node top = this;
+        while (top.getMother() != null) {
+            top = top.getMother();
+        }
+        top.structureVersion++;
+    }
+
+    /**
+     * The structure version of the tree below this node; only meaningful for root nodes.
+     * @return a number that changes whenever a decision node in the tree is modified.
+     */
+    int getStructureVersion()
+    {
+        return structureVersion;
+    }
+
     public Node getRootNode()
     {
         if (isRoot) {
@@ -149,47 +149,6 @@ public class StringPredictionTree extends CART {
 		return sb.toString();
 	}
 
-    /**
-     * TODO: copied from CART, does not work as expected with minNumberOfData = 0
-     * 
-     * Passes the given item through this CART and returns the
-     * leaf Node, or the Node it stopped walking down.
-     *
-     * @param target the target to analyze
-     * @param minNumberOfData the minimum number of data requested.
-     * If this is 0, walk down the CART until the leaf level.
-     *
-     * @return the Node
-     */
-    public Node interpretToNode(FeatureVector featureVector, int minNumberOfData) {
-        Node currentNode = rootNode;
-        Node prevNode = null;
-
-        // logger.debug("Starting cart at "+nodeIndex);
-        while (currentNode.getNumberOfData() > minNumberOfData
-                && !(currentNode instanceof LeafNode)) {
-            // while we have not reached the bottom,
-            // get the next node based on the features of the target
-            prevNode = currentNode;
-            currentNode = ((DecisionNode) currentNode)
-                    .getNextNode(featureVector);
-            // logger.debug(decision.toString() + " result '"+
-            // decision.findFeature(item) + "' => "+ nodeIndex);
-        }
-               
-        // Now usually we will have gone down one level too far
-        if (currentNode.getNumberOfData() < minNumberOfData
-                && prevNode != null) {
-            currentNode = prevNode;
-        }
-
-        assert currentNode.getNumberOfData() >= minNumberOfData
-            || currentNode == rootNode; 
-        
-        return currentNode;
-        
-    }
-    
     public String getMostProbableString(FeatureVector aFV){
 
         
@@ -28,6 +28,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.StringTokenizer;
 
+import marytts.cart.CART;
 import marytts.cart.DecisionNode;
 import marytts.cart.LeafNode;
 import marytts.cart.Node;
@@ -526,24 +527,13 @@ public class WagonCARTReader {
     public void fillLeafs(Node root, FeatureVector[] featureVectors){
       if(leafType == LeafNode.LeafType.FeatureVectorLeafNode) {
         rootNode = root;  
-        Node currentNode = rootNode;
-        Node prevNode = null;
+        // walk down to the leaf level (minNumberOfData -1), using the compiled tree:
+        CART tree = new CART(rootNode, featDef);
         
         //loop trough the feature vectors
         for (int i=0;i<featureVectors.length;i++){
-            currentNode = rootNode;
-            prevNode = null;
             FeatureVector featureVector = featureVectors[i];
-            // logger.debug("Starting cart at "+nodeIndex);
-            while (!(currentNode instanceof LeafNode)) {
-                // while we have not reached the bottom,
-                // get the next node based on the features of the target
-                prevNode = currentNode;
-                currentNode = ((DecisionNode) currentNode)
-                .getNextNode(featureVector);
-                // logger.debug(decision.toString() + " result '"+
-                // decision.findFeature(item) + "' => "+ nodeIndex);
-            }
+            Node currentNode = tree.interpretToNode(featureVector, -1);
             //add the feature vector to the leaf node
            ((LeafNode.FeatureVectorLeafNode)currentNode).addFeatureVector(featureVector); 
         }
@@ -99,12 +99,9 @@ public class MaryGenericFeatureProcessors
         {
             Element segment = target.getMaryxmlElement();
             if (segment == null) return null;
-            Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
-            if (sentence == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.PHONE, MaryXML.BOUNDARY);
-            tw.setCurrentNode(segment);
-            Element previous = (Element) tw.previousNode();
-            return previous;
+            SentenceIndex index = SentenceIndex.forElement(segment);
+            if (index == null) return null;
+            return index.getPrevious(segment, SentenceIndex.SEGMENT, 1);
         }
     }
 
@@ -119,13 +116,9 @@ public class MaryGenericFeatureProcessors
         {
             Element segment = target.getMaryxmlElement();
             if (segment == null) return null;
-            Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
-            if (sentence == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.PHONE, MaryXML.BOUNDARY);
-            tw.setCurrentNode(segment);
-            Element previous = (Element) tw.previousNode();
-            Element pp = (Element) tw.previousNode();
-            return pp;
+            SentenceIndex index = SentenceIndex.forElement(segment);
+            if (index == null) return null;
+            return index.getPrevious(segment, SentenceIndex.SEGMENT, 2);
         }
     }
 
@@ -140,12 +133,9 @@ public class MaryGenericFeatureProcessors
         {
             Element segment = target.getMaryxmlElement();
             if (segment == null) return null;
-            Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
-            if (sentence == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.PHONE, MaryXML.BOUNDARY);
-            tw.setCurrentNode(segment);
-            Element next = (Element) tw.nextNode();
-            return next;
+            SentenceIndex index = SentenceIndex.forElement(segment);
+            if (index == null) return null;
+            return index.getNext(segment, SentenceIndex.SEGMENT, 1);
         }
     }
 
@@ -160,13 +150,9 @@ public class MaryGenericFeatureProcessors
         {
             Element segment = target.getMaryxmlElement();
             if (segment == null) return null;
-            Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
-            if (sentence == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.PHONE, MaryXML.BOUNDARY);
-            tw.setCurrentNode(segment);
-            Element next = (Element) tw.nextNode();
-            Element nn = (Element) tw.nextNode();
-            return nn;
+            SentenceIndex index = SentenceIndex.forElement(segment);
+            if (index == null) return null;
+            return index.getNext(segment, SentenceIndex.SEGMENT, 2);
         }
     }
 
@@ -182,8 +168,8 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return null;
             Element word = (Element) MaryDomUtils.getAncestor(segment, MaryXML.TOKEN);
             if (word == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(word, MaryXML.PHONE);
-            Element first = (Element) tw.firstChild();
+            SentenceIndex index = SentenceIndex.forElement(word);
+            Element first = index != null ? index.getFirst(word, SentenceIndex.PHONE) : null;
             if (first != null) {
                 assert first.getTagName().equals(MaryXML.PHONE) : "Unexpected tag name: expected "+MaryXML.PHONE+", got "+first.getTagName();
             }
@@ -203,8 +189,8 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return null;
             Element word = (Element) MaryDomUtils.getAncestor(segment, MaryXML.TOKEN);
             if (word == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(word, MaryXML.PHONE);
-            Element last = (Element) tw.lastChild();
+            SentenceIndex index = SentenceIndex.forElement(word);
+            Element last = index != null ? index.getLast(word, SentenceIndex.PHONE) : null;
             if (last != null) {
                 assert last.getTagName().equals(MaryXML.PHONE) : "Unexpected tag name: expected "+MaryXML.PHONE+", got "+last.getTagName();
             }
@@ -224,8 +210,8 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return null;
             Element word = (Element) MaryDomUtils.getAncestor(segment, MaryXML.TOKEN);
             if (word == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(word, MaryXML.SYLLABLE);
-            Element first = (Element) tw.firstChild();
+            SentenceIndex index = SentenceIndex.forElement(word);
+            Element first = index != null ? index.getFirst(word, SentenceIndex.SYLLABLE) : null;
             if (first != null) {
                 assert first.getTagName().equals(MaryXML.SYLLABLE) : "Unexpected tag name: expected "+MaryXML.SYLLABLE+", got "+first.getTagName();
             }
@@ -245,8 +231,8 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return null;
             Element word = (Element) MaryDomUtils.getAncestor(segment, MaryXML.TOKEN);
             if (word == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(word, MaryXML.SYLLABLE);
-            Element last = (Element) tw.lastChild();
+            SentenceIndex index = SentenceIndex.forElement(word);
+            Element last = index != null ? index.getLast(word, SentenceIndex.SYLLABLE) : null;
             if (last != null) {
                 assert last.getTagName().equals(MaryXML.SYLLABLE) : "Unexpected tag name: expected "+MaryXML.SYLLABLE+", got "+last.getTagName();
             }
@@ -293,11 +279,9 @@ public class MaryGenericFeatureProcessors
             } else { // boundary
                 current = segment;
             }
-            Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
-            if (sentence == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.SYLLABLE);
-            tw.setCurrentNode(current);
-            Element previous = (Element) tw.previousNode();
+            SentenceIndex index = SentenceIndex.forElement(segment);
+            if (index == null) return null;
+            Element previous = index.getPrevious(current, SentenceIndex.SYLLABLE, 1);
             if (previous != null) {
                 assert previous.getTagName().equals(MaryXML.SYLLABLE) : "Unexpected tag name: expected "+MaryXML.SYLLABLE+", got "+previous.getTagName();
             }
@@ -324,12 +308,9 @@ public class MaryGenericFeatureProcessors
             } else { // boundary
                 current = segment;
             }
-            Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
-            if (sentence == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.SYLLABLE);
-            tw.setCurrentNode(current);
-            Element previous = (Element) tw.previousNode();
-            Element pp = (Element) tw.previousNode();
+            SentenceIndex index = SentenceIndex.forElement(segment);
+            if (index == null) return null;
+            Element pp = index.getPrevious(current, SentenceIndex.SYLLABLE, 2);
             if (pp != null) {
                 assert pp.getTagName().equals(MaryXML.SYLLABLE) : "Unexpected tag name: expected "+MaryXML.SYLLABLE+", got "+pp.getTagName();
             }
@@ -356,11 +337,9 @@ public class MaryGenericFeatureProcessors
             } else { // boundary
                 current = segment;
             }
-            Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
-            if (sentence == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.SYLLABLE);
-            tw.setCurrentNode(current);
-            Element next = (Element) tw.nextNode();
+            SentenceIndex index = SentenceIndex.forElement(segment);
+            if (index == null) return null;
+            Element next = index.getNext(current, SentenceIndex.SYLLABLE, 1);
             if (next != null) {
                 assert next.getTagName().equals(MaryXML.SYLLABLE) : "Unexpected tag name: expected "+MaryXML.SYLLABLE+", got "+next.getTagName();
             }
@@ -387,12 +366,9 @@ public class MaryGenericFeatureProcessors
             } else { // boundary
                 current = segment;
             }
-            Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
-            if (sentence == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.SYLLABLE);
-            tw.setCurrentNode(current);
-            Element next = (Element) tw.nextNode();
-            Element nn = (Element) tw.nextNode();
+            SentenceIndex index = SentenceIndex.forElement(segment);
+            if (index == null) return null;
+            Element nn = index.getNext(current, SentenceIndex.SYLLABLE, 2);
             if (nn != null) {
                 assert nn.getTagName().equals(MaryXML.SYLLABLE) : "Unexpected tag name: expected "+MaryXML.SYLLABLE+", got "+nn.getTagName();
             }
@@ -429,8 +405,8 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return null;
             Element phrase = (Element) MaryDomUtils.getAncestor(segment, MaryXML.PHRASE);
             if (phrase == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(phrase, MaryXML.SYLLABLE);
-            Element last = (Element) tw.lastChild();
+            SentenceIndex index = SentenceIndex.forElement(phrase);
+            Element last = index != null ? index.getLast(phrase, SentenceIndex.SYLLABLE) : null;
             if (last != null) {
                 assert last.getTagName().equals(MaryXML.SYLLABLE) : "Unexpected tag name: expected "+MaryXML.SYLLABLE+", got "+last.getTagName();
             }
@@ -453,19 +429,10 @@ public class MaryGenericFeatureProcessors
             } else { // boundary
                 current = segment;
             }
-            Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
-            if (sentence == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.TOKEN);
-            tw.setCurrentNode(current);
+            SentenceIndex index = SentenceIndex.forElement(segment);
+            if (index == null) return null;
             // The next word is the next token with a "ph" attribute:
-            Element nextWord = null;
-            Element nextToken;
-            while ((nextToken = (Element)tw.nextNode()) != null) {
-                if (nextToken.hasAttribute("ph")) {
-                    nextWord = nextToken;
-                    break;
-                }
-            }
+            Element nextWord = index.getNext(current, SentenceIndex.WORD, 1);
             if (nextWord != null) {
                 assert nextWord.getTagName().equals(MaryXML.TOKEN) : "Unexpected tag name: expected "+MaryXML.TOKEN+", got "+nextWord.getTagName();
             }
@@ -487,19 +454,10 @@ public class MaryGenericFeatureProcessors
             } else { // boundary
                 current = segment;
             }
-            Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
-            if (sentence == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.TOKEN);
-            tw.setCurrentNode(current);
-            // The next word is the next token with a "ph" attribute:
-            Element prevWord = null;
-            Element prevToken;
-            while ((prevToken = (Element)tw.previousNode()) != null) {
-                if (prevToken.hasAttribute("ph")) {
-                    prevWord = prevToken;
-                    break;
-                }
-            }
+            SentenceIndex index = SentenceIndex.forElement(segment);
+            if (index == null) return null;
+            // The previous word is the previous token with a "ph" attribute:
+            Element prevWord = index.getPrevious(current, SentenceIndex.WORD, 1);
             if (prevWord != null) {
                 assert prevWord.getTagName().equals(MaryXML.TOKEN) : "Unexpected tag name: expected "+MaryXML.TOKEN+", got "+prevWord.getTagName();
             }
@@ -522,25 +480,15 @@ public class MaryGenericFeatureProcessors
             } else { // boundary
                 current = segment;
             }
-            Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
-            if (sentence == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.TOKEN);
-            tw.setCurrentNode(current);
+            SentenceIndex index = SentenceIndex.forElement(segment);
+            if (index == null) return null;
             // The next word is the next token with a "ph" attribute:
-            Element nextWord = null;
-            Element nextToken;
-            while ((nextToken = (Element)tw.nextNode()) != null) {
-                if (nextToken.hasAttribute("ph")) {
-                    nextWord = nextToken;
-                    break;
-                }
-            }
+            Element nextWord = index.getNext(current, SentenceIndex.WORD, 1);
             if (nextWord == null) {
                 return null;
             }
             assert nextWord.getTagName().equals(MaryXML.TOKEN) : "Unexpected tag name: expected "+MaryXML.TOKEN+", got "+nextWord.getTagName();
-            TreeWalker sw = MaryDomUtils.createTreeWalker(nextWord, MaryXML.PHONE);
-            Element first = (Element) sw.firstChild();
+            Element first = index.getFirst(nextWord, SentenceIndex.PHONE);
             if (first != null) {
                 assert first.getTagName().equals(MaryXML.PHONE) : "Unexpected tag name: expected "+MaryXML.PHONE+", got "+first.getTagName();
             }
@@ -557,18 +505,8 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return null;
             Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
             if (sentence == null) return null;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.TOKEN);
-            Element lastWord = null;
-            Element lastToken = (Element) tw.lastChild();
-            // The last word is the lastToken which has a "ph" attribute:
-            while (lastToken != null) {
-                if (lastToken.hasAttribute("ph")) {
-                    lastWord = lastToken;
-                    break;
-                }
-                lastToken = (Element) tw.previousNode();
-            }
-            
+            // The last word is the last token which has a "ph" attribute:
+            Element lastWord = SentenceIndex.get(sentence).getLast(sentence, SentenceIndex.WORD);
             if (lastWord != null) {
                 assert lastWord.getTagName().equals(MaryXML.TOKEN) : "Unexpected tag name: expected "+MaryXML.TOKEN+", got "+lastWord.getTagName();
             }
@@ -826,12 +764,7 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return (byte)0;
             Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
             if (sentence == null) return (byte)0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.PHRASE);
-            int count = 0;
-            Element e;
-            while ((e = (Element) tw.nextNode()) != null) {
-                count++;
-            }
+            int count = SentenceIndex.get(sentence).count(sentence, SentenceIndex.PHRASE);
             return (byte) rail(count);
         }
     }
@@ -856,14 +789,8 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return (byte)0;
             Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
             if (sentence == null) return (byte)0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.TOKEN);
-            int count = 0;
-            Element e;
-            while ((e = (Element) tw.nextNode()) != null) {
-                // only tokens with a "ph" attribute count as words:
-                if (e.hasAttribute("ph"))
-                    count++;
-            }
+            // only tokens with a "ph" attribute count as words:
+            int count = SentenceIndex.get(sentence).count(sentence, SentenceIndex.WORD);
             return (byte) rail(count);
         }
     }
@@ -886,12 +813,9 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return (byte)0;
             Element phrase = (Element) MaryDomUtils.getAncestor(segment, MaryXML.PHRASE);
             if (phrase == null) return (byte)0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(phrase, MaryXML.SYLLABLE);
-            int count = 0;
-            Element e;
-            while ((e = (Element) tw.nextNode()) != null) {
-                count++;
-            }
+            SentenceIndex index = SentenceIndex.forElement(phrase);
+            if (index == null) return (byte)0;
+            int count = index.count(phrase, SentenceIndex.SYLLABLE);
             return (byte) rail(count);
         }
     }
@@ -919,12 +843,9 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return (byte)0;
             Element phrase = (Element) MaryDomUtils.getAncestor(segment, MaryXML.PHRASE);
             if (phrase == null) return (byte)0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(phrase, MaryXML.TOKEN);
-            int count = 0;
-            Element e;
-            while ((e = (Element) tw.nextNode()) != null) {
-                count++;
-            }
+            SentenceIndex index = SentenceIndex.forElement(phrase);
+            if (index == null) return (byte)0;
+            int count = index.count(phrase, SentenceIndex.TOKEN);
             return (byte) rail(count);
         }
     }
@@ -950,12 +871,9 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return (byte)0;
             Element word = (Element) MaryDomUtils.getAncestor(segment, MaryXML.TOKEN);
             if (word == null) return (byte)0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(word, MaryXML.SYLLABLE);
-            int count = 0;
-            Element e;
-            while ((e = (Element) tw.nextNode()) != null) {
-                count++;
-            }
+            SentenceIndex index = SentenceIndex.forElement(word);
+            if (index == null) return (byte)0;
+            int count = index.count(word, SentenceIndex.SYLLABLE);
             return (byte) rail(count);
         }
     }
@@ -978,12 +896,9 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return (byte)0;
             Element word = (Element) MaryDomUtils.getAncestor(segment, MaryXML.TOKEN);
             if (word == null) return (byte)0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(word, MaryXML.PHONE);
-            int count = 0;
-            Element e;
-            while ((e = (Element) tw.nextNode()) != null) {
-                count++;
-            }
+            SentenceIndex index = SentenceIndex.forElement(word);
+            if (index == null) return (byte)0;
+            int count = index.count(word, SentenceIndex.PHONE);
             return (byte) rail(count);
         }
     }
@@ -1014,12 +929,9 @@ public class MaryGenericFeatureProcessors
             if (!segment.getTagName().equals(MaryXML.PHONE)) return 0;
             Element syllable = (Element) segment.getParentNode();
             if (syllable == null) return (byte)0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(syllable, MaryXML.PHONE);
-            int count = 0;
-            Element e;
-            while ((e = (Element) tw.nextNode()) != null) {
-                count++;
-            }
+            SentenceIndex index = SentenceIndex.forElement(syllable);
+            if (index == null) return (byte)0;
+            int count = index.count(syllable, SentenceIndex.PHONE);
             return (byte) rail(count);
         }
     }
@@ -1108,13 +1020,9 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return (byte)0;
             Element word = (Element) MaryDomUtils.getAncestor(segment, MaryXML.TOKEN);
             if (word == null) return (byte)0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(word, MaryXML.PHONE);
-            tw.setCurrentNode(segment);
-            int count = 0;
-            Element e;
-            while ((e = (Element) tw.previousNode()) != null) {
-                count++;
-            }
+            SentenceIndex index = SentenceIndex.forElement(word);
+            if (index == null) return (byte)0;
+            int count = index.countBefore(word, segment, SentenceIndex.PHONE);
             return (byte) rail(count);
         }
     }
@@ -1139,13 +1047,9 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return (byte)0;
             Element word = (Element) MaryDomUtils.getAncestor(segment, MaryXML.TOKEN);
             if (word == null) return (byte)0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(word, MaryXML.PHONE);
-            tw.setCurrentNode(segment);
-            int count = 0;
-            Element e;
-            while ((e = (Element) tw.nextNode()) != null) {
-                count++;
-            }
+            SentenceIndex index = SentenceIndex.forElement(word);
+            if (index == null) return (byte)0;
+            int count = index.countAfter(word, segment, SentenceIndex.PHONE);
             return (byte) rail(count);
         }
     }
@@ -1919,20 +1823,10 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return 0;
             Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
             if (sentence == null) return 0;
-            int count = 0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.TOKEN);
             Element word = (Element) MaryDomUtils.getAncestor(segment, MaryXML.TOKEN);
-            if (word != null) {
-                tw.setCurrentNode(word);
-            } else {
-                tw.setCurrentNode(segment);
-            }
-            Element e;
-            while ((e = (Element) tw.previousNode()) != null) {
-                // only count tokens that have a "ph" attribute:
-                if (e.hasAttribute("ph"))
-                    count++;
-            }
+            Element current = word != null ? word : segment;
+            // only count tokens that have a "ph" attribute:
+            int count = SentenceIndex.get(sentence).countBefore(sentence, current, SentenceIndex.WORD);
             return (byte) rail(count);
         }
     }
@@ -1957,15 +1851,8 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return 0;
             Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
             if (sentence == null) return 0;
-            int count = 0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.TOKEN);
-            tw.setCurrentNode(segment);
-            Element e;
-            while ((e = (Element) tw.nextNode()) != null) {
-                // only count tokens that have a "ph" attribute:
-                if (e.hasAttribute("ph"))
-                    count++;
-            }
+            // only count tokens that have a "ph" attribute:
+            int count = SentenceIndex.get(sentence).countAfter(sentence, segment, SentenceIndex.WORD);
             return (byte) rail(count);
         }
     }
@@ -1990,18 +1877,9 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return 0;
             Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
             if (sentence == null) return 0;
-            int count = 0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.PHRASE);
             Element phrase = (Element) MaryDomUtils.getAncestor(segment, MaryXML.PHRASE);
-            if (phrase != null) {
-                tw.setCurrentNode(phrase);
-            } else {
-                tw.setCurrentNode(segment);
-            }
-            Element e;
-            while ((e = (Element) tw.previousNode()) != null) {
-                count++;
-            }
+            Element current = phrase != null ? phrase : segment;
+            int count = SentenceIndex.get(sentence).countBefore(sentence, current, SentenceIndex.PHRASE);
             return (byte) rail(count);
         }
     }
@@ -2026,13 +1904,7 @@ public class MaryGenericFeatureProcessors
             if (segment == null) return 0;
             Element sentence = (Element) MaryDomUtils.getAncestor(segment, MaryXML.SENTENCE);
             if (sentence == null) return 0;
-            int count = 0;
-            TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.PHRASE);
-            tw.setCurrentNode(segment);
-            Element e;
-            while ((e = (Element) tw.nextNode()) != null) {
-                count++;
-            }
+            int count = SentenceIndex.get(sentence).countAfter(sentence, segment, SentenceIndex.PHRASE);
             return (byte) rail(count);
         }
     }
@@ -0,0 +1,332 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.features;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import marytts.datatypes.MaryXML;
+import marytts.util.dom.MaryDomUtils;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.events.Event;
+import org.w3c.dom.events.EventListener;
+import org.w3c.dom.events.EventTarget;
+import org.w3c.dom.events.MutationEvent;
+
+/**
+ * A structural index of the elements in one MaryXML sentence, so that feature processors
+ * can find the previous, next, first or last phone, syllable, word etc. of an element
+ * in constant time instead of walking through the sentence with a TreeWalker.
+ * <p>
+ * All elements of the sentence (including the sentence element itself) are numbered in document order.
+ * For each element kind (phones, segments, syllables, tokens, words, phrases, boundaries),
+ * the index holds the elements of that kind in document order, and for each element
+ * the number of elements of each kind that precede it and that precede the end of its subtree.
+ * The results are therefore the same as those of a TreeWalker with a {@link marytts.util.dom.NameNodeFilter}
+ * rooted at the sentence or at any element in it.
+ * <p>
+ * The index for a sentence is built on first use and kept with the sentence element. As long as the
+ * document supports DOM mutation events, the index is dropped whenever elements are inserted or removed
+ * in the sentence, or a "ph" attribute is added or removed; otherwise, a fresh index is built each time.
+ *
+ * @author marc
+ *
+ */
+public class SentenceIndex
+{
+    /** phone elements */
+    public static final int PHONE = 0;
+    /** phone and boundary elements */
+    public static final int SEGMENT = 1;
+    /** syllable elements */
+    public static final int SYLLABLE = 2;
+    /** token elements */
+    public static final int TOKEN = 3;
+    /** token elements with a "ph" attribute */
+    public static final int WORD = 4;
+    /** phrase elements */
+    public static final int PHRASE = 5;
+    /** boundary elements */
+    public static final int BOUNDARY = 6;
+    private static final int NUM_KINDS = 7;
+
+    private static final String USER_DATA_KEY = "marytts.features.SentenceIndex";
+    private static final String LISTENER_KEY = "marytts.features.SentenceIndex.listener";
+
+    /**
+     * Get the index for the sentence containing the given element.
+     * @param element an element within a sentence
+     * @return the index, or null if element is not within a sentence.
+     */
+    public static SentenceIndex forElement(Element element)
+    {
+        if (element == null) return null;
+        Element sentence = (Element) MaryDomUtils.getAncestor(element, MaryXML.SENTENCE);
+        if (sentence == null) return null;
+        return get(sentence);
+    }
+
+    /**
+     * Get the index for the given sentence, building it if necessary.
+     * @param sentence a sentence element
+     * @return the index
+     */
+    public static SentenceIndex get(Element sentence)
+    {
+        SentenceIndex index = (SentenceIndex) sentence.getUserData(USER_DATA_KEY);
+        if (index != null) {
+            return index;
+        }
+        index = new SentenceIndex(sentence);
+        if (sentence.getUserData(LISTENER_KEY) != null || registerInvalidationListener(sentence)) {
+            sentence.setUserData(USER_DATA_KEY, index, null);
+        }
+        return index;
+    }
+
+    private static boolean registerInvalidationListener(final Element sentence)
+    {
+        if (!(sentence instanceof EventTarget)) {
+            return false;
+        }
+        EventListener listener = new EventListener() {
+            public void handleEvent(Event evt) {
+                if (evt instanceof MutationEvent && "DOMAttrModified".equals(evt.getType())) {
+                    MutationEvent me = (MutationEvent) evt;
+                    // only the presence of "ph" attributes matters:
+                    if (!"ph".equals(me.getAttrName()) || me.getAttrChange() == MutationEvent.MODIFICATION) {
+                        return;
+                    }
+                }
+                sentence.setUserData(USER_DATA_KEY, null, null);
+            }
+        };
+        try {
+            EventTarget target = (EventTarget) sentence;
+            target.addEventListener("DOMNodeInserted", listener, false);
+            target.addEventListener("DOMNodeRemoved", listener, false);
+            target.addEventListener("DOMAttrModified", listener, false);
+        } catch (RuntimeException e) {
+            // DOM implementation does not support mutation events
+            return false;
+        }
+        sentence.setUserData(LISTENER_KEY, listener, null);
+        return true;
+    }
+
+
+    private final IdentityHashMap<Element, Integer> ids;
+    private final Element[][] elements = new Element[NUM_KINDS][];
+    // for element i and kind k, at position i*NUM_KINDS+k: the number of elements of kind k
+    // preceding element i in document order, not counting element i itself
+    private final int[] before;
+    // the same, but counting all elements up to the end of the subtree of element i
+    private final int[] end;
+    // bit k is set if element i is of kind k
+    private final byte[] kinds;
+
+    private SentenceIndex(Element sentence)
+    {
+        int n = countElements(sentence);
+        ids = new IdentityHashMap<Element, Integer>(2 * n);
+        kinds = new byte[n];
+        before = new int[n * NUM_KINDS];
+        end = new int[n * NUM_KINDS];
+        List<List<Element>> lists = new ArrayList<List<Element>>(NUM_KINDS);
+        for (int k=0; k<NUM_KINDS; k++) {
+            lists.add(new ArrayList<Element>());
+        }
+        add(sentence, new int[NUM_KINDS], lists);
+        for (int k=0; k<NUM_KINDS; k++) {
+            elements[k] = lists.get(k).toArray(new Element[0]);
+        }
+    }
+
+    private static int countElements(Element e)
+    {
+        int n = 1;
+        for (Node c = e.getFirstChild(); c != null; c = c.getNextSibling()) {
+            if (c.getNodeType() == Node.ELEMENT_NODE) {
+                n += countElements((Element) c);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Add e and its descendants in document order.
+     * @param counts the number of elements of each kind added so far
+     */
+    private void add(Element e, int[] counts, List<List<Element>> lists)
+    {
+        int id = ids.size();
+        ids.put(e, id);
+        kinds[id] = kindsOf(e);
+        System.arraycopy(counts, 0, before, id * NUM_KINDS, NUM_KINDS);
+        for (int k=0; k<NUM_KINDS; k++) {
+            if ((kinds[id] & (1 << k)) != 0) {
+                counts[k]++;
+                lists.get(k).add(e);
+            }
+        }
+        for (Node c = e.getFirstChild(); c != null; c = c.getNextSibling()) {
+            if (c.getNodeType() == Node.ELEMENT_NODE) {
+                add((Element) c, counts, lists);
+            }
+        }
+        System.arraycopy(counts, 0, end, id * NUM_KINDS, NUM_KINDS);
+    }
+
+    private static byte kindsOf(Element e)
+    {
+        // compare node names as NameNodeFilter does
+        String name = e.getNodeName();
+        if (name.equals(MaryXML.PHONE)) {
+            return (byte) (1 << PHONE | 1 << SEGMENT);
+        } else if (name.equals(MaryXML.BOUNDARY)) {
+            return (byte) (1 << BOUNDARY | 1 << SEGMENT);
+        } else if (name.equals(MaryXML.SYLLABLE)) {
+            return (byte) (1 << SYLLABLE);
+        } else if (name.equals(MaryXML.TOKEN)) {
+            return (byte) (e.hasAttribute("ph") ? (1 << TOKEN | 1 << WORD) : 1 << TOKEN);
+        } else if (name.equals(MaryXML.PHRASE)) {
+            return (byte) (1 << PHRASE);
+        }
+        return 0;
+    }
+
+    private int id(Element e)
+    {
+        Integer id = ids.get(e);
+        if (id == null) {
+            throw new IllegalArgumentException("Element "+e.getNodeName()+" is not in this sentence");
+        }
+        return id.intValue();
+    }
+
+    private int countUpTo(int id, int kind)
+    {
+        return before[id * NUM_KINDS + kind] + ((kinds[id] >> kind) & 1);
+    }
+
+    private Element get(int kind, int i)
+    {
+        if (i < 0 || i >= elements[kind].length) return null;
+        return elements[kind][i];
+    }
+
+    /**
+     * Whether the given element is part of the indexed sentence.
+     */
+    public boolean contains(Element e)
+    {
+        return ids.containsKey(e);
+    }
+
+    /**
+     * The n-th element of the given kind before e in document order; ancestors of e
+     * count as preceding it. This is what n calls to TreeWalker.previousNode() would return.
+     * @param e an element in the sentence
+     * @param kind one of the kind constants
+     * @param n 1 for the immediately preceding element
+     * @return the element, or null if there is none.
+     */
+    public Element getPrevious(Element e, int kind, int n)
+    {
+        return get(kind, before[id(e) * NUM_KINDS + kind] - n);
+    }
+
+    /**
+     * The n-th element of the given kind after e in document order; descendants of e
+     * count as following it. This is what n calls to TreeWalker.nextNode() would return.
+     * @param e an element in the sentence
+     * @param kind one of the kind constants
+     * @param n 1 for the immediately following element
+     * @return the element, or null if there is none.
+     */
+    public Element getNext(Element e, int kind, int n)
+    {
+        return get(kind, countUpTo(id(e), kind) + n - 1);
+    }
+
+    /**
+     * The first descendant of e of the given kind.
+     * @return the element, or null if there is none.
+     */
+    public Element getFirst(Element e, int kind)
+    {
+        int id = id(e);
+        int first = countUpTo(id, kind);
+        return first < end[id * NUM_KINDS + kind] ? elements[kind][first] : null;
+    }
+
+    /**
+     * The last descendant of e of the given kind.
+     * @return the element, or null if there is none.
+     */
+    public Element getLast(Element e, int kind)
+    {
+        int id = id(e);
+        int last = end[id * NUM_KINDS + kind] - 1;
+        return last >= countUpTo(id, kind) ? elements[kind][last] : null;
+    }
+
+    /**
+     * The number of descendants of e of the given kind.
+     */
+    public int count(Element e, int kind)
+    {
+        int id = id(e);
+        return end[id * NUM_KINDS + kind] - countUpTo(id, kind);
+    }
+
+    /**
+     * The number of elements of the given kind that are descendants of ancestor
+     * and precede e in document order.
+     * @param ancestor an element in the sentence
+     * @param e a descendant of ancestor
+     */
+    public int countBefore(Element ancestor, Element e, int kind)
+    {
+        return before[id(e) * NUM_KINDS + kind] - countUpTo(id(ancestor), kind);
+    }
+
+    /**
+     * The number of elements of the given kind that are descendants of ancestor
+     * and follow e in document order, including the descendants of e.
+     * @param ancestor an element in the sentence
+     * @param e a descendant of ancestor
+     */
+    public int countAfter(Element ancestor, Element e, int kind)
+    {
+        return end[id(ancestor) * NUM_KINDS + kind] - countUpTo(id(e), kind);
+    }
+
+    /**
+     * Whether a precedes b in document order.
+     */
+    public boolean precedes(Element a, Element b)
+    {
+        return id(a) < id(b);
+    }
+}
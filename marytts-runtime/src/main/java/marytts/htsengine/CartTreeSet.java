@@ -108,6 +108,56 @@ public class CartTreeSet {
     public int getStrVsize(){ return strVsize; }
     public int getMagVsize(){ return magVsize; }
     
+    /**
+     * The trees for one model type, one tree per state (only one for duration).
+     * @param type one of HMMData.DUR, HMMData.LF0, HMMData.MGC, HMMData.STR or HMMData.MAG
+     * @return the trees, or null if no trees are loaded for this type.
+     */
+    CART[] getTrees(int type) {
+        switch(type) {
+        case HMMData.DUR: return durTree;
+        case HMMData.LF0: return lf0Tree;
+        case HMMData.MGC: return mgcTree;
+        case HMMData.STR: return strTree;
+        case HMMData.MAG: return magTree;
+        default: throw new IllegalArgumentException("Unknown model type " + type);
+        }
+    }
+    
+    /**
+     * Set the trees for one model type, e.g. when loading a compiled voice.
+     * @param type one of HMMData.DUR, HMMData.LF0, HMMData.MGC, HMMData.STR or HMMData.MAG
+     * @param trees the trees, one per state (only one for duration).
+     * @param vectorSize the size of the vectors in the leaves, i.e. the number of states for duration
+     * and the number of streams for log F0.
+     */
+    void setTrees(int type, CART[] trees, int vectorSize) {
+        switch(type) {
+        case HMMData.DUR: durTree = trees; numStates = vectorSize; break;
+        case HMMData.LF0: lf0Tree = trees; lf0Stream = vectorSize; break;
+        case HMMData.MGC: mgcTree = trees; mcepVsize = vectorSize; break;
+        case HMMData.STR: strTree = trees; strVsize = vectorSize; break;
+        case HMMData.MAG: magTree = trees; magVsize = vectorSize; break;
+        default: throw new IllegalArgumentException("Unknown model type " + type);
+        }
+    }
+    
+    /**
+     * The size of the vectors in the leaves of the trees for one model type.
+     * @param type one of HMMData.DUR, HMMData.LF0, HMMData.MGC, HMMData.STR or HMMData.MAG
+     * @return the vector size, or 0 if no trees are loaded for this type.
+     */
+    int getVectorSize(int type) {
+        switch(type) {
+        case HMMData.DUR: return numStates;
+        case HMMData.LF0: return lf0Stream;
+        case HMMData.MGC: return mcepVsize;
+        case HMMData.STR: return strVsize;
+        case HMMData.MAG: return magVsize;
+        default: throw new IllegalArgumentException("Unknown model type " + type);
+        }
+    }
+    
     
     /** Loads all the CART trees */
     public void loadTreeSet(HMMData htsData, FeatureDefinition featureDef, PhoneTranslator trickyPhones) 
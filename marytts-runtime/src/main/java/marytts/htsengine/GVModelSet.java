@@ -107,6 +107,10 @@ public class GVModelSet {
   private double gvmeanMag[];   
   private double gvcovInvMag[]; 
   
+  /* the mean and variance as read from the GV files, per model type (HMMData.LF0 to HMMData.MAG) */
+  private double gvRawMean[][] = new double[HMMData.HTS_NUMMTYPE][];
+  private double gvRawVar[][] = new double[HMMData.HTS_NUMMTYPE][];
+  
   private Logger logger = MaryUtils.getLogger("GVModelSet");
   
   public double[] getGVmeanMgc(){ return gvmeanMgc; }
@@ -121,6 +125,20 @@ public class GVModelSet {
   public double[] getGVmeanMag(){ return gvmeanMag; }
   public double[] getGVcovInvMag(){ return gvcovInvMag; }
   
+  /**
+   * The GV mean for the given model type as read from the GV file, before applying the GV weight.
+   * @param type one of HMMData.LF0, HMMData.MGC, HMMData.STR or HMMData.MAG
+   * @return the mean vector, or null if no GV model was loaded for the type.
+   */
+  public double[] getRawMean(int type){ return gvRawMean[type]; }
+  
+  /**
+   * The GV (diagonal) variance for the given model type as read from the GV file.
+   * @param type one of HMMData.LF0, HMMData.MGC, HMMData.STR or HMMData.MAG
+   * @return the variance vector, or null if no GV model was loaded for the type.
+   */
+  public double[] getRawVariance(int type){ return gvRawVar[type]; }
+  
   
   public void loadGVModelSet(HMMData htsData, FeatureDefinition featureDef) throws IOException {
     
@@ -162,7 +180,7 @@ public class GVModelSet {
           
     int numMSDFlag, numStream, vectorSize, numDurPdf;
     DataInputStream data_in;
-    int m, i;
+    int i;
     
     data_in = new DataInputStream (new BufferedInputStream(gvStream));
     logger.debug("LoadGVModelSet reading model of type '" + par + "' with gvWeight = " + gvWeight);
@@ -172,43 +190,58 @@ public class GVModelSet {
     vectorSize = data_in.readInt();
     numDurPdf = data_in.readInt();
     
-    if(par.contentEquals("mgc")){
-      gvmeanMgc = new double[vectorSize];  
-      gvcovInvMgc = new double[vectorSize];
-      readBinaryFile(data_in, gvmeanMgc, gvcovInvMgc, vectorSize, gradientMethod, gvWeight);      
-    } else if(par.contentEquals("lf0")){
-        gvmeanLf0 = new double[vectorSize];  
-        gvcovInvLf0 = new double[vectorSize];
-        readBinaryFile(data_in, gvmeanLf0, gvcovInvLf0, vectorSize, gradientMethod, gvWeight);
-    } else if(par.contentEquals("str")){
-        gvmeanStr = new double[vectorSize];  
-        gvcovInvStr = new double[vectorSize];
-        readBinaryFile(data_in, gvmeanStr, gvcovInvStr, vectorSize, gradientMethod, gvWeight);
-    } else if(par.contentEquals("mag")){
-        gvmeanMag = new double[vectorSize];  
-        gvcovInvMag = new double[vectorSize];
-        readBinaryFile(data_in, gvmeanMag, gvcovInvMag, vectorSize, gradientMethod, gvWeight);
-    } 
+    double mean[] = new double[vectorSize];
+    double var[] = new double[vectorSize];
+    for ( i = 0; i < vectorSize; i++){
+      mean[i] = data_in.readFloat();
+      var[i] = data_in.readFloat();
+    }
     data_in.close ();     
+    
+    if(par.contentEquals("mgc"))
+      setGV(HMMData.MGC, mean, var, gradientMethod, gvWeight);
+    else if(par.contentEquals("lf0"))
+      setGV(HMMData.LF0, mean, var, gradientMethod, gvWeight);
+    else if(par.contentEquals("str"))
+      setGV(HMMData.STR, mean, var, gradientMethod, gvWeight);
+    else if(par.contentEquals("mag"))
+      setGV(HMMData.MAG, mean, var, gradientMethod, gvWeight);
   }  
   
-  private void readBinaryFile(DataInputStream data_in, double mean[], double ivar[], int vectorSize, boolean gradientMethod, double gvWeight)
-  throws IOException {
+  /**
+   * Set the GV model for one model type.
+   * @param type one of HMMData.LF0, HMMData.MGC, HMMData.STR or HMMData.MAG
+   * @param mean the GV mean as read from the GV file
+   * @param var the GV variance as read from the GV file
+   * @param gradientMethod whether the gradient method is used, which needs the inverse variance
+   * @param gvWeight the weight applied to the mean
+   */
+  void setGV(int type, double mean[], double var[], boolean gradientMethod, double gvWeight) {
       int i;
-      double var;
+      int vectorSize = mean.length;
+      double gvmean[] = new double[vectorSize];
+      double ivar[] = new double[vectorSize];
       if(gradientMethod){
           for ( i = 0; i < vectorSize; i++){
-            mean[i] = data_in.readFloat() * gvWeight;
-            var = data_in.readFloat();
-            assert var > 0.0;
-            ivar[i] = 1.0/var;
+            gvmean[i] = mean[i] * gvWeight;
+            assert var[i] > 0.0;
+            ivar[i] = 1.0/var[i];
           }
       } else {
           for ( i = 0; i < vectorSize; i++){
-            mean[i] = data_in.readFloat() * gvWeight;
-            ivar[i] = data_in.readFloat();
+            gvmean[i] = mean[i] * gvWeight;
+            ivar[i] = var[i];
           }
       }
+      gvRawMean[type] = mean;
+      gvRawVar[type] = var;
+      switch(type) {
+      case HMMData.MGC: gvmeanMgc = gvmean; gvcovInvMgc = ivar; break;
+      case HMMData.LF0: gvmeanLf0 = gvmean; gvcovInvLf0 = ivar; break;
+      case HMMData.STR: gvmeanStr = gvmean; gvcovInvStr = ivar; break;
+      case HMMData.MAG: gvmeanMag = gvmean; gvcovInvMag = ivar; break;
+      default: throw new IllegalArgumentException("No GV model for type " + type);
+      }
   }
   
  
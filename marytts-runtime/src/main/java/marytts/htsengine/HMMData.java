@@ -225,6 +225,7 @@ public class HMMData {
 	public InputStream getTreeMagStream() { return treeMagStream; }
 	
     public FeatureDefinition getFeatureDefinition() { return feaDef; }
+    void setFeatureDefinition(FeatureDefinition featDef) { feaDef = featDef; }
 	
 	public InputStream getPdfDurStream() { return pdfDurStream; }   
 	public InputStream getPdfLf0Stream() { return pdfLf0Stream; }   
@@ -250,6 +251,19 @@ public class HMMData {
     public double getGvWeightLf0(){ return gvWeightLf0; }
     public double getGvWeightStr(){ return gvWeightStr; }
     public double getGvWeightMag(){ return gvWeightMag; }
+    /**
+     * The GV weight for the given model type.
+     * @param type one of LF0, MGC, STR or MAG
+     */
+    public double getGvWeight(int type) {
+        switch(type) {
+        case LF0: return gvWeightLf0;
+        case MGC: return gvWeightMgc;
+        case STR: return gvWeightStr;
+        case MAG: return gvWeightMag;
+        default: throw new IllegalArgumentException("No GV weight for type " + type);
+        }
+    }
     
     public InputStream getPdfLf0GVStream() { return pdfLf0GVStream; }   
     public InputStream getPdfMgcGVStream() { return pdfMgcGVStream; } 
@@ -345,17 +359,24 @@ public class HMMData {
     	useLogGain = p.getBoolean(prefix+".logGain", useLogGain);
     	beta =  p.getDouble(prefix+".beta", beta);
     	
-    	treeDurStream = p.getStream(prefix+".Ftd");     /* Tree DUR */
-    	treeLf0Stream = p.getStream(prefix+".Ftf");     /* Tree LF0 */
-        treeMgcStream = p.getStream(prefix+".Ftm");     /* Tree MCP */
-    	treeStrStream = p.getStream(prefix+".Fts");     /* Tree STR */
-    	treeMagStream = p.getStream(prefix+".Fta");     /* Tree MAG */
+    	/* Trees, pdfs, GV models and feature definition compiled with HMMModelsWriter, if any;
+    	 * otherwise these are loaded from the separate HTS files. */
+    	InputStream compiledModelsStream = p.getStream(prefix+".compiledModels");
+    	boolean compiled = (compiledModelsStream != null);
+    	
+    	if (!compiled) {
+          treeDurStream = p.getStream(prefix+".Ftd");     /* Tree DUR */
+          treeLf0Stream = p.getStream(prefix+".Ftf");     /* Tree LF0 */
+          treeMgcStream = p.getStream(prefix+".Ftm");     /* Tree MCP */
+          treeStrStream = p.getStream(prefix+".Fts");     /* Tree STR */
+          treeMagStream = p.getStream(prefix+".Fta");     /* Tree MAG */
 
-        pdfDurStream = p.getStream(prefix+".Fmd");     /* Model DUR */
-    	pdfLf0Stream = p.getStream(prefix+".Fmf");     /* Model LF0 */
-    	pdfMgcStream = p.getStream(prefix+".Fmm");     /* Model MCP */
-    	pdfStrStream = p.getStream(prefix+".Fms");     /* Model STR */
-    	pdfMagStream = p.getStream(prefix+".Fma");     /* Model MAG */        
+          pdfDurStream = p.getStream(prefix+".Fmd");     /* Model DUR */
+          pdfLf0Stream = p.getStream(prefix+".Fmf");     /* Model LF0 */
+          pdfMgcStream = p.getStream(prefix+".Fmm");     /* Model MCP */
+          pdfStrStream = p.getStream(prefix+".Fms");     /* Model STR */
+          pdfMagStream = p.getStream(prefix+".Fma");     /* Model MAG */
+    	}
 
         useAcousticModels = p.getBoolean(prefix+".useAcousticModels"); /* use AcousticModeller, so prosody modification is enabled */
         useMixExc = p.getBoolean(prefix+".useMixExc");         /* Use Mixed excitation */
@@ -380,16 +401,20 @@ public class HMMData {
         	gvWeightStr = p.getDouble(prefix+".gvWeightStr", gvWeightStr);  /* GV weight for str between 0.0-2.0 default 1.0*/
 
         	// GV pdf files: mean and variance (diagonal covariance)
-        	pdfLf0GVStream = p.getStream(prefix+".Fgvf");     /* GV Model LF0 */
-        	pdfMgcGVStream = p.getStream(prefix+".Fgvm");     /* GV Model MCP */
-        	pdfStrGVStream = p.getStream(prefix+".Fgvs");     /* GV Model STR */
-        	pdfMagGVStream = p.getStream(prefix+".Fgva");     /* GV Model MAG */
+        	if (!compiled) {
+              pdfLf0GVStream = p.getStream(prefix+".Fgvf");     /* GV Model LF0 */
+              pdfMgcGVStream = p.getStream(prefix+".Fgvm");     /* GV Model MCP */
+              pdfStrGVStream = p.getStream(prefix+".Fgvs");     /* GV Model STR */
+              pdfMagGVStream = p.getStream(prefix+".Fgva");     /* GV Model MAG */
+        	}
         } 
 
     	/* targetfeatures file, for testing */
     	/* Example context feature file in TARGETFEATURES format */
-    	InputStream featureStream = p.getStream(prefix+".FeaFile");
-    	feaDef = FeatureUtils.readFeatureDefinition(featureStream);
+    	if (!compiled) {
+          InputStream featureStream = p.getStream(prefix+".FeaFile");
+          feaDef = FeatureUtils.readFeatureDefinition(featureStream);
+    	}
     	
         /* trickyPhones file if any*/
         trickyPhones = new PhoneTranslator(p.getStream(prefix+".trickyPhonesFile"));  /* tricky phones file, if any*/
@@ -402,13 +427,19 @@ public class HMMData {
         	readMixedExcitationFilters(mixFiltersStream);
         }
 
-       /* Load TreeSet in CARTs. */
-       logger.debug("Loading Tree Set in CARTs:");
-       loadCartTreeSet();
+       if (compiled) {
+         /* Load TreeSet and GV ModelSet from the compiled models */
+         logger.debug("Loading compiled models:");
+         new HMMModelsReader().load(compiledModelsStream, this);
+       } else {
+         /* Load TreeSet in CARTs. */
+         logger.debug("Loading Tree Set in CARTs:");
+         loadCartTreeSet();
        
-       /* Load GV ModelSet gv*/
-       logger.debug("Loading GV Model Set:");
-       loadGVModelSet();
+         /* Load GV ModelSet gv*/
+         logger.debug("Loading GV Model Set:");
+         loadGVModelSet();
+       }
 
        logger.debug("InitHMMData complete");
     }
@@ -0,0 +1,201 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import marytts.cart.CART;
+import marytts.cart.DecisionNode;
+import marytts.cart.Node;
+import marytts.cart.DecisionNode.BinaryByteDecisionNode;
+import marytts.cart.LeafNode.PdfLeafNode;
+import marytts.exceptions.MaryConfigurationException;
+import marytts.features.FeatureDefinition;
+import marytts.util.MaryUtils;
+import marytts.util.concurrent.MaryThreadPool;
+import marytts.util.concurrent.ParallelTasks;
+import marytts.util.data.MaryHeader;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Loads the trees, pdfs and GV models of an HMM voice from a file written by {@link HMMModelsWriter}.
+ * Files are memory-mapped, and the trees of the different model types are built in parallel.
+ *
+ * @author marc
+ *
+ */
+public class HMMModelsReader
+{
+    private Logger logger = MaryUtils.getLogger("HMMModelsReader");
+
+    /**
+     * Load the models from the given stream into the given HMM data, replacing its feature definition,
+     * trees and GV models. The GV settings (whether to use GV, the GV method and weights) must be set
+     * in htsData before calling this.
+     * @param stream the stream to read from; it is memory-mapped if it is a file input stream.
+     * The stream is closed.
+     * @param htsData
+     * @throws IOException
+     * @throws MaryConfigurationException if the stream does not contain valid HMM models.
+     */
+    public void load(InputStream stream, HMMData htsData) throws IOException, MaryConfigurationException
+    {
+        ByteBuffer bb;
+        try {
+            if (stream instanceof FileInputStream) {
+                FileChannel fc = ((FileInputStream) stream).getChannel();
+                bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            } else {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                byte[] buf = new byte[65536];
+                int nRead;
+                while ((nRead = stream.read(buf)) != -1) {
+                    baos.write(buf, 0, nRead);
+                }
+                bb = ByteBuffer.wrap(baos.toByteArray());
+            }
+        } finally {
+            stream.close();
+        }
+        try {
+            load(bb, htsData);
+        } catch (BufferUnderflowException e) {
+            throw new MaryConfigurationException("HMM models are truncated", e);
+        }
+    }
+
+    private void load(ByteBuffer bb, HMMData htsData) throws IOException, MaryConfigurationException
+    {
+        MaryHeader hdr = new MaryHeader(bb);
+        if (hdr.getType() != MaryHeader.HMM_MODELS) {
+            throw new MaryConfigurationException("Not a compiled HMM models file: header type "+hdr.getType());
+        }
+        final FeatureDefinition featDef = new FeatureDefinition(bb);
+        htsData.setFeatureDefinition(featDef);
+
+        int[] sectionLengths = new int[HMMData.HTS_NUMMTYPE];
+        for (int type=0; type<HMMData.HTS_NUMMTYPE; type++) {
+            sectionLengths[type] = bb.getInt();
+        }
+        final CartTreeSet cart = htsData.getCartTreeSet();
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int type=0; type<HMMData.HTS_NUMMTYPE; type++) {
+            if (sectionLengths[type] == 0) {
+                cart.setTrees(type, null, 0);
+                continue;
+            }
+            final int modelType = type;
+            final ByteBuffer section = bb.slice();
+            section.limit(sectionLengths[type]);
+            bb.position(bb.position() + sectionLengths[type]);
+            tasks.add(new Runnable() {
+                public void run() {
+                    int vectorSize = section.getInt();
+                    CART[] trees = new CART[section.getInt()];
+                    for (int i=0; i<trees.length; i++) {
+                        trees[i] = new CART();
+                        Node rootNode = readNode(section, featDef);
+                        if (rootNode != null) {
+                            rootNode.setIsRoot(true);
+                            trees[i].setRootNode(rootNode);
+                            if (rootNode instanceof DecisionNode)
+                                ((DecisionNode) rootNode).countData();
+                        }
+                    }
+                    // each task sets a different type:
+                    synchronized (cart) {
+                        cart.setTrees(modelType, trees, vectorSize);
+                    }
+                }
+            });
+        }
+        long startTime = System.currentTimeMillis();
+        MaryThreadPool pool = new MaryThreadPool("HMMModelsReader", MaryThreadPool.threadsFromSetting(0), tasks.size());
+        try {
+            ParallelTasks.runAll(pool, tasks, tasks.size());
+        } catch (BufferUnderflowException e) {
+            throw new MaryConfigurationException("HMM models are truncated", e);
+        } catch (RuntimeException e) {
+            throw new MaryConfigurationException("HMM models are corrupt", e);
+        } finally {
+            pool.shutdown();
+        }
+        logger.debug("Built trees in "+(System.currentTimeMillis()-startTime)+" ms");
+
+        GVModelSet gv = htsData.getGVModelSet();
+        for (int type=HMMData.LF0; type<HMMData.HTS_NUMMTYPE; type++) {
+            int vectorSize = bb.getInt();
+            if (vectorSize == 0) continue;
+            double[] mean = readDoubles(bb, vectorSize);
+            double[] var = readDoubles(bb, vectorSize);
+            if (htsData.getUseGV()) {
+                gv.setGV(type, mean, var, htsData.getGvMethodGradient(), htsData.getGvWeight(type));
+            }
+        }
+    }
+
+    private static Node readNode(ByteBuffer bb, FeatureDefinition featDef)
+    {
+        byte nodeType = bb.get();
+        switch (nodeType) {
+        case HMMModelsWriter.NO_NODE:
+            return null;
+        case HMMModelsWriter.DECISION_NODE:
+            int id = bb.getInt();
+            int featureIndex = bb.getShort();
+            byte value = bb.get();
+            BinaryByteDecisionNode decNode = new BinaryByteDecisionNode(featureIndex, value, featDef);
+            decNode.setUniqueDecisionNodeId(id);
+            for (int i=0; i<2; i++) {
+                Node daughter = readNode(bb, featDef);
+                if (daughter != null)
+                    decNode.replaceDaughter(daughter, i);
+            }
+            return decNode;
+        case HMMModelsWriter.LEAF_NODE:
+            int leafId = bb.getInt();
+            int vectorSize = bb.getInt();
+            double[] mean = readDoubles(bb, vectorSize);
+            double[] variance = readDoubles(bb, vectorSize);
+            double voicedWeight = bb.getFloat();
+            return new PdfLeafNode(leafId, mean, variance, voicedWeight);
+        default:
+            throw new IllegalArgumentException("Unknown node type "+nodeType);
+        }
+    }
+
+    private static double[] readDoubles(ByteBuffer bb, int n)
+    {
+        double[] values = new double[n];
+        for (int i=0; i<n; i++) {
+            values[i] = bb.getFloat();
+        }
+        return values;
+    }
+}
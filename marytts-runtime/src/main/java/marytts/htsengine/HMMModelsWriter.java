@@ -0,0 +1,168 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import marytts.cart.CART;
+import marytts.cart.DecisionNode;
+import marytts.cart.Node;
+import marytts.cart.DecisionNode.BinaryByteDecisionNode;
+import marytts.cart.LeafNode.PdfLeafNode;
+import marytts.util.MaryUtils;
+import marytts.util.data.MaryHeader;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes the trees, pdfs and GV models of a loaded HMM voice to a single binary file,
+ * which {@link HMMModelsReader} can load much faster than the HTS text tree files and pdf files.
+ * <p>
+ * File format, after a MaryHeader of type {@link MaryHeader#HMM_MODELS}:
+ * <ul>
+ * <li>the feature definition used by the trees, in binary form;</li>
+ * <li>for each model type (dur, lf0, mgc, str, mag), the length in bytes of its tree section;</li>
+ * <li>the tree sections: vector size, number of trees, and each tree's nodes in pre-order;</li>
+ * <li>for each GV model type (lf0, mgc, str, mag), its vector size followed by the mean and variance
+ * as read from the GV file; the GV weights and method are applied when loading.</li>
+ * </ul>
+ * Like in the HTS pdf files, means and variances are stored as floats.
+ *
+ * @author marc
+ *
+ */
+public class HMMModelsWriter
+{
+    static final byte NO_NODE = 0;
+    static final byte DECISION_NODE = 1;
+    static final byte LEAF_NODE = 2;
+
+    private Logger logger = MaryUtils.getLogger("HMMModelsWriter");
+
+    /**
+     * Write the models of the given HMM data, which must have been loaded with
+     * {@link HMMData#initHMMData(marytts.util.io.PropertiesAccessor, String)}, to the given file.
+     * @param htsData
+     * @param destFile
+     * @throws IOException
+     */
+    public void dumpHMMModels(HMMData htsData, String destFile) throws IOException
+    {
+        if (htsData == null)
+            throw new NullPointerException("Cannot dump null HMM data");
+        if (destFile == null)
+            throw new NullPointerException("No destination file");
+        logger.debug("Dumping HMM models to "+destFile+" ...");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(destFile)));
+        try {
+            writeTo(htsData, out);
+        } finally {
+            out.close();
+        }
+        logger.debug(" ... done");
+    }
+
+    /**
+     * Write the models of the given HMM data to the given output.
+     * @param htsData
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(HMMData htsData, DataOutput out) throws IOException
+    {
+        new MaryHeader(MaryHeader.HMM_MODELS).writeTo(out);
+        htsData.getFeatureDefinition().writeBinaryTo(out);
+
+        CartTreeSet cart = htsData.getCartTreeSet();
+        byte[][] sections = new byte[HMMData.HTS_NUMMTYPE][];
+        for (int type=0; type<HMMData.HTS_NUMMTYPE; type++) {
+            CART[] trees = cart.getTrees(type);
+            if (trees == null) {
+                sections[type] = new byte[0];
+            } else {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                DataOutputStream section = new DataOutputStream(baos);
+                section.writeInt(cart.getVectorSize(type));
+                section.writeInt(trees.length);
+                for (CART tree : trees) {
+                    writeNode(tree.getRootNode(), section);
+                }
+                section.close();
+                sections[type] = baos.toByteArray();
+            }
+            out.writeInt(sections[type].length);
+        }
+        for (byte[] section : sections) {
+            out.write(section);
+        }
+
+        GVModelSet gv = htsData.getGVModelSet();
+        for (int type=HMMData.LF0; type<HMMData.HTS_NUMMTYPE; type++) {
+            double[] mean = gv.getRawMean(type);
+            double[] var = gv.getRawVariance(type);
+            if (mean == null) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(mean.length);
+                writeFloats(mean, out);
+                writeFloats(var, out);
+            }
+        }
+    }
+
+    private void writeNode(Node node, DataOutput out) throws IOException
+    {
+        if (node == null) {
+            out.writeByte(NO_NODE);
+        } else if (node instanceof BinaryByteDecisionNode) {
+            BinaryByteDecisionNode decNode = (BinaryByteDecisionNode) node;
+            out.writeByte(DECISION_NODE);
+            out.writeInt(decNode.getUniqueDecisionNodeId());
+            out.writeShort(decNode.getFeatureIndex());
+            out.writeByte(decNode.getCriterionValueAsByte());
+            writeNode(decNode.getDaughter(0), out);
+            writeNode(decNode.getDaughter(1), out);
+        } else if (node instanceof PdfLeafNode) {
+            PdfLeafNode leaf = (PdfLeafNode) node;
+            out.writeByte(LEAF_NODE);
+            out.writeInt(leaf.getUniqueLeafId());
+            out.writeInt(leaf.getMean().length);
+            writeFloats(leaf.getMean(), out);
+            writeFloats(leaf.getVariance(), out);
+            out.writeFloat((float) leaf.getVoicedWeight());
+        } else if (node instanceof DecisionNode) {
+            throw new IOException("Unsupported decision node type: "+((DecisionNode)node).getDecisionNodeType());
+        } else {
+            throw new IOException("Unsupported node type: "+node.getClass().getName());
+        }
+    }
+
+    private void writeFloats(double[] values, DataOutput out) throws IOException
+    {
+        for (int i=0; i<values.length; i++) {
+            out.writeFloat((float) values[i]);
+        }
+    }
+}
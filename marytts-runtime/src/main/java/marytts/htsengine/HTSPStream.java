@@ -63,8 +63,10 @@
 
 package marytts.htsengine;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import marytts.util.MaryUtils;
-import java.util.Arrays;
 
 import org.apache.log4j.Logger;
 
@@ -75,6 +77,13 @@ import org.apache.log4j.Logger;
  * mcep pdfs for a particular phone for example.
  * It also contains auxiliar matrices used in maximum likelihood 
  * parameter generation.
+ * <p>
+ * The parameters of each static feature dimension are generated independently of the
+ * other dimensions; {@link #getMlpgTasks(HMMData, boolean)} provides one task per dimension,
+ * so that dimensions can be generated in parallel. All sequences are stored dimension by dimension
+ * in flat arrays.
+ * For low-latency synthesis, the parameters can also be generated window by window
+ * with {@link #mlpg(HMMData, boolean, int, int, int)}.
  * 
  * Java port and extension of HTS engine version 2.0 and GV from HTS version 2.1alpha.
  * Extension: mixed excitation
@@ -91,15 +100,12 @@ public class HTSPStream {
   private int nT;          /* length, number of frames in utterance */
   private int width;       /* width of dynamic window */
   
-  private double par[][];  /* output parameter vector, the size of this parameter is par[nT][vSize] */
+  private double par[];    /* output parameter vector, par[m*nT+t] for frame t and dimension m < order */
   
   
   /* ____________________Matrices for parameter generation____________________ */
-  private double mseq[][];   /* sequence of mean vector */
-  private double ivseq[][];  /* sequence of inversed variance vector */
-  private double g[];        /* for forward substitution */
-  private double wuw[][];    /* W' U^-1 W  */
-  private double wum[];      /* W' U^-1 mu */
+  private double mseq[];     /* sequence of mean vector, mseq[k*nT+t] for frame t and dimension k < vSize */
+  private double ivseq[];    /* sequence of inversed variance vector, same layout as mseq */
   
   /* ____________________Dynamic window ____________________ */
   private HTSDWin dw;       /* Windows used to calculate dynamic features, delta and delta-delta */
@@ -107,7 +113,6 @@ public class HTSPStream {
   
   /* ____________________ GV related variables ____________________*/
   /* GV: Global mean and covariance (diagonal covariance only) */
-  private double mean, var;  /* mean and variance for current utt eqs: (16), (17)*/
   private int maxGVIter     = 200;      /* max iterations in the speech parameter generation considering GV */
   private double GVepsilon  = 1.0E-4;  //1.0E-4;  /* convergence factor for GV iteration */
   private double minEucNorm = 1.0E-2;  //1.0E-2;  /* minimum Euclid norm of a gradient vector */ 
@@ -117,9 +122,6 @@ public class HTSPStream {
   private double w1         = 1.0;     /* weight for HMM output prob. */
   private double w2         = 1.0;     /* weight for GV output prob. */
   private double lzero      = (-1.0e+10);  /* ~log(0) */
-  private double norm       = 0.0; 
-  private double GVobj      = 0.0;
-  private double HMMobj     = 0.0;
   private double gvmean[];
   private double gvcovInv[];
   private boolean gvSwitch[];          /* GV flag sequence, to consider or not the frame in gv */
@@ -128,6 +130,43 @@ public class HTSPStream {
  
   private Logger logger = MaryUtils.getLogger("PStream");
   
+  /**
+   * Matrices and values used while generating the parameters of one dimension
+   * for the frames from, ..., from+n-1. The solution for frame from+t is x[xoff+t].
+   */
+  private class Workspace {
+    final int from;        /* first frame of the range being generated */
+    final int n;           /* number of frames in the range */
+    final int gvLength;    /* number of frames in the range for which gv can be calculated */
+    double x[];
+    int xoff;
+    double g[];            /* for forward substitution */
+    double wuw[];          /* W' U^-1 W, band matrix: wuw[t*width+i] */
+    double wum[];          /* W' U^-1 mu */
+    double mean, var;  /* mean and variance for current utt eqs: (16), (17)*/
+    double norm   = 0.0; 
+    double GVobj  = 0.0;
+    double HMMobj = 0.0;
+    
+    Workspace(int from, int n) {
+      this.from = from;
+      this.n = n;
+      if (from == 0 && n == nT) {
+        gvLength = HTSPStream.this.gvLength;
+        x = par; // generate directly into the output
+      } else {
+        int len = 0;
+        for (int t=from; t<from+n; t++)
+          if (gvSwitch[t]) len++;
+        gvLength = len;
+        x = new double[n];
+      }
+      g = new double[n];
+      wuw = new double[n * width];
+      wum = new double[n];
+    }
+  }
+  
   /* Constructor */
   public HTSPStream(int vector_size, int utt_length, int fea_type, int maxIterationsGV) throws Exception {
 	/* In the c code for each PStream there is an InitDwin() and an InitPStream() */ 
@@ -142,14 +181,11 @@ public class HTSPStream {
     maxGVIter = maxIterationsGV;
     width = 3;            /* hard-coded to 3, in the c code is:  pst->width = pst->dw.max_L*2+1;  */
                           /* pst->dw.max_L is hard-code to 1, for all windows                     */
-    par = new double[nT][order];
+    par = new double[nT * order];
     
     /* ___________________________Matrices initialisation___________________ */
-	mseq = new double[nT][vSize];
-	ivseq = new double[nT][vSize];
-	g = new double[nT];
-	wuw = new double[nT][width];
-	wum = new double[nT];   
+	mseq = new double[nT * vSize];
+	ivseq = new double[nT * vSize];
 	
 	/* GV Switch sequence initialisation */
 	gvSwitch = new boolean[nT];
@@ -165,24 +201,15 @@ public class HTSPStream {
   public void setOrder(int val){ order=val; }
   public int getOrder(){ return order; }
   
-  public void setPar(int i, int j, double val){ par[i][j] = val; }
-  public double getPar(int i, int j){ return par[i][j]; }
+  public void setPar(int i, int j, double val){ par[j*nT+i] = val; }
+  public double getPar(int i, int j){ return par[j*nT+i]; }
   public int getT(){ return nT; }
   
-  public void setMseq(int i, int j, double val){ mseq[i][j]=val; }
-  public double getMseq(int i, int j){ return mseq[i][j]; }
+  public void setMseq(int i, int j, double val){ mseq[j*nT+i]=val; }
+  public double getMseq(int i, int j){ return mseq[j*nT+i]; }
   
-  public void setIvseq(int i, int j, double val){ ivseq[i][j]=val; }
-  public double getIvseq(int i, int j){ return ivseq[i][j]; }
-  
-  public void setG(int i, double val){ g[i]=val; }
-  public double getG(int i){ return g[i]; }
-  
-  public void setWUW(int i, int j, double val){ wuw[i][j]=val; }
-  public double getWUW(int i, int j){ return wuw[i][j]; }
-  
-  public void setWUM(int i, double val){ wum[i]=val; }
-  public double getWUM(int i){ return wum[i]; }
+  public void setIvseq(int i, int j, double val){ ivseq[j*nT+i]=val; }
+  public double getIvseq(int i, int j){ return ivseq[j*nT+i]; }
   
   public int getDWwidth(int i, int j){ return dw.getWidth(i,j); }
   
@@ -197,9 +224,9 @@ public class HTSPStream {
     gvSwitch[i] = bv;
   }
   
-  private void printWUW(int t){
+  private void printWUW(Workspace ws, int t){
 	for(int i=0; i<width; i++)
-	  System.out.print("WUW[" + t + "][" + i + "]=" + wuw[t][i] + "  ");
+	  System.out.print("WUW[" + t + "][" + i + "]=" + ws.wuw[t*width+i] + "  ");
 	System.out.println(""); 
   }
   
@@ -207,35 +234,99 @@ public class HTSPStream {
   /* mlpg: generate sequence of speech parameter vector maximizing its output probability for 
    * given pdf sequence */
   public void mlpg(HMMData htsData, boolean useGV) {
-	 int m;
-	 int M = order;
-	 boolean debug=false;
+     mlpg(htsData, useGV, 0, nT, 0);
+  }  /* method mlpg */
   
+  /**
+   * Generate the parameters of the frames start, ..., end-1 only, taking into account
+   * the pdfs of up to <code>context</code> frames before and after these frames.
+   * This approximates the parameters generated for the whole utterance by {@link #mlpg(HMMData, boolean)};
+   * the more context, the closer the approximation. If GV is used, the global variance of the frames
+   * in the window including the context is optimised.
+   * @param htsData
+   * @param useGV
+   * @param start first frame to generate
+   * @param end frame after the last frame to generate
+   * @param context number of frames before start and after end taken into account
+   */
+  public void mlpg(HMMData htsData, boolean useGV, int start, int end, int context) {
+     logGVMode(htsData, useGV);
+     int from = Math.max(0, start - context);
+     Workspace ws = new Workspace(from, Math.min(nT, end + context) - from);
+	 for (int m=0; m<order; m++) {
+	   mlpg(m, ws, htsData, useGV, start, end);
+	 }  
+  }
+  
+  /**
+   * Get tasks generating the parameters of this stream, one task per static feature dimension.
+   * The tasks are independent of each other and can be run in parallel; when all of them have
+   * been run, the result is the same as after {@link #mlpg(HMMData, boolean)}.
+   * @param htsData
+   * @param useGV
+   * @return a list of tasks
+   */
+  public List<Runnable> getMlpgTasks(HMMData htsData, boolean useGV) {
+     return getMlpgTasks(htsData, useGV, 0, nT, 0);
+  }
+  
+  /**
+   * Get tasks generating the parameters of frames start, ..., end-1, one task per static feature dimension;
+   * when all of them have been run, the result is the same as after {@link #mlpg(HMMData, boolean, int, int, int)}.
+   * @param htsData
+   * @param useGV
+   * @param start first frame to generate
+   * @param end frame after the last frame to generate
+   * @param context number of frames before start and after end taken into account
+   * @return a list of tasks
+   */
+  public List<Runnable> getMlpgTasks(final HMMData htsData, final boolean useGV, final int start, final int end, int context) {
+     logGVMode(htsData, useGV);
+     final int from = Math.max(0, start - context);
+     final int n = Math.min(nT, end + context) - from;
+     List<Runnable> tasks = new ArrayList<Runnable>(order);
+     for (int m=0; m<order; m++) {
+       final int dimension = m;
+       tasks.add(new Runnable() {
+         public void run() {
+           mlpg(dimension, new Workspace(from, n), htsData, useGV, start, end);
+         }
+       });
+     }
+     return tasks;
+  }
+  
+  private void logGVMode(HMMData htsData, boolean useGV) {
      if(htsData.getUseContextDependentGV())
        logger.info("Context-dependent global variance optimization: gvLength = "+ gvLength );
      else
        logger.info("Global variance optimization");
-     
-	 for (m=0; m<M; m++) {
-	   calcWUWandWUM( m , debug);
-	   ldlFactorization(debug);   /* LDL factorization                               */
-	   forwardSubstitution();     /* forward substitution in Cholesky decomposition  */
-	   backwardSubstitution(m);   /* backward substitution in Cholesky decomposition */
+  }
+  
+  /* generate the parameters of static feature dimension m for the frames start, ..., end-1 */
+  private void mlpg(int m, Workspace ws, HMMData htsData, boolean useGV, int start, int end) {
+	 boolean debug=false;
+	 ws.xoff = ws.x == par ? m*nT : 0;
+	 calcWUWandWUM(ws, m , debug);
+	 ldlFactorization(ws, debug);   /* LDL factorization                               */
+	 forwardSubstitution(ws);       /* forward substitution in Cholesky decomposition  */
+	 backwardSubstitution(ws, m);   /* backward substitution in Cholesky decomposition */
 	          
 
-       /* Global variance optimisation for MCP and LF0 */
-       if( useGV && gvLength>0) {           
-        if(htsData.getGvMethodGradient())
-          gvParmGenGradient(m, debug);      // this is the previous method we have in MARY, using the Gradient as in the Paper of Toda et. al. IEICE 2007
+     /* Global variance optimisation for MCP and LF0 */
+     if( useGV && ws.gvLength>0) {           
+       if(htsData.getGvMethodGradient())
+         gvParmGenGradient(ws, m, debug);  // this is the previous method we have in MARY, using the Gradient as in the Paper of Toda et. al. IEICE 2007
                                            // if using this method the variances have to be inverse (see note in GVModel set: case NEWTON in gv optimization)
                                            // this method seems to give a better result
-        else
-          gvParmGenDerivative(m, debug);  // this is the method in the hts_engine 1.04 the variances are not inverse   
-
-         
-       }
-	 }  
-  }  /* method mlpg */
+       else
+         gvParmGenDerivative(ws, m, debug);  // this is the method in the hts_engine 1.04 the variances are not inverse   
+     }
+     
+     if (ws.x != par) {
+       System.arraycopy(ws.x, start-ws.from, par, m*nT+start, end-start);
+     }
+  }
   
   
   /*----------------- HTS parameter generation fuctions  -----------------------------*/
@@ -250,46 +341,42 @@ public class HTSPStream {
   /* L'C = y , solve for C using backward substitution        */
   /* So having A and B we can find the parameters C.          */
   /* U^{-1} = inverse covariance : inseq[][]                  */
-  private void calcWUWandWUM(int m, boolean debug) {
+  private void calcWUWandWUM(Workspace ws, int m, boolean debug) {
 	int t, i, j, k,iorder;
 	double WU;
-	double val;
+	double wuw[] = ws.wuw;
+	double wum[] = ws.wum;
 	
-	for(t=0; t<nT; t++) {
+	for(t=0; t<ws.n; t++) {
 	  /* initialise */
 	  wum[t] = 0.0;
 	  for(i=0; i<width; i++)
-		wuw[t][i] = 0.0;
+		wuw[t*width+i] = 0.0;
 	  
 	  /* calc WUW & WUM, U is already inverse  */
 	    for(i=0; i<dw.getNum(); i++) {
-	      iorder = i*order+m;
+	      iorder = (i*order+m)*nT + ws.from;
 	      for( j = dw.getWidth(i, WLEFT); j <= dw.getWidth(i, WRIGHT); j++) {
 
-	          if( ( t+j>=0 ) && ( t+j<nT ) && ( dw.getCoef(i,-j)!=0.0 )  ) {
+	          if( ( t+j>=0 ) && ( t+j<ws.n ) && ( dw.getCoef(i,-j)!=0.0 )  ) {
 	             
-	             //System.out.format("coef[%d,%d]=%f  ivseq[%d][%d]=%f  ", i, -j, dw.getCoef(i,-j),t+j,iorder, ivseq[t+j][iorder]); 
-	              
-				 WU = dw.getCoef(i,-j) * ivseq[t+j][iorder];
+				 WU = dw.getCoef(i,-j) * ivseq[iorder+t+j];
 				 
-				 wum[t] += WU * mseq[t+j][iorder];
+				 wum[t] += WU * mseq[iorder+t+j];
 				 
-				 //System.out.format("wu=%f wum[%d]=%f iorder=%d\n", WU, t, wum[t], iorder);
-				 
-				 for(k=0; ( k<width ) && ( t+k<nT ); k++)
+				 for(k=0; ( k<width ) && ( t+k<ws.n ); k++)
 				   if( ( k-j<=dw.getWidth(i, 1) ) && ( dw.getCoef(i,(k-j)) != 0.0 ) ) {
-				     wuw[t][k] += WU * dw.getCoef(i,(k-j));
-				     val = WU * dw.getCoef(i,(k-j));
+				     wuw[t*width+k] += WU * dw.getCoef(i,(k-j));
 				   }
 			  }
 		  }		  
 	    }  /* for i */	    
 	}  /* for t */
 	if(debug){ 
-	for(t=0; t<nT; t++) {
+	for(t=0; t<ws.n; t++) {
 	  System.out.format("t=%d wum=%f  wuw:", t, wum[t]); 
-      for(k=0; k<wuw[t].length; k++)
-        System.out.format("%f ", wuw[t][k]);
+      for(k=0; k<width; k++)
+        System.out.format("%f ", wuw[t*width+k]);
       System.out.format("\n");
 	}
 	System.out.format("\n");
@@ -298,30 +385,31 @@ public class HTSPStream {
   
   
   /* ldlFactorization: Factorize W'*U^{-1}*W to L*D*L' (L: lower triangular, D: diagonal) */
-  private void ldlFactorization(boolean debug) {
+  private void ldlFactorization(Workspace ws, boolean debug) {
 	int t,i,j;
-	for(t=0; t<nT; t++) {
+	double wuw[] = ws.wuw;
+	for(t=0; t<ws.n; t++) {
 		
 	  if(debug){
 	    System.out.println("WUW calculation:");
-	    printWUW(t);
+	    printWUW(ws, t);
 	  }
 	  
 	  /* I need i=1 for the delay in t, but the indexes i in WUW[t][i] go from 0 to 2 
 	   * so wherever i is used as index i=i-1  (this is just to keep somehow the original 
 	   * c implementation). */
 	  for(i=1; (i<width) && (t-i>=0); i++)  
-		wuw[t][0] -= wuw[t-i][i+1-1] * wuw[t-i][i+1-1] * wuw[t-i][0];
+		wuw[t*width] -= wuw[(t-i)*width+i] * wuw[(t-i)*width+i] * wuw[(t-i)*width];
 	  
 	  for(i=2; i<=width; i++) {
 	    for(j=1; (i+j<=width) && (t-j>=0); j++)
-		  wuw[t][i-1] -= wuw[t-j][j+1-1] * wuw[t-j][i+j-1] * wuw[t-j][0];
-	    wuw[t][i-1] /= wuw[t][0];
+		  wuw[t*width+i-1] -= wuw[(t-j)*width+j] * wuw[(t-j)*width+i+j-1] * wuw[(t-j)*width];
+	    wuw[t*width+i-1] /= wuw[t*width];
 	 
 	  }
 	  if(debug) {
 	    System.out.println("LDL factorization:");
-	    printWUW(t);	
+	    printWUW(ws, t);	
 	    System.out.println();
 	  }
 	}
@@ -329,64 +417,61 @@ public class HTSPStream {
   }
   
   /* forward_Substitution */ 
-  private void forwardSubstitution() {
+  private void forwardSubstitution(Workspace ws) {
 	 int t, i;
+	 double g[] = ws.g;
+	 double wuw[] = ws.wuw;
 	 
-	 for(t=0; t<nT; t++) {
-	   g[t] = wum[t];
+	 for(t=0; t<ws.n; t++) {
+	   g[t] = ws.wum[t];
 	   for(i=1; (i<width) && (t-i>=0); i++)
-		 g[t] -= wuw[t-i][i+1-1] * g[t-i];  /* i as index should be i-1 */
-	   //System.out.println("  g[" + t + "]=" + g[t]);
+		 g[t] -= wuw[(t-i)*width+i] * g[t-i];  /* i as index should be i-1 */
 	 }
-	 /*
-	 for(t=0; t<nT; t++)
-	   System.out.format("%f ", g[t]);
-	 System.out.println(); */
   }
   
   /* backward_Substitution */
-  private void backwardSubstitution(int m) {
+  private void backwardSubstitution(Workspace ws, int m) {
 	 int t, i;
+	 double wuw[] = ws.wuw;
+	 int p = ws.xoff;
+	 double x[] = ws.x;
 	 
-	 for(t=(nT-1); t>=0; t--) {
-	   par[t][m] = g[t] / wuw[t][0];
-	   for(i=1; (i<width) && (t+i<nT); i++) {
-		   par[t][m] -= wuw[t][i+1-1] * par[t+i][m]; /* i as index should be i-1 */
+	 for(t=(ws.n-1); t>=0; t--) {
+	   x[p+t] = ws.g[t] / wuw[t*width];
+	   for(i=1; (i<width) && (t+i<ws.n); i++) {
+		   x[p+t] -= wuw[t*width+i] * x[p+t+i]; /* i as index should be i-1 */
 	   }
-	   //System.out.println("  par[" + t + "]["+ m + "]=" + par[t][m]); 
 	 }
 	  
   }
 
   
   /*----------------- GV functions  -----------------------------*/
-  private void gvParmGenDerivative(int m, boolean debug){    
+  private void gvParmGenDerivative(Workspace ws, int m, boolean debug){    
     int t,iter;
     double step = stepInit;
     double prev = -lzero;
     double obj=0.0;
-    double diag[] = new double[nT];
-    double par_ori[] = new double[nT];
-    mean=0.0;
-    var=0.0;
-    int numDown = 0;
+    double g[] = ws.g;
+    int p = ws.xoff;
+    double x[] = ws.x;
+    ws.mean=0.0;
+    ws.var=0.0;
     
-    /* make a copy in case there is problems during optimisation */
-    for(t=0; t<nT; t++){
+    for(t=0; t<ws.n; t++){
       g[t] = 0.0;
-      par_ori[t] = par[t][m];  
     }
        
     /* first convert c (c=par) according to GV pdf and use it as the initial value */
-    convGV(m);
+    convGV(ws, m);
     
     /* recalculate R=WUW and r=WUM */
-    calcWUWandWUM(m, false);
+    calcWUWandWUM(ws, m, false);
     
     /* iteratively optimize c */
     for (iter=1; iter<=maxGVIter; iter++) {
       /* calculate GV objective and its derivative with respect to c */
-      obj = calcDerivative(m);   
+      obj = calcDerivative(ws, m);   
       
       /* objective function improved -> increase step size */
       if (obj > prev)
@@ -397,10 +482,9 @@ public class HTSPStream {
          step *= stepInc;
         
       /* steepest ascent and quasy Newton  c(i+1) = c(i) + alpha * grad(c(i)) */
-      for(t=0; t<nT; t++)
-        par[t][m] += step * g[t];
+      for(t=0; t<ws.n; t++)
+        x[p+t] += step * g[t];
       
-      //System.out.format("iter=%d  prev=%f  obj=%f \n", iter, prev, obj);
       prev = obj;
     }
     logger.info("Derivative GV optimization for feature: ("+ m + ")  number of iterations=" + (iter-1) );
@@ -408,52 +492,52 @@ public class HTSPStream {
  }
 
   
-  private void gvParmGenGradient(int m, boolean debug){    
+  private void gvParmGenGradient(Workspace ws, int m, boolean debug){    
       int t,iter;
       double step=stepInit;
       double obj=0.0, prev=0.0;
-      double diag[] = new double[nT];
-      double par_ori[] = new double[nT];
-      mean=0.0;
-      var=0.0;
+      double g[] = ws.g;
+      double diag[] = new double[ws.n];
+      double par_ori[] = new double[ws.n];
+      int p = ws.xoff;
+      double x[] = ws.x;
+      ws.mean=0.0;
+      ws.var=0.0;
       int numDown = 0;
       int totalNumIter = 0;
-      int firstIter = 0;
       
       /* make a copy in case there is problems during optimisation */
-      for(t=0; t<nT; t++){
+      for(t=0; t<ws.n; t++){
         g[t] = 0.0;
-        par_ori[t] = par[t][m];  
+        par_ori[t] = x[p+t];  
       }
               
       /* first convert c (c=par) according to GV pdf and use it as the initial value */
-      convGV(m);
+      convGV(ws, m);
       
       /* recalculate R=WUW and r=WUM */
-      calcWUWandWUM(m, false);
+      calcWUWandWUM(ws, m, false);
       
       /* iteratively optimize c */
       for (iter=1; iter<=maxGVIter; iter++) {
         /* calculate GV objective and its derivative with respect to c */
-        obj = calcGradient(m);   
+        obj = calcGradient(ws, m);   
         /* accelerate/decelerate step size */
         if(iter > 1) { 
           /* objective function improved -> increase step size */
           if (obj > prev){
             step *= stepInc;
-            //logger.info("+++ obj > prev iter=" + iter +"  obj=" + obj + "  > prev=" + prev);
             numDown = 0;
           }      
           /* objective function degraded -> go back c and decrese step size */
           if (obj < prev) {
-             for (t=0; t<nT; t++)  /* go back c=par to that at the previous iteration */
-                par[t][m] -= step * diag[t];
+             for (t=0; t<ws.n; t++)  /* go back c=par to that at the previous iteration */
+                x[p+t] -= step * diag[t];
              step *= stepDec;
-             for (t=0; t<nT; t++)  /* gradient c */
-                par[t][m] += step * diag[t];
+             for (t=0; t<ws.n; t++)  /* gradient c */
+                x[p+t] += step * diag[t];
              iter--;
              numDown++;
-             //logger.info("--- obj < prev iter=" + iter +"  obj=" + obj + "  < prev=" + prev +"  numDown=" + numDown);
              if(numDown < 100)
               continue;
              else {
@@ -463,26 +547,23 @@ public class HTSPStream {
           }         
         } else {
          if(debug)   
-           logger.info("  First iteration:  GVobj=" + obj + " (HMMobj=" + HMMobj + "  GVobj=" + GVobj + ")");
+           logger.info("  First iteration:  GVobj=" + obj + " (HMMobj=" + ws.HMMobj + "  GVobj=" + ws.GVobj + ")");
         }     
         /* convergence check (Euclid norm, objective function) */
-        if(norm < minEucNorm || (iter > 1 && Math.abs(obj-prev) < GVepsilon )){
+        if(ws.norm < minEucNorm || (iter > 1 && Math.abs(obj-prev) < GVepsilon )){
           if(debug)  
-            logger.info("  Number of iterations: [   " + iter + "   ] GVobj=" + obj + " (HMMobj=" + HMMobj + "  GVobj=" + GVobj + ")");
-          totalNumIter++; //gv.incTotalNumIter(iter);
-          if(m==0)
-            firstIter = iter;//gv.setFirstIter(iter);
+            logger.info("  Number of iterations: [   " + iter + "   ] GVobj=" + obj + " (HMMobj=" + ws.HMMobj + "  GVobj=" + ws.GVobj + ")");
           if(debug){
             if(iter > 1 )  
-              logger.info("  Converged (norm=" + norm + ", change=" + Math.abs(obj-prev) + ")");
+              logger.info("  Converged (norm=" + ws.norm + ", change=" + Math.abs(obj-prev) + ")");
             else            
-              logger.info("  Converged (norm=" + norm + ")");
+              logger.info("  Converged (norm=" + ws.norm + ")");
           }
           break;
         }    
         /* steepest ascent and quasy Newton  c(i+1) = c(i) + alpha * grad(c(i)) */
-        for(t=0; t<nT; t++){
-          par[t][m] += step * g[t];
+        for(t=0; t<ws.n; t++){
+          x[p+t] += step * g[t];
           diag[t] = g[t];
         }
         prev = obj;       
@@ -491,8 +572,8 @@ public class HTSPStream {
         logger.info("   optimization stopped by reaching max number of iterations (no global variance applied)");
 
         /* If there it does not converge, the feature parameter is not optimized */
-        for(t=0; t<nT; t++){
-          par[t][m] = par_ori[t];  
+        for(t=0; t<ws.n; t++){
+          x[p+t] = par_ori[t];  
         }      
       }
       totalNumIter = iter; 
@@ -501,150 +582,153 @@ public class HTSPStream {
     }
  
   
-  private double calcGradient(int m){
-   int t, i,k; 
+  /* calculate g = R*c = WUW*c */
+  private void calcWUWTimesPar(Workspace ws, int m) {
+   int t, i;
+   double g[] = ws.g;
+   double wuw[] = ws.wuw;
+   int p = ws.xoff;
+   double x[] = ws.x;
+   for(t=0; t<ws.n; t++) {
+     g[t] = wuw[t*width] * x[p+t];
+     for(i=2; i<=width; i++){   /* width goes from 0 to 2  width=3 */
+       if( t+i-1 < ws.n)
+         g[t] += wuw[t*width+i-1] * x[p+t+i-1];      /* i as index should be i-1 */
+       if( t-i+1 >= 0 )
+         g[t] += wuw[(t-i+1)*width+i-1] * x[p+t-i+1];  /* i as index should be i-1 */
+     }   
+   }
+  }
+  
+  private double calcGradient(Workspace ws, int m){
+   int t; 
    double vd;
    double h, aux;
-   double w = 1.0 / (dw.getNum() * nT);
+   double w = 1.0 / (dw.getNum() * ws.n);
+   double g[] = ws.g;
+   int p = ws.xoff;
+   double x[] = ws.x;
    
    /* recalculate GV of the current c = par */
-   calcGV(m);   
+   calcGV(ws, m);   
    
    /* GV objective function and its derivative with respect to c */
    /* -1/2 * v(c)' U^-1 v(c) + v(c)' U^-1 mu + K  --> second part of eq (20) in Toda and Tokuda IEICE-2007 paper.*/
-   GVobj =  -0.5 * w2 * (var - gvmean[m]) * gvcovInv[m] * (var - gvmean[m]);
-   vd = gvcovInv[m] * (var - gvmean[m]);
+   ws.GVobj =  -0.5 * w2 * (ws.var - gvmean[m]) * gvcovInv[m] * (ws.var - gvmean[m]);
+   vd = gvcovInv[m] * (ws.var - gvmean[m]);
      
-   /* calculate g = R*c = WUW*c*/
-   for(t=0; t<nT; t++) {
-     g[t] = wuw[t][0] * par[t][m];
-     for(i=2; i<=width; i++){   /* width goes from 0 to 2  width=3 */
-       if( t+i-1 < nT)
-         g[t] += wuw[t][i-1] * par[t+i-1][m];      /* i as index should be i-1 */
-       if( t-i+1 >= 0 )
-         g[t] += wuw[t-i+1][i-1] * par[t-i+1][m];  /* i as index should be i-1 */
-     }   
-   }
+   calcWUWTimesPar(ws, m);
       
-   for(t=0, HMMobj=0.0, norm=0.0; t<nT; t++) {
+   for(t=0, ws.HMMobj=0.0, ws.norm=0.0; t<ws.n; t++) {
        
-     HMMobj += -0.5 * w1 * w * par[t][m] * (g[t] - 2.0 * wum[t]); 
+     ws.HMMobj += -0.5 * w1 * w * x[p+t] * (g[t] - 2.0 * ws.wum[t]); 
        
      /* case STEEPEST: do not use hessian */
      //h = 1.0;
      /* case NEWTON */
      /* only diagonal elements of Hessian matrix are used */
-     h = ( ( nT-1) * vd + 2.0 * gvcovInv[m] * (par[t][m] - mean) * (par[t][m] - mean) );
-     h = -w1 * w * wuw[t][1-1] - w2 * 2.0 / (nT*nT) * h;
+     h = ( ( ws.n-1) * vd + 2.0 * gvcovInv[m] * (x[p+t] - ws.mean) * (x[p+t] - ws.mean) );
+     h = -w1 * w * ws.wuw[t*width] - w2 * 2.0 / (ws.n*ws.n) * h;
      
      h = -1.0/h;
        
      /* gradient vector */
-     if(gvSwitch[t]) {
-       aux = (par[t][m] - mean ) * vd;        
-       g[t] = h * ( w1 * w *(-g[t] + wum[t]) + w2 * -2.0/nT * aux );
+     if(gvSwitch[ws.from+t]) {
+       aux = (x[p+t] - ws.mean ) * vd;        
+       g[t] = h * ( w1 * w *(-g[t] + ws.wum[t]) + w2 * -2.0/ws.n * aux );
      } else 
-       g[t] = h * ( w1 * w *(-g[t] + wum[t]) );  
+       g[t] = h * ( w1 * w *(-g[t] + ws.wum[t]) );  
      
      /*  Euclidian norm of gradient vector */  
-     norm += g[t]*g[t];
+     ws.norm += g[t]*g[t];
        
    }
      
-   norm = Math.sqrt(norm);
-   //logger.info("HMMobj=" + HMMobj + "  GVobj=" + GVobj + "  norm=" + norm);
+   ws.norm = Math.sqrt(ws.norm);
    
-   return(HMMobj+GVobj);  
+   return(ws.HMMobj+ws.GVobj);  
    
   }
 
-  private double calcDerivative(int m){
-      int t, i,k; 
+  private double calcDerivative(Workspace ws, int m){
+      int t; 
       double vd;
-      double h, aux;
-      double w = 1.0 / (dw.getNum() * nT);
+      double h;
+      double w = 1.0 / (dw.getNum() * ws.n);
+      double g[] = ws.g;
+      int p = ws.xoff;
+      double x[] = ws.x;
       
       /* recalculate GV of the current c = par */
-      calcGV(m);   
+      calcGV(ws, m);   
       
       /* GV objective function and its derivative with respect to c */
       /* -1/2 * v(c)' U^-1 v(c) + v(c)' U^-1 mu + K  --> second part of eq (20) in Toda and Tokuda IEICE-2007 paper.*/
-      GVobj =  -0.5 * w2 * var * gvcovInv[m] * (var - 2.0 * gvmean[m]);
-      vd = -2.0 * gvcovInv[m] * (var - gvmean[m])/nT;
-      //System.out.format("GVobj=%f  vd=%f \n", GVobj, vd);  
+      ws.GVobj =  -0.5 * w2 * ws.var * gvcovInv[m] * (ws.var - 2.0 * gvmean[m]);
+      vd = -2.0 * gvcovInv[m] * (ws.var - gvmean[m])/ws.n;
       
-      /* calculate g = R*c = WUW*c*/
-      for(t=0; t<nT; t++) {
-        g[t] = wuw[t][0] * par[t][m];
-        for(i=2; i<=width; i++){   /* width goes from 0 to 2  width=3 */
-          if( t+i-1 < nT)
-            g[t] += wuw[t][i-1] * par[t+i-1][m];      /* i as index should be i-1 */
-          if( t-i+1 >= 0 )
-            g[t] += wuw[t-i+1][i-1] * par[t-i+1][m];  /* i as index should be i-1 */
-        }   
-      }
+      calcWUWTimesPar(ws, m);
          
-      for(t=0, HMMobj=0.0; t<nT; t++) {
+      for(t=0, ws.HMMobj=0.0; t<ws.n; t++) {
           
-        HMMobj += w1 * w * par[t][m] * (wum[t] - 0.5 * g[t]); 
+        ws.HMMobj += w1 * w * x[p+t] * (ws.wum[t] - 0.5 * g[t]); 
  
-        h = -w1 * w * wuw[t][1-1] - w2 * 2.0 / (nT*nT) * ( (nT-1) * gvcovInv[m] * (var - gvmean[m]) + 2.0 * gvcovInv[m] * (par[t][m] - mean) * (par[t][m] - mean) ); 
+        h = -w1 * w * ws.wuw[t*width] - w2 * 2.0 / (ws.n*ws.n) * ( (ws.n-1) * gvcovInv[m] * (ws.var - gvmean[m]) + 2.0 * gvcovInv[m] * (x[p+t] - ws.mean) * (x[p+t] - ws.mean) ); 
   
-        //System.out.format("HMMobj=%f  h=%f \n", HMMobj, h);
         /* gradient vector */
-        if(gvSwitch[t]) {
-          g[t] = 1.0 / h * ( w1 * w *(-g[t] + wum[t]) + w2 * vd * (par[t][m] - mean) );  
+        if(gvSwitch[ws.from+t]) {
+          g[t] = 1.0 / h * ( w1 * w *(-g[t] + ws.wum[t]) + w2 * vd * (x[p+t] - ws.mean) );  
 
         } else 
-          g[t] = 1.0 / h * ( w1 * w *(-g[t] + wum[t]) );  
+          g[t] = 1.0 / h * ( w1 * w *(-g[t] + ws.wum[t]) );  
                   
       }
               
-      return(-(HMMobj+GVobj));  
+      return(-(ws.HMMobj+ws.GVobj));  
       
      }
   
   
-  private void convGV(int m){
-    int t, k;
-    double ratio, mixmean; 
+  private void convGV(Workspace ws, int m){
+    int t;
+    double ratio; 
+    int p = ws.xoff;
+    double x[] = ws.x;
     /* calculate GV of c */
-    calcGV(m);
+    calcGV(ws, m);
        
-    ratio = Math.sqrt(gvmean[m] / var);
-    //System.out.format("    mean=%f vari=%f ratio=%f \n", mean, var, ratio);
+    ratio = Math.sqrt(gvmean[m] / ws.var);
    
     /* c'[t][d] = ratio * (c[t][d]-mean[d]) + mean[d]  eq. (34) in Toda and Tokuda IEICE-2007 paper. */  
-    for(t=0; t<nT; t++){
-     if( gvSwitch[t] )
-       par[t][m] = ratio * ( par[t][m]-mean ) + mean;
+    for(t=0; t<ws.n; t++){
+     if( gvSwitch[ws.from+t] )
+       x[p+t] = ratio * ( x[p+t]-ws.mean ) + ws.mean;
     }
       
   }
   
-  private void calcGV(int m){
-    int t, i;
-    mean=0.0;
-    var=0.0;
+  private void calcGV(Workspace ws, int m){
+    int t;
+    double mean=0.0;
+    double var=0.0;
+    int p = ws.xoff;
+    double x[] = ws.x;
  
     /* mean */
-    for(t=0; t<nT; t++)
-      if(gvSwitch[t]){
-        mean += par[t][m];
-        //System.out.format("(%d)%f ", t, par[t][m]);
+    for(t=0; t<ws.n; t++)
+      if(gvSwitch[ws.from+t]){
+        mean += x[p+t];
       }    
-    mean = mean / gvLength;
-    //System.out.format("  --- gvlength=%d  mean=%f\n", gvLength, mean);
+    mean = mean / ws.gvLength;
       
     /* variance */  
-    for(t=0; t<nT; t++)
-      if(gvSwitch[t]){
-        var += (par[t][m] - mean) * (par[t][m] - mean);
-        //System.out.format("(%d)%f ", t, var);
+    for(t=0; t<ws.n; t++)
+      if(gvSwitch[ws.from+t]){
+        var += (x[p+t] - mean) * (x[p+t] - mean);
       }
-    //System.out.format("\n");
-    var = var / gvLength;
-      
+    var = var / ws.gvLength;
+    ws.mean = mean;
+    ws.var = var;
   }
   
  
@@ -70,18 +70,24 @@ import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import marytts.signalproc.analysis.Mfccs;
+import marytts.server.MaryProperties;
 import marytts.signalproc.analysis.PitchReaderWriter;
 import marytts.util.MaryUtils;
+import marytts.util.concurrent.MaryThreadPool;
+import marytts.util.concurrent.ParallelTasks;
 import marytts.util.io.LEDataInputStream;
 
 import org.apache.log4j.Logger;
@@ -101,6 +107,8 @@ public class HTSParameterGeneration {
   public static final double INVINF  = ((double) 1.0e-38);
   public static final double INVINF2 = ((double) 1.0e-19);
   public static final double LTPI    = 1.83787706640935;    /* log(2*PI) */
+  
+  private static final int MLPG_QUEUE_SIZE = 100;
 	
 
   private HTSPStream mcepPst = null;
@@ -111,6 +119,15 @@ public class HTSParameterGeneration {
   private int totalUttFrame;   // total number of frames in a mcep, str or mag Pst
   private int totalLf0Frame;   // total number of f0 voiced frames in a lf0 Pst
   
+  /* windowed generation of the mcep, str and mag parameters */
+  private int mlpgWindow = 0;         // number of frames per window, 0 for generating all frames at once
+  private int mlpgContext = 0;        // number of frames before and after a window taken into account
+  private HMMData windowedData = null; // the voice data as long as frames remain to be generated
+  private boolean useStrGV;
+  private boolean useMagGV;
+  private int generatedFrames;        // number of mcep, str and mag frames generated so far
+  private long generationStartTime;   // System.nanoTime() at the start of parameter generation
+  
   private Logger logger = MaryUtils.getLogger("ParameterGeneration");
   
   public double getMcep(int i, int j){ return mcepPst.getPar(i, j); }
@@ -132,6 +149,56 @@ public class HTSParameterGeneration {
   public HTSPStream getlf0Pst(){ return lf0Pst;}
   public void setlf0Pst(HTSPStream var){ lf0Pst = var; };
   
+  private static ExecutorService mlpgExecutor = null;
+  
+  /**
+   * The number of threads generating the parameters of one utterance in parallel,
+   * as configured by the property <code>htsengine.parallelmlpg</code>.
+   * @return a number of threads, at least 1.
+   */
+  private static int getMlpgParallelism() {
+      return Math.max(1, MaryProperties.getInteger("htsengine.parallelmlpg", 1));
+  }
+  
+  /**
+   * The pool shared by all utterances for generating parameters in parallel.
+   * Its size is set by the property <code>htsengine.mlpgthreads</code>
+   * (0 or less means one thread per processor).
+   * @return
+   */
+  private static synchronized ExecutorService getMlpgExecutor() {
+      if (mlpgExecutor == null) {
+          int numThreads = MaryThreadPool.threadsFromSetting(MaryProperties.getInteger("htsengine.mlpgthreads", 0));
+          mlpgExecutor = new MaryThreadPool("ParameterGeneration", numThreads, MLPG_QUEUE_SIZE);
+      }
+      return mlpgExecutor;
+  }
+  
+  /**
+   * Generate the mcep, str and mag parameters in windows of the given number of frames, as they are requested
+   * through {@link #generateFramesUpTo(int)}, rather than all at once in
+   * {@link #htsMaximumLikelihoodParameterGeneration(HTSUttModel, HMMData, String, boolean)}.
+   * This allows the vocoder to start before the parameters of the whole utterance are generated.
+   * Each window is generated taking into account the pdfs of <code>contextFrames</code> frames
+   * before and after it, which approximates the parameters generated for the whole utterance.
+   * The lf0 parameters are always generated for the whole utterance.
+   * @param windowFrames number of frames per window, or 0 or less to generate all frames at once.
+   * @param contextFrames number of frames before and after a window taken into account. 
+   */
+  public void setMlpgWindow(int windowFrames, int contextFrames) {
+      mlpgWindow = Math.max(0, windowFrames);
+      mlpgContext = Math.max(0, contextFrames);
+  }
+  
+  public int getMlpgWindow(){ return mlpgWindow; }
+  public int getMlpgContext(){ return mlpgContext; }
+  
+  /**
+   * The time at which the last parameter generation started.
+   * @return a time as returned by System.nanoTime().
+   */
+  public long getGenerationStartTime(){ return generationStartTime; }
+  
   public boolean getVoiced(int i){ return voiced[i]; }
   public void setVoiced(int i, boolean bval){ voiced[i]=bval; }
   public boolean [] getVoicedArray(){ return voiced; }
@@ -172,6 +239,7 @@ public class HTSParameterGeneration {
 	boolean nobound, gvSwitch;
     HTSModel m;
     CartTreeSet ms = htsData.getCartTreeSet();
+    generationStartTime = System.nanoTime();
     
 	/* Initialisation of PStream objects */
   	/* Initialise Parameter generation using UttModel um and Modelset ms */
@@ -179,16 +247,16 @@ public class HTSParameterGeneration {
   	/* mceppst, strpst, magpst, lf0pst */
 	/* Here i should pass the window files to initialise the dynamic windows dw */
 	/* for the moment the dw are all the same and hard-coded */
-    if( htsData.getPdfMgcStream() != null)
+    if( ms.getMcepVsize() > 0 )
 	  mcepPst = new HTSPStream(ms.getMcepVsize(), um.getTotalFrame(), HMMData.MGC, htsData.getMaxMgcGvIter());
     /* for lf0 count just the number of lf0frames that are voiced or non-zero */
-    if( htsData.getPdfLf0Stream() != null)
+    if( ms.getLf0Stream() > 0 )
       lf0Pst  = new HTSPStream(ms.getLf0Stream(), um.getLf0Frame(), HMMData.LF0, htsData.getMaxLf0GvIter());
 
     /* The following are optional in case of generating mixed excitation */
-    if( htsData.getPdfStrStream() != null)
+    if( ms.getStrVsize() > 0 )
 	  strPst  = new HTSPStream(ms.getStrVsize(), um.getTotalFrame(), HMMData.STR, htsData.getMaxStrGvIter());
-    if (htsData.getPdfMagStream() != null )
+    if( ms.getMagVsize() > 0 )
 	  magPst  = new HTSPStream(ms.getMagVsize(), um.getTotalFrame(), HMMData.MAG, htsData.getMaxMagGvIter());
 	   
     
@@ -304,46 +372,60 @@ public class HTSParameterGeneration {
       } /* for each state in this model */
 	}  /* for each model in this utterance */ 
 			
-	/* parameter generation for mcep */  
+	/* parameter generation for mcep, lf0, str and mag: the dimensions of all streams are independent */
+	List<Runnable> mlpgTasks = new ArrayList<Runnable>();
     if( mcepPst != null ) {
 	  logger.info("Parameter generation for MGC: ");
 	  if(htsData.getUseGV())
 	    mcepPst.setGvMeanVar(htsData.getGVModelSet().getGVmeanMgc(), htsData.getGVModelSet().getGVcovInvMgc()); 
-      mcepPst.mlpg(htsData, htsData.getUseGV());
     }
    
+    boolean generateLf0 = false;
     if(htsData.getUseAcousticModels())
         loadMaryXmlF0(um, htsData);
     else if ( lf0Pst != null ){
         logger.info("Parameter generation for LF0: ");
         if(htsData.getUseGV())
           lf0Pst.setGvMeanVar(htsData.getGVModelSet().getGVmeanLf0(), htsData.getGVModelSet().getGVcovInvLf0()); 
-        lf0Pst.mlpg(htsData, htsData.getUseGV());
-        // here we need set realisedF0
-        //htsData.getCartTreeSet().getNumStates()
-        setRealisedF0(lf0Pst, um, ms.getNumStates());
+        mlpgTasks.addAll(lf0Pst.getMlpgTasks(htsData, htsData.getUseGV()));
+        generateLf0 = true;
     }  
  
 	/* parameter generation for str */
-    boolean useGV=false;
+    useStrGV = false;
     if( strPst != null ) {
       logger.debug("Parameter generation for STR ");
-      if(htsData.getUseGV() && (htsData.getPdfStrGVStream() != null) ){
-        useGV = true;
+      if(htsData.getUseGV() && (htsData.getGVModelSet().getGVmeanStr() != null) ){
+        useStrGV = true;
         strPst.setGvMeanVar(htsData.getGVModelSet().getGVmeanStr(), htsData.getGVModelSet().getGVcovInvStr());
       }
-      strPst.mlpg(htsData, useGV);
     }
 
 	/* parameter generation for mag */
-    useGV = false;
+    useMagGV = false;
     if( magPst != null ) {
       logger.info("Parameter generation for MAG ");
-      if(htsData.getUseGV() && (htsData.getPdfMagGVStream() != null) ){
-        useGV = true;
+      if(htsData.getUseGV() && (htsData.getGVModelSet().getGVmeanMag() != null) ){
+        useMagGV = true;
         magPst.setGvMeanVar(htsData.getGVModelSet().getGVmeanMag(), htsData.getGVModelSet().getGVcovInvMag());
       }
-	  magPst.mlpg(htsData, useGV);
+    }
+    
+    if (mlpgWindow > 0 && !debug) {
+      /* mcep, str and mag are generated on demand, see generateFramesUpTo() */
+      windowedData = htsData;
+      generatedFrames = 0;
+    } else {
+      mlpgTasks.addAll(getSpectralMlpgTasks(htsData, 0, totalUttFrame, 0));
+      windowedData = null;
+      generatedFrames = totalUttFrame;
+    }
+    runMlpgTasks(mlpgTasks);
+    
+    if(generateLf0) {
+        // here we need set realisedF0
+        //htsData.getCartTreeSet().getNumStates()
+        setRealisedF0(lf0Pst, um, ms.getNumStates());
     }
 	   
     if(debug) {
@@ -358,6 +440,49 @@ public class HTSParameterGeneration {
   
   
   
+  /**
+   * Make sure that the mcep, str and mag parameters of the frames 0, ..., numFrames-1 are generated.
+   * This is only needed if the parameters are generated in windows (see {@link #setMlpgWindow(int, int)});
+   * it generates the windows up to the one containing frame numFrames-1 if they have not been generated yet.
+   * @param numFrames
+   */
+  public synchronized void generateFramesUpTo(int numFrames) {
+    numFrames = Math.min(numFrames, totalUttFrame);
+    while (windowedData != null && generatedFrames < numFrames) {
+      int start = generatedFrames;
+      int end = Math.min(totalUttFrame, start + mlpgWindow);
+      logger.debug("Generating frames "+start+" to "+end+" of "+totalUttFrame);
+      runMlpgTasks(getSpectralMlpgTasks(windowedData, start, end, mlpgContext));
+      generatedFrames = end;
+      if (generatedFrames == totalUttFrame) {
+        windowedData = null;
+      }
+    }
+  }
+  
+  /**
+   * @return the number of frames for which the mcep, str and mag parameters have been generated.
+   */
+  public synchronized int getNumGeneratedFrames() {
+    return generatedFrames;
+  }
+  
+  private List<Runnable> getSpectralMlpgTasks(HMMData htsData, int start, int end, int context) {
+    List<Runnable> tasks = new ArrayList<Runnable>();
+    if( mcepPst != null )
+      tasks.addAll(mcepPst.getMlpgTasks(htsData, htsData.getUseGV(), start, end, context));
+    if( strPst != null )
+      tasks.addAll(strPst.getMlpgTasks(htsData, useStrGV, start, end, context));
+    if( magPst != null )
+      tasks.addAll(magPst.getMlpgTasks(htsData, useMagGV, start, end, context));
+    return tasks;
+  }
+  
+  private void runMlpgTasks(List<Runnable> tasks) {
+    int parallelism = getMlpgParallelism();
+    ParallelTasks.runAll(parallelism > 1 ? getMlpgExecutor() : null, tasks, parallelism);
+  }
+  
   /* Save generated parameters in a binary file */
   public void saveParamMaryFormat(String fileName, HTSPStream par, int type){
     int t, m, i;
@@ -78,6 +78,7 @@ import java.util.Locale;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
@@ -94,8 +95,8 @@ import marytts.util.data.audio.DDSAudioInputStream;
 import marytts.util.io.FileUtils;
 import marytts.util.io.LEDataInputStream;
 import marytts.util.math.ComplexArray;
-import marytts.util.math.FFT;
 import marytts.util.math.FFTMixedRadix;
+import marytts.util.math.FFTPlan;
 import marytts.util.math.MathUtils;
 import marytts.util.signal.SignalProcUtils;
 import marytts.util.io.LEDataInputStream;
@@ -141,6 +142,11 @@ public class HTSVocoder {
     
     
     private Logger logger = MaryUtils.getLogger("Vocoder");
+
+    // Time to first audio of all vocoder producers, in microseconds:
+    private static final AtomicLong numFirstAudio = new AtomicLong(0);
+    private static final AtomicLong totalFirstAudioLatency = new AtomicLong(0);
+    private static final AtomicLong maxFirstAudioLatency = new AtomicLong(0);
     
     Random rand;
     private int stage;             /* Gamma=-1/stage : if stage=0 then Gamma=0 */
@@ -383,7 +389,7 @@ public class HTSVocoder {
       mixedExcitation = htsData.getUseMixExc();
       fourierMagnitudes = htsData.getUseFourierMag();
          
-      if( mixedExcitation && htsData.getPdfStrStream() != null ) {  
+      if( mixedExcitation && htsData.getCartTreeSet().getStrVsize() > 0 ) {  
         numM = htsData.getNumFilters();
         orderM = htsData.getOrderFilters();
         
@@ -407,7 +413,7 @@ public class HTSVocoder {
       } else
         logger.debug("HMM speech generation without mixed-excitation.");  
       
-      if( fourierMagnitudes && htsData.getPdfMagStream() != null)
+      if( fourierMagnitudes && htsData.getCartTreeSet().getMagVsize() > 0)
         logger.debug("Pulse generated with Fourier Magnitudes.");
       //else
       //  logger.info("Pulse generated as a unit pulse.");
@@ -454,6 +460,11 @@ public class HTSVocoder {
       magSample = 1;
       magPulseSize = 0;
       for(mcepframe=0,lf0frame=0; mcepframe<mcepPst.getT(); mcepframe++) {
+        
+        /* with windowed parameter generation, the parameters of this frame may not be generated yet */
+        if(audioProducer != null) {
+          audioProducer.prepareFrame(mcepframe);
+        }
        
         /* get current feature vector mgc */ 
         for(i=0; i<m; i++)
@@ -560,6 +571,7 @@ public class HTSVocoder {
         /* Generate fperiod samples per feature vector, normally 80 samples per frame */
         //p1=0.0;
         gauss=false;
+        int frameStart = s_double;
         for(j=fprd-1, i=(iprd+1)/2; j>=0; j--) {          
           if(p1 == 0.0) {
             if(gauss)
@@ -677,9 +689,6 @@ public class HTSVocoder {
         
           //System.out.format("%f ", x);  
           audio_double[s_double] = x;
-          if(audioProducer != null) {
-              audioProducer.putOneDataPoint(x);
-          }
 
           s_double++;
           
@@ -694,6 +703,11 @@ public class HTSVocoder {
          // System.out.println("  i=" + i + "  inc=" + inc + "  pc=" + pc + "  p1=" + p1);
           
         } /* for each sample in a period fprd */
+        
+        /* hand the samples of this frame to the reading thread in one block */
+        if(audioProducer != null) {
+          audioProducer.putData(audio_double, frameStart, s_double-frameStart);
+        }
         //System.out.format("\n");
         
         /********* For debuging
@@ -1253,7 +1267,7 @@ public class HTSVocoder {
       }
           
       /* Calculate inverse Fourier transform */
-      FFT.transform(real, imag, true);
+      FFTPlan.get(T2).transform(real, imag, true);
       
       /* circular shift and normalise multiplying by sqrt(F0) */
       double sqrt_f0 = Math.sqrt(currentF0); 
@@ -2181,6 +2195,49 @@ public class HTSVocoder {
     }
 
 
+    private static void recordFirstAudioLatency(long micros) {
+        numFirstAudio.incrementAndGet();
+        totalFirstAudioLatency.addAndGet(micros);
+        long max;
+        while (micros > (max = maxFirstAudioLatency.get())) {
+            if (maxFirstAudioLatency.compareAndSet(max, micros)) break;
+        }
+    }
+
+    /**
+     * The number of utterances vocoded so far that produced any audio.
+     */
+    public static long getFirstAudioCount() {
+        return numFirstAudio.get();
+    }
+
+    /**
+     * The average time from the start of parameter generation until an utterance produced
+     * its first audio, in milliseconds.
+     */
+    public static double getMeanFirstAudioLatencyMillis() {
+        long count = numFirstAudio.get();
+        if (count == 0) return 0;
+        return totalFirstAudioLatency.get() / 1000. / count;
+    }
+
+    /**
+     * The longest time from the start of parameter generation until an utterance produced
+     * its first audio, in milliseconds.
+     */
+    public static double getMaxFirstAudioLatencyMillis() {
+        return maxFirstAudioLatency.get() / 1000.;
+    }
+
+    /**
+     * A one-line summary of the time to first audio of all utterances vocoded so far.
+     */
+    public static String getFirstAudioStatistics() {
+        return String.format("HMM vocoder: %d utterances, first audio mean %.1f ms max %.1f ms",
+                getFirstAudioCount(), getMeanFirstAudioLatencyMillis(), getMaxFirstAudioLatencyMillis());
+    }
+
+
     protected class HTSVocoderDataProducer extends ProducingDoubleDataSource {
         private static final double INITIAL_MAX_AMPLITUDE = 17000.;
         
@@ -2191,10 +2248,13 @@ public class HTSVocoder {
         private HTSPStream magPst;
         private boolean [] voiced;
         private HMMData htsData;
+        private HTSParameterGeneration pdf2par;
+        private boolean producedAudio = false;
         
         
         public HTSVocoderDataProducer(int audioSize, HTSParameterGeneration pdf2par, HMMData htsData) {
             super(audioSize, new AmplitudeNormalizer(INITIAL_MAX_AMPLITUDE));
+            this.pdf2par = pdf2par;
             lf0Pst = pdf2par.getlf0Pst();
             mcepPst = pdf2par.getMcepPst();
             strPst = pdf2par.getStrPst();
@@ -2213,6 +2273,25 @@ public class HTSVocoder {
             }
         }
         
+        /**
+         * Called by the vocoder before it reads the parameters of the given frame.
+         * @param frame
+         */
+        protected void prepareFrame(int frame) {
+            pdf2par.generateFramesUpTo(frame+1);
+        }
+        
+        @Override
+        public void putData(double[] data, int off, int len) {
+            if (!producedAudio && len > 0) {
+                producedAudio = true;
+                long latency = (System.nanoTime() - pdf2par.getGenerationStartTime()) / 1000;
+                logger.debug("First audio after "+(latency/1000)+" ms");
+                recordFirstAudioLatency(latency);
+            }
+            super.putData(data, off, len);
+        }
+        
     }
     
 }  /* class HTSVocoder */
@@ -33,6 +33,7 @@ import marytts.exceptions.MaryConfigurationException;
 import marytts.exceptions.SynthesisException;
 import marytts.features.FeatureProcessorManager;
 import marytts.features.FeatureRegistry;
+import marytts.modules.acoustic.FeatureVectorCache;
 import marytts.modules.acoustic.Model;
 import marytts.modules.acoustic.ProsodyElementHandler;
 import marytts.modules.phonemiser.Allophone;
@@ -166,6 +167,33 @@ public class AcousticModeller extends InternalModule {
          * Actual processing below here; applies only when Voice provides appropriate models:
          */
 
+        // all models share the feature vectors they compute for the same elements:
+        FeatureVectorCache featureVectorCache = FeatureVectorCache.attach(doc);
+        try {
+            applyModels(doc, voice, models);
+        } finally {
+            FeatureVectorCache.detach(doc);
+            logger.debug(featureVectorCache);
+        }
+
+        output.setDocument(doc);
+
+        return output;
+    }
+
+    /**
+     * Apply the acoustic models of the voice to the document.
+     * 
+     * @param doc
+     *            the document to process
+     * @param voice
+     *            the voice
+     * @param models
+     *            the voice's acoustic models
+     * @throws SynthesisException
+     *             if a model cannot be applied
+     */
+    private void applyModels(Document doc, Voice voice, Map<String, Model> models) throws SynthesisException {
         // parse the MaryXML Document to populate Lists of relevant Elements:
         Map<String, List<Element>> elementLists = parseDocument(doc);
 
@@ -252,10 +280,6 @@ public class AcousticModeller extends InternalModule {
         ProsodyElementHandler prosodyHandler = new ProsodyElementHandler();
         // TODO catch exceptions thrown by prosodyHandler:
         prosodyHandler.process(doc);
-
-        output.setDocument(doc);
-
-        return output;
     }
 
     /**
@@ -26,6 +26,8 @@ import java.io.OutputStream;
 import java.io.StringReader;
 import java.util.LinkedList;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioSystem;
@@ -57,6 +59,12 @@ import org.xml.sax.SAXException;
  * may override
  * <code>externalIO()</code>, <code>open()</code> and/or <code>close()</code>.
  * <p>
+ * The module runs a pool of external processes, configured by the property
+ * <code><i>name</i>.processes</code> or else <code>modules.external.processes</code>
+ * (default 1). Each process is owned by a worker thread, and <code>open()</code>,
+ * <code>close()</code>, <code>to()</code>, <code>from()</code> and <code>externalIO()</code>
+ * refer to the process of the worker thread calling them.
+ * <p>
  * Example for a subclass:
  * <p>Default case (external module reads from stdin and writes to stdout
  * without requiring any particular triggers):
@@ -114,15 +122,19 @@ public class ExternalModule implements MaryModule
     private MaryDataType outputType;
     private Locale locale;
     protected int state;
-    protected Process process;
-    protected OutputStream to;
-    protected InputStream from;
-    protected StreamLogger errorLogger;
-    private LinkedList requestQueue;
     private boolean exitRequested = false;
-    protected ProcessingThread processingThread = null;
-    protected RestarterThread restarterThread = null;
-    private boolean needToRestart = false;
+    private final int numProcesses;
+    private Worker[] workers;
+    /** The worker whose process is used by open(), close(), to() and from() in the current thread. */
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<Worker>();
+
+    private final AtomicLong numProcessed = new AtomicLong(0);
+    private final AtomicLong numFailed = new AtomicLong(0);
+    private final AtomicLong numTimeouts = new AtomicLong(0);
+    private final AtomicLong numRestarts = new AtomicLong(0);
+    private final AtomicLong totalLatencyNanos = new AtomicLong(0);
+    private final AtomicLong maxLatencyNanos = new AtomicLong(0);
+    private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
 
     /** The logger instance to be used by this module.
      * It will identify the origin of the log message in the log file.
@@ -133,12 +145,6 @@ public class ExternalModule implements MaryModule
      */
     protected long timeLimit;
 
-    /**
-     * Remember if a retry attempt is undertaken in <code>process()</code>.
-     * @see #process
-     */
-    protected boolean retrying = false;
-
     /**
      * A regular expression describing what to be ignored in the
      * external module's standard error output. Default is <code>null</code>.
@@ -146,9 +152,10 @@ public class ExternalModule implements MaryModule
     protected String ignorePattern = null;
 
     /**
-     * Get the process object representing the external module program.
+     * Get the process object representing the external module program
+     * of the worker calling this method.
      */
-    protected Process getProcess() { return process; }
+    protected Process getProcess() { return currentWorker().process; }
 
     protected ExternalModule(String name, String cmd, MaryDataType inputType, MaryDataType outputType, Locale locale)
     throws NoSuchPropertyException
@@ -160,7 +167,8 @@ public class ExternalModule implements MaryModule
         this.outputType = outputType;
         this.locale = locale;
         this.timeLimit = MaryProperties.needInteger("modules.timeout");
-        this.requestQueue = new LinkedList();
+        this.numProcesses = Math.max(1, MaryProperties.getInteger(name + ".processes",
+                MaryProperties.getInteger("modules.external.processes", 1)));
         this.state = MODULE_OFFLINE;
     }
 
@@ -170,6 +178,9 @@ public class ExternalModule implements MaryModule
      * on via the <code>from()</code> and <code>to()</code> methods;
      * the process's error stream is logged by a separate
      * <code>StreamLogger</code> thread.
+     * <p>
+     * This is called once for each of the worker processes, in the thread
+     * of the worker whose process is started.
      * @see #to()
      * @see #from()
      * @see marytts.util.io.StreamLogger
@@ -177,55 +188,47 @@ public class ExternalModule implements MaryModule
     protected void open()
         throws IOException {
         assert cmd != null;
-        process = Runtime.getRuntime().exec(cmd);
-        // Workaround for Java 1.4.1 bug:
-        if (System.getProperty("java.vendor").startsWith("Sun") &&
-            System.getProperty("java.version").startsWith("1.4.1")) {
-            try { Thread.sleep(1); }
-            catch(InterruptedException e) {}
-        }
-        to = process.getOutputStream();
-        from = process.getInputStream();
-        errorLogger = new StreamLogger(process.getErrorStream(),
+        Worker worker = currentWorker();
+        Process process = Runtime.getRuntime().exec(cmd);
+        StreamLogger errorLogger = new StreamLogger(process.getErrorStream(),
                                        name() + " err",
                                        ignorePattern);
         errorLogger.start();
+        worker.setProcess(process);
     }
 
     /**
      * Closes the external process's input and output streams,
-     * and destroys the process.
+     * and destroys the process of the current worker.
      */
     protected void close() {
-        try {
-            if (to != null)
-                to.close();
-            if (from != null)
-                from.close();
-            // ErrorLogger will die when it reads end-of-file.
-        } catch (IOException e) {}
-        if (process != null)
-            process.destroy();
-        process = null;
-        to = null;
-        from = null;
-        errorLogger = null;
+        currentWorker().destroyProcess();
     }
 
     /**
-     * The stream on which data is written to the external process.
+     * The stream on which data is written to the external process
+     * of the current worker.
      */
-    protected OutputStream to() { return to; }
+    protected OutputStream to() { return currentWorker().to; }
     /**
-     * The stream on which data is read from the external process.
+     * The stream on which data is read from the external process
+     * of the current worker.
      */
-    protected InputStream from() { return from; }
+    protected InputStream from() { return currentWorker().from; }
 
     /** The command line to execute as an external process. */
     protected String cmd() { return cmd; }
     /** Sets the command line to execute. */
     protected void setCmd(String cmd) { this.cmd = cmd; }
 
+    private Worker currentWorker() {
+        Worker worker = currentWorker.get();
+        if (worker == null) {
+            throw new IllegalStateException("Module " + name + ": no external process in thread " + Thread.currentThread().getName());
+        }
+        return worker;
+    }
+
     // Interface MaryModule implementation:
     public String name() { return name; }
     public MaryDataType inputType() { return inputType; }
@@ -235,10 +238,22 @@ public class ExternalModule implements MaryModule
     public synchronized void startup() throws Exception {
         assert state == MODULE_OFFLINE;
         setExitRequested(false);
-        open();
-        setNeedToRestart(false);
         logger = MaryUtils.getLogger(name());
-        logger.info("Module started ("+inputType()+"->"+outputType()+", locale "+getLocale()+").");
+        workers = new Worker[numProcesses];
+        for (int i=0; i<numProcesses; i++) {
+            workers[i] = new Worker(i);
+            currentWorker.set(workers[i]);
+            try {
+                open();
+            } finally {
+                currentWorker.remove();
+            }
+        }
+        for (Worker w : workers) {
+            w.start();
+        }
+        logger.info("Module started ("+inputType()+"->"+outputType()+", locale "+getLocale()+", "
+                + numProcesses + " external processes).");
         state = MODULE_RUNNING;
     }
 
@@ -271,16 +286,23 @@ public class ExternalModule implements MaryModule
 
     public void shutdown() {
         assert state == MODULE_RUNNING;
-        close();
         setExitRequested(true);
-        doNotifyAll();
+        for (Worker w : workers) {
+            w.wakeUp();
+        }
         try {
-            processingThread.join();
-            restarterThread.join();
+            for (Worker w : workers) {
+                // Give the worker the time to finish its current request:
+                w.join(timeLimit);
+                if (w.isAlive()) {
+                    w.destroyProcess();
+                    w.join();
+                }
+            }
         } catch (InterruptedException e) {
             logger.info(e);
         }
-        logger.info("Module shut down.");
+        logger.info("Module shut down. " + getStatistics());
         state = MODULE_OFFLINE;
     }
 
@@ -288,20 +310,21 @@ public class ExternalModule implements MaryModule
      * The actual external input and output.
      * Write to the module and read from the module in the appropriate
      * ways as determined by input and output data types.
+     * This is called in the thread of the worker whose process is to be used,
+     * so that <code>to()</code> and <code>from()</code> give access to that process.
      */
     protected MaryData externalIO(MaryData d)
         throws TransformerConfigurationException, TransformerException,
                FileNotFoundException, IOException,
                ParserConfigurationException, SAXException, Exception
     {
-        assert !needToRestart();
-        logger.info("Writing to module.");
+        logger.debug("Writing to module.");
         d.writeTo(to());
         // Read from external module
-        logger.info("Reading from module.");
+        logger.debug("Reading from module.");
         MaryData result = new MaryData(outputType(), d.getLocale());
         result.readFrom(from(), outputType().endMarker());
-        logger.info("Read complete.");
+        logger.debug("Read complete.");
         return result;
     }
 
@@ -313,13 +336,10 @@ public class ExternalModule implements MaryModule
      * The actual input and output is performed by <code>externalIO()</code>
      * and may be overridden by subclasses to account for module-specifics.
      * <p>
-     * If timeout occurs, the external module is restarted, and a second attempt
-     * is made. If it fails again, an IOException is thrown.
-     * Even in case of the second failure, the external process is restarted,
-     * because failure may have been provoked by this particular input.
-     * <p>
-     * For the time being, external modules are thread-safe simply by
-     * this method being <code>synchronized</code>.
+     * The request is given to the worker process with the fewest requests.
+     * If timeout occurs, or the external module fails, that worker's process is
+     * restarted, and a second attempt is made on the least loaded other worker,
+     * if any. If it fails again, an IOException is thrown.
      * @return A MaryData object of type
      * <code>outputType()</code> encapsulating the processing result.
      */
@@ -329,131 +349,165 @@ public class ExternalModule implements MaryModule
                ParserConfigurationException, SAXException, Exception
     {
         assert state == MODULE_RUNNING;
-        logger.info("Adding request");
+        long start = System.nanoTime();
+        Worker worker = leastLoadedWorker(null);
+        MaryData output = processOn(worker, d);
+        if (output == null) {
+            worker = leastLoadedWorker(worker);
+            logger.info("Rescheduling request on process " + worker.index);
+            output = processOn(worker, d);
+            if (output == null) {
+                numFailed.incrementAndGet();
+                logger.error("Failed again. Giving up.");
+                throw new IOException("Module " + name() + " cannot process.");
+            }
+        }
+        long latency = System.nanoTime() - start;
+        numProcessed.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        long max;
+        while (latency > (max = maxLatencyNanos.get())) {
+            if (maxLatencyNanos.compareAndSet(max, latency)) break;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(getStatistics());
+        }
+        return output;
+    }
+
+    /**
+     * Process the data with the given worker.
+     * @return the output, or null if the worker failed or timed out.
+     */
+    private MaryData processOn(Worker worker, MaryData d) throws InterruptedException
+    {
         ExternalModuleRequest request = new ExternalModuleRequest(d);
-        addRequest(request);
-        // In the case that the processor thread is in wait state,
-        // wake it up:
-        doNotifyAll();
-        logger.info("Now waiting for request to be processed");
-        long tStart = System.currentTimeMillis();
-        while (!request.problemOccurred() &&
-               request.getOutput() == null &&
-               System.currentTimeMillis() - tStart < timeLimit) {
-            doWait(timeLimit);
+        worker.add(request);
+        int depth = getQueueDepth();
+        int max;
+        while (depth > (max = maxQueueDepth.get())) {
+            if (maxQueueDepth.compareAndSet(max, depth)) break;
+        }
+        if (!request.waitForResult(timeLimit)) {
+            numTimeouts.incrementAndGet();
+            logger.error("Timeout occurred in process " + worker.index + ". Restarting it.");
+            // killing the process makes the worker give up the request and restart:
+            worker.abort(request);
+            return null;
         }
         if (request.getOutput() == null) {
-            if (request.problemOccurred()) {
-                logger.error("Problem occurred. Rescheduling request.");
-            } else {
-                logger.error("Timeout occurred. Requesting module restart and rescheduling request.");
-                // We trigger the restart of the module:
-                setNeedToRestart(true);
-            }
-            removeRequest(request);
-            request.setProblemOccurred(false);
-            addRequest(request);
-            doNotifyAll();
-            logger.info("Waiting for request to be processed (2nd try)");
-            tStart = System.currentTimeMillis();
-            while (!request.problemOccurred() &&
-                   request.getOutput() == null &&
-                   System.currentTimeMillis() - tStart < timeLimit) {
-                doWait(timeLimit);
+            logger.error("Problem occurred in process " + worker.index + ".");
+        }
+        return request.getOutput();
+    }
+
+    /**
+     * The worker with the fewest requests, preferring workers whose process is healthy.
+     * @param exclude a worker not to choose if there are others, or null.
+     */
+    private Worker leastLoadedWorker(Worker exclude)
+    {
+        Worker best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (Worker w : workers) {
+            if (w == exclude) continue;
+            int load = w.getLoad();
+            if (w.isBroken()) {
+                load += workers.length;
             }
-            if (request.getOutput() == null) {
-                if (request.problemOccurred()) {
-                    logger.error("Problem occurred again. Giving up.");
-                } else {
-                    logger.error("Timeout occurred again. Requesting module restart, but giving up on this request.");
-                    // We trigger the restart of the module:
-                    setNeedToRestart(true);
-                }
-                removeRequest(request);
-                throw new IOException("Module " + name() + " cannot process.");
+            if (load < bestLoad) {
+                best = w;
+                bestLoad = load;
             }
         }
-        logger.info("Request processed");
-
+        return best != null ? best : exclude;
+    }
 
+    /**
+     * The number of external processes of this module.
+     */
+    public int getNumberOfProcesses()
+    {
+        return numProcesses;
+    }
 
-        /*        } catch (Exception e) {
-            String reason;
-            if (timer.didDestroy()) {
-                reason = "Timeout";
-            } else {
-                reason = "Problem";
-            }
-            // Remedy for all Exceptions: try to restart the external module.
-            if (retrying) { // second failure - abort
-                if (timer.didDestroy()) {
-                    logger.error(reason + " occurred again. Giving up.");
-                }
-                shutdown();
-                startup();
-                retrying = false;
-                // at least we are now ready for a different call
-                // (problem might have been due to this particular input)
-                throw e;
-            } else { // first failure for this processing attempt
-                logger.error(reason +
-                             " occurred during I/O with external module. " +
-                             "Trying to restart module.", e);
-                shutdown();
-                startup();
-                timeLimit = 2 * timeLimit;
-                retrying = true; // marker for recursive call to process()
-                return process(d);
+    /**
+     * The number of requests currently waiting for one of the external processes,
+     * not counting those being processed.
+     */
+    public int getQueueDepth()
+    {
+        int depth = 0;
+        if (workers != null) {
+            for (Worker w : workers) {
+                depth += w.getQueueLength();
             }
         }
-        */
-        return request.getOutput();
+        return depth;
     }
 
-    protected synchronized void addRequest(Object r)
+    /**
+     * The largest number of requests waiting at the same time so far.
+     */
+    public int getMaxQueueDepth()
     {
-        requestQueue.addLast(r);
+        return maxQueueDepth.get();
     }
-    protected synchronized ExternalModuleRequest getNextRequest()
+
+    public long getProcessedCount()
     {
-        return (ExternalModuleRequest) requestQueue.removeFirst();
+        return numProcessed.get();
     }
-    protected synchronized void removeRequest(ExternalModuleRequest r)
+
+    /**
+     * The number of requests that could not be processed even on the second attempt.
+     */
+    public long getFailedCount()
     {
-        requestQueue.remove(r);
+        return numFailed.get();
     }
-    protected synchronized boolean haveWaitingRequests()
+
+    public long getTimeoutCount()
     {
-        return !requestQueue.isEmpty();
+        return numTimeouts.get();
     }
 
-    protected synchronized void setNeedToRestart(boolean needToRestart) {
-        this.needToRestart = needToRestart;
-    }
-    protected synchronized boolean needToRestart() {
-        return needToRestart;
+    /**
+     * The number of times an external process was restarted.
+     */
+    public long getRestartCount()
+    {
+        return numRestarts.get();
     }
 
-    protected synchronized void doNotifyAll()
+    /**
+     * The average time from calling process() to getting the result, including
+     * waiting for an external process, in milliseconds.
+     */
+    public double getMeanLatencyMillis()
     {
-        notifyAll();
+        long processed = numProcessed.get();
+        if (processed == 0) return 0;
+        return totalLatencyNanos.get() / 1.e6 / processed;
     }
 
-    protected synchronized void doWait()
+    /**
+     * The longest time from calling process() to getting the result, in milliseconds.
+     */
+    public double getMaxLatencyMillis()
     {
-        try {
-            wait();
-        } catch (InterruptedException e) {
-            logger.info(e);
-        }
+        return maxLatencyNanos.get() / 1.e6;
     }
-    protected synchronized void doWait(long millis)
+
+    /**
+     * A one-line summary of the state and statistics of the external processes.
+     */
+    public String getStatistics()
     {
-        try {
-            wait(millis);
-        } catch (InterruptedException e) {
-            logger.info(e);
-        }
+        return String.format("%d processes, %d waiting (max %d), %d processed, %d failed, %d timeouts, %d restarts, "
+                + "latency mean %.1f ms max %.1f ms",
+                numProcesses, getQueueDepth(), getMaxQueueDepth(), getProcessedCount(), getFailedCount(),
+                getTimeoutCount(), getRestartCount(), getMeanLatencyMillis(), getMaxLatencyMillis());
     }
 
     /**
@@ -467,82 +521,183 @@ public class ExternalModule implements MaryModule
     }
 
 
-    public class ProcessingThread extends Thread {
-        public void run()
+    /**
+     * A thread owning one external process, processing the requests given to it one after the other.
+     * Before each request, the process is checked and restarted if it has died or failed.
+     */
+    protected class Worker extends Thread {
+        protected static final int MAX_RESTART_ATTEMPTS = 3;
+        private final int index;
+        private final LinkedList<ExternalModuleRequest> queue = new LinkedList<ExternalModuleRequest>();
+        private ExternalModuleRequest current = null;
+        private boolean needToRestart = false;
+        private boolean broken = false;
+        // guarded by this, but read without lock by the worker thread itself:
+        private Process process;
+        private OutputStream to;
+        private InputStream from;
+
+        Worker(int index)
         {
-            while (!exitRequested()) {
-                while (needToRestart()) {
-                    // Wait until restarter thread has finished restarting
-                    logger.info("ProcessingThread waiting for restart.");
-                    doWait();
-                    if (!needToRestart())
-                        logger.info("ProcessingThread noticed restart done.");
-                }
-                if (haveWaitingRequests()) {
-                    ExternalModuleRequest request = getNextRequest();
-                    logger.info("Now processing next request.");
-                    try {
-                        MaryData output = externalIO(request.getInput());
-                        request.setOutput(output);
-                        doNotifyAll(); // let them know we're done
-                    } catch (Exception e) {
-                        logger.error("Problem occurred during I/O with external module. " +
-                                     "Requesting module restart.", e);
-                        // Let whoever scheduled this request decide whether
-                        // they want to reschedule it:
-                        request.setProblemOccurred(true);
-                        // We trigger the restart of the module:
-                        setNeedToRestart(true);
-                        doNotifyAll();
+            super(name + " process " + index);
+            this.index = index;
+            setDaemon(true);
+        }
+
+        synchronized void setProcess(Process process)
+        {
+            this.process = process;
+            this.to = process.getOutputStream();
+            this.from = process.getInputStream();
+        }
+
+        /**
+         * Destroy the process; this also makes any I/O with it fail.
+         */
+        synchronized void destroyProcess()
+        {
+            if (process != null)
+                process.destroy();
+            try {
+                if (to != null)
+                    to.close();
+                if (from != null)
+                    from.close();
+                // The error logger will die when it reads end-of-file.
+            } catch (IOException e) {}
+            process = null;
+            to = null;
+            from = null;
+        }
+
+        synchronized void add(ExternalModuleRequest request)
+        {
+            queue.addLast(request);
+            notifyAll();
+        }
+
+        /**
+         * Give up the request: remove it if it is waiting, or kill the process if it is processing it.
+         */
+        synchronized void abort(ExternalModuleRequest request)
+        {
+            if (!queue.remove(request) && current == request) {
+                needToRestart = true;
+                destroyProcess();
+            }
+        }
+
+        synchronized void wakeUp()
+        {
+            notifyAll();
+        }
+
+        synchronized int getLoad()
+        {
+            return queue.size() + (current != null ? 1 : 0);
+        }
+
+        synchronized int getQueueLength()
+        {
+            return queue.size();
+        }
+
+        /** Whether the process could not be restarted the last time this was tried. */
+        synchronized boolean isBroken()
+        {
+            return broken;
+        }
+
+        private synchronized ExternalModuleRequest nextRequest() throws InterruptedException
+        {
+            while (queue.isEmpty() && !exitRequested()) {
+                wait();
+            }
+            current = queue.poll();
+            return current;
+        }
+
+        private synchronized boolean isHealthy()
+        {
+            if (needToRestart || process == null) {
+                return false;
+            }
+            try {
+                process.exitValue();
+                logger.warn("Process " + index + " has exited.");
+                return false;
+            } catch (IllegalThreadStateException e) {
+                return true; // still running
+            }
+        }
+
+        /**
+         * Restart the process, trying a few times.
+         * @return whether the process was restarted.
+         */
+        private boolean restart()
+        {
+            for (int attempt=1; attempt<=MAX_RESTART_ATTEMPTS; attempt++) {
+                logger.info("Restarting process " + index + ".");
+                try {
+                    close();
+                    open();
+                    numRestarts.incrementAndGet();
+                    synchronized (this) {
+                        needToRestart = false;
+                        broken = false;
                     }
-                } else { // wait for something to process
-                    logger.debug("Currently nothing to do, waiting");
-                    doWait();
-                    logger.debug("ProcessingThread was woken up.");
+                    return true;
+                } catch (Exception e) {
+                    logger.error("Problem restarting process " + index + " (attempt " + attempt + ").", e);
                 }
             }
+            synchronized (this) {
+                broken = true;
+            }
+            return false;
         }
-    }
 
-    public class RestarterThread extends Thread {
-        protected static final int MAX_RESTART_ATTEMPTS = 3;
         public void run()
         {
-            // Avoid eternal retries if restarting does not succeed --
-            // only retry once in a row:
-            int nrFailuresRestarting = 0;
-            while (!exitRequested()) {
-                if (needToRestart()) {
-                    if (nrFailuresRestarting < MAX_RESTART_ATTEMPTS) {
-                        logger.info("Restarting module.");
+            currentWorker.set(this);
+            try {
+                ExternalModuleRequest request;
+                while ((request = nextRequest()) != null) {
+                    if (!isHealthy() && !restart()) {
+                        // Let whoever scheduled this request decide whether
+                        // they want to reschedule it:
+                        request.setProblemOccurred(true);
+                    } else {
+                        request.setStarted();
                         try {
-                            close();
-                            open();
-                            setNeedToRestart(false);
-                            logger.info("Module restarted");
-                            doNotifyAll();
-                            nrFailuresRestarting = 0; // succeeded
+                            request.setOutput(externalIO(request.getInput()));
                         } catch (Exception e) {
-                            logger.error("Problem restarting.", e);
-                            nrFailuresRestarting++;
+                            logger.error("Problem occurred during I/O with external process " + index + ". " +
+                                         "Requesting restart.", e);
+                            synchronized (this) {
+                                needToRestart = true;
+                            }
+                            request.setProblemOccurred(true);
                         }
-                    } else {
-                        logger.error("Restarting has failed " +
-                                     nrFailuresRestarting +
-                                     " times, giving up.");
-                        setNeedToRestart(false);
-                        // Maybe it will work again another time?
-                        nrFailuresRestarting = 0;
-                        doNotifyAll();
                     }
-                } else { // wait for something to process
-                    logger.info("Currently no need to restart, waiting");
-                    doWait();
-                    logger.info("RestarterThread was woken up.");
+                    synchronized (this) {
+                        current = null;
+                    }
+                }
+            } catch (InterruptedException e) {
+                logger.info(e);
+            } finally {
+                synchronized (this) {
+                    for (ExternalModuleRequest r : queue) {
+                        r.setProblemOccurred(true);
+                    }
+                    queue.clear();
                 }
+                close();
+                currentWorker.remove();
             }
         }
     }
 
 }
-
@@ -36,12 +36,42 @@ public class ExternalModuleRequest
     public synchronized MaryData getOutput() { return output; }
     public synchronized void setOutput(MaryData output) {
         this.output = output;
+        notifyAll();
     }
 
     private boolean problem = false;
     public synchronized boolean problemOccurred() { return problem; }
     public synchronized void setProblemOccurred(boolean problem) {
         this.problem = problem;
+        notifyAll();
+    }
+
+    private long startTime = 0;
+    /** Remember that the external module has started to process this request. */
+    public synchronized void setStarted() {
+        startTime = System.currentTimeMillis();
+        notifyAll();
+    }
+
+    /**
+     * Wait until there is an output or a problem occurred, but no longer than
+     * <code>timeLimit</code> milliseconds after processing has started.
+     * The time the request waits to be processed does not count.
+     * @return true if there is an output or a problem occurred, false on timeout.
+     */
+    public synchronized boolean waitForResult(long timeLimit) throws InterruptedException {
+        while (output == null && !problem) {
+            if (startTime == 0) {
+                wait();
+            } else {
+                long left = startTime + timeLimit - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+        }
+        return true;
     }
 
     public ExternalModuleRequest(MaryData input) {
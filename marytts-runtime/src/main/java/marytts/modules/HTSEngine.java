@@ -96,6 +96,7 @@ import marytts.htsengine.HTSUttModel;
 import marytts.htsengine.HTSVocoder;
 import marytts.htsengine.HTSEngineTest.PhonemeDuration;
 import marytts.modules.synthesis.Voice;
+import marytts.server.MaryProperties;
 import marytts.unitselection.select.Target;
 import marytts.util.MaryUtils;
 import marytts.util.data.audio.AppendableSequenceAudioInputStream;
@@ -196,6 +197,8 @@ public class HTSEngine extends InternalModule
         /* Process UttModel */
         /* Generate sequence of speech parameter vectors, generate parameters out of sequence of pdf's */  
         boolean debug = false;  /* so it does not save the generated parameters. */
+        /* for low latency, the vocoder can start before the spectral parameters of the whole utterance are generated */
+        pdf2par.setMlpgWindow(MaryProperties.getInteger("htsengine.mlpgwindow", 0), MaryProperties.getInteger("htsengine.mlpgcontext", 50));
         pdf2par.htsMaximumLikelihoodParameterGeneration(um, hmmv.getHMMData(),"", debug);
     
         
@@ -554,11 +557,11 @@ public class HTSEngine extends InternalModule
           cart.searchMgcInCartTree(m, fv, feaDef);
 
           /* Find pdf for strengths, this function sets the pdf for each state.  */
-          if(htsData.getTreeStrStream() != null)
+          if(cart.getStrVsize() > 0)
             cart.searchStrInCartTree(m, fv, feaDef);
           
           /* Find pdf for Fourier magnitudes, this function sets the pdf for each state.  */
-          if(htsData.getTreeMagStream() != null)
+          if(cart.getMagVsize() > 0)
             cart.searchMagInCartTree(m, fv, feaDef);
           
           /* increment number of models in utterance model */
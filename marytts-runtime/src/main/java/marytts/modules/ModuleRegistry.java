@@ -19,13 +19,20 @@
  */
 package marytts.modules;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import marytts.datatypes.MaryDataType;
 import marytts.exceptions.MaryConfigurationException;
@@ -50,8 +57,20 @@ public class ModuleRegistry
 {
     private static MultiKeyMap mkm;
     private static List<MaryModule> allModules;
-    private static boolean registrationComplete;
+    private static volatile boolean registrationComplete;
     private static Logger logger;
+    /**
+     * The routes found so far, by source type, target type, locale and voice.
+     * Since the registry does not change after registration is complete,
+     * a route once found stays valid; {@link #NO_ROUTE} marks combinations
+     * for which there is no route.
+     * Locales come from the clients, so only routes for locales of registered modules
+     * are cached, and at most {@link #MAX_ROUTES} of them.
+     */
+    private static ConcurrentMap<RouteKey, List<MaryModule>> routes;
+    private static final List<MaryModule> NO_ROUTE = Collections.emptyList();
+    private static final int MAX_ROUTES = 10000;
+    private static Set<Locale> moduleLocales;
     
     private ModuleRegistry()
     {
@@ -64,6 +83,8 @@ public class ModuleRegistry
         mkm = new MultiKeyMap();
         allModules = new LinkedList<MaryModule>();
         registrationComplete = false;
+        routes = new ConcurrentHashMap<RouteKey, List<MaryModule>>();
+        moduleLocales = new HashSet<Locale>();
         logger = MaryUtils.getLogger("ModuleRegistry");
     }
     
@@ -132,6 +153,9 @@ public class ModuleRegistry
         l.add(module);
         
         allModules.add(module);
+        if (locale != null) {
+            moduleLocales.add(locale);
+        }
 
         MaryDataType.registerDataType(type);
         MaryDataType.registerDataType(module.outputType());
@@ -241,10 +265,84 @@ public class ModuleRegistry
             throw new NullPointerException("Received null target type");
         //if (locale == null)
         //    throw new NullPointerException("Received null locale");
-        LinkedList<MaryDataType> seenTypes = new LinkedList<MaryDataType>();
-        seenTypes.add(sourceType);
-        return modulesRequiredForProcessing(
-            sourceType, targetType, locale, voice, seenTypes);
+        RouteKey key = new RouteKey(sourceType, targetType, locale, voice);
+        List<MaryModule> route = routes.get(key);
+        if (route == null) {
+            LinkedList<MaryDataType> seenTypes = new LinkedList<MaryDataType>();
+            seenTypes.add(sourceType);
+            LinkedList<MaryModule> path = modulesRequiredForProcessing(
+                sourceType, targetType, locale, voice, seenTypes);
+            // Two threads may search the same route concurrently; they will find the same one.
+            route = path != null ? Collections.unmodifiableList(new ArrayList<MaryModule>(path)) : NO_ROUTE;
+            if ((locale == null || moduleLocales.contains(locale)) && routes.size() < MAX_ROUTES) {
+                routes.putIfAbsent(key, route);
+            }
+        }
+        if (route == NO_ROUTE) {
+            return null;
+        }
+        // a copy, so that callers cannot modify the cached route
+        return new LinkedList<MaryModule>(route);
+    }
+    
+    /**
+     * Write the table of routes through the modules, from every input type to every
+     * output type, for every locale and voice known, to the given writer.
+     * Each line lists source type, target type, locale and voice, followed
+     * by the modules on the route or "(no route)".
+     * This is meant for diagnostics; it computes and caches all routes not yet known.
+     * @param out where to write the table.
+     * @throws IllegalStateException if called while registration is not yet complete.
+     */
+    public static void dumpRoutingTable(PrintWriter out)
+    {
+        if (!registrationComplete)
+            throw new IllegalStateException("Cannot inquire about modules while registration is ongoing");
+        Set<Locale> locales = new LinkedHashSet<Locale>();
+        locales.add(null);
+        for (MaryModule m : allModules) {
+            if (m.getLocale() != null) locales.add(m.getLocale());
+        }
+        List<MaryDataType> sourceTypes = MaryDataType.getInputTypes();
+        List<MaryDataType> targetTypes = MaryDataType.getOutputTypes();
+        for (Locale locale : locales) {
+            dumpRoutes(out, sourceTypes, targetTypes, locale, null);
+        }
+        for (Voice voice : Voice.getAvailableVoices()) {
+            dumpRoutes(out, sourceTypes, targetTypes, voice.getLocale(), voice);
+        }
+        out.flush();
+    }
+    
+    /**
+     * Provide the routing table as a string.
+     * @see #dumpRoutingTable(PrintWriter)
+     */
+    public static String getRoutingTable()
+    {
+        StringWriter sw = new StringWriter();
+        dumpRoutingTable(new PrintWriter(sw));
+        return sw.toString();
+    }
+    
+    private static void dumpRoutes(PrintWriter out, List<MaryDataType> sourceTypes, List<MaryDataType> targetTypes,
+            Locale locale, Voice voice)
+    {
+        for (MaryDataType source : sourceTypes) {
+            for (MaryDataType target : targetTypes) {
+                if (source.equals(target)) continue;
+                out.print(source.name()+" -> "+target.name()+" (locale "+locale+", voice "+(voice != null ? voice.getName() : null)+"):");
+                List<MaryModule> route = modulesRequiredForProcessing(source, target, locale, voice);
+                if (route == null) {
+                    out.print(" (no route)");
+                } else {
+                    for (MaryModule m : route) {
+                        out.print(" "+m.name());
+                    }
+                }
+                out.println();
+            }
+        }
     }
     
     /**
@@ -372,6 +470,50 @@ public class ModuleRegistry
         return returnList;
     }
     
+    /**
+     * The key under which a route is cached.
+     * Voices have no notion of equality other than identity, which is what we want here.
+     */
+    private static final class RouteKey
+    {
+        private final MaryDataType sourceType;
+        private final MaryDataType targetType;
+        private final Locale locale;
+        private final Voice voice;
+        private final int hash;
+        
+        RouteKey(MaryDataType sourceType, MaryDataType targetType, Locale locale, Voice voice)
+        {
+            this.sourceType = sourceType;
+            this.targetType = targetType;
+            this.locale = locale;
+            this.voice = voice;
+            int h = sourceType.hashCode();
+            h = 31 * h + targetType.hashCode();
+            h = 31 * h + (locale != null ? locale.hashCode() : 0);
+            h = 31 * h + (voice != null ? voice.hashCode() : 0);
+            this.hash = h;
+        }
+        
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (!(o instanceof RouteKey)) return false;
+            RouteKey other = (RouteKey) o;
+            return hash == other.hash
+                && sourceType.equals(other.sourceType)
+                && targetType.equals(other.targetType)
+                && (locale == null ? other.locale == null : locale.equals(other.locale))
+                && voice == other.voice;
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
 
     
     
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.modules.acoustic;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import marytts.features.ContinuousFeatureProcessor;
+import marytts.features.FeatureVector;
+import marytts.features.MaryGenericFeatureProcessors;
+import marytts.features.TargetFeatureComputer;
+import marytts.unitselection.select.Target;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * A cache of target feature vectors for the acoustic models processing one document.
+ * The duration, F0 and other models of a voice mostly predict from the same features for the same elements;
+ * with this cache, a feature vector is computed once per element and feature definition, and
+ * all models whose feature computers compute the same features share it.
+ * <p>
+ * Feature vectors containing a feature predicted by an acoustic model (see
+ * {@link marytts.features.FeatureProcessorManager#registerAcousticModels(marytts.modules.synthesis.Voice)})
+ * are never cached, because their values change as the models are applied.
+ * <p>
+ * A cache is attached to a document for the duration of acoustic modelling with
+ * {@link #attach(Document)}; {@link Model#getTargets(java.util.List)} uses it if present.
+ * A cache is not thread-safe; it is meant to be used by the one thread processing the document.
+ *
+ * @author marc
+ *
+ */
+public class FeatureVectorCache
+{
+    private static final String USER_DATA_KEY = "marytts.modules.acoustic.FeatureVectorCache";
+
+    private static final AtomicLong totalHits = new AtomicLong(0);
+    private static final AtomicLong totalMisses = new AtomicLong(0);
+    private static final AtomicLong totalUncached = new AtomicLong(0);
+
+    /**
+     * Attach a new, empty cache to the given document.
+     * @param doc
+     * @return the cache
+     */
+    public static FeatureVectorCache attach(Document doc)
+    {
+        FeatureVectorCache cache = new FeatureVectorCache();
+        doc.setUserData(USER_DATA_KEY, cache, null);
+        return cache;
+    }
+
+    /**
+     * Remove the cache attached to the given document, if any.
+     * @param doc
+     */
+    public static void detach(Document doc)
+    {
+        doc.setUserData(USER_DATA_KEY, null, null);
+    }
+
+    /**
+     * Get the cache attached to the given document.
+     * @param doc
+     * @return the cache, or null if no cache is attached to doc.
+     */
+    public static FeatureVectorCache get(Document doc)
+    {
+        if (doc == null) return null;
+        return (FeatureVectorCache) doc.getUserData(USER_DATA_KEY);
+    }
+
+    /**
+     * @return the number of feature vectors taken from any cache since startup.
+     */
+    public static long getTotalHitCount()
+    {
+        return totalHits.get();
+    }
+
+    /**
+     * @return the number of feature vectors computed and entered into any cache since startup.
+     */
+    public static long getTotalMissCount()
+    {
+        return totalMisses.get();
+    }
+
+    /**
+     * @return the number of feature vectors computed without caching since startup,
+     * because they contain acoustic model features.
+     */
+    public static long getTotalUncachedCount()
+    {
+        return totalUncached.get();
+    }
+
+
+    // the feature vectors per element, for each list of feature names:
+    private final Map<String, Map<Element, FeatureVector>> vectorsByFeatures = new HashMap<String, Map<Element, FeatureVector>>();
+    // the entry of vectorsByFeatures for each feature computer, or null if its vectors cannot be cached:
+    private final Map<TargetFeatureComputer, Map<Element, FeatureVector>> vectorsByComputer = new IdentityHashMap<TargetFeatureComputer, Map<Element, FeatureVector>>();
+    private long hits = 0;
+    private long misses = 0;
+    private long uncached = 0;
+
+    /**
+     * Get the feature vector for the given target as computed by the given feature computer,
+     * computing it only if no feature vector with the same features has been computed for the target's element before.
+     * @param computer
+     * @param target a target with a MaryXML element
+     * @return the feature vector
+     */
+    public FeatureVector getFeatureVector(TargetFeatureComputer computer, Target target)
+    {
+        Map<Element, FeatureVector> vectors = getVectors(computer);
+        Element element = target.getMaryxmlElement();
+        if (vectors == null || element == null) {
+            uncached++;
+            totalUncached.incrementAndGet();
+            return computer.computeFeatureVector(target);
+        }
+        FeatureVector fv = vectors.get(element);
+        if (fv != null) {
+            hits++;
+            totalHits.incrementAndGet();
+            return fv;
+        }
+        misses++;
+        totalMisses.incrementAndGet();
+        fv = computer.computeFeatureVector(target);
+        vectors.put(element, fv);
+        return fv;
+    }
+
+    private Map<Element, FeatureVector> getVectors(TargetFeatureComputer computer)
+    {
+        if (vectorsByComputer.containsKey(computer)) {
+            return vectorsByComputer.get(computer);
+        }
+        Map<Element, FeatureVector> vectors = null;
+        if (isCacheable(computer)) {
+            String features = computer.getFeatureDefinition().getFeatureNames();
+            vectors = vectorsByFeatures.get(features);
+            if (vectors == null) {
+                vectors = new IdentityHashMap<Element, FeatureVector>();
+                vectorsByFeatures.put(features, vectors);
+            }
+        }
+        vectorsByComputer.put(computer, vectors);
+        return vectors;
+    }
+
+    private static boolean isCacheable(TargetFeatureComputer computer)
+    {
+        for (ContinuousFeatureProcessor fp : computer.getContinuousFeatureProcessors()) {
+            if (fp instanceof MaryGenericFeatureProcessors.GenericContinuousFeature) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of feature vectors taken from this cache.
+     */
+    public long getHitCount()
+    {
+        return hits;
+    }
+
+    /**
+     * @return the number of feature vectors computed and entered into this cache.
+     */
+    public long getMissCount()
+    {
+        return misses;
+    }
+
+    /**
+     * @return the number of feature vectors computed without caching.
+     */
+    public long getUncachedCount()
+    {
+        return uncached;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FeatureVectorCache: "+hits+" hits, "+misses+" misses, "+uncached+" uncached";
+    }
+}
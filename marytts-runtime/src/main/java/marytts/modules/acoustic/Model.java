@@ -235,7 +235,8 @@ public abstract class Model {
 
     /**
      * For a list of <code>PHONE</code> elements, return a list of Targets, where each Target is constructed from the
-     * corresponding Element.
+     * corresponding Element. If a {@link FeatureVectorCache} is attached to the elements' document, feature vectors
+     * are taken from it where possible.
      * 
      * @param elements
      *            List of Elements
@@ -249,9 +250,15 @@ public abstract class Model {
             Target target = new Target(phone, element);
             targets.add(target);
         }
+        FeatureVectorCache cache = elements.isEmpty() ? null : FeatureVectorCache.get(elements.get(0).getOwnerDocument());
         // compute FeatureVectors for Targets:
         for (Target target : targets) {
-            FeatureVector targetFeatureVector = featureComputer.computeFeatureVector(target);
+            FeatureVector targetFeatureVector;
+            if (cache != null) {
+                targetFeatureVector = cache.getFeatureVector(featureComputer, target);
+            } else {
+                targetFeatureVector = featureComputer.computeFeatureVector(target);
+            }
             target.setFeatureVector(targetFeatureVector); // this is critical!
         }
         return targets;
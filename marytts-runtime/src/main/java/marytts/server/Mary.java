@@ -40,6 +40,7 @@ import java.util.Locale;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
@@ -61,6 +62,8 @@ import marytts.util.MaryCache;
 import marytts.util.MaryRuntimeUtils;
 import marytts.util.MaryUtils;
 import marytts.util.Pair;
+import marytts.util.concurrent.MaryThreadPool;
+import marytts.util.data.ProducingDoubleDataSource;
 import marytts.util.data.audio.MaryAudioUtils;
 import marytts.util.io.FileUtils;
 
@@ -170,6 +173,19 @@ public class Mary {
         }
     }
 
+    /**
+     * Create the shared thread pool on which all audio producers (e.g., the HMM vocoder)
+     * are run, as configured by the audioproducers.* properties.
+     */
+    private static void setupAudioProducers()
+    {
+        int numThreads = MaryThreadPool.threadsFromSetting(MaryProperties.getInteger("audioproducers.threads", 0));
+        int queueSize = MaryProperties.getInteger("audioproducers.queuesize", ProducingDoubleDataSource.DEFAULT_QUEUE_SIZE);
+        ProducingDoubleDataSource.setProducerExecutor(new MaryThreadPool("AudioProducer", numThreads, queueSize));
+        ProducingDoubleDataSource.setProducerTimeout(MaryProperties.getInteger("audioproducers.timeout", (int)ProducingDoubleDataSource.DEFAULT_PRODUCER_TIMEOUT));
+        logger.debug("Audio producers: "+numThreads+" pooled threads, up to "+queueSize+" waiting, further producers run by their readers");
+    }
+
     private static void setupFeatureProcessors()
     throws Exception
     {
@@ -294,6 +310,8 @@ public class Mary {
 
         setupFeatureProcessors();
         
+        setupAudioProducers();
+        
         // Instantiate module classes and startup modules:
         startModules();
 
@@ -390,6 +408,11 @@ public class Mary {
                 m.shutdown();
         }
         
+        ExecutorService producers = ProducingDoubleDataSource.getProducerExecutor();
+        logger.debug(producers.toString());
+        producers.shutdown();
+        ProducingDoubleDataSource.setProducerExecutor(null);
+        
         if (MaryCache.haveCache()) {
             MaryCache cache = MaryCache.getCache();
             try {
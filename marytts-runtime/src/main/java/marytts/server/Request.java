@@ -26,6 +26,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -34,6 +36,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -51,6 +59,7 @@ import marytts.modules.synthesis.Voice;
 import marytts.util.MaryCache;
 import marytts.util.MaryRuntimeUtils;
 import marytts.util.MaryUtils;
+import marytts.util.concurrent.MaryThreadPool;
 import marytts.util.data.audio.AppendableSequenceAudioInputStream;
 import marytts.util.dom.DomUtils;
 import marytts.util.dom.MaryDomUtils;
@@ -82,6 +91,9 @@ import org.w3c.dom.traversal.TreeWalker;
  * (<code>writeOutputData</code>).
  */
 public class Request {
+    private static final int PARAGRAPH_QUEUE_SIZE = 1000;
+    private static ExecutorService paragraphExecutor = null;
+
     protected MaryDataType inputType;
     protected MaryDataType outputType;
     protected String outputTypeParams;
@@ -97,7 +109,7 @@ public class Request {
     protected MaryData inputData;
     protected MaryData outputData;
     protected boolean streamAudio = false;;
-    protected boolean abortRequested = false;
+    protected volatile boolean abortRequested = false;
 
     // Keep track of timing info for each module
     // (map MaryModule onto Long)
@@ -323,42 +335,138 @@ public class Request {
             outputData.setAudioFileFormat(audioFileFormat);
         }
         int len = inputDataList.getLength();
-        for (int i=0; i<len && !abortRequested; i++) {
-            Element currentInputParagraph = (Element) inputDataList.item(i);
-            assert currentInputParagraph.getTagName().equals(MaryXML.PARAGRAPH);
-            NodeList outputNodeList = null;
-            // Only process paragraph if there is any text below it:
-            if (MaryDomUtils.getPlainTextBelow(currentInputParagraph).trim().equals("")) {
-                outputNodeList = currentInputParagraph.getChildNodes();
-            } else { // process "real" data:
-                MaryData oneInputData = extractParagraphAsMaryData(rawmaryxml, currentInputParagraph);
-                //assert oneInputData.getDefaultVoice() != null;
-                MaryData oneOutputData = processOrLookupOneChunk(oneInputData, outputType, outputTypeParams);
-                //assert oneOutputData.getDefaultVoice() != null;
+        // Take a snapshot of the paragraphs, because the document is modified as we go along:
+        List<Element> paragraphs = new ArrayList<Element>(len);
+        for (int i=0; i<len; i++) {
+            paragraphs.add((Element) inputDataList.item(i));
+        }
+        // Up to parallelism paragraphs are processed at the same time; their results
+        // are used strictly in document order, so that audio is appended in the right order
+        // and the first paragraph can be output as soon as it is ready.
+        int parallelism = getParagraphParallelism();
+        List<Future<MaryData>> results = new ArrayList<Future<MaryData>>(Collections.<Future<MaryData>>nCopies(len, null));
+        int nextToStart = 0;
+        try {
+            for (int i=0; i<len && !abortRequested; i++) {
+                while (nextToStart < len && nextToStart < i + parallelism) {
+                    results.set(nextToStart, startProcessingParagraph(rawmaryxml, paragraphs.get(nextToStart), parallelism > 1));
+                    nextToStart++;
+                }
+                Element currentInputParagraph = paragraphs.get(i);
+                assert currentInputParagraph.getTagName().equals(MaryXML.PARAGRAPH);
+                Future<MaryData> result = results.set(i, null);
+                NodeList outputNodeList = null;
+                // Only process paragraph if there is any text below it:
+                if (result == null) {
+                    outputNodeList = currentInputParagraph.getChildNodes();
+                } else { // process "real" data:
+                    MaryData oneOutputData = getParagraphResult(result);
+                    //assert oneOutputData.getDefaultVoice() != null;
+                    if (outputType.isMaryXML()) {
+                        NodeList outParagraphList = oneOutputData.getDocument().getDocumentElement().getElementsByTagName(MaryXML.PARAGRAPH);
+                        // This does not hold for Tibetan:
+                        //assert outParagraphList.getLength() == 1;
+                        outputNodeList = outParagraphList;
+                    } else { // output is not MaryXML, e.g. text or audio
+                        assert outputData != null;
+                        outputData.append(oneOutputData);
+                    }
+                }
                 if (outputType.isMaryXML()) {
-                    NodeList outParagraphList = oneOutputData.getDocument().getDocumentElement().getElementsByTagName(MaryXML.PARAGRAPH);
-                    // This does not hold for Tibetan:
-                    //assert outParagraphList.getLength() == 1;
-                    outputNodeList = outParagraphList;
-                } else { // output is not MaryXML, e.g. text or audio
-                    assert outputData != null;
-                    outputData.append(oneOutputData);
+                    assert outputNodeList != null;
+                    // And now replace the paragraph in-place:
+                    MaryDomUtils.replaceElement(currentInputParagraph, outputNodeList);
                 }
             }
-            if (outputType.isMaryXML()) {
-                assert outputNodeList != null;
-                // And now replace the paragraph in-place:
-                MaryDomUtils.replaceElement(currentInputParagraph, outputNodeList);
+        } finally {
+            // If we stop early, paragraphs still being processed are no longer needed:
+            for (Future<MaryData> result : results) {
+                if (result != null) result.cancel(false);
             }
         }
         long stopTime = System.currentTimeMillis();
         logger.info("Request processed in " + (stopTime - startTime) + " ms.");
-        for (MaryModule m : usedModules) {
-            logger.info("   " + m.name() + " took " + timingInfo.get(m) + " ms");
+        synchronized (timingInfo) {
+            for (MaryModule m : usedModules) {
+                logger.info("   " + m.name() + " took " + timingInfo.get(m) + " ms");
+            }
         }
         if (appendableAudioStream != null) appendableAudioStream.doneAppending();
     }
 
+    /**
+     * The maximum number of paragraphs of one request that are processed at the same time,
+     * as configured by the property <code>request.parallelparagraphs</code>.
+     * @return a number of paragraphs, at least 1.
+     */
+    private static int getParagraphParallelism() {
+        return Math.max(1, MaryProperties.getInteger("request.parallelparagraphs", 1));
+    }
+
+    /**
+     * The shared pool on which paragraphs are processed in parallel.
+     * Its size is set by the property <code>request.paragraphthreads</code>
+     * (0 or less means one thread per processor).
+     * @return
+     */
+    private static synchronized ExecutorService getParagraphExecutor() {
+        if (paragraphExecutor == null) {
+            int numThreads = MaryThreadPool.threadsFromSetting(MaryProperties.getInteger("request.paragraphthreads", 0));
+            paragraphExecutor = new MaryThreadPool("ParagraphProcessor", numThreads, PARAGRAPH_QUEUE_SIZE);
+        }
+        return paragraphExecutor;
+    }
+
+    /**
+     * Start processing one paragraph into the output type.
+     * The paragraph is extracted from the document in the calling thread, so that
+     * the document itself is only ever accessed from one thread.
+     * @param rawmaryxml the document containing the paragraph
+     * @param paragraph the paragraph to process
+     * @param inParallel if true, process on the shared paragraph pool; if false, or if the pool
+     * is saturated, process right away in the calling thread.
+     * @return the future result, or null if there is no text to process in the paragraph.
+     */
+    private Future<MaryData> startProcessingParagraph(MaryData rawmaryxml, Element paragraph, boolean inParallel) {
+        if (MaryDomUtils.getPlainTextBelow(paragraph).trim().equals("")) {
+            return null;
+        }
+        final MaryData oneInputData = extractParagraphAsMaryData(rawmaryxml, paragraph);
+        //assert oneInputData.getDefaultVoice() != null;
+        FutureTask<MaryData> task = new FutureTask<MaryData>(new Callable<MaryData>() {
+            public MaryData call() throws Exception {
+                return processOrLookupOneChunk(oneInputData, outputType, outputTypeParams);
+            }
+        });
+        if (inParallel) {
+            try {
+                getParagraphExecutor().execute(task);
+                return task;
+            } catch (RejectedExecutionException e) {
+                logger.debug("Paragraph pool saturated, processing paragraph in request thread");
+            }
+        }
+        task.run();
+        return task;
+    }
+
+    /**
+     * Wait for the result of processing one paragraph.
+     * @param result
+     * @return the output data for the paragraph
+     * @throws Exception if processing the paragraph failed
+     */
+    private MaryData getParagraphResult(Future<MaryData> result) throws Exception {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
     /**
      * Convert the given data into the requested output type, either by looking it up in the cache
      * or by actually processing it.
@@ -367,7 +475,7 @@ public class Request {
      * @param usedModules for the record, the modules used (will be added to)
      * @param timingInfo for the record, the processing time used for each module (will be added to)
      */
-    private MaryData processOrLookupOneChunk(MaryData oneInputData, MaryDataType oneOutputType, String outputParams) 
+    protected MaryData processOrLookupOneChunk(MaryData oneInputData, MaryDataType oneOutputType, String outputParams) 
     throws TransformerConfigurationException, FileNotFoundException, TransformerException, IOException, Exception {
         if (logger.getEffectiveLevel().equals(Level.DEBUG)
                 && (oneInputData.getType().isTextType() || oneInputData.getType().isXMLType())) {
@@ -507,7 +615,9 @@ public class Request {
             String message = "No known way of generating output from input -- " + "no processing path through modules.";
             throw new UnsupportedOperationException(message);
         }
-        usedModules.addAll(neededModules);
+        synchronized (timingInfo) {
+            usedModules.addAll(neededModules);
+        }
         logger.info("Handling request using the following modules:");
         for (MaryModule m : neededModules) {
             logger.info("- " + m.name() + " (" + m.getClass().getName() + ")");
@@ -561,11 +671,13 @@ public class Request {
             currentData = outData;
             long moduleStopTime = System.currentTimeMillis();
             long delta = moduleStopTime - moduleStartTime;
-            Long soFar = timingInfo.get(m);
-            if (soFar != null)
-                timingInfo.put(m, new Long(soFar.longValue()+delta));
-            else
-                timingInfo.put(m, new Long(delta));
+            synchronized (timingInfo) {
+                Long soFar = timingInfo.get(m);
+                if (soFar != null)
+                    timingInfo.put(m, new Long(soFar.longValue()+delta));
+                else
+                    timingInfo.put(m, new Long(delta));
+            }
             if (MaryRuntimeUtils.veryLowMemoryCondition()) {
                 logger.info("Very low memory condition detected (only " + MaryUtils.availableMemory() + " bytes left). Triggering garbage collection.");
                 Runtime.getRuntime().gc();
@@ -119,6 +119,17 @@ public class BaseAudioEffect implements AudioEffect{
         return input;
     }
     
+    /**
+     * The number of input samples that the data source returned by {@link #process(DoubleDataSource)}
+     * reads beyond a sample before it can deliver that sample. Effects processing the signal frame by frame
+     * return their frame length; this baseline version, like all effects working sample by sample, returns 0.
+     * @return the lookahead in samples
+     */
+    public int getLookahead()
+    {
+        return 0;
+    }
+    
 
     public void setParams(String params)
     {
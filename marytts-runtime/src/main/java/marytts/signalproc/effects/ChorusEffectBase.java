@@ -42,6 +42,7 @@ public class ChorusEffectBase extends BaseAudioEffect {
     public static int MAX_DELAY = 5000;
     public static double MIN_AMP = -5.0;
     public static double MAX_AMP = 5.0;
+    private static final int PROCESSING_FRAME_LENGTH = 1024;
     
     public ChorusEffectBase()
     {
@@ -152,10 +153,15 @@ public class ChorusEffectBase extends BaseAudioEffect {
     {
         Chorus chorus = new Chorus(delaysInMiliseconds, amps, fs);
         
-        FrameOverlapAddSource foas = new FrameOverlapAddSource(input, Window.HANNING, true, 1024, fs, chorus);
+        FrameOverlapAddSource foas = new FrameOverlapAddSource(input, Window.HANNING, true, PROCESSING_FRAME_LENGTH, fs, chorus);
         
         return new BufferedDoubleDataSource(foas);
     }
+    
+    public int getLookahead()
+    {
+        return PROCESSING_FRAME_LENGTH;
+    }
 
     public String getHelpText() {        
         String strHelp = "Multi-Tap Chorus Effect:" + strLineBreak +
@@ -31,8 +31,8 @@ import javax.sound.sampled.AudioSystem;
 
 import marytts.htsengine.HMMVoice;
 import marytts.modules.synthesis.Voice;
-import marytts.util.data.BufferedDoubleDataSource;
 import marytts.util.data.DoubleDataSource;
+import marytts.util.data.FixedLengthDoubleDataSource;
 import marytts.util.data.audio.AudioDoubleDataSource;
 import marytts.util.data.audio.DDSAudioInputStream;
 import marytts.util.math.MathUtils;
@@ -91,11 +91,11 @@ public class EffectsApplier {
             }
             
             if (tmpSignal!=null) {
-                if (tmpSignal.getDataLength() == DoubleDataSource.NOT_SPECIFIED) {
-                    double[] data = tmpSignal.getAllData();
-                    tmpSignal = new BufferedDoubleDataSource(data);
+                // The effects keep the duration of the signal, so rather than reading the whole output
+                // to find its length, we stream it and cut or pad it to the length of the input.
+                if (signal.getDataLength() != DoubleDataSource.NOT_SPECIFIED) {
+                    tmpSignal = new FixedLengthDoubleDataSource(tmpSignal, signal.getDataLength());
                 }
-                assert tmpSignal.getDataLength() != DoubleDataSource.NOT_SPECIFIED;
                 return new DDSAudioInputStream(tmpSignal, audioformat);
             } else
                 return input;
@@ -104,6 +104,23 @@ public class EffectsApplier {
             return input;
     }
     
+    /**
+     * The delay with which the effects parsed last can stream their output:
+     * the sum of the lookahead of the individual effects.
+     * @return the number of samples that must be read from the input before the first output sample is available
+     */
+    public int getLookahead()
+    {
+        int lookahead = 0;
+        if (audioEffects != null) {
+            for (int i=0; i<audioEffects.length; i++) {
+                if (audioEffects[i] != null)
+                    lookahead += audioEffects[i].getLookahead();
+            }
+        }
+        return lookahead;
+    }
+    
     //Extract effects and parameters and create the corresponding effects at a default sampling rate 
     public void parseEffectsAndParams(String param)
     {
@@ -221,6 +221,11 @@ public class FilterEffectBase extends BaseAudioEffect {
             return input;
         }
     }
+    
+    public int getLookahead()
+    {
+        return filter != null ? frameLength : 0;
+    }
 
     public String getHelpText() {
         String strRange1 = "";
@@ -48,6 +48,9 @@ public class LpcWhisperiserEffect extends BaseAudioEffect {
     {
         super(samplingRate);
         
+        frameLength = Integer.getInteger("signalproc.lpcanalysissynthesis.framelength", 512).intValue();
+        predictionOrder = Integer.getInteger("signalproc.lpcwhisperiser.predictionorder", 20).intValue();
+        
         setExampleParameters("amount" + chParamEquals + "100.0" + chParamSeparator);
         
         strHelpText = getHelpText(); 
@@ -63,9 +66,6 @@ public class LpcWhisperiserEffect extends BaseAudioEffect {
             amount = DEFAULT_AMOUNT;
         
         amount = MathUtils.CheckLimits(amount, MIN_AMOUNT, MAX_AMOUNT);
-        
-        frameLength = Integer.getInteger("signalproc.lpcanalysissynthesis.framelength", 512).intValue();
-        predictionOrder = Integer.getInteger("signalproc.lpcwhisperiser.predictionorder", 20).intValue();
     }
     
     public DoubleDataSource process(DoubleDataSource input)
@@ -76,6 +76,11 @@ public class LpcWhisperiserEffect extends BaseAudioEffect {
         
         return new BufferedDoubleDataSource(foas);
     }
+    
+    public int getLookahead()
+    {
+        return frameLength;
+    }
 
     public String getHelpText() {
         
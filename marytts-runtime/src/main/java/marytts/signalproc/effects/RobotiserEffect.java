@@ -23,6 +23,7 @@ import marytts.signalproc.process.Robotiser;
 import marytts.util.data.BufferedDoubleDataSource;
 import marytts.util.data.DoubleDataSource;
 import marytts.util.math.MathUtils;
+import marytts.util.signal.SignalProcUtils;
 
 /**
  * @author Oytun T&uumlrk
@@ -65,6 +66,12 @@ public class RobotiserEffect extends BaseAudioEffect {
         Robotiser robotiser = new Robotiser(input, fs, amount/100.0f);
         return new BufferedDoubleDataSource(robotiser);
     }
+    
+    public int getLookahead()
+    {
+        // the frame length used by Robotiser:
+        return SignalProcUtils.getDFTSize(fs);
+    }
 
     public String getHelpText() {
         
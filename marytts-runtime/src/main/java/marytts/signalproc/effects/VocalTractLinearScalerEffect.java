@@ -86,6 +86,11 @@ public class VocalTractLinearScalerEffect extends BaseAudioEffect {
         return new BufferedDoubleDataSource(foas);
     }
     
+    public int getLookahead()
+    {
+        return SignalProcUtils.getDFTSize(fs);
+    }
+    
     public String getHelpText() {
 
         String strHelp = "Vocal Tract Linear Scaling Effect:" + strLineBreak +
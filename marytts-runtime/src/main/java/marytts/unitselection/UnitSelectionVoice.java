@@ -154,6 +154,11 @@ public class UnitSelectionVoice extends Voice {
             Object[] args = new Object[] { timelineFile };
             Constructor<? extends TimelineReader> constructor = (Constructor<? extends TimelineReader>) theClass.getConstructor(constructorArgTypes);
             TimelineReader timelineReader = constructor.newInstance(args);
+            if (MaryProperties.getBoolean(header+".audioTimeline.denseIndex",
+                    MaryProperties.getBoolean("unitselection.timeline.denseindex", false))) {
+                logger.debug("...building dense index for audio time line...");
+                timelineReader.buildDenseIndex();
+            }
 
             // optionally, get basename timeline
             String basenameTimelineFile = MaryProperties.getFilename(header+".basenameTimeline");
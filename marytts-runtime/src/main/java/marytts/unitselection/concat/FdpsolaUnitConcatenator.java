@@ -536,6 +536,8 @@ public class FdpsolaUnitConcatenator extends OverlapUnitConcatenator {
 
     /**
      * Generate audio to match the target pitchmarks as closely as possible.
+     * The audio is processed while the returned stream is read; the durations of the units
+     * are updated right away.
      * @param units
      * @return
      * @throws IOException 
@@ -558,7 +560,7 @@ public class FdpsolaUnitConcatenator extends OverlapUnitConcatenator {
         double[][] pscales = getRealizedPitchScales(realizedPhones);
         
         // process into audio stream:
-        DDSAudioInputStream stream = (new FDPSOLAProcessor()).processDecrufted(datagrams, rightContexts, audioformat, voicings, pscales, tscales);
+        DDSAudioInputStream stream = (new FDPSOLAProcessor()).processStreaming(datagrams, rightContexts, audioformat, voicings, pscales, tscales);
         
         // update durations from processed Datagrams:
 //        updateUnitDataDurations(units, datagrams);
@@ -575,7 +577,7 @@ public class FdpsolaUnitConcatenator extends OverlapUnitConcatenator {
      *            whose data should have its durations updated
      * @param datagrams
      *            processed array of arrays of Datagrams which had their durations updated in
-     *            {@link FDPSOLAProcessor#processDecrufted}
+     *            {@link FDPSOLAProcessor#processStreaming}
      */
     private void updateUnitDataDurations(List<SelectedUnit> units, Datagram[][] datagrams) {
         for (int i = 0; i < datagrams.length; i++) {
@@ -31,19 +31,23 @@ package marytts.unitselection.concat;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import javax.sound.sampled.AudioInputStream;
 
+import marytts.server.MaryProperties;
 import marytts.signalproc.adaptation.prosody.BasicProsodyModifierParams;
 import marytts.signalproc.sinusoidal.hntm.analysis.HntmAnalyzerParams;
 import marytts.signalproc.sinusoidal.hntm.analysis.HntmSpeechFrame;
 import marytts.signalproc.sinusoidal.hntm.analysis.HntmSpeechSignal;
+import marytts.signalproc.sinusoidal.hntm.synthesis.HntmBlockSynthesizer;
 import marytts.signalproc.sinusoidal.hntm.synthesis.HntmSynthesizedSignal;
 import marytts.signalproc.sinusoidal.hntm.synthesis.HntmSynthesizer;
 import marytts.signalproc.sinusoidal.hntm.synthesis.HntmSynthesizerParams;
 import marytts.unitselection.data.HnmDatagram;
 import marytts.unitselection.data.Unit;
 import marytts.unitselection.select.SelectedUnit;
+import marytts.util.concurrent.MaryThreadPool;
 import marytts.util.data.BufferedDoubleDataSource;
 import marytts.util.data.Datagram;
 import marytts.util.data.audio.DDSAudioInputStream;
@@ -56,12 +60,37 @@ import marytts.util.math.MathUtils;
  *
  */
 public class HnmUnitConcatenator extends OverlapUnitConcatenator {
+    private static final int SYNTHESIS_QUEUE_SIZE = 100;
+    private static ExecutorService synthesisExecutor = null;
 
     public HnmUnitConcatenator()
     {
         super();
     }
     
+    /**
+     * The number of threads synthesizing the frame blocks of one utterance in parallel,
+     * as configured by the property <code>hnm.parallelblocks</code>.
+     * @return a number of threads, at least 1.
+     */
+    private static int getSynthesisParallelism() {
+        return Math.max(1, MaryProperties.getInteger("hnm.parallelblocks", 1));
+    }
+    
+    /**
+     * The pool shared by all utterances for synthesizing frame blocks in parallel.
+     * Its size is set by the property <code>hnm.synthesisthreads</code>
+     * (0 or less means one thread per processor).
+     * @return
+     */
+    private static synchronized ExecutorService getSynthesisExecutor() {
+        if (synthesisExecutor == null) {
+            int numThreads = MaryThreadPool.threadsFromSetting(MaryProperties.getInteger("hnm.synthesisthreads", 0));
+            synthesisExecutor = new MaryThreadPool("HnmSynthesis", numThreads, SYNTHESIS_QUEUE_SIZE);
+        }
+        return synthesisExecutor;
+    }
+    
     /**
      * Get the raw audio material for each unit from the timeline.
      * @param units
@@ -236,6 +265,16 @@ public class HnmUnitConcatenator extends OverlapUnitConcatenator {
             }
         }
 
+        if (totalFrm>0 && HntmBlockSynthesizer.isSupported(analysisParams, synthesisParams))
+        {
+            int parallelism = getSynthesisParallelism();
+            HntmBlockSynthesizer synthesizer = new HntmBlockSynthesizer(hnmSignal, leftContextFrames, rightContextFrames, pmodParams,
+                    analysisParams, synthesisParams, parallelism > 1 ? getSynthesisExecutor() : null, parallelism);
+            synthesizer.setOutputScale(1.0/32768.0);
+            synthesizer.start();
+            return synthesizer;
+        }
+        
         HntmSynthesizedSignal ss = null;
         if (totalFrm>0)
         {    
@@ -44,6 +44,7 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import marytts.exceptions.MaryConfigurationException;
 import marytts.util.MaryUtils;
@@ -77,12 +78,36 @@ public class TimelineReader
      */
     protected long totalDuration = -1;
     
-    protected int datagramsBytePos = 0;
-    protected int timeIdxBytePos = 0;
+    protected long datagramsBytePos = 0;
+    protected long timeIdxBytePos = 0;
+    
+    /**
+     * The size of the byte buffers used for piecewise reading.
+     */
+    protected static final int PIECEWISE_BUFFER_SIZE = 0x10000; // 64 kB
+    private static final int DENSE_INDEX_READ_SIZE = 0x2000; // 8 kB
     
     // exactly one of the two following variables will be non-null after load():
-    private MappedByteBuffer mappedBB = null;
+    /**
+     * The datagram zone, mapped as one or more overlapping segments.
+     * Segment i starts at byte i*segmentStep of the datagram zone and extends beyond the start of
+     * segment i+1 by the segment overlap, so that any datagram starting within segment i's step
+     * can be read from segment i in one piece.
+     */
+    private MappedByteBuffer[] mappedSegments = null;
     private FileChannel fileChannel = null;
+    private long segmentStep;
+    // direct buffers for piecewise reading, ready for reuse:
+    private final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
+    
+    /**
+     * The optional dense index, see {@link #buildDenseIndex()}:
+     * for datagram i, datagramTimes[i] is its start time in samples and datagramBytePositions[i]
+     * is its position in the file; datagramBytePositions[numDatagrams] is the end of the datagram zone.
+     */
+    private long[] datagramTimes = null;
+    private long[] datagramBytePositions = null;
+    private long denseIndexEndTime = 0;
     
     
     
@@ -186,8 +211,8 @@ public class TimelineReader
         }
         
         /* Load the positions of the various subsequent components */
-        datagramsBytePos = (int) headerBB.getLong();
-        timeIdxBytePos = (int) headerBB.getLong();
+        datagramsBytePos = headerBB.getLong();
+        timeIdxBytePos = headerBB.getLong();
         if (timeIdxBytePos < datagramsBytePos) {
             throw new MaryConfigurationException("File seems corrupt: index is expected after data, not before");
         }
@@ -204,13 +229,14 @@ public class TimelineReader
         if (tryMemoryMapping) {
             // Try if we can use a mapped byte buffer:
             try {
-                mappedBB = fc.map(FileChannel.MapMode.READ_ONLY, datagramsBytePos, timeIdxBytePos-datagramsBytePos);
+                mapDatagramZone(fc);
                 file.close(); // if map() succeeded, we don't need the file anymore.
             } catch (IOException ome) {
                 MaryUtils.getLogger("Timeline").warn("Cannot use memory mapping for timeline file '"+fileName+"' -- falling back to piecewise reading");
+                mappedSegments = null;
             }
         }
-        if (!tryMemoryMapping || mappedBB == null) { // use piecewise reading
+        if (!tryMemoryMapping || mappedSegments == null) { // use piecewise reading
             fileChannel = fc;
             assert fileChannel != null;
             // and leave file open
@@ -219,7 +245,57 @@ public class TimelineReader
         // postconditions:
         assert idx != null;
         assert procHdr != null;
-        assert fileChannel == null && mappedBB != null || fileChannel != null && mappedBB == null;
+        assert fileChannel == null && mappedSegments != null || fileChannel != null && mappedSegments == null;
+    }
+    
+    /**
+     * Map the datagram zone into memory. A zone that fits into a single mapped byte buffer is mapped as one
+     * segment; larger zones are mapped as a series of overlapping segments.
+     * @param fc the channel of the timeline file
+     * @throws IOException if the zone cannot be mapped, or if it cannot be mapped in segments because
+     * the maximum segment size is not larger than the segment overlap.
+     */
+    private void mapDatagramZone(FileChannel fc) throws IOException {
+        long zoneSize = timeIdxBytePos - datagramsBytePos;
+        long maxSegmentSize = getMaxMappedSegmentSize();
+        if (zoneSize <= maxSegmentSize) {
+            segmentStep = Math.max(zoneSize, 1);
+        } else {
+            segmentStep = maxSegmentSize - getMappedSegmentOverlap();
+            if (segmentStep <= 0) {
+                throw new IOException("Maximum segment size "+maxSegmentSize+" must be larger than segment overlap "+getMappedSegmentOverlap());
+            }
+        }
+        int numSegments = (int) ((zoneSize + segmentStep - 1) / segmentStep);
+        if (numSegments == 0) numSegments = 1;
+        mappedSegments = new MappedByteBuffer[numSegments];
+        for (int i=0; i<numSegments; i++) {
+            long start = i * segmentStep;
+            long size = Math.min(maxSegmentSize, zoneSize - start);
+            mappedSegments[i] = fc.map(FileChannel.MapMode.READ_ONLY, datagramsBytePos + start, size);
+        }
+        if (numSegments > 1) {
+            MaryUtils.getLogger("Timeline").debug("Mapped timeline datagram zone of "+zoneSize+" bytes as "+numSegments+" segments");
+        }
+    }
+    
+    /**
+     * The maximum number of bytes to map as a single segment.
+     * Timelines whose datagram zone is larger than this are mapped as several segments.
+     * @return a positive number, not larger than Integer.MAX_VALUE.
+     */
+    protected long getMaxMappedSegmentSize() {
+        return Integer.MAX_VALUE;
+    }
+    
+    /**
+     * The number of bytes by which consecutive mapped segments overlap.
+     * This must be at least the size of the largest datagram in the timeline (including its header),
+     * so that every datagram can be read in one piece from one segment.
+     * @return a non-negative number smaller than {@link #getMaxMappedSegmentSize()}.
+     */
+    protected long getMappedSegmentOverlap() {
+        return 0x4000000; // 64 MB
     }
 
     /**
@@ -285,13 +361,14 @@ public class TimelineReader
             ByteBuffer bb = p.getFirst();
             assert p.getSecond() == 0;
             while (!haveReadAll) {
-                Datagram dat = getNextDatagram(bb);
+                Datagram dat = readNextDatagram(bb);
                 if (dat == null) {
                     // we may have reached the end of the current byte buffer... try reading another:
+                    releaseByteBuffer(bb);
                     p = getByteBufferAtTime(time);
                     bb = p.getFirst();
                     assert p.getSecond() == time;
-                    dat = getNextDatagram(bb);
+                    dat = readNextDatagram(bb);
                     if (dat == null) { // no, indeed we cannot read any more
                         break; // abort, we could not read all
                     }
@@ -303,6 +380,7 @@ public class TimelineReader
                     haveReadAll = true;
                 }
             }
+            releaseByteBuffer(bb);
         } catch (Exception e) {
             throw new MaryConfigurationException("Could not compute total duration", e);
         }
@@ -321,6 +399,67 @@ public class TimelineReader
         return idx;
     }
     
+    /**
+     * Build a dense index holding the time and byte position of every datagram in the timeline.
+     * With a dense index, the datagram at a given time is found by binary search, rather than by hopping
+     * through the datagrams following the nearest entry in the (sparse) time index.
+     * The dense index requires 16 bytes of memory per datagram. It should be built right after
+     * loading, before the timeline reader is used by several threads.
+     * As a side effect, the total duration of the timeline is known afterwards.
+     * @throws IOException if the datagram zone cannot be read or is inconsistent with the header.
+     */
+    public void buildDenseIndex() throws IOException {
+        if (numDatagrams >= Integer.MAX_VALUE) {
+            throw new IOException("Too many datagrams for a dense index: "+numDatagrams);
+        }
+        int n = (int) numDatagrams;
+        long[] times = new long[n];
+        long[] positions = new long[n+1];
+        long time = 0;
+        long pos = datagramsBytePos;
+        ByteBuffer bb = null;
+        long bufferStart = 0;
+        for (int i=0; i<n; i++) {
+            if (bb == null || pos - bufferStart + Datagram.NUM_HEADER_BYTES > bb.limit()) {
+                releaseByteBuffer(bb);
+                bb = getDatagramZoneAt(pos, Datagram.NUM_HEADER_BYTES);
+                bufferStart = pos - bb.position();
+                if (bb.remaining() < Datagram.NUM_HEADER_BYTES) {
+                    throw new IOException("File seems corrupt: datagram zone ends after "+i+" of "+n+" datagrams");
+                }
+            }
+            bb.position((int) (pos - bufferStart));
+            times[i] = time;
+            positions[i] = pos;
+            long duration = bb.getLong();
+            int length = bb.getInt();
+            if (duration < 0 || length < 0) {
+                throw new IOException("File seems corrupt: datagram "+i+" has duration "+duration+" and length "+length);
+            }
+            time += duration;
+            pos += Datagram.NUM_HEADER_BYTES + length;
+        }
+        releaseByteBuffer(bb);
+        if (pos > timeIdxBytePos) {
+            throw new IOException("File seems corrupt: datagrams extend beyond the datagram zone");
+        }
+        positions[n] = pos;
+        datagramBytePositions = positions;
+        datagramTimes = times;
+        denseIndexEndTime = time;
+        if (totalDuration == -1) {
+            totalDuration = time;
+        }
+    }
+    
+    /**
+     * Whether this timeline reader has a dense index.
+     * @see #buildDenseIndex()
+     */
+    public boolean hasDenseIndex() {
+        return datagramTimes != null;
+    }
+    
     
     // Helper methods
     
@@ -395,6 +534,20 @@ public class TimelineReader
         }
     }
     
+    /**
+     * Read the upcoming datagram from the given byte buffer, treating a datagram that is cut off
+     * at the end of the byte buffer in the same way as the end of the byte buffer.
+     * @param bb the timeline byte buffer to read from
+     * @return the current datagram, or null if no complete datagram can be read from bb
+     */
+    private Datagram readNextDatagram(ByteBuffer bb) {
+        try {
+            return getNextDatagram(bb);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+    
     /**
      * Hop the datagrams in the given byte buffer until the one which begins at or contains the desired time
      * (time is in samples; the sample rate is assumed to be that of the timeline).
@@ -451,7 +604,10 @@ public class TimelineReader
      * @throws IOException, BufferUnderflowException if no byte buffer can be obtained for the requested time.
      */
     protected Pair<ByteBuffer, Long> getByteBufferAtTime(long targetTimeInSamples) throws IOException, BufferUnderflowException {
-        if (mappedBB != null) {
+        if (datagramTimes != null && targetTimeInSamples >= 0 && targetTimeInSamples < denseIndexEndTime) {
+            return getByteBufferAtTimeFromDenseIndex(targetTimeInSamples);
+        }
+        if (mappedSegments != null) {
             return getMappedByteBufferAtTime(targetTimeInSamples);
         } else { 
             return loadByteBufferAtTime(targetTimeInSamples);
@@ -459,15 +615,96 @@ public class TimelineReader
     }
 
 
+    /**
+     * Look up the datagram containing the given time in the dense index.
+     * As with {@link #hopToTime(ByteBuffer, long, long)}, this is the last datagram starting at or before
+     * the given time.
+     * @param targetTimeInSamples a time within the timeline
+     * @return a byte buffer positioned at the start of the datagram, and the datagram's start time.
+     * @throws IOException if the datagram cannot be read
+     */
+    private Pair<ByteBuffer, Long> getByteBufferAtTimeFromDenseIndex(long targetTimeInSamples) throws IOException {
+        assert datagramTimes != null;
+        assert targetTimeInSamples >= 0 && targetTimeInSamples < denseIndexEndTime;
+        // binary search for the last datagram starting at or before the target time:
+        int lo = 0;
+        int hi = datagramTimes.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (datagramTimes[mid] <= targetTimeInSamples) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        long bytePos = datagramBytePositions[lo];
+        int datagramNumBytes = (int) (datagramBytePositions[lo+1] - bytePos);
+        ByteBuffer bb = getDatagramZoneAt(bytePos, datagramNumBytes);
+        return new Pair<ByteBuffer, Long>(bb, datagramTimes[lo]);
+    }
+    
+    /**
+     * Provide a byte buffer from which at least minBytes bytes of the datagram zone can be read, starting at bytePos
+     * (unless the datagram zone ends earlier).
+     * @param bytePos a position in the file, within the datagram zone
+     * @param minBytes the number of bytes that must be readable from the returned byte buffer.
+     * @return a byte buffer positioned at bytePos.
+     * @throws IOException if the data cannot be read.
+     */
+    private ByteBuffer getDatagramZoneAt(long bytePos, int minBytes) throws IOException {
+        if (mappedSegments != null) {
+            long zonePos = bytePos - datagramsBytePos;
+            int segment = (int) Math.min(zonePos / segmentStep, mappedSegments.length - 1);
+            ByteBuffer bb = mappedSegments[segment].duplicate();
+            bb.position((int) (zonePos - segment * segmentStep));
+            return bb;
+        }
+        // We know where the datagram is, so we read only a few kB rather than a whole buffer;
+        // callers reading on get another byte buffer when they reach the end of this one.
+        return loadDatagramZone(bytePos, Math.max(minBytes, DENSE_INDEX_READ_SIZE));
+    }
+    
     protected Pair<ByteBuffer, Long> getMappedByteBufferAtTime(long targetTimeInSamples) throws IllegalArgumentException, IOException {
-        assert mappedBB != null;
+        assert mappedSegments != null;
         /* Seek for the time index which comes just before the requested time */
         IdxField idxFieldBefore = idx.getIdxFieldBefore( targetTimeInSamples );
         long time = idxFieldBefore.timePtr;
-        int bytePos = (int) (idxFieldBefore.bytePtr - datagramsBytePos);
-        ByteBuffer bb = mappedBB.duplicate();
-        bb.position(bytePos);
-        time = hopToTime(bb, time, targetTimeInSamples);
+        long bytePos = idxFieldBefore.bytePtr - datagramsBytePos;
+        if (mappedSegments.length == 1) {
+            ByteBuffer bb = mappedSegments[0].duplicate();
+            bb.position((int) bytePos);
+            time = hopToTime(bb, time, targetTimeInSamples);
+            return new Pair<ByteBuffer, Long>(bb, time);
+        }
+        // Several segments: hop like hopToTime(), but move on to the next segment
+        // whenever we pass the end of the current segment's step.
+        int segment = (int) (bytePos / segmentStep);
+        ByteBuffer bb = mappedSegments[segment].duplicate();
+        bb.position((int) (bytePos - segment * segmentStep));
+        if (time == targetTimeInSamples) {
+            return new Pair<ByteBuffer, Long>(bb, time);
+        }
+        while (true) {
+            int posBefore = bb.position();
+            long datagramDuration = bb.getLong();
+            int datagramSize = bb.getInt();
+            if (time + datagramDuration > targetTimeInSamples) { // this datagram contains the requested time
+                bb.position(posBefore);
+                break;
+            }
+            time += datagramDuration;
+            bytePos += Datagram.NUM_HEADER_BYTES + datagramSize;
+            int newSegment = (int) Math.min(bytePos / segmentStep, mappedSegments.length - 1);
+            if (newSegment != segment) {
+                segment = newSegment;
+                bb = mappedSegments[segment].duplicate();
+            }
+            long posInSegment = bytePos - segment * segmentStep;
+            if (posInSegment > bb.limit()) {
+                throw new IOException("cannot skip datagram: it is not fully contained in byte buffer");
+            }
+            bb.position((int) posInSegment);
+        }
         return new Pair<ByteBuffer, Long>(bb, time);
     }
     
@@ -475,20 +712,17 @@ public class TimelineReader
     protected Pair<ByteBuffer, Long> loadByteBufferAtTime(long targetTimeInSamples) throws IOException {
         assert fileChannel != null;
         // we must load a chunk of data from the FileChannel
-        int bufSize = 0x10000; // 64 kB
         /* Seek for the time index which comes just before the requested time */
         IdxField idxFieldBefore = idx.getIdxFieldBefore( targetTimeInSamples );
         long time = idxFieldBefore.timePtr;
-        long bytePos = idxFieldBefore.bytePtr;
-        if (bytePos + bufSize > timeIdxBytePos) { // must not read index data as datagrams
-            bufSize = (int) (timeIdxBytePos - bytePos);
-        }
-        ByteBuffer bb = loadByteBuffer(bytePos, bufSize);
+        long bufferStart = idxFieldBefore.bytePtr; // the position in the file of bb's first byte
+        ByteBuffer bb = loadDatagramZone(bufferStart, PIECEWISE_BUFFER_SIZE);
 
         while (true) {
             if (!canReadDatagramHeader(bb)) {
-                bb = loadByteBuffer(bytePos, bufSize);
-                assert canReadDatagramHeader(bb);
+                bufferStart += bb.position();
+                releaseByteBuffer(bb);
+                bb = loadDatagramZone(bufferStart, PIECEWISE_BUFFER_SIZE);
             }
             int posBefore = bb.position();
             Datagram d = new Datagram(bb, false);
@@ -497,7 +731,9 @@ public class TimelineReader
                 int datagramNumBytes = Datagram.NUM_HEADER_BYTES+d.getLength();
                 // need to make sure we return a byte buffer from which d can be read
                 if (!canReadAmount(bb, datagramNumBytes)) {
-                    bb = loadByteBuffer(bytePos, Math.max(datagramNumBytes, bufSize));
+                    bufferStart += posBefore;
+                    releaseByteBuffer(bb);
+                    bb = loadDatagramZone(bufferStart, Math.max(datagramNumBytes, PIECEWISE_BUFFER_SIZE));
                 }
                 assert canReadAmount(bb, datagramNumBytes);
                 break;
@@ -507,29 +743,69 @@ public class TimelineReader
                 if (canReadAmount(bb, d.getLength())) {
                     bb.position(bb.position()+d.getLength());
                 } else {
-                    bytePos += bb.position();
-                    bytePos += d.getLength();
-                    bb = loadByteBuffer(bytePos, bufSize);
+                    bufferStart += bb.position();
+                    bufferStart += d.getLength();
+                    releaseByteBuffer(bb);
+                    bb = loadDatagramZone(bufferStart, PIECEWISE_BUFFER_SIZE);
                 }
             }
         }
         return new Pair<ByteBuffer, Long>(bb, time);
     }
 
+    /**
+     * Load a byte buffer with up to bufSize bytes of the datagram zone, but no index data.
+     * @param bytePos position in fileChannel from which to load the byte buffer
+     * @param bufSize maximum size of the byte buffer
+     * @return the byte buffer, loaded and set such that position is 0
+     * @throws IOException if the data cannot be read from fileChannel
+     */
+    private ByteBuffer loadDatagramZone(long bytePos, int bufSize) throws IOException {
+        if (bytePos + bufSize > timeIdxBytePos) { // must not read index data as datagrams
+            bufSize = (int) Math.max(0, timeIdxBytePos - bytePos);
+        }
+        return loadByteBuffer(bytePos, bufSize);
+    }
+
     /**
      * @param bytePos position in fileChannel from which to load the byte buffer
      * @param bufSize size of the byte buffer
-     * @return the byte buffer, loaded and set such that limit is bufSize and position is 0
+     * @return the byte buffer, loaded and set such that limit is bufSize (or less at the end of the file) and position is 0
      * @throws IOException if the data cannot be read from fileChannel
      */
     private ByteBuffer loadByteBuffer(long bytePos, int bufSize) throws IOException {
-        ByteBuffer bb = ByteBuffer.allocate(bufSize);
-        fileChannel.read(bb, bytePos); // this will block if another thread is currently reading from fileChannel
-        bb.limit(bb.position());
-        bb.position(0);
+        ByteBuffer bb = null;
+        if (bufSize <= PIECEWISE_BUFFER_SIZE) {
+            bb = bufferPool.poll();
+            if (bb == null) {
+                bb = ByteBuffer.allocateDirect(PIECEWISE_BUFFER_SIZE);
+            }
+            bb.clear();
+            bb.limit(bufSize);
+        } else { // a single datagram larger than our buffers
+            bb = ByteBuffer.allocate(bufSize);
+        }
+        // this will block if another thread is currently reading from fileChannel
+        while (bb.hasRemaining() && fileChannel.read(bb, bytePos + bb.position()) > 0) {
+            // keep reading
+        }
+        bb.flip();
         return bb;
     }
     
+    /**
+     * Indicate that the given byte buffer, obtained from {@link #getByteBufferAtTime(long)}, is no longer used,
+     * so that its memory can be reused for reading other data.
+     * This is optional; byte buffers that are not released are simply garbage collected.
+     * A byte buffer must not be used any more after it has been released.
+     * @param bb the byte buffer to release; may be null.
+     */
+    protected void releaseByteBuffer(ByteBuffer bb) {
+        if (bb != null && fileChannel != null && bb.isDirect() && bb.capacity() == PIECEWISE_BUFFER_SIZE) {
+            bufferPool.offer(bb);
+        }
+    }
+    
     private boolean canReadDatagramHeader(ByteBuffer bb) {
         return canReadAmount(bb, Datagram.NUM_HEADER_BYTES);
     }
@@ -552,7 +828,9 @@ public class TimelineReader
     public Datagram getDatagram( long targetTimeInSamples) throws IOException {
         Pair<ByteBuffer, Long> p = getByteBufferAtTime(targetTimeInSamples);
         ByteBuffer bb = p.getFirst();
-        return getNextDatagram(bb);
+        Datagram d = getNextDatagram(bb);
+        releaseByteBuffer(bb);
+        return d;
     }
     
     /**
@@ -638,9 +916,11 @@ public class TimelineReader
         int nRead = 0;
         boolean haveReadAll = false;
         while (!haveReadAll) {
-            Datagram dat = getNextDatagram(bb);
+            Datagram dat = readNextDatagram(bb);
             if (dat == null) {
                 // we may have reached the end of the current byte buffer... try reading another:
+                releaseByteBuffer(bb);
+                bb = null;
                 try {
                     p = getByteBufferAtTime(time);
                 } catch (Exception ioe) {
@@ -648,7 +928,7 @@ public class TimelineReader
                     break;
                 }
                 bb = p.getFirst();
-                dat = getNextDatagram(bb);
+                dat = readNextDatagram(bb);
                 if (dat == null) { // no, indeed we cannot read any more
                     break; // abort, we could not read all
                 }
@@ -664,6 +944,7 @@ public class TimelineReader
                 haveReadAll = true;
             }
         }
+        releaseByteBuffer(bb);
         return (Datagram[])datagrams.toArray(new Datagram[0]);
     }
     
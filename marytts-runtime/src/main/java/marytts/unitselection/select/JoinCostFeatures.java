@@ -34,6 +34,7 @@ import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Vector;
 
 import marytts.exceptions.MaryConfigurationException;
@@ -74,9 +75,17 @@ public class JoinCostFeatures implements JoinCostFunction
     private float[] featureWeight = null;
     private WeightFunc[] weightFunction = null;
     private boolean[] isLinear = null; // wether the i'th weight function is a linear function
+    private boolean allLinear = false;
     
-    private float[][] leftJCF = null;
-    private float[][] rightJCF = null;
+    /**
+     * The join cost features of all units, in one row-major array as in the join cost file:
+     * for each unit, the numberOfFeatures left join cost features are followed by its numberOfFeatures right
+     * join cost features. This is much more compact than two small arrays per unit,
+     * and keeps the two feature vectors compared in cost() in one piece of memory each.
+     */
+    private float[] jcf = null;
+    private int numberOfFeatures = 0;
+    private int numberOfUnits = 0;
     
     /****************/
     /* CONSTRUCTORS */
@@ -183,29 +192,26 @@ public class JoinCostFeatures implements JoinCostFunction
                     weightFunction[i] = wfm.getWeightFunction(wf[i]);
                 }
             }
-            for (int i=0; i<numberOfFeatures; i++) {
-                isLinear[i] = weightFunction[i].whoAmI().equals("linear");
-            }
+            setLinearity();
             
             
             /* Read the left and right Join Cost Features */
-            int numberOfUnits = bb.getInt();
+            numberOfUnits = bb.getInt();
             FloatBuffer fb = bb.asFloatBuffer();
-            leftJCF = new float[numberOfUnits][];
-            rightJCF = new float[numberOfUnits][];
-            for ( int i = 0; i < numberOfUnits; i++ ) {
-                //System.out.println("Reading join features for unit "+i+" out of "+numberOfUnits);
-                leftJCF[i] = new float[numberOfFeatures];
-                fb.get(leftJCF[i]);
-                rightJCF[i] = new float[numberOfFeatures];
-                fb.get(rightJCF[i]);
+            jcf = new float[2 * numberOfFeatures * numberOfUnits];
+            if (fb.remaining() < jcf.length) {
+                throw new IOException("Join cost file [" + joinFileName + "] should contain "+jcf.length+" join cost feature values, but contains only "+fb.remaining());
             }
+            fb.get(jcf); // a single bulk copy
+            this.numberOfFeatures = numberOfFeatures;
         }
         catch ( EOFException e ) {
             IOException ioe = new IOException( "The currently read Join Cost File has prematurely reached EOF.");
             ioe.initCause(e);
             throw ioe;
             
+        } finally {
+            fis.close();
         }
         if (MaryProperties.getBoolean("debug.show.cost.graph")) {
             debugShowCostGraph = true;
@@ -268,26 +274,16 @@ public class JoinCostFeatures implements JoinCostFunction
                     weightFunction[i] = wfm.getWeightFunction(wf[i]);
                 }
             }
-            for (int i=0; i<numberOfFeatures; i++) {
-                isLinear[i] = weightFunction[i].whoAmI().equals("linear");
-            }
+            setLinearity();
             
             
             /* Read the left and right Join Cost Features */
-            int numberOfUnits = raf.readInt();
-            leftJCF = new float[numberOfUnits][];
-            rightJCF = new float[numberOfUnits][];
-            for ( int i = 0; i < numberOfUnits; i++ ) {
-                //System.out.println("Reading join features for unit "+i+" out of "+numberOfUnits);
-                leftJCF[i] = new float[numberOfFeatures];
-                for ( int j = 0; j < numberOfFeatures; j++ ) {
-                    leftJCF[i][j] = raf.readFloat();
-                }
-                rightJCF[i] = new float[numberOfFeatures];
-                for ( int j = 0; j < numberOfFeatures; j++ ) {
-                    rightJCF[i][j] = raf.readFloat();
-                }
+            numberOfUnits = raf.readInt();
+            jcf = new float[2 * numberOfFeatures * numberOfUnits];
+            for ( int i = 0; i < jcf.length; i++ ) {
+                jcf[i] = raf.readFloat();
             }
+            this.numberOfFeatures = numberOfFeatures;
         }
         catch ( EOFException e ) {
             IOException ioe = new IOException( "The currently read Join Cost File has prematurely reached EOF.");
@@ -305,6 +301,14 @@ public class JoinCostFeatures implements JoinCostFunction
 
     }
 
+    private void setLinearity() {
+        allLinear = true;
+        for (int i=0; i<isLinear.length; i++) {
+            isLinear[i] = weightFunction[i].whoAmI().equals("linear");
+            allLinear &= isLinear[i];
+        }
+    }
+
     /**
      * Read the join cost weight specifications from the given file.
      * The weights will be normalized such that they sum to one.
@@ -372,7 +376,7 @@ public class JoinCostFeatures implements JoinCostFunction
      * Get the number of units.
      */
     public int getNumberOfUnits() {
-        return( leftJCF.length );
+        return( numberOfUnits );
     }
     
         
@@ -381,18 +385,19 @@ public class JoinCostFeatures implements JoinCostFunction
      * 
      * @param u The index of the considered unit.
      * 
-     * @return The array of left join cost features for the given unit.
+     * @return A copy of the array of left join cost features for the given unit.
      */
     public float[] getLeftJCF( int u ) {
         if ( u < 0 ) {
             throw new RuntimeException( "The unit index [" + u +
                     "] is out of range: a unit index can't be negative." );
         }
-        if ( u > getNumberOfUnits() ) {
+        if ( u >= getNumberOfUnits() ) {
             throw new RuntimeException( "The unit index [" + u +
                     "] is out of range: this file contains [" + getNumberOfUnits() + "] units." );
         }
-        return( leftJCF[u] );
+        int start = 2 * numberOfFeatures * u;
+        return( Arrays.copyOfRange(jcf, start, start + numberOfFeatures) );
     }
     
     /**
@@ -400,18 +405,45 @@ public class JoinCostFeatures implements JoinCostFunction
      * 
      * @param u The index of the considered unit.
      * 
-     * @return The array of right join cost features for the given unit.
+     * @return A copy of the array of right join cost features for the given unit.
      */
     public float[] getRightJCF( int u ) {
         if ( u < 0 ) {
             throw new RuntimeException( "The unit index [" + u +
                     "] is out of range: a unit index can't be negative." );
         }
-        if ( u > getNumberOfUnits() ) {
+        if ( u >= getNumberOfUnits() ) {
             throw new RuntimeException( "The unit index [" + u +
                     "] is out of range: this file contains [" + getNumberOfUnits() + "] units." );
         }
-        return( rightJCF[u] );
+        int start = 2 * numberOfFeatures * u + numberOfFeatures;
+        return( Arrays.copyOfRange(jcf, start, start + numberOfFeatures) );
+    }
+    
+    /**
+     * Computes the difference between the right join cost features of one unit
+     * and the left join cost features of another, without copying either of them.
+     * 
+     * @param u1 the left unit
+     * @param u2 the right unit
+     * @param diff an array of at least {@link #getNumberOfFeatures()} values,
+     * into which the right features of u1 minus the left features of u2 are written.
+     */
+    public void getJCFDifference( int u1, int u2, double[] diff ) {
+        if ( u1 < 0 || u2 < 0 ) {
+            throw new RuntimeException( "The unit index [" + Math.min(u1, u2) +
+                    "] is out of range: a unit index can't be negative." );
+        }
+        if ( u1 >= numberOfUnits || u2 >= numberOfUnits ) {
+            throw new RuntimeException( "The unit index [" + Math.max(u1, u2) +
+                    "] is out of range: this file contains [" + getNumberOfUnits() + "] units." );
+        }
+        final int n = numberOfFeatures;
+        final int o1 = 2 * n * u1 + n; // right features of u1
+        final int o2 = 2 * n * u2; // left features of u2
+        for ( int i = 0; i < n; i++ ) {
+            diff[i] = (double) jcf[o1+i] - jcf[o2+i];
+        }
     }
     
     /*****************/
@@ -434,8 +466,7 @@ public class JoinCostFeatures implements JoinCostFunction
             throw new RuntimeException( "The left unit index [" + u1 +
                     "] is out of range: a unit index can't be negative." );
         }
-//        if ( u1 > getNumberOfUnits() ) {
-        if (u1 > leftJCF.length) {
+        if ( u1 >= numberOfUnits ) {
             throw new RuntimeException( "The left unit index [" + u1 +
                     "] is out of range: this file contains [" + getNumberOfUnits() + "] units." );
         }
@@ -443,8 +474,7 @@ public class JoinCostFeatures implements JoinCostFunction
             throw new RuntimeException( "The right unit index [" + u2 +
                     "] is out of range: a unit index can't be negative." );
         }
-//        if ( u2 > getNumberOfUnits() ) {
-        if ( u2 > leftJCF.length ) {
+        if ( u2 >= numberOfUnits ) {
             throw new RuntimeException( "The right unit index [" + u2 +
                     "] is out of range: this file contains [" + getNumberOfUnits() + "] units." );
         }
@@ -453,11 +483,26 @@ public class JoinCostFeatures implements JoinCostFunction
         }
         /* Cumulate the join costs for each feature */
         double res = 0.0;
-        float[] v1 = rightJCF[u1];
-        float[] v2 = leftJCF[u2];
-        for ( int i = 0; i < v1.length; i++ ) {
-            float a = v1[i];
-            float b = v2[i];
+        final int n = numberOfFeatures;
+        final int o1 = 2 * n * u1 + n; // right features of u1
+        final int o2 = 2 * n * u2; // left features of u2
+        final float[] v = jcf;
+        if (allLinear && !debugShowCostGraph) {
+            // the common case: a tight loop over two contiguous ranges
+            for ( int i = 0; i < n; i++ ) {
+                float a = v[o1+i];
+                float b = v[o2+i];
+                float d = a - b;
+                // if anything is NaN, d is NaN and the cost is 0:
+                if (d == d) {
+                    res += featureWeight[i] * ( d > 0 ? d : -d );
+                }
+            }
+            return( res );
+        }
+        for ( int i = 0; i < n; i++ ) {
+            float a = v[o1+i];
+            float b = v[o2+i];
             //if (!Float.isNaN(v1[i]) && !Float.isNaN(v2[i])) {
             if (! (a!=a) && !(b!=b)) {
                 double c;
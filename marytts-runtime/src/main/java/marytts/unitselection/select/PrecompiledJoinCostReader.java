@@ -31,13 +31,12 @@
  */
 package marytts.unitselection.select;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import marytts.exceptions.MaryConfigurationException;
 import marytts.server.MaryProperties;
@@ -54,11 +53,9 @@ public class PrecompiledJoinCostReader implements JoinCostFunction
 
     private MaryHeader hdr = null;
     
-    // keys = Integers representing left unit index;
-    // values = maps containing
-    //          - keys = Integers representing right unit index;
-    //          - values = Floats representing the jost of joining them.
-    protected Map left;   
+    // rows = left unit index, columns = right unit index,
+    // values = the cost of joining them.
+    protected SparseCostMatrix costs;
 
     /**
      * Empty constructor; need to call load() separately.
@@ -105,32 +102,47 @@ public class PrecompiledJoinCostReader implements JoinCostFunction
     @Override
     public void load(String fileName, InputStream dummy, String dummy2, float dummy3) throws IOException, MaryConfigurationException
     {
-        /* Open the file */
-        DataInputStream dis = new DataInputStream( new BufferedInputStream( new FileInputStream( fileName ) ) );
-        hdr = new MaryHeader( dis );
-        if ( hdr.getType() != MaryHeader.PRECOMPUTED_JOINCOSTS ) {
-            throw new MaryConfigurationException( "File [" + fileName + "] is not a valid Mary precompiled join costs file." );
+        FileInputStream fis = new FileInputStream(fileName);
+        try {
+            FileChannel fc = fis.getChannel();
+            ByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            hdr = new MaryHeader(bb);
+            if (hdr.getType() == MaryHeader.PRECOMPUTED_JOINCOSTS_SPARSE) {
+                costs = SparseCostMatrix.read(bb);
+            } else if (hdr.getType() == MaryHeader.PRECOMPUTED_JOINCOSTS) {
+                costs = loadTriples(bb, fileName);
+            } else {
+                throw new MaryConfigurationException( "File [" + fileName + "] is not a valid Mary precompiled join costs file." );
+            }
+        } catch (BufferUnderflowException e) {
+            throw new MaryConfigurationException( "File [" + fileName + "] is truncated.", e);
+        } finally {
+            fis.close();
         }
+    }
+
+    /**
+     * Read the original file format, in which each left unit is followed by
+     * its list of (right unit, cost) pairs.
+     */
+    private SparseCostMatrix loadTriples(ByteBuffer bb, String fileName) throws MaryConfigurationException
+    {
         /* Read the number of units */
-        int numberOfLeftUnits = dis.readInt();
+        int numberOfLeftUnits = bb.getInt();
         if ( numberOfLeftUnits < 0 ) {
             throw new MaryConfigurationException( "File [" + fileName + "] has a negative number of units. Aborting." );
         }
-        
-        left = new HashMap();
-        /* Read the start times and durations */
+        SparseCostMatrix.Builder builder = new SparseCostMatrix.Builder();
         for ( int i = 0; i < numberOfLeftUnits; i++ ) {
-            int leftIndex = dis.readInt();
-            int numberOfRightUnits = dis.readInt();
-            Map right = new HashMap();
-            left.put(new Integer(leftIndex), right);
+            int leftIndex = bb.getInt();
+            int numberOfRightUnits = bb.getInt();
             for (int j=0; j<numberOfRightUnits; j++) {
-                int rightIndex = dis.readInt();
-                float cost = dis.readFloat();
-                right.put(new Integer(rightIndex), new Float(cost));
+                int rightIndex = bb.getInt();
+                float cost = bb.getFloat();
+                builder.add(leftIndex, rightIndex, cost);
             }
         }
-
+        return builder.build(0);
     }
     
     /**
@@ -139,13 +151,9 @@ public class PrecompiledJoinCostReader implements JoinCostFunction
      */
     public double cost(Target t1, Unit uleft, Target t2, Unit uright)
     {
-        Integer leftIndex = new Integer(uleft.index);
-        Map rightUnitsMap = (Map)left.get(leftIndex);
-        if (rightUnitsMap == null) return Double.POSITIVE_INFINITY;
-        Integer rightIndex = new Integer(uright.index);
-        Float cost = (Float) rightUnitsMap.get(rightIndex);
-        if (cost == null) return Double.POSITIVE_INFINITY;
-        return cost.doubleValue();
+        float cost = costs.get(uleft.index, uright.index);
+        if (Float.isNaN(cost)) return Double.POSITIVE_INFINITY;
+        return cost;
     }
     
 }
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A sparse matrix of costs in compressed sparse row format, such as the precomputed
+ * costs of joining left and right units. For each row, the column indices of the
+ * entries present are stored in ascending order, so that an entry is found by binary search
+ * within its row; all data is held in three primitive arrays.
+ *
+ * @author marc
+ *
+ */
+public class SparseCostMatrix
+{
+    /**
+     * Entries of row i are at positions rowOffsets[i] (inclusive) to rowOffsets[i+1] (exclusive)
+     * of columns and costs.
+     */
+    private final int[] rowOffsets;
+    private final int[] columns;
+    private final float[] costs;
+
+    private SparseCostMatrix(int[] rowOffsets, int[] columns, float[] costs)
+    {
+        assert rowOffsets.length > 0;
+        assert columns.length == costs.length;
+        assert rowOffsets[rowOffsets.length-1] == columns.length;
+        this.rowOffsets = rowOffsets;
+        this.columns = columns;
+        this.costs = costs;
+    }
+
+    public int getNumberOfRows()
+    {
+        return rowOffsets.length - 1;
+    }
+
+    public int getNumberOfEntries()
+    {
+        return columns.length;
+    }
+
+    /**
+     * Look up the cost in the given row and column.
+     * @param row
+     * @param column
+     * @return the cost, or Float.NaN if the matrix has no entry at the given row and column.
+     */
+    public float get(int row, int column)
+    {
+        if (row < 0 || row >= rowOffsets.length - 1) {
+            return Float.NaN;
+        }
+        int lo = rowOffsets[row];
+        int hi = rowOffsets[row+1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = columns[mid];
+            if (c < column) {
+                lo = mid + 1;
+            } else if (c > column) {
+                hi = mid - 1;
+            } else {
+                return costs[mid];
+            }
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Write the matrix in binary form: number of rows, number of entries,
+     * the row offsets, the column indices and the costs.
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(getNumberOfRows());
+        out.writeInt(getNumberOfEntries());
+        for (int i=0; i<rowOffsets.length; i++) {
+            out.writeInt(rowOffsets[i]);
+        }
+        for (int i=0; i<columns.length; i++) {
+            out.writeInt(columns[i]);
+        }
+        for (int i=0; i<costs.length; i++) {
+            out.writeFloat(costs[i]);
+        }
+    }
+
+    /**
+     * Read a matrix as written by {@link #writeTo(DataOutput)}.
+     * @param bb a byte buffer positioned at the start of the matrix data.
+     * @return the matrix
+     * @throws IOException if the data is not a well-formed matrix.
+     */
+    public static SparseCostMatrix read(ByteBuffer bb) throws IOException
+    {
+        try {
+            int numRows = bb.getInt();
+            int numEntries = bb.getInt();
+            if (numRows < 0 || numEntries < 0) {
+                throw new IOException("Negative size of sparse matrix: "+numRows+" rows, "+numEntries+" entries");
+            }
+            int[] rowOffsets = new int[numRows+1];
+            bb.asIntBuffer().get(rowOffsets);
+            bb.position(bb.position() + 4 * rowOffsets.length);
+            int[] columns = new int[numEntries];
+            bb.asIntBuffer().get(columns);
+            bb.position(bb.position() + 4 * columns.length);
+            float[] costs = new float[numEntries];
+            bb.asFloatBuffer().get(costs);
+            bb.position(bb.position() + 4 * costs.length);
+            if (rowOffsets[0] != 0 || rowOffsets[numRows] != numEntries) {
+                throw new IOException("Sparse matrix is corrupt: row offsets do not match number of entries");
+            }
+            for (int i=0; i<numRows; i++) {
+                if (rowOffsets[i+1] < rowOffsets[i]) {
+                    throw new IOException("Sparse matrix is corrupt: row offsets are not ascending");
+                }
+            }
+            return new SparseCostMatrix(rowOffsets, columns, costs);
+        } catch (BufferUnderflowException e) {
+            IOException ioe = new IOException("Sparse matrix data is incomplete");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+
+    /**
+     * Collects the entries of a sparse cost matrix in any order.
+     */
+    public static class Builder
+    {
+        private int[] rows = new int[1024];
+        private int[] columns = new int[1024];
+        private float[] costs = new float[1024];
+        private int numEntries = 0;
+        private int maxRow = -1;
+
+        /**
+         * Add an entry to the matrix. If the same row and column are added more than once,
+         * only one of the costs is kept.
+         * @param row a non-negative row index
+         * @param column a non-negative column index
+         * @param cost
+         */
+        public void add(int row, int column, float cost)
+        {
+            if (row < 0 || column < 0) {
+                throw new IllegalArgumentException("Negative index: row "+row+", column "+column);
+            }
+            if (numEntries == rows.length) {
+                int newLength = 2 * rows.length;
+                rows = Arrays.copyOf(rows, newLength);
+                columns = Arrays.copyOf(columns, newLength);
+                costs = Arrays.copyOf(costs, newLength);
+            }
+            rows[numEntries] = row;
+            columns[numEntries] = column;
+            costs[numEntries] = cost;
+            numEntries++;
+            if (row > maxRow) maxRow = row;
+        }
+
+        /**
+         * Build the matrix from the entries added so far.
+         * @param minNumberOfRows the number of rows the matrix should have at least,
+         * even if the last rows are empty.
+         * @return the matrix
+         */
+        public SparseCostMatrix build(int minNumberOfRows)
+        {
+            int numRows = Math.max(maxRow + 1, minNumberOfRows);
+            // counting sort by row:
+            int[] rowOffsets = new int[numRows+1];
+            for (int i=0; i<numEntries; i++) {
+                rowOffsets[rows[i]+1]++;
+            }
+            for (int r=0; r<numRows; r++) {
+                rowOffsets[r+1] += rowOffsets[r];
+            }
+            // each entry as column in the high and cost in the low 32 bits, so that sorting sorts by column:
+            long[] entries = new long[numEntries];
+            int[] fill = Arrays.copyOf(rowOffsets, numRows);
+            for (int i=0; i<numEntries; i++) {
+                entries[fill[rows[i]]++] = ((long) columns[i] << 32) | (Float.floatToRawIntBits(costs[i]) & 0xffffffffL);
+            }
+            int[] newOffsets = new int[numRows+1];
+            int[] newColumns = new int[numEntries];
+            float[] newCosts = new float[numEntries];
+            int n = 0;
+            for (int r=0; r<numRows; r++) {
+                Arrays.sort(entries, rowOffsets[r], rowOffsets[r+1]);
+                newOffsets[r] = n;
+                for (int i=rowOffsets[r]; i<rowOffsets[r+1]; i++) {
+                    int column = (int) (entries[i] >>> 32);
+                    if (n > newOffsets[r] && newColumns[n-1] == column) {
+                        continue; // duplicate
+                    }
+                    newColumns[n] = column;
+                    newCosts[n] = Float.intBitsToFloat((int) entries[i]);
+                    n++;
+                }
+            }
+            newOffsets[numRows] = n;
+            if (n < numEntries) {
+                newColumns = Arrays.copyOf(newColumns, n);
+                newCosts = Arrays.copyOf(newCosts, n);
+            }
+            return new SparseCostMatrix(newOffsets, newColumns, newCosts);
+        }
+    }
+}
@@ -24,7 +24,9 @@ import java.util.List;
 
 import marytts.datatypes.MaryXML;
 import marytts.exceptions.SynthesisException;
+import marytts.server.MaryProperties;
 import marytts.unitselection.data.UnitDatabase;
+import marytts.unitselection.select.viterbi.ArrayViterbi;
 import marytts.unitselection.select.viterbi.Viterbi;
 import marytts.util.MaryUtils;
 
@@ -46,6 +48,7 @@ public class UnitSelector
     protected float targetCostWeight;
     protected float sCostWeight = -1;
     protected int beamSize;
+    protected boolean useArrayViterbi = MaryProperties.getBoolean("unitselection.viterbi.arrays", true);
     
     /**
      * Initialise the unit selector. Need to call load() separately.
@@ -112,10 +115,18 @@ public class UnitSelector
         
         Viterbi viterbi;
         //Select the best candidates using Viterbi and the join cost function.
-        if(sCostWeight < 0){
-            viterbi = new Viterbi(targets, database, targetCostWeight, beamSize);
-        }else{
-            viterbi = new Viterbi(targets, database, targetCostWeight, sCostWeight, beamSize);
+        if (useArrayViterbi) {
+            if(sCostWeight < 0){
+                viterbi = new ArrayViterbi(targets, database, targetCostWeight, beamSize);
+            }else{
+                viterbi = new ArrayViterbi(targets, database, targetCostWeight, sCostWeight, beamSize);
+            }
+        } else {
+            if(sCostWeight < 0){
+                viterbi = new Viterbi(targets, database, targetCostWeight, beamSize);
+            }else{
+                viterbi = new Viterbi(targets, database, targetCostWeight, sCostWeight, beamSize);
+            }
         }
         
         viterbi.apply();
@@ -0,0 +1,411 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select.viterbi;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import marytts.exceptions.SynthesisException;
+import marytts.unitselection.data.UnitDatabase;
+import marytts.unitselection.select.SelectedUnit;
+import marytts.unitselection.select.Target;
+
+import org.apache.log4j.Level;
+
+/**
+ * A Viterbi search that selects the same units as {@link Viterbi}, but keeps the
+ * lattice in primitive arrays instead of creating a ViterbiPath object for every
+ * transition that is tried.
+ * <p>
+ * Every candidate in the lattice occupies one slot in the arrays, holding the score of
+ * the best path leading to the candidate and the slot of the previous candidate on that path.
+ * The arrays are kept in a per-thread arena and reused for the next utterance.
+ * <p>
+ * Ties are resolved as in {@link Viterbi}: among candidates with the same target cost,
+ * the one returned first by the database comes first; among paths with the same score,
+ * the one that was found or improved first comes first.
+ *
+ * @author marc
+ *
+ */
+public class ArrayViterbi extends Viterbi
+{
+    private static final ThreadLocal<Arena> arenas = new ThreadLocal<Arena>();
+
+    // the result of apply():
+    private ViterbiCandidate[] bestPath = null;
+    private double bestScore;
+
+    public ArrayViterbi(List<Target> targets, UnitDatabase database, float wTargetCosts, int beamSize)
+    {
+        super(targets, database, wTargetCosts, beamSize);
+    }
+
+    public ArrayViterbi(List<Target> targets, UnitDatabase database, float wTargetCosts, float wSCosts, int beamSize)
+    {
+        super(targets, database, wTargetCosts, wSCosts, beamSize);
+    }
+
+    /**
+     * Carry out the Viterbi search.
+     * @throws SynthesisException if for any part of the target chain, no
+     * candidates can be found
+     */
+    @Override
+    public void apply() throws SynthesisException
+    {
+        logger.debug("Viterbi running with beam size " + beamSize);
+        assert beamSize != 0; // general beam search not implemented
+        bestPath = null;
+        Arena arena = acquireArena();
+        try {
+            int prevStart = -1; // the first slot of the previous column; -1 for the start of the search
+            int prevEnd = -1;
+            int numColumns = 0;
+            for (ViterbiPoint point = firstPoint; point.next != null; point = point.next) {
+                List<ViterbiCandidate> candidates = getCandidates(point);
+                int nCandidates = candidates.size();
+                assert nCandidates > 0;
+                // Only the best candidates according to target cost are tried:
+                int jMax = beamSize < 0 || beamSize > nCandidates ? nCandidates : beamSize;
+                int start = arena.addColumn(jMax);
+                arena.sortCandidates(candidates, jMax, start);
+
+                if (prevStart < 0) {
+                    // the start of the search: one empty path with score 0
+                    for (int j=0; j<jMax; j++) {
+                        arena.addPath(start + j, getCost(null, arena.candidates[start + j]) + 0., -1);
+                    }
+                } else {
+                    int nPaths = arena.sortPaths(prevStart, prevEnd, beamSize);
+                    for (int i=0; i<nPaths; i++) {
+                        int pp = arena.order[i];
+                        ViterbiCandidate prevCandidate = arena.candidates[pp];
+                        double prevScore = arena.scores[pp];
+                        for (int j=0; j<jMax; j++) {
+                            double cost = getCost(prevCandidate, arena.candidates[start + j]);
+                            arena.addPath(start + j, cost + prevScore, pp);
+                        }
+                    }
+                }
+                prevStart = start;
+                prevEnd = start + jMax;
+                numColumns++;
+            }
+            if (prevStart >= 0) {
+                collectBestPath(arena, prevStart, prevEnd, numColumns);
+            }
+        } finally {
+            releaseArena(arena);
+        }
+    }
+
+    /**
+     * Find the best path ending in the last column and copy its candidates
+     * out of the arena.
+     */
+    private void collectBestPath(Arena arena, int lastStart, int lastEnd, int numColumns)
+    {
+        int best = -1;
+        for (int k=lastStart; k<lastEnd; k++) {
+            if (arena.stamps[k] >= 0 && (best < 0 || arena.comparePaths(k, best) < 0)) {
+                best = k;
+            }
+        }
+        if (best < 0) {
+            return;
+        }
+        bestScore = arena.scores[best];
+        bestPath = new ViterbiCandidate[numColumns];
+        int i = numColumns;
+        for (int k=best; k >= 0; k = arena.backPointers[k]) {
+            bestPath[--i] = arena.candidates[k];
+        }
+        assert i == 0;
+    }
+
+    /**
+     * Collect and return the best path, as a List of SelectedUnit objects.
+     * @return the list of selected units, or null if no path could be found.
+     */
+    @Override
+    public List<SelectedUnit> getSelectedUnits()
+    {
+        LinkedList<SelectedUnit> selectedUnits = new LinkedList<SelectedUnit>();
+        if (firstPoint == null || firstPoint.getNext() == null) {
+            return selectedUnits; // null case
+        }
+        if (bestPath == null) {
+            return null;
+        }
+        for (int i=bestPath.length-1; i>=0; i--) {
+            addSelectedUnits(selectedUnits, bestPath[i]);
+        }
+        if (logger.getEffectiveLevel().equals(Level.DEBUG)) {
+            logSelectedUnits(selectedUnits, bestScore);
+        }
+        return selectedUnits;
+    }
+
+    private static Arena acquireArena()
+    {
+        Arena arena = arenas.get();
+        if (arena == null) {
+            return new Arena();
+        }
+        // nobody else on this thread may use it until we release it:
+        arenas.set(null);
+        return arena;
+    }
+
+    private static void releaseArena(Arena arena)
+    {
+        arena.clear();
+        arenas.set(arena);
+    }
+
+
+    /**
+     * The lattice of one search, in flat arrays indexed by slot.
+     * The slots of each column are contiguous.
+     */
+    private static final class Arena
+    {
+        // Arenas that grew beyond this number of slots are not kept for the next search:
+        private static final int MAX_RETAINED_SLOTS = 1 << 20;
+
+        ViterbiCandidate[] candidates = new ViterbiCandidate[4096];
+        // the score of the best path leading to the candidate in the slot:
+        double[] scores = new double[4096];
+        // the slot of the previous candidate on that path, or -1 at the start:
+        int[] backPointers = new int[4096];
+        // when the path was found or last improved, for resolving ties; -1 if there is no path yet
+        int[] stamps = new int[4096];
+        int numSlots = 0;
+        int nextStamp = 0;
+        // per-column work space for sorting:
+        int[] order = new int[256];
+        double[] targetCosts = new double[256];
+
+        /**
+         * Add a column of the given number of slots, without paths so far.
+         * @return the first slot of the new column
+         */
+        int addColumn(int size)
+        {
+            int start = numSlots;
+            int end = start + size;
+            if (end > candidates.length) {
+                int newLength = Math.max(end, 2 * candidates.length);
+                candidates = Arrays.copyOf(candidates, newLength);
+                scores = Arrays.copyOf(scores, newLength);
+                backPointers = Arrays.copyOf(backPointers, newLength);
+                stamps = Arrays.copyOf(stamps, newLength);
+            }
+            Arrays.fill(stamps, start, end, -1);
+            numSlots = end;
+            nextStamp = 0;
+            return start;
+        }
+
+        void ensureWorkSpace(int size)
+        {
+            if (size > order.length) {
+                int newLength = Math.max(size, 2 * order.length);
+                order = new int[newLength];
+                targetCosts = new double[newLength];
+            }
+        }
+
+        /**
+         * Use the given path to the candidate in slot k if it is better than the best path so far.
+         */
+        void addPath(int k, double score, int backPointer)
+        {
+            if (stamps[k] < 0 || score < scores[k]) {
+                scores[k] = score;
+                backPointers[k] = backPointer;
+                stamps[k] = nextStamp++;
+            }
+        }
+
+        /**
+         * Put the best n candidates, in ascending order of target cost, into the slots starting at start.
+         * This is equivalent to a stable sort of the list of candidates.
+         */
+        void sortCandidates(List<ViterbiCandidate> list, int n, int start)
+        {
+            int size = list.size();
+            ensureWorkSpace(size);
+            for (int i=0; i<size; i++) {
+                order[i] = i;
+                targetCosts[i] = list.get(i).targetCost;
+            }
+            selectAndSort(order, size, n, CANDIDATES);
+            for (int j=0; j<n; j++) {
+                candidates[start+j] = list.get(order[j]);
+            }
+        }
+
+        /**
+         * Put the slots of the given column that have a path into the order array,
+         * in the order in which their paths were found; if there are more than beamSize,
+         * only the first beamSize of them, as in {@link Viterbi}.
+         * @return the number of slots in the order array
+         */
+        int sortPaths(int start, int end, int beamSize)
+        {
+            ensureWorkSpace(end - start);
+            int n = 0;
+            for (int k=start; k<end; k++) {
+                if (stamps[k] >= 0) {
+                    order[n++] = k;
+                }
+            }
+            int nPaths = beamSize < 0 || beamSize >= n ? n : beamSize;
+            selectAndSort(order, n, nPaths, STAMPS);
+            return nPaths;
+        }
+
+        void clear()
+        {
+            Arrays.fill(candidates, 0, numSlots, null);
+            numSlots = 0;
+            if (candidates.length > MAX_RETAINED_SLOTS) {
+                candidates = new ViterbiCandidate[4096];
+                scores = new double[4096];
+                backPointers = new int[4096];
+                stamps = new int[4096];
+            }
+        }
+
+        private static final int CANDIDATES = 0;
+        private static final int STAMPS = 1;
+
+        /**
+         * Order paths by score, and paths with equal scores by the time they were found.
+         */
+        int comparePaths(int a, int b)
+        {
+            int c = Double.compare(scores[a], scores[b]);
+            if (c != 0) return c;
+            return stamps[a] - stamps[b];
+        }
+
+        private int compare(int a, int b, int mode)
+        {
+            switch (mode) {
+            case CANDIDATES:
+                // as ViterbiCandidate.compareTo(), with the list position breaking ties
+                if (targetCosts[a] < targetCosts[b]) return -1;
+                if (targetCosts[a] > targetCosts[b]) return 1;
+                return a - b;
+            default:
+                return stamps[a] - stamps[b];
+            }
+        }
+
+        /**
+         * Rearrange the first n entries of idx so that the k smallest come first, in ascending order.
+         */
+        private void selectAndSort(int[] idx, int n, int k, int mode)
+        {
+            int lo = 0;
+            int hi = n - 1;
+            // quickselect until the k smallest are in idx[0..k-1]:
+            while (k < n && hi - lo > 16) {
+                int p = partition(idx, lo, hi, mode);
+                if (p == k - 1 || p == k) {
+                    break;
+                } else if (p < k) {
+                    lo = p + 1;
+                } else {
+                    hi = p - 1;
+                }
+            }
+            if (k < n && hi - lo <= 16) {
+                insertionSort(idx, lo, hi, mode);
+            }
+            quickSort(idx, 0, k - 1, mode);
+        }
+
+        private void quickSort(int[] idx, int lo, int hi, int mode)
+        {
+            while (hi - lo > 16) {
+                int p = partition(idx, lo, hi, mode);
+                // recurse into the smaller part
+                if (p - lo < hi - p) {
+                    quickSort(idx, lo, p - 1, mode);
+                    lo = p + 1;
+                } else {
+                    quickSort(idx, p + 1, hi, mode);
+                    hi = p - 1;
+                }
+            }
+            insertionSort(idx, lo, hi, mode);
+        }
+
+        private void insertionSort(int[] idx, int lo, int hi, int mode)
+        {
+            for (int i=lo+1; i<=hi; i++) {
+                int v = idx[i];
+                int j = i - 1;
+                while (j >= lo && compare(idx[j], v, mode) > 0) {
+                    idx[j+1] = idx[j];
+                    j--;
+                }
+                idx[j+1] = v;
+            }
+        }
+
+        /**
+         * Partition idx[lo..hi] around a median-of-three pivot.
+         * @return the final position of the pivot
+         */
+        private int partition(int[] idx, int lo, int hi, int mode)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (compare(idx[mid], idx[lo], mode) < 0) swap(idx, mid, lo);
+            if (compare(idx[hi], idx[lo], mode) < 0) swap(idx, hi, lo);
+            if (compare(idx[hi], idx[mid], mode) < 0) swap(idx, hi, mid);
+            // the median is now at mid; move it to hi-1
+            swap(idx, mid, hi - 1);
+            int pivot = idx[hi - 1];
+            int i = lo;
+            int j = hi - 1;
+            while (true) {
+                while (compare(idx[++i], pivot, mode) < 0) {}
+                while (compare(idx[--j], pivot, mode) > 0) {}
+                if (i >= j) break;
+                swap(idx, i, j);
+            }
+            swap(idx, i, hi - 1);
+            return i;
+        }
+
+        private static void swap(int[] idx, int a, int b)
+        {
+            int t = idx[a];
+            idx[a] = idx[b];
+            idx[b] = t;
+        }
+    }
+}
@@ -222,26 +222,7 @@ public  class Viterbi
         for (ViterbiPoint point = firstPoint; point.next != null; point = point.next) {
             // The candidates for the current item:
             // candidate selection is carried out by UnitSelector
-            Target target = point.target;
-            List<ViterbiCandidate> candidates = database.getCandidates(target);
-            if (candidates.size() == 0) {
-                if (target instanceof DiphoneTarget) {
-                    logger.debug("No diphone '"+target.getName()+"' -- will build from halfphones");
-                    DiphoneTarget dt = (DiphoneTarget) target;
-                    // replace diphone viterbi point with two half-phone viterbi points
-                    Target left = dt.left;
-                    Target right = dt.right;
-                    point.setTarget(left);
-                    ViterbiPoint newP = new ViterbiPoint(right);
-                    newP.next = point.next;
-                    point.next = newP;
-                    candidates = database.getCandidates(left);
-                    if (candidates.size() == 0) 
-                        throw new SynthesisException("Cannot even find any halfphone unit for target "+left);
-                } else {
-                    throw new SynthesisException("Cannot find any units for target "+target);
-                }
-            }
+            List<ViterbiCandidate> candidates = getCandidates(point);
             assert candidates.size() > 0;
             
             // absolutely critical since candidates is no longer a SortedSet:
@@ -289,6 +270,40 @@ public  class Viterbi
         }
     }
     
+    /**
+     * Get the candidates for the target of the given point from the database.
+     * If there are no candidates for a diphone target, the point is replaced with
+     * two points for its two halfphones, and the candidates for the left halfphone
+     * are returned.
+     * @param point
+     * @return an unsorted, non-empty list of candidates.
+     * @throws SynthesisException if no candidates can be found
+     */
+    protected List<ViterbiCandidate> getCandidates(ViterbiPoint point) throws SynthesisException
+    {
+        Target target = point.target;
+        List<ViterbiCandidate> candidates = database.getCandidates(target);
+        if (candidates.size() == 0) {
+            if (target instanceof DiphoneTarget) {
+                logger.debug("No diphone '"+target.getName()+"' -- will build from halfphones");
+                DiphoneTarget dt = (DiphoneTarget) target;
+                // replace diphone viterbi point with two half-phone viterbi points
+                Target left = dt.left;
+                Target right = dt.right;
+                point.setTarget(left);
+                ViterbiPoint newP = new ViterbiPoint(right);
+                newP.next = point.next;
+                point.next = newP;
+                candidates = database.getCandidates(left);
+                if (candidates.size() == 0) 
+                    throw new SynthesisException("Cannot even find any halfphone unit for target "+left);
+            } else {
+                throw new SynthesisException("Cannot find any units for target "+target);
+            }
+        }
+        return candidates;
+    }
+    
     /**
      * Add the new path to the state path if it is
      * better than the current path. In this, state means
@@ -339,115 +354,133 @@ public  class Viterbi
         }
         for (ViterbiPath path = best; path != null; path = path.getPrevious()) {
             if (path.candidate != null) {
-                Unit u = path.candidate.unit;
-                Target t = path.candidate.target;
-                if (u instanceof DiphoneUnit) {
-                    assert t instanceof DiphoneTarget;
-                    DiphoneUnit du = (DiphoneUnit) u;
-                    DiphoneTarget dt = (DiphoneTarget) t;
-                    selectedUnits.addFirst(new SelectedUnit(du.right, dt.right));
-                    selectedUnits.addFirst(new SelectedUnit(du.left, dt.left));
-                } else {
-                    selectedUnits.addFirst(new SelectedUnit(u, t));
-                }
+                addSelectedUnits(selectedUnits, path.candidate);
             }
         }
         if (logger.getEffectiveLevel().equals(Level.DEBUG)) {
-            StringWriter sw = new StringWriter();
-            PrintWriter pw = new PrintWriter(sw);
-            int prevIndex = -1; // index number of the previous unit
-            int[] lengthHistogram = new int[10];
-            int length = 0;
-            int numUnits = selectedUnits.size();
-            StringBuilder line = new StringBuilder();
-            for (int i=0; i<numUnits; i++) {
-                SelectedUnit u = (SelectedUnit) selectedUnits.get(i);
-                int index = u.getUnit().index;
-                if (prevIndex+1==index) { // adjacent units
-                    length++;
-                } else {
-                    if (lengthHistogram.length <= length) {
-                        int[] dummy = new int[length+1];
-                        System.arraycopy(lengthHistogram, 0, dummy, 0, lengthHistogram.length);
-                        lengthHistogram = dummy;
-                    }
-                    lengthHistogram[length]++;
-                    pw.print(line);
-                    // Find filename from which the stretch that just finished
-                    // stems:
-                    if (i>0) {
-                        assert i >= length;
-                        Unit firstUnitInStretch = ((SelectedUnit)selectedUnits.get(i-length)).getUnit();
-                        String origin = database.getFilenameAndTime(firstUnitInStretch);
-                        // Print origin from column 80:
-                        for (int col=line.length();col<80; col++) pw.print(" ");
-                        pw.print(origin);
-                    }
-                    pw.println();
-                    length = 1;
-                    line.setLength(0);
+            logSelectedUnits(selectedUnits, best.score);
+        }
+        return selectedUnits;
+    }
+
+    /**
+     * Prepend the unit(s) of the given candidate to the list of selected units.
+     * A diphone unit is split into its two halfphones.
+     * @param selectedUnits
+     * @param candidate
+     */
+    protected static void addSelectedUnits(LinkedList<SelectedUnit> selectedUnits, ViterbiCandidate candidate)
+    {
+        Unit u = candidate.unit;
+        Target t = candidate.target;
+        if (u instanceof DiphoneUnit) {
+            assert t instanceof DiphoneTarget;
+            DiphoneUnit du = (DiphoneUnit) u;
+            DiphoneTarget dt = (DiphoneTarget) t;
+            selectedUnits.addFirst(new SelectedUnit(du.right, dt.right));
+            selectedUnits.addFirst(new SelectedUnit(du.left, dt.left));
+        } else {
+            selectedUnits.addFirst(new SelectedUnit(u, t));
+        }
+    }
+
+    /**
+     * Log the selected units, the origin of stretches of consecutive units, and cost statistics.
+     * @param selectedUnits the units on the best path
+     * @param totalCost the score of the best path
+     */
+    protected void logSelectedUnits(List<SelectedUnit> selectedUnits, double totalCost)
+    {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        int prevIndex = -1; // index number of the previous unit
+        int[] lengthHistogram = new int[10];
+        int length = 0;
+        int numUnits = selectedUnits.size();
+        StringBuilder line = new StringBuilder();
+        for (int i=0; i<numUnits; i++) {
+            SelectedUnit u = (SelectedUnit) selectedUnits.get(i);
+            int index = u.getUnit().index;
+            if (prevIndex+1==index) { // adjacent units
+                length++;
+            } else {
+                if (lengthHistogram.length <= length) {
+                    int[] dummy = new int[length+1];
+                    System.arraycopy(lengthHistogram, 0, dummy, 0, lengthHistogram.length);
+                    lengthHistogram = dummy;
                 }
-                line.append(database.getTargetCostFunction().getFeature(u.getUnit(), "phone") + "("+ u.getUnit().index+ ")");
-                prevIndex = index;
-            }
-            if (lengthHistogram.length <= length) {
-                int[] dummy = new int[length+1];
-                System.arraycopy(lengthHistogram, 0, dummy, 0, lengthHistogram.length);
-                lengthHistogram = dummy;
-            }
-            lengthHistogram[length]++;
-            pw.print(line);
-            // Find filename from which the stretch that just finished
-            // stems:
-            Unit firstUnitInStretch = ((SelectedUnit)selectedUnits.get(numUnits-length)).getUnit();
-            String origin = database.getFilenameAndTime(firstUnitInStretch);
-            // Print origin from column 80:
-            for (int col=line.length();col<80; col++) pw.print(" ");
-            pw.print(origin);
-            pw.println();
-            logger.debug("Selected units:\n"+sw.toString());
-            // Compute average length of stretches:
-            int total = 0;
-            int nStretches = 0;
-            for (int l=1; l<lengthHistogram.length; l++) {
-                // lengthHistogram[0] will be 0 anyway
-                total += lengthHistogram[l] * l;
-                nStretches += lengthHistogram[l];
-            }
-            float avgLength = total / (float) nStretches;
-            DecimalFormat df = new DecimalFormat("0.000");
-            logger.debug("Avg. consecutive length: "+df.format(avgLength)+" units");
-            // Cost of best path
-            double totalCost = best.score;
-            int elements = selectedUnits.size();
-            double avgCostBestPath = totalCost/(elements-1);
-            double avgTargetCost = cumulTargetCosts/nTargetCosts;
-            double avgJoinCost = cumulJoinCosts/nJoinCosts;
-            logger.debug("Avg. cost: best path "+df.format(avgCostBestPath)
-                    +", avg. target "+df.format(avgTargetCost)
-                    +", join "+df.format(avgJoinCost)
-                    +" (n="+nTargetCosts+")");
-            DebugStats stats = debugStats.get(database);
-            if (stats == null) {
-                stats = new DebugStats();
-                debugStats.put(database, stats);
+                lengthHistogram[length]++;
+                pw.print(line);
+                // Find filename from which the stretch that just finished
+                // stems:
+                if (i>0) {
+                    assert i >= length;
+                    Unit firstUnitInStretch = ((SelectedUnit)selectedUnits.get(i-length)).getUnit();
+                    String origin = database.getFilenameAndTime(firstUnitInStretch);
+                    // Print origin from column 80:
+                    for (int col=line.length();col<80; col++) pw.print(" ");
+                    pw.print(origin);
+                }
+                pw.println();
+                length = 1;
+                line.setLength(0);
             }
-            stats.n++;
-            // iterative computation of mean:
-            // m(n) = m(n-1) + (x(n) - m(n-1)) / n
-            stats.avgLength += (avgLength - stats.avgLength) / stats.n;
-            stats.avgCostBestPath += (avgCostBestPath - stats.avgCostBestPath) / stats.n;
-            stats.avgTargetCost += (avgTargetCost - stats.avgTargetCost) / stats.n;
-            stats.avgJoinCost += (avgJoinCost - stats.avgJoinCost) / stats.n;
-            logger.debug("Total average of "+stats.n+" utterances for this voice:");
-            logger.debug("Avg. length: "+df.format(stats.avgLength)
-                    +", avg. cost best path: "+df.format(stats.avgCostBestPath)
-                    +", avg. target cost: "+df.format(stats.avgTargetCost)
-                    +", avg. join cost: "+df.format(stats.avgJoinCost));
-            
+            line.append(database.getTargetCostFunction().getFeature(u.getUnit(), "phone") + "("+ u.getUnit().index+ ")");
+            prevIndex = index;
         }
-
-        return selectedUnits;
+        if (lengthHistogram.length <= length) {
+            int[] dummy = new int[length+1];
+            System.arraycopy(lengthHistogram, 0, dummy, 0, lengthHistogram.length);
+            lengthHistogram = dummy;
+        }
+        lengthHistogram[length]++;
+        pw.print(line);
+        // Find filename from which the stretch that just finished
+        // stems:
+        Unit firstUnitInStretch = ((SelectedUnit)selectedUnits.get(numUnits-length)).getUnit();
+        String origin = database.getFilenameAndTime(firstUnitInStretch);
+        // Print origin from column 80:
+        for (int col=line.length();col<80; col++) pw.print(" ");
+        pw.print(origin);
+        pw.println();
+        logger.debug("Selected units:\n"+sw.toString());
+        // Compute average length of stretches:
+        int total = 0;
+        int nStretches = 0;
+        for (int l=1; l<lengthHistogram.length; l++) {
+            // lengthHistogram[0] will be 0 anyway
+            total += lengthHistogram[l] * l;
+            nStretches += lengthHistogram[l];
+        }
+        float avgLength = total / (float) nStretches;
+        DecimalFormat df = new DecimalFormat("0.000");
+        logger.debug("Avg. consecutive length: "+df.format(avgLength)+" units");
+        // Cost of best path
+        int elements = selectedUnits.size();
+        double avgCostBestPath = totalCost/(elements-1);
+        double avgTargetCost = cumulTargetCosts/nTargetCosts;
+        double avgJoinCost = cumulJoinCosts/nJoinCosts;
+        logger.debug("Avg. cost: best path "+df.format(avgCostBestPath)
+                +", avg. target "+df.format(avgTargetCost)
+                +", join "+df.format(avgJoinCost)
+                +" (n="+nTargetCosts+")");
+        DebugStats stats = debugStats.get(database);
+        if (stats == null) {
+            stats = new DebugStats();
+            debugStats.put(database, stats);
+        }
+        stats.n++;
+        // iterative computation of mean:
+        // m(n) = m(n-1) + (x(n) - m(n-1)) / n
+        stats.avgLength += (avgLength - stats.avgLength) / stats.n;
+        stats.avgCostBestPath += (avgCostBestPath - stats.avgCostBestPath) / stats.n;
+        stats.avgTargetCost += (avgTargetCost - stats.avgTargetCost) / stats.n;
+        stats.avgJoinCost += (avgJoinCost - stats.avgJoinCost) / stats.n;
+        logger.debug("Total average of "+stats.n+" utterances for this voice:");
+        logger.debug("Avg. length: "+df.format(stats.avgLength)
+                +", avg. cost best path: "+df.format(stats.avgCostBestPath)
+                +", avg. target cost: "+df.format(stats.avgTargetCost)
+                +", avg. join cost: "+df.format(stats.avgJoinCost));
     }
     
     /**
@@ -466,6 +499,22 @@ public  class Viterbi
      * with the cumulative (penalty) score calculated. 
      */
     private ViterbiPath getPath(ViterbiPath path, ViterbiCandidate candidate) {
+        double cost = getCost(path == null ? null : path.candidate, candidate);
+        if (path != null) {
+            cost += path.score;
+        }	
+
+        return new ViterbiPath(candidate, path, cost);
+    }
+    
+    /**
+     * Compute the weighted sum of the target cost of the given candidate and the
+     * join cost of appending it to the previous candidate.
+     * @param prevCandidate the previous candidate, or null if candidate starts a path
+     * @param candidate
+     * @return the cost of the transition from prevCandidate to candidate.
+     */
+    protected double getCost(ViterbiCandidate prevCandidate, ViterbiCandidate candidate) {
         double cost;
 
         Target candidateTarget = candidate.target;
@@ -477,11 +526,10 @@ public  class Viterbi
         // Target costs:
         targetCost = candidate.targetCost;
         
-        if (path == null || path.candidate == null) {
+        if (prevCandidate == null) {
             joinCost = 0;
         } else {
             // Join costs:
-            ViterbiCandidate prevCandidate = path.candidate;
             Target prevTarget = prevCandidate.target;
             Unit prevUnit = prevCandidate.unit;
             joinCost = joinCostFunction.cost(prevTarget, prevUnit, candidateTarget, candidateUnit);
@@ -500,12 +548,7 @@ public  class Viterbi
         cumulTargetCosts += targetCost;
         nTargetCosts++;
         //logger.debug(candidateUnit+": target cost "+targetCost+", join cost "+joinCost);
-
-        if (path != null) {
-            cost += path.score;
-        }	
-
-        return new ViterbiPath(candidate, path, cost);
+        return cost;
     }
     
     /**
@@ -21,18 +21,23 @@
 package marytts.util;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
-import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
 
 import marytts.server.MaryProperties;
+import marytts.util.cache.CacheEngine;
+import marytts.util.cache.CacheKey;
+import marytts.util.cache.HsqlCacheEngine;
+import marytts.util.cache.TieredCacheEngine;
 
 /**
+ * A cache of MARY processing results, for text and audio output.
+ * The results are stored by a {@link CacheEngine}, which is selected with the property
+ * <code>cache.engine</code>: <code>tiered</code> (the default) for a {@link TieredCacheEngine}
+ * with an in-memory and an on-disk tier, or <code>hsqldb</code> for the {@link HsqlCacheEngine}.
  * @author marc
  *
  */
@@ -49,7 +54,7 @@ public class MaryCache
      * cannot be created, null will be returned and any exception will be logged.
      * @return the MaryCache singleton object, or null if none could be created.
      */
-    public static MaryCache getCache()
+    public static synchronized MaryCache getCache()
     {
         if (maryCache == null) {
             try {
@@ -58,7 +63,20 @@ public class MaryCache
                 if (!directory.isDirectory()) {
                     directory.mkdirs();
                 }
-                maryCache = new MaryCache(targetFile, MaryProperties.getBoolean("cache.clearOnStart", false));
+                boolean clear = MaryProperties.getBoolean("cache.clearOnStart", false);
+                String engineName = MaryProperties.getProperty("cache.engine", "tiered");
+                CacheEngine engine;
+                if (engineName.equals("hsqldb")) {
+                    engine = new HsqlCacheEngine(targetFile, clear);
+                } else if (engineName.equals("tiered")) {
+                    engine = new TieredCacheEngine(targetFile, clear,
+                            MaryProperties.getInteger("cache.memory.megabytes", (int) (TieredCacheEngine.DEFAULT_MEMORY_BYTES >> 20)) * 1024L * 1024,
+                            MaryProperties.getInteger("cache.disk.segment.megabytes", (int) (TieredCacheEngine.DEFAULT_SEGMENT_BYTES >> 20)) * 1024L * 1024,
+                            MaryProperties.getInteger("cache.disk.megabytes", (int) (TieredCacheEngine.DEFAULT_DISK_BYTES >> 20)) * 1024L * 1024);
+                } else {
+                    throw new IllegalArgumentException("Unknown cache engine '"+engineName+"' -- expected 'tiered' or 'hsqldb'");
+                }
+                maryCache = new MaryCache(engine);
             } catch (Exception e) {
                 MaryUtils.getLogger(MaryCache.class).warn("Cannot set up cache", e);
             }
@@ -77,69 +95,92 @@ public class MaryCache
     ////////////////////////////// non-static code /////////////////////////////
     
     
-    private Connection connection;
+    private CacheEngine engine;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong inserts = new AtomicLong(0);
 
     /**
-     * Create a MaryCache with the given file prefix.
+     * Create a MaryCache with the given file prefix, using a {@link TieredCacheEngine} with default sizes.
      * This constructor is public only for tests; it should not normally be called.
      * User code should call {@link #getCache()} instead.
      * TODO: Find a more elegant way to create a custom MaryCache from test code.
-     * @param cacheFile the file name prefix with which to create the cache database.
+     * @param cacheFile the file name prefix with which to create the cache.
      * @param clearCache if true, clear the cache; if false, keep it.
-     * @throws ClassNotFoundException if the HSQL JDBC driver is not in the classpath.
-     * @throws SQLException if the database connection cannot be set up
+     * @throws SQLException if the cache cannot be set up
      */
-    public MaryCache(File cacheFile, boolean clearCache) throws ClassNotFoundException, SQLException
+    public MaryCache(File cacheFile, boolean clearCache) throws SQLException
     {
-        // Load the HSQL Database Engine JDBC driver
-        Class.forName("org.hsqldb.jdbcDriver");
-        connection = DriverManager.getConnection("jdbc:hsqldb:"+cacheFile.toURI().toString(), "sa", "");
-        boolean mustCreateTable = false;
-        if (clearCache) {
-            Statement st = connection.createStatement();
-            st.executeUpdate("DROP TABLE MARYCACHE IF EXISTS");
-            st.close();
-            mustCreateTable = true;
-        } else { // don't clear -- check if table exists
-            DatabaseMetaData dbInfo = connection.getMetaData();
-            ResultSet rs = dbInfo.getTables(null, null, "MARYCACHE", new String[]{"TABLE"});
-            if (rs.next()) {
-                // table exists
-            } else {
-                mustCreateTable = true;
-            }
-        }
-        if (mustCreateTable) {
-            String query = "CREATE CACHED TABLE MARYCACHE (id INTEGER IDENTITY, "
-                +"inputtype VARCHAR(50), "
-                +"outputtype VARCHAR(50), "
-                +"locale VARCHAR(10), "
-                +"voice VARCHAR(100), "
-                +"outputparams VARCHAR(1000), "
-                +"style VARCHAR(50), "
-                +"effects VARCHAR(1000), "
-                +"inputtext LONGVARCHAR, "
-                +"outputtext LONGVARCHAR, "
-                +"outputaudio LONGVARBINARY, "
-                +"UNIQUE(inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext)"
-                +")";
-            update(query);
+        try {
+            this.engine = new TieredCacheEngine(cacheFile, clearCache);
+        } catch (IOException e) {
+            throw toSQLException(e);
         }
     }
-    
+
     /**
-     * Carry out an UPDATE SQL command on the database.
-     * @param query the UPDATE SQL command to carry out
-     * @throws SQLException if there is a problem executing the update.
+     * Create a MaryCache storing its data with the given engine.
+     * User code should call {@link #getCache()} instead.
+     * @param engine
      */
-    private synchronized void update(String query) throws SQLException
+    public MaryCache(CacheEngine engine)
     {
-        Statement st = connection.createStatement();
-        int ok = st.executeUpdate(query);
-        if (ok == -1) {
-            throw new SQLException("DB problem with query: "+query);
+        this.engine = engine;
+    }
+
+    /**
+     * The methods of this class throw SQLExceptions for historical reasons;
+     * wrap any other problem reported by the engine accordingly.
+     * @param e
+     * @return
+     */
+    private static SQLException toSQLException(IOException e) {
+        if (e.getCause() instanceof SQLException) {
+            return (SQLException) e.getCause();
         }
-        st.close();
+        return new SQLException(e.getMessage(), e);
+    }
+    
+    private static byte[] toBytes(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e); // UTF-8 is always supported
+        }
+    }
+
+    private static String toText(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e); // UTF-8 is always supported
+        }
+    }
+
+    private byte[] lookup(CacheKey key) throws SQLException
+    {
+        byte[] value;
+        try {
+            value = engine.lookup(key);
+        } catch (IOException e) {
+            throw toSQLException(e);
+        }
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    private void insert(CacheKey key, byte[] value) throws SQLException
+    {
+        try {
+            engine.insert(key, value);
+        } catch (IOException e) {
+            throw toSQLException(e);
+        }
+        inserts.incrementAndGet();
     }
     
     /**
@@ -175,27 +216,13 @@ public class MaryCache
      * @throws NullPointerException if one of the fields is null which must be non-null.
      * @throws SQLException if the record could not be entered into the cache.
      */
-    public synchronized void insertText(String inputtype, String outputtype, String locale, String voice, String outputparams, String style, String effects, String inputtext, String outputtext)
+    public void insertText(String inputtype, String outputtype, String locale, String voice, String outputparams, String style, String effects, String inputtext, String outputtext)
     throws SQLException
     {
-        if (inputtype == null || outputtype == null || locale == null || voice == null || inputtext == null || outputtext == null) {
+        if (outputtext == null) {
             throw new NullPointerException("Null argument");
         }
-        // Need to verify, here in the synchronized code, once again that really we don't have this entry already.
-        // If we do, we ignore this call.
-        if (lookupText(inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext) != null) {
-            return;
-        }
-
-        String query = "INSERT INTO MARYCACHE (inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext, outputtext) VALUES ('"
-            +inputtype+"','"+outputtype+"','"+locale+"','"+voice+"','"+outputparams+"','"+style+"','"+effects+"',?,?)";
-
-        PreparedStatement st = connection.prepareStatement(query);
-        // We set the input and output text separately because they could contain single quote characters
-        st.setString(1, inputtext);
-        st.setString(2, outputtext);
-        st.executeUpdate();
-        st.close();
+        insert(new CacheKey(inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext), toBytes(outputtext));
     }
     
     /**
@@ -229,26 +256,13 @@ public class MaryCache
      * @throws NullPointerException if one of the fields is null which must be non-null.
      * @throws SQLException if the record could not be entered into the cache.
      */
-    public synchronized void insertAudio(String inputtype, String locale, String voice, String outputparams, String style, String effects, String inputtext, byte[] audio)
+    public void insertAudio(String inputtype, String locale, String voice, String outputparams, String style, String effects, String inputtext, byte[] audio)
     throws SQLException
     {
-        if (inputtype == null || locale == null || voice == null || inputtext == null) {
+        if (audio == null) {
             throw new NullPointerException("Null argument");
         }
-        // Need to verify, here in the synchronized code, once again that really we don't have this entry already.
-        // If we do, we ignore this call.
-        if (lookupAudio(inputtype, locale, voice, outputparams, style, effects, inputtext) != null) {
-            return;
-        }
-        
-        String query = "INSERT INTO MARYCACHE (inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext, outputaudio) VALUES('"
-            +inputtype+"','AUDIO','"+locale+"','"+voice+"','"+outputparams+"','"+style+"','"+effects+"',?,?)";
-
-        PreparedStatement st = connection.prepareStatement(query);
-        st.setString(1, inputtext);
-        st.setBytes(2, audio);
-        st.executeUpdate();
-        st.close();
+        insert(new CacheKey(inputtype, "AUDIO", locale, voice, outputparams, style, effects, inputtext), audio);
     }
 
     /**
@@ -282,30 +296,11 @@ public class MaryCache
      * @throws NullPointerException if one of the fields is null which must be non-null.
      * @throws SQLException if there is a problem querying the cache.
      */
-    public synchronized String lookupText(String inputtype, String outputtype, String locale, String voice, String outputparams, String style, String effects, String inputtext)
+    public String lookupText(String inputtype, String outputtype, String locale, String voice, String outputparams, String style, String effects, String inputtext)
     throws SQLException
     {
-        if (inputtype == null || outputtype == null || locale == null || voice == null || inputtext == null) {
-            throw new NullPointerException("Null argument");
-        }
-        String outputtext = null;
-        String query = "SELECT outputtext FROM marycache WHERE inputtype = '"+inputtype
-            + "' AND outputtype = '"+outputtype
-            + "' AND locale = '"+locale
-            + "' AND voice = '"+voice
-            + "' AND outputparams = '"+outputparams
-            + "' AND style = '"+style
-            + "' AND effects = '"+effects
-            + "' AND inputtext = ?";
-
-        PreparedStatement st = connection.prepareStatement(query);
-        st.setString(1, inputtext);
-        ResultSet results = st.executeQuery();
-        if (results.next()) { // we expect only a single result, if any, so no while loop
-            outputtext = results.getString(1);
-        }
-        st.close();
-        return outputtext;
+        byte[] value = lookup(new CacheKey(inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext));
+        return value != null ? toText(value) : null;
     }
     
     /**
@@ -337,46 +332,71 @@ public class MaryCache
      * @throws NullPointerException if one of the fields is null which must be non-null.
      * @throws SQLException if there is a problem querying the cache.
      */
-    public synchronized byte[] lookupAudio(String inputtype, String locale, String voice, String outputparams, String style, String effects, String inputtext)
+    public byte[] lookupAudio(String inputtype, String locale, String voice, String outputparams, String style, String effects, String inputtext)
     throws SQLException
     {
-        if (inputtype == null || locale == null || voice == null || inputtext == null) {
-            throw new NullPointerException("Null argument");
-        }
-        byte[] audio = null;
-        String query = "Select outputaudio FROM marycache WHERE inputtype = '"+inputtype
-            + "' AND outputtype = 'AUDIO' AND locale = '"+locale
-            + "' AND voice = '"+voice
-            + "' AND outputparams = '"+outputparams
-            + "' AND style = '"+style
-            + "' AND effects = '"+effects
-            + "' AND inputtext = ?";
-        PreparedStatement st = connection.prepareStatement(query);
-        st.setString(1, inputtext);
-        ResultSet results = st.executeQuery();
-        if (results.next()) {
-            audio = results.getBytes(1);
-        }
-        return audio;
+        return lookup(new CacheKey(inputtype, "AUDIO", locale, voice, outputparams, style, effects, inputtext));
     }
     
+    /**
+     * The number of lookups that found a value.
+     * @return
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * The number of lookups that did not find a value.
+     * @return
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * The number of values inserted.
+     * @return
+     */
+    public long getInsertCount() {
+        return inserts.get();
+    }
+
+    /**
+     * The number of entries the cache engine has dropped to stay within its size limits.
+     * @return
+     */
+    public long getEvictionCount() {
+        return engine.getEvictionCount();
+    }
+
     /**
      * Shut down the cache. After this has been called, any further calls to the object will throw exceptions.
-     * @throws SQLException if there is a problem executing the database SHUTDOWN command.
+     * @throws SQLException if there is a problem shutting down the cache engine.
      */
     public void shutdown() throws SQLException
     {
+        try {
+            engine.shutdown();
+        } catch (IOException e) {
+            throw toSQLException(e);
+        }
+    }
 
-        Statement st = connection.createStatement();
-        st.execute("SHUTDOWN");
-        connection.close();    // if there are no other open connection
+    /**
+     * A one-line summary of the cache statistics.
+     */
+    @Override
+    public String toString() {
+        return "MaryCache: "+getHitCount()+" hits, "+getMissCount()+" misses, "+getInsertCount()+" inserts, "
+            +getEvictionCount()+" evictions ("+engine+")";
     }
 
 
     /**
      * @param args
      */
-    public static void main(String[] args) throws SQLException, MalformedURLException, ClassNotFoundException
+    public static void main(String[] args) throws SQLException, MalformedURLException
     {
         MaryCache c = new MaryCache(new File("/Users/marc/Desktop/testdb/testDB"), false);
 //        c.insertText("TEXT", "RAWMARYXML", "de", "de1", "Welcome to the world of speech synthesis", "<rawmaryxml/>");
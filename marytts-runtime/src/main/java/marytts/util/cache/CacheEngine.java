@@ -0,0 +1,61 @@
+/**
+ * Copyright 2009 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import java.io.IOException;
+
+/**
+ * The storage engine behind {@link marytts.util.MaryCache}.
+ * Values are stored as bytes: audio as WAVE file data, text as UTF-8.
+ * Implementations must be thread-safe.
+ * 
+ * @author marc
+ *
+ */
+public interface CacheEngine {
+    /**
+     * Look up the value stored for the given key.
+     * @param key
+     * @return the value, or null if there is no value for this key.
+     * @throws IOException if there is a problem accessing the cache storage.
+     */
+    public byte[] lookup(CacheKey key) throws IOException;
+
+    /**
+     * Store a value for the given key. If there is already a value for the key,
+     * this call does nothing.
+     * @param key
+     * @param value
+     * @throws IOException if there is a problem accessing the cache storage.
+     */
+    public void insert(CacheKey key, byte[] value) throws IOException;
+
+    /**
+     * The number of entries this engine has dropped so far to stay within its size limits.
+     * @return
+     */
+    public long getEvictionCount();
+
+    /**
+     * Shut down the engine. After this has been called, any further calls to the object will throw exceptions.
+     * @throws IOException
+     */
+    public void shutdown() throws IOException;
+}
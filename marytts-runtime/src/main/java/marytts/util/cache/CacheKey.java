@@ -0,0 +1,149 @@
+/**
+ * Copyright 2009 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The lookup key of a cache entry: all properties of a request which influence its result.
+ * 
+ * @author marc
+ *
+ */
+public class CacheKey {
+    private final String inputtype;
+    private final String outputtype;
+    private final String locale;
+    private final String voice;
+    private final String outputparams;
+    private final String style;
+    private final String effects;
+    private final String inputtext;
+    private Hash hash;
+
+    /**
+     * @param inputtype the request's input type. Must not be null. 
+     * @param outputtype the request's output type. Must not be null.
+     * @param locale the locale of the request. Must not be null.
+     * @param voice the voice of the request. Must not be null.
+     * @param outputparams optionally, any output parameters. Can be null.
+     * @param style optionally, any style. Can be null.
+     * @param effects optionally, any effects. Can be null.
+     * @param inputtext the request's input text. Must not be null.
+     * @throws NullPointerException if one of the fields is null which must be non-null.
+     */
+    public CacheKey(String inputtype, String outputtype, String locale, String voice,
+            String outputparams, String style, String effects, String inputtext) {
+        if (inputtype == null || outputtype == null || locale == null || voice == null || inputtext == null) {
+            throw new NullPointerException("Null argument");
+        }
+        this.inputtype = inputtype;
+        this.outputtype = outputtype;
+        this.locale = locale;
+        this.voice = voice;
+        this.outputparams = outputparams;
+        this.style = style;
+        this.effects = effects;
+        this.inputtext = inputtext;
+    }
+
+    public String getInputType() { return inputtype; }
+    public String getOutputType() { return outputtype; }
+    public String getLocale() { return locale; }
+    public String getVoice() { return voice; }
+    public String getOutputParams() { return outputparams; }
+    public String getStyle() { return style; }
+    public String getEffects() { return effects; }
+    public String getInputText() { return inputtext; }
+
+    /**
+     * A compact hash of all the fields of this key, which can be used in place of
+     * the full key (in particular, without keeping the full input text around).
+     * @return
+     */
+    public synchronized Hash getHash() {
+        if (hash == null) {
+            hash = new Hash(computeDigest());
+        }
+        return hash;
+    }
+
+    private byte[] computeDigest() {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(inputtext.length() + 128);
+            DataOutputStream out = new DataOutputStream(baos);
+            String[] fields = new String[] { inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext };
+            for (String field : fields) {
+                if (field == null) {
+                    out.writeInt(-1);
+                } else {
+                    byte[] bytes = field.getBytes("UTF-8");
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            out.close();
+            return MessageDigest.getInstance("SHA-1").digest(baos.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot compute cache key", e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Cannot compute cache key", e);
+        }
+    }
+
+    /**
+     * A 160-bit (SHA-1) hash of a cache key.
+     */
+    public static final class Hash {
+        public static final int LENGTH = 20;
+
+        private final byte[] bytes;
+        private final int hashCode;
+
+        public Hash(byte[] bytes) {
+            if (bytes.length != LENGTH) {
+                throw new IllegalArgumentException("Expected "+LENGTH+" bytes, got "+bytes.length);
+            }
+            this.bytes = bytes;
+            this.hashCode = Arrays.hashCode(bytes);
+        }
+
+        public byte[] getBytes() {
+            return bytes.clone();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Hash)) return false;
+            return Arrays.equals(bytes, ((Hash) o).bytes);
+        }
+    }
+}
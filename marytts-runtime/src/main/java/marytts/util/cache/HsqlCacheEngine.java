@@ -0,0 +1,191 @@
+/**
+ * Copyright 2009 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A cache engine storing all entries in a HSQL database table.
+ * All access is serialized on one JDBC connection.
+ * 
+ * @author marc
+ *
+ */
+public class HsqlCacheEngine implements CacheEngine
+{
+    private Connection connection;
+
+    /**
+     * Create a cache engine in a HSQL database with the given file prefix.
+     * @param cacheFile the file name prefix with which to create the cache database.
+     * @param clearCache if true, clear the cache; if false, keep it.
+     * @throws ClassNotFoundException if the HSQL JDBC driver is not in the classpath.
+     * @throws SQLException if the database connection cannot be set up
+     */
+    public HsqlCacheEngine(File cacheFile, boolean clearCache) throws ClassNotFoundException, SQLException
+    {
+        // Load the HSQL Database Engine JDBC driver
+        Class.forName("org.hsqldb.jdbcDriver");
+        connection = DriverManager.getConnection("jdbc:hsqldb:"+cacheFile.toURI().toString(), "sa", "");
+        boolean mustCreateTable = false;
+        if (clearCache) {
+            Statement st = connection.createStatement();
+            st.executeUpdate("DROP TABLE MARYCACHE IF EXISTS");
+            st.close();
+            mustCreateTable = true;
+        } else { // don't clear -- check if table exists
+            DatabaseMetaData dbInfo = connection.getMetaData();
+            ResultSet rs = dbInfo.getTables(null, null, "MARYCACHE", new String[]{"TABLE"});
+            if (rs.next()) {
+                // table exists
+            } else {
+                mustCreateTable = true;
+            }
+        }
+        if (mustCreateTable) {
+            String query = "CREATE CACHED TABLE MARYCACHE (id INTEGER IDENTITY, "
+                +"inputtype VARCHAR(50), "
+                +"outputtype VARCHAR(50), "
+                +"locale VARCHAR(10), "
+                +"voice VARCHAR(100), "
+                +"outputparams VARCHAR(1000), "
+                +"style VARCHAR(50), "
+                +"effects VARCHAR(1000), "
+                +"inputtext LONGVARCHAR, "
+                +"outputtext LONGVARCHAR, "
+                +"outputaudio LONGVARBINARY, "
+                +"UNIQUE(inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext)"
+                +")";
+            update(query);
+        }
+    }
+    
+    /**
+     * Carry out an UPDATE SQL command on the database.
+     * @param query the UPDATE SQL command to carry out
+     * @throws SQLException if there is a problem executing the update.
+     */
+    private synchronized void update(String query) throws SQLException
+    {
+        Statement st = connection.createStatement();
+        int ok = st.executeUpdate(query);
+        if (ok == -1) {
+            throw new SQLException("DB problem with query: "+query);
+        }
+        st.close();
+    }
+
+    private static boolean isAudio(CacheKey key) {
+        return key.getOutputType().equals("AUDIO");
+    }
+    
+    public synchronized void insert(CacheKey key, byte[] value) throws IOException
+    {
+        try {
+            // Need to verify, here in the synchronized code, once again that really we don't have this entry already.
+            // If we do, we ignore this call.
+            if (lookupInDB(key) != null) {
+                return;
+            }
+            String query = "INSERT INTO MARYCACHE (inputtype, outputtype, locale, voice, outputparams, style, effects, inputtext, "
+                +(isAudio(key) ? "outputaudio" : "outputtext")+") VALUES ('"
+                +key.getInputType()+"','"+key.getOutputType()+"','"+key.getLocale()+"','"+key.getVoice()+"','"
+                +key.getOutputParams()+"','"+key.getStyle()+"','"+key.getEffects()+"',?,?)";
+
+            PreparedStatement st = connection.prepareStatement(query);
+            // We set the input and output separately because they could contain single quote characters
+            st.setString(1, key.getInputText());
+            if (isAudio(key)) {
+                st.setBytes(2, value);
+            } else {
+                st.setString(2, new String(value, "UTF-8"));
+            }
+            st.executeUpdate();
+            st.close();
+        } catch (SQLException e) {
+            throw new IOException("Cannot insert into cache database", e);
+        }
+    }
+
+    public synchronized byte[] lookup(CacheKey key) throws IOException
+    {
+        try {
+            return lookupInDB(key);
+        } catch (SQLException e) {
+            throw new IOException("Cannot look up in cache database", e);
+        }
+    }
+
+    private byte[] lookupInDB(CacheKey key) throws SQLException, IOException
+    {
+        String query = "SELECT "+(isAudio(key) ? "outputaudio" : "outputtext")
+            + " FROM marycache WHERE inputtype = '"+key.getInputType()
+            + "' AND outputtype = '"+key.getOutputType()
+            + "' AND locale = '"+key.getLocale()
+            + "' AND voice = '"+key.getVoice()
+            + "' AND outputparams = '"+key.getOutputParams()
+            + "' AND style = '"+key.getStyle()
+            + "' AND effects = '"+key.getEffects()
+            + "' AND inputtext = ?";
+
+        PreparedStatement st = connection.prepareStatement(query);
+        st.setString(1, key.getInputText());
+        ResultSet results = st.executeQuery();
+        byte[] value = null;
+        if (results.next()) { // we expect only a single result, if any, so no while loop
+            if (isAudio(key)) {
+                value = results.getBytes(1);
+            } else {
+                String outputtext = results.getString(1);
+                if (outputtext != null) {
+                    value = outputtext.getBytes("UTF-8");
+                }
+            }
+        }
+        st.close();
+        return value;
+    }
+
+    /**
+     * This engine never drops any entries.
+     */
+    public long getEvictionCount() {
+        return 0;
+    }
+
+    public void shutdown() throws IOException
+    {
+        try {
+            Statement st = connection.createStatement();
+            st.execute("SHUTDOWN");
+            connection.close();    // if there are no other open connection
+        } catch (SQLException e) {
+            throw new IOException("Cannot shut down cache database", e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2009 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory least-recently-used cache of byte arrays, bounded by the total number of bytes stored.
+ * The cache is split into independently locked stripes, so that concurrent requests
+ * hardly ever wait for each other.
+ * 
+ * @author marc
+ *
+ */
+public class MemoryCacheTier {
+    // Approximate per-entry overhead of map entry, key and array header
+    private static final int ENTRY_OVERHEAD = 100;
+    
+    private final Stripe[] stripes;
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    /**
+     * @param maxBytes the maximum total number of bytes to store
+     * @param numStripes the number of independently locked parts
+     */
+    public MemoryCacheTier(long maxBytes, int numStripes) {
+        if (numStripes <= 0) throw new IllegalArgumentException("Need at least one stripe");
+        stripes = new Stripe[numStripes];
+        for (int i=0; i<numStripes; i++) {
+            stripes[i] = new Stripe(maxBytes / numStripes);
+        }
+    }
+
+    private Stripe stripeFor(CacheKey.Hash key) {
+        return stripes[(key.hashCode() & 0x7fffffff) % stripes.length];
+    }
+
+    /**
+     * @param key
+     * @return the value for the key, or null
+     */
+    public byte[] get(CacheKey.Hash key) {
+        Stripe s = stripeFor(key);
+        synchronized (s) {
+            return s.map.get(key);
+        }
+    }
+
+    /**
+     * Store the value for the key, evicting least recently used entries if necessary.
+     * Values larger than the memory of one stripe are not stored.
+     * @param key
+     * @param value
+     */
+    public void put(CacheKey.Hash key, byte[] value) {
+        Stripe s = stripeFor(key);
+        long size = sizeOf(value);
+        if (size > s.maxBytes) {
+            return;
+        }
+        synchronized (s) {
+            byte[] old = s.map.put(key, value);
+            if (old != null) {
+                s.bytes -= sizeOf(old);
+            }
+            s.bytes += size;
+            Iterator<Map.Entry<CacheKey.Hash, byte[]>> it = s.map.entrySet().iterator();
+            while (s.bytes > s.maxBytes && it.hasNext()) {
+                Map.Entry<CacheKey.Hash, byte[]> eldest = it.next();
+                s.bytes -= sizeOf(eldest.getValue());
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public void clear() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.map.clear();
+                s.bytes = 0;
+            }
+        }
+    }
+
+    /**
+     * The approximate number of bytes currently used.
+     * @return
+     */
+    public long getBytes() {
+        long sum = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                sum += s.bytes;
+            }
+        }
+        return sum;
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private static long sizeOf(byte[] value) {
+        return value.length + ENTRY_OVERHEAD;
+    }
+
+    private static class Stripe {
+        final long maxBytes;
+        long bytes = 0;
+        // access order: iteration starts with the least recently used entry
+        final LinkedHashMap<CacheKey.Hash, byte[]> map = new LinkedHashMap<CacheKey.Hash, byte[]>(16, 0.75f, true);
+
+        Stripe(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/**
+ * Copyright 2009 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import marytts.util.MaryUtils;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A persistent store of byte arrays in append-only segment files.
+ * <p>
+ * Records are appended to the newest segment; when it reaches the segment size,
+ * it is closed for writing and memory-mapped for reading, and a new segment is started.
+ * An in-memory index maps each key to the location of its record. It is rebuilt
+ * by scanning the segment files when the store is opened; a partially written
+ * record at the end of a segment (e.g., after a crash) is discarded.
+ * <p>
+ * When the store grows beyond its maximum size, the oldest segment is compacted:
+ * records that have been looked up or {@link #touch(CacheKey.Hash) touched} since they were written
+ * are copied to the newest segment, all others are dropped, and the segment file is deleted.
+ * <p>
+ * Lookups do not lock; appends and compaction are serialized.
+ * 
+ * @author marc
+ *
+ */
+public class SegmentStore {
+    private static final int MAGIC = 0x4D415259; // "MARY"
+    private static final int HEADER_LENGTH = 4 + CacheKey.Hash.LENGTH + 4;
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".dat";
+
+    private final Logger logger = MaryUtils.getLogger("SegmentStore");
+    private final File directory;
+    private final long segmentSize;
+    private final long maxBytes;
+    private final Map<CacheKey.Hash, Location> index = new ConcurrentHashMap<CacheKey.Hash, Location>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<Integer, Segment>();
+    private final Object writeLock = new Object();
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong compactions = new AtomicLong(0);
+    private Segment active;
+
+    /**
+     * Open the store in the given directory, creating it if necessary.
+     * @param directory the directory holding the segment files
+     * @param segmentSize the size at which a segment is closed and a new one is started
+     * @param maxBytes the maximum total size of all segments, after which old segments are compacted
+     * @param clear if true, delete any existing data
+     * @throws IOException
+     */
+    public SegmentStore(File directory, long segmentSize, long maxBytes, boolean clear) throws IOException {
+        if (segmentSize <= HEADER_LENGTH || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be between "+HEADER_LENGTH+" and "+Integer.MAX_VALUE+", but is "+segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory "+directory.getAbsolutePath());
+        }
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.getName().startsWith(PREFIX) && f.getName().endsWith(SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+        for (File f : files) {
+            if (clear) {
+                if (!f.delete()) throw new IOException("Cannot delete "+f.getAbsolutePath());
+                continue;
+            }
+            int id = Integer.parseInt(f.getName().substring(PREFIX.length(), f.getName().length()-SUFFIX.length()));
+            Segment s = new Segment(id, f);
+            scan(s);
+            s.seal();
+            segments.put(id, s);
+        }
+        int nextId = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        active = new Segment(nextId, segmentFile(nextId));
+        segments.put(nextId, active);
+    }
+
+    private File segmentFile(int id) {
+        return new File(directory, String.format("%s%08d%s", PREFIX, id, SUFFIX));
+    }
+
+    /**
+     * Read all record headers of a segment into the index.
+     */
+    private void scan(Segment s) throws IOException {
+        long pos = 0;
+        long length = s.channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        byte[] hash = new byte[CacheKey.Hash.LENGTH];
+        while (pos + HEADER_LENGTH <= length) {
+            header.clear();
+            readFully(s.channel, header, pos);
+            header.flip();
+            if (header.getInt() != MAGIC) break;
+            header.get(hash);
+            int valueLength = header.getInt();
+            if (valueLength < 0 || pos + HEADER_LENGTH + valueLength > length) break;
+            index.put(new CacheKey.Hash(hash.clone()), new Location(s.id, pos + HEADER_LENGTH, valueLength));
+            pos += HEADER_LENGTH + valueLength;
+        }
+        if (pos < length) {
+            logger.warn("Discarding "+(length-pos)+" bytes of incomplete data at the end of "+s.file.getName());
+            s.channel.truncate(pos);
+        }
+        s.size = pos;
+    }
+
+    /**
+     * @param key
+     * @return the value stored for the key, or null if there is none.
+     * @throws IOException
+     */
+    public byte[] get(CacheKey.Hash key) throws IOException {
+        Location loc = index.get(key);
+        if (loc == null) return null;
+        Segment s = segments.get(loc.segment);
+        if (s == null) return null; // compacted away in the meantime
+        byte[] value = new byte[loc.length];
+        if (!s.read(loc.offset, value)) {
+            return null;
+        }
+        loc.accessed = true;
+        return value;
+    }
+
+    /**
+     * Mark the record for the key as used, without reading it, so that it is kept
+     * when its segment is compacted. This is for values that are served from a copy
+     * held elsewhere, e.g. in memory.
+     * @param key
+     */
+    public void touch(CacheKey.Hash key) {
+        Location loc = index.get(key);
+        if (loc != null) {
+            loc.accessed = true;
+        }
+    }
+
+    public boolean contains(CacheKey.Hash key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Append a record for the key unless there is one already.
+     * @param key
+     * @param value
+     * @throws IOException
+     */
+    public void put(CacheKey.Hash key, byte[] value) throws IOException {
+        synchronized (writeLock) {
+            if (index.containsKey(key)) return;
+            index.put(key, append(key, value));
+            while (getBytes() > maxBytes && segments.size() > 1) {
+                compactOldestSegment();
+            }
+        }
+    }
+
+    /**
+     * Must be called with the write lock held.
+     */
+    private Location append(CacheKey.Hash key, byte[] value) throws IOException {
+        int recordLength = HEADER_LENGTH + value.length;
+        if (active.size > 0 && active.size + recordLength > segmentSize) {
+            active.seal();
+            int id = active.id + 1;
+            active = new Segment(id, segmentFile(id));
+            segments.put(id, active);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC);
+        header.put(key.getBytes());
+        header.putInt(value.length);
+        header.flip();
+        ByteBuffer[] record = new ByteBuffer[] { header, ByteBuffer.wrap(value) };
+        long start = active.size;
+        active.channel.position(start);
+        long written = 0;
+        while (written < recordLength) {
+            written += active.channel.write(record);
+        }
+        active.size = start + recordLength;
+        return new Location(active.id, start + HEADER_LENGTH, value.length);
+    }
+
+    /**
+     * Must be called with the write lock held.
+     */
+    private void compactOldestSegment() throws IOException {
+        Segment oldest = segments.firstEntry().getValue();
+        if (oldest == active) return;
+        // Collect keys first, so that re-appended records are not visited again
+        List<Map.Entry<CacheKey.Hash, Location>> inOldest = new ArrayList<Map.Entry<CacheKey.Hash, Location>>();
+        for (Map.Entry<CacheKey.Hash, Location> e : index.entrySet()) {
+            if (e.getValue().segment == oldest.id) {
+                inOldest.add(e);
+            }
+        }
+        int kept = 0;
+        for (Map.Entry<CacheKey.Hash, Location> e : inOldest) {
+            Location loc = e.getValue();
+            byte[] value = null;
+            if (loc.accessed) {
+                value = new byte[loc.length];
+                if (!oldest.read(loc.offset, value)) value = null;
+            }
+            if (value != null) {
+                index.put(e.getKey(), append(e.getKey(), value));
+                kept++;
+            } else {
+                index.remove(e.getKey());
+                evictions.incrementAndGet();
+            }
+        }
+        segments.remove(oldest.id);
+        oldest.close();
+        if (!oldest.file.delete()) {
+            logger.warn("Cannot delete compacted cache segment "+oldest.file.getAbsolutePath());
+        }
+        compactions.incrementAndGet();
+        logger.debug("Compacted "+oldest.file.getName()+": kept "+kept+" of "+inOldest.size()+" entries");
+    }
+
+    /**
+     * The total size of all segments, in bytes.
+     * @return
+     */
+    public long getBytes() {
+        long sum = 0;
+        for (Segment s : segments.values()) {
+            sum += s.size;
+        }
+        return sum;
+    }
+
+    public int getNumEntries() {
+        return index.size();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getCompactionCount() {
+        return compactions.get();
+    }
+
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            for (Segment s : segments.values()) {
+                s.close();
+            }
+            segments.clear();
+            index.clear();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long pos) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, pos);
+            if (read < 0) throw new IOException("Unexpected end of file");
+            pos += read;
+        }
+    }
+
+    private static class Location {
+        final int segment;
+        final long offset;
+        final int length;
+        volatile boolean accessed = false;
+
+        Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Segment {
+        final int id;
+        final File file;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        volatile long size = 0;
+        // read-only view of the whole segment, once it is no longer written to
+        volatile MappedByteBuffer mapped = null;
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+        }
+
+        void seal() throws IOException {
+            if (size > 0) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+
+        /**
+         * Read target.length bytes from offset.
+         * @return false if the segment has been closed in the meantime
+         */
+        boolean read(long offset, byte[] target) throws IOException {
+            MappedByteBuffer m = mapped;
+            if (m != null) {
+                ByteBuffer view = m.duplicate();
+                view.position((int) offset);
+                view.get(target);
+                return true;
+            }
+            try {
+                readFully(channel, ByteBuffer.wrap(target), offset);
+                return true;
+            } catch (java.nio.channels.ClosedChannelException e) {
+                return false;
+            }
+        }
+
+        void close() throws IOException {
+            mapped = null;
+            channel.close();
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2009 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.cache;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A cache engine with two tiers: a lock-striped in-memory LRU cache
+ * in front of a persistent, append-only {@link SegmentStore} on disk.
+ * Entries are identified by the hash of their {@link CacheKey}, so the full
+ * input text of a request is not kept in memory.
+ * 
+ * @author marc
+ *
+ */
+public class TieredCacheEngine implements CacheEngine {
+    public static final long DEFAULT_MEMORY_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_DISK_BYTES = 1024L * 1024 * 1024;
+    private static final int NUM_STRIPES = 16;
+
+    private final MemoryCacheTier memory;
+    private final SegmentStore disk;
+
+    /**
+     * Create a tiered cache with default sizes, storing its segments in the directory
+     * <code>cacheFile</code>.d.
+     * @param cacheFile the file name prefix of the cache.
+     * @param clearCache if true, clear the cache; if false, keep it.
+     * @throws IOException if the cache directory cannot be used
+     */
+    public TieredCacheEngine(File cacheFile, boolean clearCache) throws IOException {
+        this(cacheFile, clearCache, DEFAULT_MEMORY_BYTES, DEFAULT_SEGMENT_BYTES, DEFAULT_DISK_BYTES);
+    }
+
+    /**
+     * Create a tiered cache, storing its segments in the directory <code>cacheFile</code>.d.
+     * @param cacheFile the file name prefix of the cache.
+     * @param clearCache if true, clear the cache; if false, keep it.
+     * @param memoryBytes the maximum size of the in-memory tier
+     * @param segmentBytes the size of one segment file on disk
+     * @param diskBytes the maximum size of all segment files on disk; if this is 0, only the memory tier is used.
+     * @throws IOException if the cache directory cannot be used
+     */
+    public TieredCacheEngine(File cacheFile, boolean clearCache, long memoryBytes, long segmentBytes, long diskBytes) throws IOException {
+        memory = new MemoryCacheTier(memoryBytes, NUM_STRIPES);
+        if (diskBytes > 0) {
+            disk = new SegmentStore(new File(cacheFile.getPath()+".d"), segmentBytes, diskBytes, clearCache);
+        } else {
+            disk = null;
+        }
+    }
+
+    public byte[] lookup(CacheKey key) throws IOException {
+        CacheKey.Hash hash = key.getHash();
+        byte[] value = memory.get(hash);
+        if (disk != null) {
+            if (value == null) {
+                value = disk.get(hash);
+                if (value != null) {
+                    memory.put(hash, value);
+                }
+            } else {
+                // keep entries that are used from memory when their disk segment is compacted
+                disk.touch(hash);
+            }
+        }
+        return value;
+    }
+
+    public void insert(CacheKey key, byte[] value) throws IOException {
+        CacheKey.Hash hash = key.getHash();
+        if (memory.get(hash) != null) {
+            return;
+        }
+        if (disk != null) {
+            disk.put(hash, value);
+        }
+        memory.put(hash, value);
+    }
+
+    /**
+     * The number of entries dropped from memory plus those dropped from disk.
+     */
+    public long getEvictionCount() {
+        return memory.getEvictionCount() + (disk != null ? disk.getEvictionCount() : 0);
+    }
+
+    public long getMemoryBytes() {
+        return memory.getBytes();
+    }
+
+    public long getDiskBytes() {
+        return disk != null ? disk.getBytes() : 0;
+    }
+
+    public int getNumDiskEntries() {
+        return disk != null ? disk.getNumEntries() : 0;
+    }
+
+    public long getCompactionCount() {
+        return disk != null ? disk.getCompactionCount() : 0;
+    }
+
+    public void shutdown() throws IOException {
+        memory.clear();
+        if (disk != null) {
+            disk.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "tiered cache: "+getMemoryBytes()+" bytes in memory, "+getNumDiskEntries()+" entries ("
+            +getDiskBytes()+" bytes) on disk, "+getEvictionCount()+" evictions, "+getCompactionCount()+" compactions";
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.vocalizations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import marytts.features.FeatureVector;
+import marytts.unitselection.data.Unit;
+import marytts.unitselection.select.Target;
+import marytts.unitselection.select.VocalizationFFRTargetCostFunction;
+
+/**
+ * An index over the vocalization units for one target cost function.
+ * Units with the same feature vector, i.e. the same name, intonation, voice quality
+ * and meaning ratings, have the same target cost, so the units are grouped by feature vector
+ * and the cost is computed once per group. The best candidates are returned in the same order
+ * as sorting all units by cost would give them, ties being broken by unit index.
+ * Once built, the index is immutable and can be used by several threads.
+ *
+ * @author marc
+ *
+ */
+class VocalizationCandidateIndex {
+    private final VocalizationFFRTargetCostFunction costFunction;
+    // one unit per group, to compute the group's cost:
+    private final Unit[] representatives;
+    // the unit indices of each group, in ascending order:
+    private final int[][] members;
+    private final int[] groupOfUnit;
+
+    /**
+     * @param costFunction the cost function to compute the target costs with
+     * @param unitFileReader the units
+     */
+    VocalizationCandidateIndex(VocalizationFFRTargetCostFunction costFunction, VocalizationUnitFileReader unitFileReader) {
+        this.costFunction = costFunction;
+        FeatureVector[] featureVectors = costFunction.getFeatureVectors();
+        int numberUnits = unitFileReader.getNumberOfUnits();
+        Map<FeatureKey, List<Integer>> groups = new LinkedHashMap<FeatureKey, List<Integer>>();
+        for (int i=0; i<numberUnits; i++) {
+            FeatureKey key = new FeatureKey(featureVectors[i]);
+            List<Integer> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(key, group);
+            }
+            group.add(i);
+        }
+        representatives = new Unit[groups.size()];
+        members = new int[groups.size()][];
+        groupOfUnit = new int[numberUnits];
+        int g = 0;
+        for (List<Integer> group : groups.values()) {
+            representatives[g] = unitFileReader.getUnit(group.get(0));
+            members[g] = new int[group.size()];
+            for (int j=0; j<members[g].length; j++) {
+                members[g][j] = group.get(j);
+                groupOfUnit[members[g][j]] = g;
+            }
+            g++;
+        }
+    }
+
+    int getNumberOfGroups() {
+        return members.length;
+    }
+
+    /**
+     * Compute the cost of each group of units for the given target.
+     * @param target the target
+     * @return the costs, to be passed to the other methods of this index
+     */
+    double[] computeCosts(Target target) {
+        double[] costs = new double[representatives.length];
+        for (int g=0; g<costs.length; g++) {
+            costs[g] = costFunction.cost(target, representatives[g]);
+        }
+        return costs;
+    }
+
+    /**
+     * The cost of the given unit.
+     */
+    double getCost(double[] costs, int unitIndex) {
+        return costs[groupOfUnit[unitIndex]];
+    }
+
+    /**
+     * The number of units whose cost is below the given threshold.
+     */
+    int countCostsBelow(double[] costs, double threshold) {
+        int count = 0;
+        for (int g=0; g<costs.length; g++) {
+            if (costs[g] < threshold) {
+                count += members[g].length;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The k units with the lowest costs.
+     * @param costs the costs computed by {@link #computeCosts(Target)}
+     * @param k the number of candidates wanted
+     * @return the best min(k, number of units) candidates, sorted by cost and unit index
+     */
+    VocalizationCandidate[] getBestCandidates(double[] costs, int k) {
+        return getBestCandidates(costs, members, k);
+    }
+
+    static VocalizationCandidate[] getBestCandidates(final double[] costs, final int[][] members, int k) {
+        Integer[] order = new Integer[costs.length];
+        int numberUnits = 0;
+        for (int g=0; g<order.length; g++) {
+            order[g] = g;
+            numberUnits += members[g].length;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer g1, Integer g2) {
+                int c = compareCosts(costs[g1], costs[g2]);
+                if (c != 0) return c;
+                return members[g1][0] - members[g2][0];
+            }
+        });
+        VocalizationCandidate[] best = new VocalizationCandidate[Math.min(k, numberUnits)];
+        int count = 0;
+        for (int i=0; i<order.length && count<best.length; ) {
+            // groups with the same cost are interleaved by unit index:
+            int end = i+1;
+            while (end < order.length && compareCosts(costs[order[i]], costs[order[end]]) == 0) {
+                end++;
+            }
+            double cost = costs[order[i]];
+            int[] units = members[order[i]];
+            if (end > i+1) {
+                int n = 0;
+                for (int j=i; j<end; j++) {
+                    n += members[order[j]].length;
+                }
+                units = new int[n];
+                n = 0;
+                for (int j=i; j<end; j++) {
+                    System.arraycopy(members[order[j]], 0, units, n, members[order[j]].length);
+                    n += members[order[j]].length;
+                }
+                Arrays.sort(units);
+            }
+            for (int j=0; j<units.length && count<best.length; j++) {
+                best[count++] = new VocalizationCandidate(units[j], cost);
+            }
+            i = end;
+        }
+        return best;
+    }
+
+    /**
+     * Compare costs as {@link VocalizationCandidate#compareTo(VocalizationCandidate)} does;
+     * NaN, which the cost functions do not produce, is sorted last to keep the order consistent.
+     */
+    private static int compareCosts(double c1, double c2) {
+        if (c1 == c2) return 0;
+        if (c1 < c2) return -1;
+        if (c1 > c2) return 1;
+        return Double.isNaN(c1) ? (Double.isNaN(c2) ? 0 : 1) : -1;
+    }
+
+    private static class FeatureKey {
+        private final FeatureVector fv;
+        private final int hash;
+
+        FeatureKey(FeatureVector fv) {
+            this.fv = fv;
+            this.hash = 31 * (31 * Arrays.hashCode(fv.byteValuedDiscreteFeatures)
+                    + Arrays.hashCode(fv.shortValuedDiscreteFeatures)) + Arrays.hashCode(fv.continuousFeatures);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FeatureKey)) return false;
+            FeatureVector other = ((FeatureKey) o).fv;
+            return Arrays.equals(fv.byteValuedDiscreteFeatures, other.byteValuedDiscreteFeatures)
+                    && Arrays.equals(fv.shortValuedDiscreteFeatures, other.shortValuedDiscreteFeatures)
+                    && Arrays.equals(fv.continuousFeatures, other.continuousFeatures);
+        }
+    }
+}
@@ -57,6 +57,8 @@ public class VocalizationSelector {
     protected VocalizationUnitFileReader unitFileReader;
     protected VocalizationFFRTargetCostFunction vffrtUnitCostFunction = null;
     protected VocalizationFFRTargetCostFunction vffrtContourCostFunction = null;
+    private VocalizationCandidateIndex unitIndex;
+    private VocalizationCandidateIndex contourIndex;
     protected boolean f0ContourImposeSupport;
     protected boolean usePrecondition;
     protected double contourCostWeight;
@@ -83,6 +85,8 @@ public class VocalizationSelector {
             if(this.featureFileReader.getNumberOfUnits() != this.unitFileReader.getNumberOfUnits()) {
                 throw new MaryConfigurationException("Feature file reader and unit file reader is not aligned properly");
             }
+            unitIndex = new VocalizationCandidateIndex(vffrtUnitCostFunction, unitFileReader);
+            logger.debug(unitFileReader.getNumberOfUnits()+" vocalization units in "+unitIndex.getNumberOfGroups()+" groups of identical features");
 
             if ( this.f0ContourImposeSupport ) {
                 String intonationFDFile = MaryProperties.getFilename("voice."+voice.getName()+".vocalization.intonation.featureDefinitionFile");
@@ -97,6 +101,7 @@ public class VocalizationSelector {
                 vIntonationReader = new VocalizationIntonationReader(intonationFile);
                 noOfSuitableUnits = MaryProperties.getInteger("voice."+voice.getName()+".vocalization.intonation.numberOfSuitableUnits");
                 vffrtContourCostFunction = new VocalizationFFRTargetCostFunction(this.featureFileReader, this.f0FeatureDefinition);
+                contourIndex = new VocalizationCandidateIndex(vffrtContourCostFunction, unitFileReader);
             }
         }
         catch (IOException e) {
@@ -120,34 +125,31 @@ public class VocalizationSelector {
      */
     public SourceTargetPair getBestCandidatePairtoImposeF0(Element domElement) {
         
+        Target targetUnit = createTarget(domElement);
+        Target targetContour = createIntonationTarget(domElement);
+        double[] unitCosts = unitIndex.computeCosts(targetUnit);
+        double[] contourCosts = contourIndex.computeCosts(targetContour);
         
-        VocalizationCandidate[] vCosts = getBestMatchingCandidates(domElement);
-        VocalizationCandidate[] vIntonationCosts = getBestIntonationCandidates(domElement);
+        VocalizationCandidate[] suitableCandidates = unitIndex.getBestCandidates(unitCosts, noOfSuitableUnits);
         
         int noOfSuitableF0Units;
         if (usePrecondition) {
-            noOfSuitableF0Units = getNumberContoursAboveThreshold(vCosts, vIntonationCosts);
+            noOfSuitableF0Units = getNumberContoursAboveThreshold(suitableCandidates, contourCosts);
         } else {
             noOfSuitableF0Units = noOfSuitableUnits;
         }
         
         if ( noOfSuitableF0Units == 0 ) {
-            return new SourceTargetPair(vCosts[0].unitIndex, vCosts[0].unitIndex, 0);
+            return new SourceTargetPair(suitableCandidates[0].unitIndex, suitableCandidates[0].unitIndex, 0);
         }
         
-        VocalizationCandidate[] suitableCandidates = new VocalizationCandidate[noOfSuitableUnits];
-        System.arraycopy(vCosts, 0, suitableCandidates, 0, noOfSuitableUnits);
-        VocalizationCandidate[] suitableF0Candidates = new VocalizationCandidate[noOfSuitableF0Units];
-        System.arraycopy(vIntonationCosts, 0, suitableF0Candidates, 0, noOfSuitableF0Units);
+        VocalizationCandidate[] suitableF0Candidates = contourIndex.getBestCandidates(contourCosts, noOfSuitableF0Units);
          
-        Target targetUnit =  createTarget(domElement);
         if (logger.getEffectiveLevel().equals(Level.DEBUG)) {
             debugLogCandidates(targetUnit, suitableCandidates, suitableF0Candidates);
         }
         
-        SourceTargetPair[] sortedImposeF0Data = vocalizationF0DistanceComputer(suitableCandidates, suitableF0Candidates, domElement);
-        
-        return sortedImposeF0Data[0];
+        return vocalizationF0DistanceComputer(suitableCandidates, suitableF0Candidates, targetUnit, targetContour);
     }
     
     /**
@@ -159,123 +161,138 @@ public class VocalizationSelector {
      * CCmax (threshold) = min (CC(i1), CC(i2), CC(i3)....)
      * where i1, i2, i3 .. are unit candidates
      * 
-     * @param vCosts VocalizationCandidates
-     * @param vIntonationCosts VocalizationF0Candidates
+     * @param suitableCandidates VocalizationCandidates
+     * @param contourCosts contour costs computed by contourIndex
      * @return int number of contours above computed threshold 
      */
-    private int getNumberContoursAboveThreshold(VocalizationCandidate[] vCosts, VocalizationCandidate[] vIntonationCosts) {
+    private int getNumberContoursAboveThreshold(VocalizationCandidate[] suitableCandidates, double[] contourCosts) {
         
         // get minimum cc cost for all units 
-        double[] costs = new double[noOfSuitableUnits];
+        double[] costs = new double[suitableCandidates.length];
         for ( int i=0; i<costs.length; i++ ) {
-            int unitIndex = vCosts[i].unitIndex;
-            VocalizationCandidate contourCandidate =  getCandidateByIndex(vIntonationCosts, unitIndex);
-            if ( contourCandidate != null ) {
-                costs[i] = contourCandidate.cost;
-            }
-            else {
-                costs[i] = Double.MAX_VALUE;
-            }
+            costs[i] = contourIndex.getCost(contourCosts, suitableCandidates[i].unitIndex);
         }
         
         double threshold = MathUtils.min(costs);
-        int contourSetSize = 0;
-        for ( int i=0; i<vIntonationCosts.length; i++ ) {
-            if (vIntonationCosts[i].cost < threshold) {
-                contourSetSize = i+1;
-            }
-            else {
-                break;
-            }
-        }
-        
-        return contourSetSize;
+        return contourIndex.countCostsBelow(contourCosts, threshold);
     }
     
     /**
-     * search candidate by unitindex
-     * @param vIntonationCosts VocalizationF0Candidates
-     * @param unitIndex unitindex
-     * @return VocalizationCandidate of given index
+     * Find the candidate pair with the lowest cost, i.e. the first one in
+     * (unit candidate, contour candidate) order if several have the same cost.
+     * The parts of the merge cost depend on one candidate each, so they are computed once per candidate.
+     * @see #bestPair(int[], double[], int[], double[], double, ContourDistance)
+     * @param suitableCandidates vocalization candidates
+     * @param suitableF0Candidates intonation candidates
+     * @param targetUnit target for the unit features
+     * @param targetContour target for the contour features
+     * @return the best candidate pair
      */
-    private VocalizationCandidate getCandidateByIndex(VocalizationCandidate[] vIntonationCosts, int unitIndex) {
+    private SourceTargetPair vocalizationF0DistanceComputer(VocalizationCandidate[] suitableCandidates,
+            VocalizationCandidate[] suitableF0Candidates, Target targetUnit, Target targetContour ) {
         
-        for (int i=0; i < vIntonationCosts.length; i++ ) {
-            if ( vIntonationCosts[i].unitIndex == unitIndex ) {
-                return vIntonationCosts[i];
+        // unit features
+        double[] segmentalCosts = new double[suitableCandidates.length];
+        double[] voiceQualityCosts = new double[suitableCandidates.length];
+        double[] meaningUnitCosts = new double[suitableCandidates.length];
+        String[] meaningFeatureNames = vffrtUnitCostFunction.getFeatureDefinition().getContinuousFeatureNameArray();
+        for ( int i=0; i < suitableCandidates.length; i++ ) {
+            Unit unitCandidate = this.unitFileReader.getUnit(suitableCandidates[i].unitIndex);
+            segmentalCosts[i] = vffrtUnitCostFunction.featureCost(targetUnit, unitCandidate, "name");
+            voiceQualityCosts[i] = vffrtUnitCostFunction.featureCost(targetUnit, unitCandidate, "voicequality");
+            for ( int k=0; k < meaningFeatureNames.length; k++ ) {
+                meaningUnitCosts[i] += vffrtUnitCostFunction.featureCost(targetUnit, unitCandidate, meaningFeatureNames[k]);
             }
         }
-        return null;
-    }
-    
-    /**
-     * polynomial distance computer between two units
-     * @param suitableCandidates vocalization candidates
-     * @param suitableF0Candidates intonation candidates
-     * @return an array of candidate pairs
-     */
-    private SourceTargetPair[] vocalizationF0DistanceComputer(VocalizationCandidate[] suitableCandidates,
-            VocalizationCandidate[] suitableF0Candidates, Element domElement ) {
         
-        int noPossibleImpositions = suitableCandidates.length * suitableF0Candidates.length;
-        SourceTargetPair[] imposeF0Data = new SourceTargetPair[noPossibleImpositions];
-        int count = 0;
+        // contour features
+        double[] intonationCosts = new double[suitableF0Candidates.length];
+        double[] meaningContourCosts = new double[suitableF0Candidates.length];
+        String[] meaningContourFeatures = vffrtContourCostFunction.getFeatureDefinition().getContinuousFeatureNameArray();
+        for ( int j=0; j < suitableF0Candidates.length; j++ ) {
+            Unit contourCandidate = this.unitFileReader.getUnit(suitableF0Candidates[j].unitIndex);
+            intonationCosts[j] = vffrtContourCostFunction.featureCost(targetContour, contourCandidate, "intonation");
+            for ( int k=0; k < meaningContourFeatures.length; k++ ) {
+                meaningContourCosts[j] += vffrtContourCostFunction.featureCost(targetContour, contourCandidate, meaningContourFeatures[k]);
+            }
+        }
         
+        // Formula = segmentalformCost(u(i)) + intonationCost(c(i)) +  voiceQualityCost(u(i)) 
+        //              + 0.5 * (meaningCost(u(i)) + meaningCost(c(i)) )
+        double[] unitMergeCosts = new double[suitableCandidates.length];
+        int[] sourceIndices = new int[suitableCandidates.length];
         for ( int i=0; i < suitableCandidates.length; i++ ) {
-            for ( int j=0; j < suitableF0Candidates.length; j++ ) {
-                int sourceIndex = suitableCandidates[i].unitIndex;
-                int targetIndex = suitableF0Candidates[j].unitIndex;
-                
-                double contourCost = getContourCostDistance(sourceIndex, targetIndex);
-                double mergeCost =  getMergeCost(sourceIndex, targetIndex, domElement );
-                double cost = (contourCost * contourCostWeight) + ( mergeCost * (1 - contourCostWeight)) ;
-                logger.debug("Unit Index "+sourceIndex+ " & Contour Index " +targetIndex+ " :: Countour cost: "+df.format(contourCost)
-                        +" + Merge Cost: "+df.format(mergeCost)+" --> TotalCost: "+df.format(cost));
-                imposeF0Data[count++] = new SourceTargetPair(sourceIndex, targetIndex, cost);
-            }
+            unitMergeCosts[i] = segmentalCosts[i] + voiceQualityCosts[i] + 0.5 * meaningUnitCosts[i];
+            sourceIndices[i] = suitableCandidates[i].unitIndex;
+        }
+        double[] contourMergeCosts = new double[suitableF0Candidates.length];
+        int[] targetIndices = new int[suitableF0Candidates.length];
+        for ( int j=0; j < suitableF0Candidates.length; j++ ) {
+            contourMergeCosts[j] = intonationCosts[j] + 0.5 * meaningContourCosts[j];
+            targetIndices[j] = suitableF0Candidates[j].unitIndex;
         }
         
-        Arrays.sort(imposeF0Data);
+        ContourDistance contourDistance = new ContourDistance() {
+            public double distance(int sourceIndex, int targetIndex) {
+                return getContourCostDistance(sourceIndex, targetIndex);
+            }
+        };
+        
+        if (logger.isDebugEnabled()) {
+            for ( int i=0; i < sourceIndices.length; i++ ) {
+                for ( int j=0; j < targetIndices.length; j++ ) {
+                    double mergeCost = unitMergeCosts[i] + contourMergeCosts[j];
+                    double contourCost = contourDistance.distance(sourceIndices[i], targetIndices[j]);
+                    double cost = (contourCost * contourCostWeight) + mergeCost * (1 - contourCostWeight);
+                    logger.debug("Unit Index "+sourceIndices[i]+ " & Contour Index " +targetIndices[j]+ " :: Countour cost: "+df.format(contourCost)
+                            +" + Merge Cost: "+df.format(mergeCost)+" --> TotalCost: "+df.format(cost));
+                }
+            }
+        }
         
-        return imposeF0Data;
+        return bestPair(sourceIndices, unitMergeCosts, targetIndices, contourMergeCosts, contourCostWeight, contourDistance);
     }
     
     /**
-     * Compute mergeCost for unit and contour candidates
-     * Formula = segmentalformCost(u(i)) + intonationCost(c(i)) +  voiceQualityCost(u(i)) 
-     *              + 0.5 * (meaningCost(u(i)) + meaningCost(c(i)) )
-     * @param sourceIndex unit index
-     * @param targetIndex unit index
-     * @return double merge cost  
+     * The contour distance between a source unit and a target unit, as a non-negative value.
      */
-    private double getMergeCost(int sourceIndex, int targetIndex, Element domElement ) {
-        
-        Target targetUnit = createTarget(domElement);
-        Target targetContour = createIntonationTarget(domElement);
-        
-        Unit unitCandidate = this.unitFileReader.getUnit(sourceIndex);
-        Unit contourCandidate = this.unitFileReader.getUnit(targetIndex);
-        
-        // unit features
-        double segmentalCost = vffrtUnitCostFunction.featureCost(targetUnit, unitCandidate, "name");
-        double voiceQualityCost = vffrtUnitCostFunction.featureCost(targetUnit, unitCandidate, "voicequality");
-        double meaningUnitCost = 0;
-        String[] meaningFeatureNames = vffrtUnitCostFunction.getFeatureDefinition().getContinuousFeatureNameArray();
-        for ( int i=0; i < meaningFeatureNames.length; i++ ) {
-            meaningUnitCost += vffrtUnitCostFunction.featureCost(targetUnit, unitCandidate, meaningFeatureNames[i]);
-        }
-        
-        // contour features
-        double intonationCost = this.vffrtContourCostFunction.featureCost(targetContour, contourCandidate, "intonation");
-        double meaningContourCost = 0;
-        String[] meaningContourFeatures = vffrtContourCostFunction.getFeatureDefinition().getContinuousFeatureNameArray();
-        for ( int i=0; i < meaningContourFeatures.length; i++ ) {
-            meaningContourCost += vffrtContourCostFunction.featureCost(targetContour, contourCandidate, meaningContourFeatures[i]);
+    interface ContourDistance {
+        double distance(int sourceIndex, int targetIndex);
+    }
+    
+    /**
+     * Find the pair of source unit i and target unit j with the lowest cost
+     * <code>contourCostWeight * distance(i, j) + (1 - contourCostWeight) * (unitMergeCosts[i] + contourMergeCosts[j])</code>,
+     * i.e. the first one in (source, target) order if several have the same cost.
+     * Since the contour distance is not negative, pairs whose weighted merge cost alone is not below
+     * the best cost so far cannot win, and their contour distance is not computed.
+     * @param sourceIndices the unit indices of the source candidates
+     * @param unitMergeCosts the part of the merge cost depending on the source candidate
+     * @param targetIndices the unit indices of the target (contour) candidates
+     * @param contourMergeCosts the part of the merge cost depending on the target candidate
+     * @param contourCostWeight the weight of the contour distance, between 0 and 1
+     * @param contourDistance the contour distance between source and target candidates
+     * @return the best candidate pair, or null if there are no candidates
+     */
+    static SourceTargetPair bestPair(int[] sourceIndices, double[] unitMergeCosts, int[] targetIndices,
+            double[] contourMergeCosts, double contourCostWeight, ContourDistance contourDistance) {
+        SourceTargetPair best = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for ( int i=0; i < sourceIndices.length; i++ ) {
+            for ( int j=0; j < targetIndices.length; j++ ) {
+                double weightedMergeCost = (unitMergeCosts[i] + contourMergeCosts[j]) * (1 - contourCostWeight);
+                if (best != null && weightedMergeCost >= bestCost) {
+                    continue; // the contour cost is not negative
+                }
+                double contourCost = contourDistance.distance(sourceIndices[i], targetIndices[j]);
+                double cost = (contourCost * contourCostWeight) + weightedMergeCost;
+                if (best == null || cost < bestCost) {
+                    best = new SourceTargetPair(sourceIndices[i], targetIndices[j], cost);
+                    bestCost = cost;
+                }
+            }
         }
-            
-        double mergeCost = segmentalCost +  voiceQualityCost + intonationCost + 0.5 * (meaningUnitCost + meaningContourCost);
-        
-        return mergeCost;
+        return best;
     }
 
     /**
@@ -309,19 +326,8 @@ public class VocalizationSelector {
     public int getBestMatchingCandidate(Element domElement) {
         
         Target targetUnit = createTarget(domElement);
-        int numberUnits = this.unitFileReader.getNumberOfUnits();
-        double minCost = Double.MAX_VALUE;
-        int index = 0;
-        for( int i=0; i<numberUnits; i++ ) {
-            Unit singleUnit = this.unitFileReader.getUnit(i);
-            double cost = vffrtUnitCostFunction.cost(targetUnit, singleUnit);
-            if( cost < minCost ) {
-                minCost = cost;
-                index = i;
-            }
-        }
-        
-        return index;
+        VocalizationCandidate[] best = unitIndex.getBestCandidates(unitIndex.computeCosts(targetUnit), 1);
+        return best.length > 0 ? best[0].unitIndex : 0;
     }
     
     /**
@@ -330,17 +336,8 @@ public class VocalizationSelector {
      * @return an array of best vocalization candidates
      */
     public VocalizationCandidate[] getBestMatchingCandidates(Element domElement) {
-        //FeatureDefinition featDef = this.featureFileReader.getFeatureDefinition();
         Target targetUnit = createTarget(domElement);
-        int numberUnits = this.unitFileReader.getNumberOfUnits();
-        VocalizationCandidate[] vocalizationCandidates = new VocalizationCandidate[numberUnits];
-        for( int i=0; i<numberUnits; i++ ) {
-            Unit singleUnit = this.unitFileReader.getUnit(i);
-            double cost = vffrtUnitCostFunction.cost(targetUnit, singleUnit);
-            vocalizationCandidates[i] = new VocalizationCandidate(i,cost);
-        }
-        Arrays.sort(vocalizationCandidates);
-        return vocalizationCandidates;
+        return unitIndex.getBestCandidates(unitIndex.computeCosts(targetUnit), this.unitFileReader.getNumberOfUnits());
     }
 
 
@@ -410,27 +407,6 @@ public class VocalizationSelector {
     }
 
     
-    /**
-     * get a array of best candidates sorted according to cost (cost computed on f0_feature_definition features only)
-     * @param domElement xml request for vocalization
-     * @return VocalizationCandidate[] a array of best candidates
-     */
-    private VocalizationCandidate[] getBestIntonationCandidates(Element domElement) {
-        
-        Target targetUnit = createIntonationTarget(domElement);
-        int numberUnits = this.unitFileReader.getNumberOfUnits();
-        VocalizationCandidate[] vocalizationCandidates = new VocalizationCandidate[numberUnits];
-        for( int i=0; i<numberUnits; i++ ) {
-            Unit singleUnit = this.unitFileReader.getUnit(i);
-            double cost = vffrtContourCostFunction.cost(targetUnit, singleUnit);
-            vocalizationCandidates[i] = new VocalizationCandidate(i,cost);
-        }
-        Arrays.sort(vocalizationCandidates);
-        return vocalizationCandidates;
-    }
-    
-    
-    
     /**
      * create target from XML request
      * @param domElement xml request for vocalization 
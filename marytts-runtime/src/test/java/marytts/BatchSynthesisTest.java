@@ -0,0 +1,142 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import marytts.exceptions.SynthesisException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author marc
+ *
+ */
+public class BatchSynthesisTest {
+
+	private static List<String> texts(int n) {
+		List<String> texts = new ArrayList<String>();
+		for (int i=0; i<n; i++) {
+			texts.add("text "+i);
+		}
+		return texts;
+	}
+
+	private static class Upcase implements BatchSynthesis.Generator<String> {
+		private final Random random = new Random(1);
+		public String generate(String text) throws SynthesisException {
+			if (text.endsWith("3")) {
+				throw new SynthesisException("cannot process "+text);
+			}
+			try {
+				int delay;
+				synchronized (random) {
+					delay = random.nextInt(3);
+				}
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+			}
+			return text.toUpperCase();
+		}
+	}
+
+	@Test
+	public void returnsResultsInOrder() throws Exception {
+		List<String> texts = texts(100);
+		BatchSynthesis<String> batch = new BatchSynthesis<String>(texts.iterator(), new Upcase(), 4);
+		try {
+			for (String text : texts) {
+				assertTrue(batch.hasNext());
+				if (text.endsWith("3")) {
+					try {
+						batch.next();
+						fail("expected a SynthesisException for "+text);
+					} catch (SynthesisException e) {
+						assertEquals("cannot process "+text, e.getMessage());
+					}
+				} else {
+					assertEquals(text.toUpperCase(), batch.next());
+				}
+			}
+			assertFalse(batch.hasNext());
+		} finally {
+			batch.close();
+		}
+	}
+
+	@Test
+	public void fastTextsDoNotOverrunThePool() throws Exception {
+		// results that are ready immediately let the caller refill while the pool is still busy:
+		BatchSynthesis.Generator<String> identity = new BatchSynthesis.Generator<String>() {
+			public String generate(String text) {
+				return text;
+			}
+		};
+		List<String> texts = texts(1000);
+		for (int round=0; round<50; round++) {
+			BatchSynthesis<String> batch = new BatchSynthesis<String>(texts.iterator(), identity, 4);
+			try {
+				for (String text : texts) {
+					assertEquals(text, batch.next());
+				}
+				assertFalse(batch.hasNext());
+			} finally {
+				batch.close();
+			}
+		}
+	}
+
+	@Test(expected=NoSuchElementException.class)
+	public void noMoreResults() throws Exception {
+		BatchSynthesis<String> batch = new BatchSynthesis<String>(texts(1).iterator(), new Upcase(), 1);
+		batch.next();
+		batch.next();
+	}
+
+	@Test
+	public void readsTextsOnlyAhead() throws Exception {
+		final AtomicInteger read = new AtomicInteger();
+		final Iterator<String> texts = texts(1000).iterator();
+		Iterator<String> counting = new Iterator<String>() {
+			public boolean hasNext() {
+				return texts.hasNext();
+			}
+			public String next() {
+				read.incrementAndGet();
+				return texts.next();
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		BatchSynthesis<String> batch = new BatchSynthesis<String>(counting, new Upcase(), 2);
+		assertEquals("TEXT 0", batch.next());
+		assertTrue(read.get() <= 5);
+		batch.close();
+		assertFalse(batch.hasNext());
+	}
+}
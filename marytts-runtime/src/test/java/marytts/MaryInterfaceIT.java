@@ -19,6 +19,8 @@
  */
 package marytts;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 
 import javax.sound.sampled.AudioFileFormat;
@@ -158,4 +160,48 @@ public class MaryInterfaceIT {
 		mary.generateText("some text");
 	}
 
+	@Test
+	public void specIsImmutable() throws Exception {
+		LocalMaryInterface local = (LocalMaryInterface) mary;
+		SynthesisSpec spec = local.getSpec();
+		SynthesisSpec tokens = spec.withOutputType(MaryDataType.TOKENS.name());
+		assertEquals(MaryDataType.AUDIO.name(), spec.getOutputType());
+		assertEquals(MaryDataType.TOKENS.name(), tokens.getOutputType());
+		assertEquals(MaryDataType.AUDIO.name(), mary.getOutputType());
+		mary.setOutputType(MaryDataType.TOKENS.name());
+		assertEquals(MaryDataType.AUDIO.name(), spec.getOutputType());
+	}
+
+	@Test
+	public void canProcessWithSpec() throws Exception {
+		LocalMaryInterface local = (LocalMaryInterface) mary;
+		SynthesisSpec tokens = local.getSpec().withOutputType(MaryDataType.TOKENS.name());
+		assertNotNull(local.generateXML(tokens, "Hello world"));
+		assertEquals(MaryDataType.AUDIO.name(), mary.getOutputType());
+	}
+
+	@Test
+	public void canProcessBatch() throws Exception {
+		LocalMaryInterface local = (LocalMaryInterface) mary;
+		SynthesisSpec tokens = local.getSpec().withOutputType(MaryDataType.TOKENS.name());
+		List<String> texts = Arrays.asList("Hello world", "Good morning", "How are you");
+		BatchSynthesis<Document> batch = local.generateXML(tokens, texts.iterator(), 2);
+		try {
+			for (String text : texts) {
+				assertTrue(batch.hasNext());
+				Document doc = batch.next();
+				assertTrue(doc.getDocumentElement().getTextContent().contains(text.split(" ")[0]));
+			}
+			assertFalse(batch.hasNext());
+		} finally {
+			batch.close();
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void refuseWrongBatchOutput() throws Exception {
+		LocalMaryInterface local = (LocalMaryInterface) mary;
+		local.generateAudio(local.getSpec().withOutputType(MaryDataType.TOKENS.name()), Arrays.asList("some text").iterator(), 1);
+	}
+
 }
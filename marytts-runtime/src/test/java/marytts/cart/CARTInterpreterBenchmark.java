@@ -0,0 +1,163 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.cart;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import marytts.cart.io.HTSCARTReader;
+import marytts.cart.io.MaryCARTReader;
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureVector;
+import marytts.htsengine.HMMData.PdfFileFormat;
+import marytts.htsengine.PhoneTranslator;
+import marytts.util.FeatureUtils;
+
+/**
+ * Compares walking down real trees node by node with interpreting their compiled form:
+ * the letter-to-sound trees of the English and German lexicons, and the HTS trees of the cmu-slt-hsmm voice.
+ * Both must return the same nodes for random feature vectors.
+ * Run from the marytts-runtime directory, with optional arguments: number of rounds (default 20)
+ * and number of feature vectors per round (default 20000).
+ *
+ * @author marc
+ *
+ */
+public class CARTInterpreterBenchmark {
+    private static final String[] LTS_TREES = {
+        "../marytts-lang-en/src/main/resources/marytts/language/en_US/lexicon/cmudict.lts",
+        "../marytts-lang-de/src/main/resources/marytts/language/de/lexicon/de.lts"
+    };
+    private static final String HTS_VOICE = "../voice-cmu-slt-hsmm/src/main/resources/marytts/voice/CmuSltHsmm/";
+    private static final String[] HTS_TYPES = { "dur", "lf0", "mgc", "str" };
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int numVectors = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        for (String file : LTS_TREES) {
+            CART tree = new MaryCARTReader().load(file);
+            benchmark(file.substring(file.lastIndexOf('/') + 1), new CART[] { tree }, tree.getFeatureDefinition(), 0,
+                    rounds, numVectors);
+        }
+
+        InputStream feaStream = new FileInputStream(HTS_VOICE + "cmu_us_arctic_slt_b0487.pfeats");
+        FeatureDefinition featDef = FeatureUtils.readFeatureDefinition(feaStream);
+        feaStream.close();
+        PhoneTranslator phTranslator = new PhoneTranslator(new FileInputStream(HTS_VOICE + "trickyPhones.txt"));
+        int numStates = 1;
+        for (String type : HTS_TYPES) {
+            HTSCARTReader reader = new HTSCARTReader();
+            CART[] trees = reader.load(numStates, new FileInputStream(HTS_VOICE + "tree-" + type + ".inf"),
+                    new FileInputStream(HTS_VOICE + type + ".pdf"), PdfFileFormat.valueOf(type), featDef, phTranslator);
+            if (type.equals("dur")) {
+                numStates = reader.getVectorSize();
+            }
+            benchmark("tree-" + type + ".inf", trees, featDef, 1, rounds, numVectors);
+        }
+    }
+
+    private static void benchmark(String name, CART[] trees, FeatureDefinition featDef, int minNumberOfData,
+            int rounds, int numVectors) {
+        FeatureVector[] vectors = randomFeatureVectors(featDef, numVectors);
+        int numDecisionNodes = 0;
+        for (CART tree : trees) {
+            CompiledCART compiled = tree.getCompiled();
+            if (compiled == null) {
+                throw new IllegalStateException(name + " cannot be compiled");
+            }
+            numDecisionNodes += compiled.getNumberOfDecisionNodes();
+            for (FeatureVector fv : vectors) {
+                if (tree.walkToNode(fv, minNumberOfData) != tree.interpretToNode(fv, minNumberOfData)) {
+                    throw new IllegalStateException(name + ": compiled tree returns a different node");
+                }
+            }
+        }
+        double[] walkTimes = new double[rounds];
+        double[] compiledTimes = new double[rounds];
+        // the first rounds warm up the JIT compiler:
+        for (int r=-WARMUP_ROUNDS; r<rounds; r++) {
+            long t0 = System.nanoTime();
+            int walkChecksum = walk(trees, vectors, minNumberOfData);
+            long t1 = System.nanoTime();
+            int compiledChecksum = interpretCompiled(trees, vectors, minNumberOfData);
+            long t2 = System.nanoTime();
+            if (walkChecksum != compiledChecksum) {
+                throw new IllegalStateException(name + ": different results while timing");
+            }
+            if (r >= 0) {
+                walkTimes[r] = (t1 - t0) / (double) (trees.length * vectors.length);
+                compiledTimes[r] = (t2 - t1) / (double) (trees.length * vectors.length);
+            }
+        }
+        Arrays.sort(walkTimes);
+        Arrays.sort(compiledTimes);
+        System.out.printf("%-20s %3d trees, %6d decision nodes: node walk %6.1f ns, compiled %6.1f ns per lookup (median)%n",
+                name, trees.length, numDecisionNodes, walkTimes[rounds / 2], compiledTimes[rounds / 2]);
+    }
+
+    private static int walk(CART[] trees, FeatureVector[] vectors, int minNumberOfData) {
+        int checksum = 0;
+        for (CART tree : trees) {
+            for (FeatureVector fv : vectors) {
+                checksum += tree.walkToNode(fv, minNumberOfData).getNumberOfData();
+            }
+        }
+        return checksum;
+    }
+
+    private static int interpretCompiled(CART[] trees, FeatureVector[] vectors, int minNumberOfData) {
+        int checksum = 0;
+        for (CART tree : trees) {
+            for (FeatureVector fv : vectors) {
+                checksum += tree.interpretToNode(fv, minNumberOfData).getNumberOfData();
+            }
+        }
+        return checksum;
+    }
+
+    private static FeatureVector[] randomFeatureVectors(FeatureDefinition featDef, int n) {
+        Random random = new Random(1);
+        int numBytes = featDef.getNumberOfByteFeatures();
+        int numShorts = featDef.getNumberOfShortFeatures();
+        List<FeatureVector> vectors = new ArrayList<FeatureVector>(n);
+        for (int v=0; v<n; v++) {
+            byte[] bytes = new byte[numBytes];
+            for (int i=0; i<numBytes; i++) {
+                bytes[i] = (byte) random.nextInt(featDef.getNumberOfValues(i));
+            }
+            short[] shorts = new short[numShorts];
+            for (int i=0; i<numShorts; i++) {
+                shorts[i] = (short) random.nextInt(featDef.getNumberOfValues(numBytes + i));
+            }
+            float[] floats = new float[featDef.getNumberOfContinuousFeatures()];
+            for (int i=0; i<floats.length; i++) {
+                floats[i] = random.nextFloat();
+            }
+            vectors.add(featDef.toFeatureVector(v, bytes, shorts, floats));
+        }
+        return vectors.toArray(new FeatureVector[n]);
+    }
+}
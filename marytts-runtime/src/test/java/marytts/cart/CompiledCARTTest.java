@@ -0,0 +1,175 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.cart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Random;
+
+import marytts.cart.DecisionNode.BinaryByteDecisionNode;
+import marytts.cart.DecisionNode.BinaryFloatDecisionNode;
+import marytts.cart.DecisionNode.BinaryShortDecisionNode;
+import marytts.cart.DecisionNode.ByteDecisionNode;
+import marytts.cart.DecisionNode.ShortDecisionNode;
+import marytts.cart.LeafNode.IntArrayLeafNode;
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureVector;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class CompiledCARTTest {
+    private FeatureDefinition featDef;
+    private Random random;
+
+    @Before
+    public void setUp() throws Exception {
+        featDef = new FeatureDefinition(new BufferedReader(new StringReader(
+                FeatureDefinition.BYTEFEATURES + "\n"
+                + "phone 0 a b c\n"
+                + "stressed 0 1\n"
+                + FeatureDefinition.SHORTFEATURES + "\n"
+                + "word 0 w1 w2 w3 w4\n"
+                + FeatureDefinition.CONTINUOUSFEATURES + "\n"
+                + "duration float\n")), false);
+        random = new Random(1);
+    }
+
+    private Node createNode(int depth) {
+        if (depth == 0 || random.nextInt(5) == 0) {
+            int[] data = new int[random.nextInt(4)];
+            return new IntArrayLeafNode(data);
+        }
+        DecisionNode node;
+        switch (random.nextInt(6)) {
+        case 0: node = new BinaryByteDecisionNode(0, (byte) random.nextInt(4), featDef); break;
+        case 1: node = new BinaryShortDecisionNode(2, (short) random.nextInt(5), featDef); break;
+        case 2: node = new BinaryFloatDecisionNode(3, random.nextFloat(), featDef); break;
+        case 3: node = new BinaryFloatDecisionNode(1, random.nextInt(2) + 0.5f, featDef); break;
+        case 4: node = new ByteDecisionNode(0, 4, featDef); break;
+        default: node = new ShortDecisionNode(2, 5, featDef); break;
+        }
+        for (int i=0; i<node.getNumberOfDaugthers(); i++) {
+            node.addDaughter(random.nextInt(10) == 0 ? null : createNode(depth-1));
+        }
+        return node;
+    }
+
+    private CART createTree() {
+        Node root = createNode(6);
+        root.setIsRoot(true);
+        if (root instanceof DecisionNode) {
+            ((DecisionNode) root).countData();
+        }
+        return new CART(root, featDef);
+    }
+
+    private FeatureVector randomFeatureVector() {
+        byte[] bytes = new byte[] { (byte) random.nextInt(4), (byte) random.nextInt(2) };
+        short[] shorts = new short[] { (short) random.nextInt(5) };
+        float[] floats = new float[] { random.nextFloat() };
+        return featDef.toFeatureVector(0, bytes, shorts, floats);
+    }
+
+    @Test
+    public void compiledTreesInterpretLikeNodes() {
+        for (int t=0; t<50; t++) {
+            CART tree = createTree();
+            assertNotNull(tree.getCompiled());
+            for (int n=0; n<200; n++) {
+                FeatureVector fv = randomFeatureVector();
+                for (int min=-1; min<4; min++) {
+                    assertSame(tree.walkToNode(fv, min), tree.interpretToNode(fv, min));
+                }
+                assertSame(tree.interpret(tree.getRootNode(), fv), tree.interpret(fv));
+            }
+        }
+    }
+
+    @Test
+    public void recompilesModifiedTree() {
+        BinaryByteDecisionNode root = new BinaryByteDecisionNode("phone", "b", featDef);
+        Node yes = new IntArrayLeafNode(new int[] {1});
+        Node no = new IntArrayLeafNode(new int[] {2});
+        root.addDaughter(yes);
+        root.addDaughter(no);
+        root.countData();
+        CART tree = new CART(root, featDef);
+        FeatureVector fv = featDef.toFeatureVector(0, new byte[] {2, 0}, new short[] {0}, new float[] {0});
+        assertSame(yes, tree.interpretToNode(fv, 0));
+        CompiledCART compiled = tree.getCompiled();
+
+        Node other = new IntArrayLeafNode(new int[] {3});
+        root.replaceDaughter(other, 0);
+        assertSame(other, tree.interpretToNode(fv, 0));
+        assertFalse(compiled == tree.getCompiled());
+
+        tree.setRootNode(no);
+        assertSame(no, tree.interpretToNode(fv, 0));
+    }
+
+    @Test
+    public void recompilesOnlyModifiedTree() {
+        BinaryByteDecisionNode root = new BinaryByteDecisionNode("phone", "b", featDef);
+        BinaryByteDecisionNode inner = new BinaryByteDecisionNode("stressed", "1", featDef);
+        Node yes = new IntArrayLeafNode(new int[] {1});
+        inner.addDaughter(yes);
+        inner.addDaughter(new IntArrayLeafNode(new int[] {2}));
+        root.addDaughter(inner);
+        root.addDaughter(new IntArrayLeafNode(new int[] {3}));
+        root.countData();
+        CART tree = new CART(root, featDef);
+        CART otherTree = createTree();
+        CompiledCART compiled = tree.getCompiled();
+        CompiledCART otherCompiled = otherTree.getCompiled();
+        FeatureVector fv = featDef.toFeatureVector(0, new byte[] {2, 1}, new short[] {0}, new float[] {0});
+        assertSame(yes, tree.interpretToNode(fv, 0));
+
+        // a change below the root is seen by the tree, but not by another tree:
+        Node other = new IntArrayLeafNode(new int[] {4});
+        inner.replaceDaughter(other, 0);
+        assertSame(other, tree.interpretToNode(fv, 0));
+        assertFalse(compiled == tree.getCompiled());
+        assertSame(otherCompiled, otherTree.getCompiled());
+    }
+
+    @Test
+    public void fallsBackForDirectedGraphNodes() {
+        BinaryByteDecisionNode root = new BinaryByteDecisionNode("phone", "b", featDef);
+        Node leaf = new IntArrayLeafNode(new int[] {1});
+        root.addDaughter(new DirectedGraphNode(null, leaf));
+        root.addDaughter(null);
+        CART tree = new CART(root, featDef);
+        assertNull(tree.getCompiled());
+        FeatureVector fv = featDef.toFeatureVector(0, new byte[] {2, 0}, new short[] {0}, new float[] {0});
+        assertNotNull(tree.interpret(fv));
+        assertEquals(1, ((int[]) tree.interpret(fv))[0]);
+    }
+}
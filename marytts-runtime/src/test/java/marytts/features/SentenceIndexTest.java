@@ -0,0 +1,192 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.features;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import marytts.datatypes.MaryXML;
+import marytts.util.dom.MaryDomUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.traversal.TreeWalker;
+
+/**
+ * Compares the results of a SentenceIndex with those of TreeWalkers.
+ *
+ * @author marc
+ *
+ */
+public class SentenceIndexTest {
+
+    private static final String[][] KIND_NAMES = {
+        {MaryXML.PHONE}, {MaryXML.PHONE, MaryXML.BOUNDARY}, {MaryXML.SYLLABLE},
+        {MaryXML.TOKEN}, {MaryXML.TOKEN}, {MaryXML.PHRASE}, {MaryXML.BOUNDARY}
+    };
+
+    private Element sentence;
+    private List<Element> all;
+
+    @Before
+    public void setUp() {
+        Document doc = MaryXML.newDocument();
+        Element para = MaryXML.appendChildElement(doc.getDocumentElement(), MaryXML.PARAGRAPH);
+        sentence = MaryXML.appendChildElement(para, MaryXML.SENTENCE);
+        Element phrase = MaryXML.appendChildElement(sentence, MaryXML.PHRASE);
+        addWord(phrase, "hello", "h @", "l @U");
+        addToken(phrase, ",");
+        Element mtu = MaryXML.appendChildElement(phrase, MaryXML.MTU);
+        addWord(mtu, "big", "b I g");
+        addWord(mtu, "world", "w r= l d");
+        MaryXML.appendChildElement(phrase, MaryXML.BOUNDARY).setAttribute("breakindex", "4");
+        phrase = MaryXML.appendChildElement(sentence, MaryXML.PHRASE);
+        addWord(phrase, "again", "@", "g E n");
+        addToken(phrase, ".");
+        MaryXML.appendChildElement(phrase, MaryXML.BOUNDARY).setAttribute("breakindex", "5");
+        all = new ArrayList<Element>();
+        TreeWalker tw = MaryDomUtils.createTreeWalker(sentence, MaryXML.PHRASE, MaryXML.MTU, MaryXML.TOKEN,
+                MaryXML.SYLLABLE, MaryXML.PHONE, MaryXML.BOUNDARY);
+        Element e;
+        while ((e = (Element) tw.nextNode()) != null) {
+            all.add(e);
+        }
+    }
+
+    private static Element addToken(Element parent, String text) {
+        Element t = MaryXML.appendChildElement(parent, MaryXML.TOKEN);
+        t.setTextContent(text);
+        return t;
+    }
+
+    private static Element addWord(Element parent, String text, String... syllables) {
+        Element t = addToken(parent, text);
+        StringBuilder ph = new StringBuilder();
+        for (String syllable : syllables) {
+            Element syl = MaryXML.appendChildElement(t, MaryXML.SYLLABLE);
+            for (String phone : syllable.split(" ")) {
+                MaryXML.appendChildElement(syl, MaryXML.PHONE).setAttribute("p", phone);
+            }
+            if (ph.length() > 0) ph.append(" - ");
+            ph.append(syllable);
+        }
+        t.setAttribute("ph", ph.toString());
+        return t;
+    }
+
+    private static boolean isOfKind(Element e, int kind) {
+        return kind != SentenceIndex.WORD || e.hasAttribute("ph");
+    }
+
+    private Element walk(Element root, Element start, int kind, int n, boolean forward) {
+        TreeWalker tw = MaryDomUtils.createTreeWalker(root, KIND_NAMES[kind]);
+        tw.setCurrentNode(start);
+        Element e = null;
+        for (int i=0; i<n; i++) {
+            do {
+                e = (Element) (forward ? tw.nextNode() : tw.previousNode());
+            } while (e != null && !isOfKind(e, kind));
+            if (e == null) break;
+        }
+        return e;
+    }
+
+    @Test
+    public void previousAndNextAsTreeWalker() {
+        SentenceIndex index = SentenceIndex.get(sentence);
+        for (Element e : all) {
+            for (int kind=0; kind<KIND_NAMES.length; kind++) {
+                for (int n=1; n<=2; n++) {
+                    assertSame(walk(sentence, e, kind, n, false), index.getPrevious(e, kind, n));
+                    assertSame(walk(sentence, e, kind, n, true), index.getNext(e, kind, n));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void descendantsAsTreeWalker() {
+        SentenceIndex index = SentenceIndex.get(sentence);
+        for (Element e : all) {
+            for (int kind=0; kind<KIND_NAMES.length; kind++) {
+                List<Element> descendants = new ArrayList<Element>();
+                TreeWalker tw = MaryDomUtils.createTreeWalker(e, KIND_NAMES[kind]);
+                Element d;
+                while ((d = (Element) tw.nextNode()) != null) {
+                    if (isOfKind(d, kind)) descendants.add(d);
+                }
+                assertEquals(descendants.size(), index.count(e, kind));
+                if (descendants.isEmpty()) {
+                    assertNull(index.getFirst(e, kind));
+                    assertNull(index.getLast(e, kind));
+                } else {
+                    assertSame(descendants.get(0), index.getFirst(e, kind));
+                    assertSame(descendants.get(descendants.size()-1), index.getLast(e, kind));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void countsWithinAncestor() {
+        SentenceIndex index = SentenceIndex.get(sentence);
+        for (Element e : all) {
+            for (int kind=0; kind<KIND_NAMES.length; kind++) {
+                int before = 0;
+                while (walk(sentence, e, kind, before+1, false) != null) before++;
+                int after = 0;
+                while (walk(sentence, e, kind, after+1, true) != null) after++;
+                assertEquals(before, index.countBefore(sentence, e, kind));
+                assertEquals(after, index.countAfter(sentence, e, kind));
+            }
+        }
+    }
+
+    @Test
+    public void indexIsCachedUntilSentenceChanges() {
+        SentenceIndex index = SentenceIndex.get(sentence);
+        assertSame(index, SentenceIndex.get(sentence));
+        Element syllable = index.getFirst(sentence, SentenceIndex.SYLLABLE);
+        Element phone = index.getLast(syllable, SentenceIndex.PHONE);
+        syllable.removeChild(phone);
+        SentenceIndex changed = SentenceIndex.get(sentence);
+        assertNotSame(index, changed);
+        assertEquals(1, changed.count(syllable, SentenceIndex.PHONE));
+        syllable.appendChild(phone);
+        assertEquals(2, SentenceIndex.get(sentence).count(syllable, SentenceIndex.PHONE));
+    }
+
+    @Test
+    public void phAttributeChangesWords() {
+        Element comma = SentenceIndex.get(sentence).getNext(sentence, SentenceIndex.TOKEN, 2);
+        assertEquals(4, SentenceIndex.get(sentence).count(sentence, SentenceIndex.WORD));
+        comma.setAttribute("ph", "k O m @");
+        assertEquals(5, SentenceIndex.get(sentence).count(sentence, SentenceIndex.WORD));
+        comma.removeAttribute("ph");
+        assertEquals(4, SentenceIndex.get(sentence).count(sentence, SentenceIndex.WORD));
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import marytts.cart.CART;
+import marytts.cart.DecisionNode.BinaryByteDecisionNode;
+import marytts.cart.LeafNode.PdfLeafNode;
+import marytts.exceptions.MaryConfigurationException;
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureVector;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class HMMModelsTest {
+    private static final int NUM_STATES = 2;
+    private static final int MGC_VSIZE = 3;
+
+    private FeatureDefinition featDef;
+    private HMMData htsData;
+
+    @Before
+    public void setUp() throws Exception {
+        featDef = new FeatureDefinition(new BufferedReader(new StringReader(
+                FeatureDefinition.BYTEFEATURES + "\n"
+                + "phone 0 a b c\n"
+                + "stressed 0 1\n"
+                + FeatureDefinition.SHORTFEATURES + "\n"
+                + FeatureDefinition.CONTINUOUSFEATURES + "\n")), false);
+        htsData = new HMMData();
+        htsData.setFeatureDefinition(featDef);
+        CartTreeSet cart = htsData.getCartTreeSet();
+        cart.setTrees(HMMData.DUR, new CART[] { createTree(0, NUM_STATES, false) }, NUM_STATES);
+        CART[] mgcTrees = new CART[NUM_STATES];
+        for (int s=0; s<NUM_STATES; s++) {
+            mgcTrees[s] = createTree(10*s, MGC_VSIZE, false);
+        }
+        cart.setTrees(HMMData.MGC, mgcTrees, MGC_VSIZE);
+        CART[] lf0Trees = new CART[NUM_STATES];
+        for (int s=0; s<NUM_STATES; s++) {
+            lf0Trees[s] = createTree(100+10*s, 3, true);
+        }
+        cart.setTrees(HMMData.LF0, lf0Trees, 3);
+        htsData.getGVModelSet().setGV(HMMData.MGC, new double[] {1, 2, 3}, new double[] {0.5, 0.25, 0.125}, true, 1);
+    }
+
+    /**
+     * A tree asking "phone=b?" and, if not, "stressed=1?".
+     */
+    private CART createTree(int firstLeafId, int vectorSize, boolean voiced) {
+        BinaryByteDecisionNode root = new BinaryByteDecisionNode(0, featDef);
+        root.setFeatureAndFeatureValue("phone", "b");
+        root.setIsRoot(true);
+        BinaryByteDecisionNode stressed = new BinaryByteDecisionNode(1, featDef);
+        stressed.setFeatureAndFeatureValue("stressed", "1");
+        root.replaceDaughter(createLeaf(firstLeafId, vectorSize, voiced), 0);
+        root.replaceDaughter(stressed, 1);
+        stressed.replaceDaughter(createLeaf(firstLeafId+1, vectorSize, voiced), 0);
+        stressed.replaceDaughter(createLeaf(firstLeafId+2, vectorSize, voiced), 1);
+        CART tree = new CART();
+        tree.setRootNode(root);
+        root.countData();
+        return tree;
+    }
+
+    private PdfLeafNode createLeaf(int id, int vectorSize, boolean voiced) {
+        double[] mean = new double[vectorSize];
+        double[] variance = new double[vectorSize];
+        for (int i=0; i<vectorSize; i++) {
+            mean[i] = id + 0.1f * i;
+            variance[i] = 0.5f + i;
+        }
+        return new PdfLeafNode(id, mean, variance, voiced ? 0.75f : 0);
+    }
+
+    private HMMData writeAndRead(HMMData data) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        new HMMModelsWriter().writeTo(data, out);
+        out.close();
+        HMMData loaded = new HMMData();
+        loaded.setUseGV(true);
+        loaded.setGvWeightMgc(2);
+        new HMMModelsReader().load(new ByteArrayInputStream(baos.toByteArray()), loaded);
+        return loaded;
+    }
+
+    @Test
+    public void treesPredictTheSame() throws Exception {
+        HMMData loaded = writeAndRead(htsData);
+        assertEquals(featDef.getFeatureNames(), loaded.getFeatureDefinition().getFeatureNames());
+        CartTreeSet expected = htsData.getCartTreeSet();
+        CartTreeSet actual = loaded.getCartTreeSet();
+        assertEquals(NUM_STATES, actual.getNumStates());
+        assertEquals(3, actual.getLf0Stream());
+        assertEquals(MGC_VSIZE, actual.getMcepVsize());
+        assertEquals(0, actual.getStrVsize());
+        assertNull(actual.getTrees(HMMData.STR));
+        for (int type : new int[] {HMMData.DUR, HMMData.LF0, HMMData.MGC}) {
+            CART[] expectedTrees = expected.getTrees(type);
+            CART[] actualTrees = actual.getTrees(type);
+            assertEquals(expectedTrees.length, actualTrees.length);
+            for (int t=0; t<expectedTrees.length; t++) {
+                for (byte phone=0; phone<4; phone++) {
+                    for (byte stressed=0; stressed<2; stressed++) {
+                        FeatureVector fv = featDef.toFeatureVector(0, new byte[] {phone, stressed}, new short[0], new float[0]);
+                        PdfLeafNode e = (PdfLeafNode) expectedTrees[t].interpretToNode(fv, 1);
+                        PdfLeafNode a = (PdfLeafNode) actualTrees[t].interpretToNode(fv, 1);
+                        assertEquals(e.getUniqueLeafId(), a.getUniqueLeafId());
+                        assertArrayEquals(e.getMean(), a.getMean(), 0);
+                        assertArrayEquals(e.getVariance(), a.getVariance(), 0);
+                        assertEquals(e.getVoicedWeight(), a.getVoicedWeight(), 0);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void gvWeightsAreAppliedWhenLoading() throws Exception {
+        HMMData loaded = writeAndRead(htsData);
+        GVModelSet gv = loaded.getGVModelSet();
+        assertArrayEquals(new double[] {2, 4, 6}, gv.getGVmeanMgc(), 0);
+        assertArrayEquals(new double[] {2, 4, 8}, gv.getGVcovInvMgc(), 0);
+        assertNull(gv.getGVmeanLf0());
+    }
+
+    @Test
+    public void rejectsTruncatedFile() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        new HMMModelsWriter().writeTo(htsData, out);
+        out.close();
+        byte[] data = baos.toByteArray();
+        try {
+            new HMMModelsReader().load(new ByteArrayInputStream(Arrays.copyOf(data, data.length - 20)), new HMMData());
+            fail("Expected exception");
+        } catch (MaryConfigurationException e) {
+            // expected
+        }
+    }
+}
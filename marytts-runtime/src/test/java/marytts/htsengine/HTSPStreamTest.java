@@ -0,0 +1,139 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import marytts.util.concurrent.MaryThreadPool;
+import marytts.util.concurrent.ParallelTasks;
+
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class HTSPStreamTest {
+    private static final int ORDER = 25;
+    private static final int FRAMES = 400;
+
+    private static HTSPStream createStream() throws Exception {
+        HTSPStream pst = new HTSPStream(3 * ORDER, FRAMES, HMMData.MGC, 50);
+        Random random = new Random(42);
+        for (int t=0; t<FRAMES; t++) {
+            for (int k=0; k<3*ORDER; k++) {
+                pst.setMseq(t, k, random.nextGaussian());
+                pst.setIvseq(t, k, 0.5 + random.nextDouble());
+            }
+        }
+        for (int t=0; t<FRAMES; t+=10) {
+            pst.setGvSwitch(t, false);
+        }
+        double[] gvMean = new double[ORDER];
+        double[] gvCovInv = new double[ORDER];
+        for (int m=0; m<ORDER; m++) {
+            gvMean[m] = 0.5 + random.nextDouble();
+            gvCovInv[m] = 1 + random.nextDouble();
+        }
+        pst.setGvMeanVar(gvMean, gvCovInv);
+        return pst;
+    }
+
+    private static void assertSameParameters(HTSPStream expected, HTSPStream actual) {
+        for (int t=0; t<FRAMES; t++) {
+            for (int m=0; m<ORDER; m++) {
+                assertEquals(expected.getPar(t, m), actual.getPar(t, m), 0);
+            }
+        }
+    }
+
+    private static void compareParallelToSequential(String gvMethod) throws Exception {
+        HMMData htsData = new HMMData();
+        htsData.setGvMethod(gvMethod);
+        HTSPStream sequential = createStream();
+        sequential.mlpg(htsData, true);
+        HTSPStream parallel = createStream();
+        MaryThreadPool pool = new MaryThreadPool("mlpg", 4, 100);
+        ParallelTasks.runAll(pool, parallel.getMlpgTasks(htsData, true), 4);
+        pool.shutdown();
+        assertSameParameters(sequential, parallel);
+    }
+
+    @Test
+    public void parallelGradientGVIsSequential() throws Exception {
+        compareParallelToSequential("gradient");
+    }
+
+    @Test
+    public void parallelDerivativeGVIsSequential() throws Exception {
+        compareParallelToSequential("derivative");
+    }
+
+    @Test
+    public void windowedGenerationApproximatesFull() throws Exception {
+        HMMData htsData = new HMMData();
+        HTSPStream full = createStream();
+        full.mlpg(htsData, false);
+        HTSPStream windowed = createStream();
+        for (int start=0; start<FRAMES; start+=50) {
+            windowed.mlpg(htsData, false, start, start+50, 50);
+        }
+        for (int t=0; t<FRAMES; t++) {
+            for (int m=0; m<ORDER; m++) {
+                assertEquals(full.getPar(t, m), windowed.getPar(t, m), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void windowGeneratesOnlyItsFrames() throws Exception {
+        HMMData htsData = new HMMData();
+        htsData.setGvMethod("gradient");
+        HTSPStream pst = createStream();
+        pst.mlpg(htsData, true, 100, 150, 20);
+        for (int t=0; t<FRAMES; t++) {
+            for (int m=0; m<ORDER; m++) {
+                if (t < 100 || t >= 150) {
+                    assertEquals(0, pst.getPar(t, m), 0);
+                } else {
+                    assertTrue(pst.getPar(t, m) != 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void withoutVarianceGeneratesMeans() throws Exception {
+        // if the dynamic features are ignored (zero inverse variance), the static means come out unchanged
+        HTSPStream pst = new HTSPStream(3, 50, HMMData.LF0, 0);
+        assertEquals(1, pst.getOrder());
+        for (int t=0; t<50; t++) {
+            pst.setMseq(t, 0, Math.sin(t));
+            pst.setIvseq(t, 0, 1);
+        }
+        pst.mlpg(new HMMData(), false);
+        for (int t=0; t<50; t++) {
+            assertEquals(Math.sin(t), pst.getPar(t, 0), 1e-10);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.htsengine;
+
+import java.util.Random;
+
+/**
+ * Compares parameters generated window by window ({@link HTSPStream#mlpg(HMMData, boolean, int, int, int)})
+ * with those generated for the whole utterance, in quality and in the time until the first window is available.
+ * The utterance is a synthetic mel-cepstrum stream of 1000 frames (5 seconds at 5 ms per frame) of
+ * order 25, whose pdfs are constant within states of 2-12 frames, as in an HMM utterance model.
+ * For each window and context size, the maximum and RMS difference to the whole-utterance parameters
+ * is reported, with and without GV.
+ * This is not run as part of the unit tests; start it with
+ * <code>java marytts.htsengine.WindowedMlpgComparison [numFrames]</code>.
+ *
+ * @author marc
+ *
+ */
+public class WindowedMlpgComparison {
+    private static final int ORDER = 25;
+    private static final int[] WINDOWS = new int[] {50, 100, 200};
+    private static final int[] CONTEXTS = new int[] {0, 10, 25, 50};
+
+    public static void main(String[] args) throws Exception {
+        int numFrames = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        HMMData htsData = new HMMData();
+        htsData.setGvMethod("gradient");
+        for (boolean useGV : new boolean[] {false, true}) {
+            System.out.println(useGV ? "With GV:" : "Without GV:");
+            for (int i = 0; i < 3; i++) { // warm up
+                createStream(numFrames).mlpg(htsData, useGV);
+            }
+            HTSPStream full = createStream(numFrames);
+            long t0 = System.nanoTime();
+            full.mlpg(htsData, useGV);
+            double fullTime = (System.nanoTime() - t0) / 1000000.;
+            System.out.printf("  whole utterance: %8.2f ms%n", fullTime);
+            for (int window : WINDOWS) {
+                for (int context : CONTEXTS) {
+                    compare(full, htsData, useGV, window, context);
+                }
+            }
+        }
+    }
+
+    private static void compare(HTSPStream full, HMMData htsData, boolean useGV, int window, int context) throws Exception {
+        int numFrames = full.getT();
+        HTSPStream windowed = createStream(numFrames);
+        long t0 = System.nanoTime();
+        double firstWindowTime = 0;
+        for (int start = 0; start < numFrames; start += window) {
+            windowed.mlpg(htsData, useGV, start, Math.min(numFrames, start + window), context);
+            if (start == 0) {
+                firstWindowTime = (System.nanoTime() - t0) / 1000000.;
+            }
+        }
+        double totalTime = (System.nanoTime() - t0) / 1000000.;
+        double maxDiff = 0;
+        double sumSquares = 0;
+        for (int t = 0; t < numFrames; t++) {
+            for (int m = 0; m < ORDER; m++) {
+                double diff = Math.abs(windowed.getPar(t, m) - full.getPar(t, m));
+                maxDiff = Math.max(maxDiff, diff);
+                sumSquares += diff * diff;
+            }
+        }
+        System.out.printf("  window %3d, context %2d: first window %7.2f ms, total %8.2f ms, max diff %.2e, RMS diff %.2e%n",
+                window, context, firstWindowTime, totalTime, maxDiff, Math.sqrt(sumSquares / (numFrames * ORDER)));
+    }
+
+    /**
+     * Create the same synthetic stream for each call.
+     */
+    private static HTSPStream createStream(int numFrames) throws Exception {
+        HTSPStream pst = new HTSPStream(3 * ORDER, numFrames, HMMData.MGC, 200);
+        Random random = new Random(1234);
+        double[] mean = new double[3 * ORDER];
+        double[] ivar = new double[3 * ORDER];
+        int stateEnd = 0;
+        for (int t = 0; t < numFrames; t++) {
+            if (t == stateEnd) {
+                stateEnd = t + 2 + random.nextInt(11);
+                for (int k = 0; k < 3 * ORDER; k++) {
+                    double scale = k < ORDER ? 1. / (1 + k) : 0.1 / (1 + k % ORDER);
+                    mean[k] = scale * random.nextGaussian();
+                    ivar[k] = 1 / (scale * scale * (0.1 + random.nextDouble()));
+                }
+            }
+            for (int k = 0; k < 3 * ORDER; k++) {
+                pst.setMseq(t, k, mean[k]);
+                // no dynamic features at the utterance borders, as in HTSParameterGeneration:
+                pst.setIvseq(t, k, (t == 0 || t == numFrames - 1) && k >= ORDER ? 0 : ivar[k]);
+            }
+        }
+        double[] gvMean = new double[ORDER];
+        double[] gvCovInv = new double[ORDER];
+        for (int m = 0; m < ORDER; m++) {
+            double scale = 1. / (1 + m);
+            gvMean[m] = 1.2 * scale * scale;
+            gvCovInv[m] = 1 / (0.1 * gvMean[m] * gvMean[m]);
+        }
+        pst.setGvMeanVar(gvMean, gvCovInv);
+        return pst;
+    }
+}
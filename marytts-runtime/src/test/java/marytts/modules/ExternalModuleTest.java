@@ -0,0 +1,161 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.modules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import marytts.datatypes.MaryData;
+import marytts.datatypes.MaryDataType;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs an ExternalModule with <code>cat</code> as the external program.
+ * @author marc
+ *
+ */
+public class ExternalModuleTest {
+
+    /**
+     * Sends one line per request and reads it back. Input "kill" makes the process die,
+     * input "hang" is never sent, so that the reply never comes.
+     */
+    private static class Echo extends ExternalModule {
+        Echo() throws Exception {
+            super("ExternalModuleTest", "cat", MaryDataType.TEXT, MaryDataType.TEXT, Locale.ENGLISH);
+        }
+
+        @Override
+        protected MaryData externalIO(MaryData d) throws Exception {
+            String text = d.getPlainText();
+            if (text.equals("kill")) {
+                getProcess().destroy();
+            } else if (!text.equals("hang")) {
+                to().write((text + "\n").getBytes("UTF-8"));
+                to().flush();
+            }
+            InputStream in = from();
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c == -1) throw new IOException("Unexpected end of output");
+                line.write(c);
+            }
+            MaryData result = new MaryData(outputType(), d.getLocale());
+            result.setPlainText(line.toString("UTF-8"));
+            return result;
+        }
+    }
+
+    private Echo module;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(new File("/bin/cat").exists());
+        System.setProperty("modules.timeout", "1000");
+        System.setProperty("ExternalModuleTest.processes", "3");
+        module = new Echo();
+        module.startup();
+    }
+
+    @After
+    public void tearDown() {
+        if (module != null) {
+            module.shutdown();
+        }
+        System.clearProperty("modules.timeout");
+        System.clearProperty("ExternalModuleTest.processes");
+    }
+
+    private String echo(String text) throws Exception {
+        MaryData in = new MaryData(MaryDataType.TEXT, Locale.ENGLISH);
+        in.setPlainText(text);
+        return module.process(in).getPlainText();
+    }
+
+    @Test
+    public void processesInParallel() throws Exception {
+        assertEquals(3, module.getNumberOfProcesses());
+        ExecutorService clients = Executors.newFixedThreadPool(6);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i=0; i<60; i++) {
+            final String text = "text " + i;
+            results.add(clients.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return echo(text);
+                }
+            }));
+        }
+        for (int i=0; i<60; i++) {
+            assertEquals("text " + i, results.get(i).get());
+        }
+        clients.shutdown();
+        assertEquals(60, module.getProcessedCount());
+        assertEquals(0, module.getQueueDepth());
+        assertEquals(0, module.getRestartCount());
+    }
+
+    @Test
+    public void restartsDeadProcess() throws Exception {
+        try {
+            echo("kill");
+            fail("expected an IOException");
+        } catch (IOException e) {
+            // both attempts kill their process
+        }
+        assertEquals(1, module.getFailedCount());
+        for (int i=0; i<6; i++) {
+            assertEquals("text " + i, echo("text " + i));
+        }
+        assertTrue(module.getRestartCount() >= 1);
+    }
+
+    @Test
+    public void restartsHangingProcess() throws Exception {
+        try {
+            echo("hang");
+            fail("expected an IOException");
+        } catch (IOException e) {
+            // both attempts time out
+        }
+        assertEquals(2, module.getTimeoutCount());
+        for (int i=0; i<6; i++) {
+            assertEquals("text " + i, echo("text " + i));
+        }
+        assertTrue(module.getRestartCount() >= 1);
+    }
+}
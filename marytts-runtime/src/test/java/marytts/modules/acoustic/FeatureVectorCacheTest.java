@@ -0,0 +1,106 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.modules.acoustic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import marytts.datatypes.MaryXML;
+import marytts.features.FeatureProcessorManager;
+import marytts.features.FeatureVector;
+import marytts.features.MaryGenericFeatureProcessors;
+import marytts.features.TargetFeatureComputer;
+import marytts.unitselection.select.Target;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * @author marc
+ *
+ */
+public class FeatureVectorCacheTest {
+
+    @SuppressWarnings("deprecation")
+    private static class TestFeatureProcessorManager extends FeatureProcessorManager {
+        TestFeatureProcessorManager() {
+            super();
+            addFeatureProcessor(new MaryGenericFeatureProcessors.GenericContinuousFeature("predicted_dur", "d"));
+        }
+    }
+
+    private Document doc;
+    private Element phone;
+    private FeatureProcessorManager manager;
+
+    @Before
+    public void setUp() {
+        doc = MaryXML.newDocument();
+        Element sentence = MaryXML.appendChildElement(doc.getDocumentElement(), MaryXML.SENTENCE);
+        Element token = MaryXML.appendChildElement(sentence, MaryXML.TOKEN);
+        token.setAttribute("ph", "a");
+        Element syllable = MaryXML.appendChildElement(token, MaryXML.SYLLABLE);
+        phone = MaryXML.appendChildElement(syllable, MaryXML.PHONE);
+        phone.setAttribute("p", "a");
+        manager = new TestFeatureProcessorManager();
+    }
+
+    @Test
+    public void attachAndDetach() {
+        assertNull(FeatureVectorCache.get(doc));
+        FeatureVectorCache cache = FeatureVectorCache.attach(doc);
+        assertSame(cache, FeatureVectorCache.get(doc));
+        FeatureVectorCache.detach(doc);
+        assertNull(FeatureVectorCache.get(doc));
+    }
+
+    @Test
+    public void computersWithSameFeaturesShareVectors() {
+        TargetFeatureComputer c1 = new TargetFeatureComputer(manager, "stressed accented");
+        TargetFeatureComputer c2 = new TargetFeatureComputer(manager, "stressed accented");
+        TargetFeatureComputer c3 = new TargetFeatureComputer(manager, "stressed");
+        FeatureVectorCache cache = FeatureVectorCache.attach(doc);
+        FeatureVector fv1 = cache.getFeatureVector(c1, new Target("a", phone));
+        FeatureVector fv2 = cache.getFeatureVector(c2, new Target("a", phone));
+        FeatureVector fv3 = cache.getFeatureVector(c3, new Target("a", phone));
+        assertSame(fv1, fv2);
+        assertNotSame(fv1, fv3);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void predictedFeaturesAreNotCached() {
+        TargetFeatureComputer c = new TargetFeatureComputer(manager, "stressed predicted_dur");
+        FeatureVectorCache cache = FeatureVectorCache.attach(doc);
+        phone.setAttribute("d", "50");
+        FeatureVector fv1 = cache.getFeatureVector(c, new Target("a", phone));
+        phone.setAttribute("d", "70");
+        FeatureVector fv2 = cache.getFeatureVector(c, new Target("a", phone));
+        assertEquals(50f, fv1.getContinuousFeature(1), 0f);
+        assertEquals(70f, fv2.getContinuousFeature(1), 0f);
+        assertEquals(2, cache.getUncachedCount());
+        assertEquals(0, cache.getHitCount());
+    }
+}
@@ -0,0 +1,119 @@
+package marytts.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Locale;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+
+import marytts.datatypes.MaryData;
+import marytts.datatypes.MaryDataType;
+import marytts.datatypes.MaryXML;
+import marytts.modules.ModuleRegistry;
+import marytts.util.concurrent.MaryThreadPool;
+import marytts.util.data.DoubleRingBuffer;
+import marytts.util.data.ProducingDoubleDataSource;
+import marytts.util.data.audio.AudioDoubleDataSource;
+import marytts.util.data.audio.DDSAudioInputStream;
+import marytts.util.dom.MaryDomUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Paragraphs processed in parallel by {@link Request#process()} each start audio producers
+ * that block until their audio is read, which happens strictly in paragraph order.
+ * This must not stall when there are more paragraphs than producer threads.
+ *
+ * @author marc
+ *
+ */
+public class ParallelParagraphAudioTest {
+	private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+	// more than fits into a producer's ring buffer:
+	private static final int SAMPLES_PER_PARAGRAPH = 4 * DoubleRingBuffer.DEFAULT_CAPACITY;
+
+	/**
+	 * A request whose paragraphs are "synthesised" by audio producers instead of modules.
+	 * The first paragraph takes longest, so the producers of later ones start first.
+	 */
+	private static class ProducerRequest extends Request {
+		ProducerRequest() {
+			super(MaryDataType.RAWMARYXML, MaryDataType.AUDIO, Locale.US, null, null, null, 1,
+					new AudioFileFormat(AudioFileFormat.Type.WAVE, FORMAT, AudioSystem.NOT_SPECIFIED));
+		}
+
+		@Override
+		protected MaryData processOrLookupOneChunk(MaryData oneInputData, MaryDataType oneOutputType, String outputParams)
+		throws Exception {
+			if (MaryDomUtils.getPlainTextBelow(oneInputData.getDocument().getDocumentElement()).contains("first")) {
+				Thread.sleep(500);
+			}
+			ProducingDoubleDataSource producer = new ProducingDoubleDataSource(SAMPLES_PER_PARAGRAPH) {
+				public void run() {
+					double[] block = new double[128];
+					for (int sent=0; sent<SAMPLES_PER_PARAGRAPH; sent+=block.length) {
+						putData(block, 0, Math.min(block.length, SAMPLES_PER_PARAGRAPH-sent));
+					}
+					putEndOfStream();
+				}
+			};
+			producer.start();
+			MaryData audio = new MaryData(oneOutputType, oneInputData.getLocale());
+			audio.setAudio(new DDSAudioInputStream(producer, FORMAT));
+			return audio;
+		}
+	}
+
+	private MaryThreadPool producerPool;
+
+	@BeforeClass
+	public static void withoutStartingMary() {
+		// This test needs none of the modules that Mary.startup() would load, only the data types
+		// they would register; process() asserts that MARY is running, though:
+		if (Mary.currentState() != Mary.STATE_RUNNING) {
+			if (!ModuleRegistry.getRegistrationComplete()) {
+				MaryDataType.registerDataType(MaryDataType.RAWMARYXML);
+				MaryDataType.registerDataType(MaryDataType.AUDIO);
+				ModuleRegistry.setRegistrationComplete();
+			}
+			Request.class.getClassLoader().setClassAssertionStatus(Request.class.getName(), false);
+		}
+	}
+
+	@Before
+	public void setUp() {
+		producerPool = new MaryThreadPool("producers", 2, ProducingDoubleDataSource.DEFAULT_QUEUE_SIZE);
+		ProducingDoubleDataSource.setProducerExecutor(producerPool);
+	}
+
+	@After
+	public void tearDown() {
+		ProducingDoubleDataSource.setProducerExecutor(null);
+		producerPool.shutdown();
+	}
+
+	@Test(timeout=20000)
+	public void moreParagraphsThanProducerThreads() throws Exception {
+		int numParagraphs = 8;
+		Document doc = MaryXML.newDocument();
+		doc.getDocumentElement().setAttribute("xml:lang", "en-US");
+		for (int i=0; i<numParagraphs; i++) {
+			Element p = MaryXML.appendChildElement(doc.getDocumentElement(), MaryXML.PARAGRAPH);
+			p.appendChild(doc.createTextNode(i == 0 ? "The first paragraph." : "Paragraph number "+(i+1)+"."));
+		}
+		MaryData input = new MaryData(MaryDataType.RAWMARYXML, Locale.US);
+		input.setDocument(doc);
+		Request request = new ProducerRequest();
+		request.setInputData(input);
+		request.process();
+		double[] audio = new AudioDoubleDataSource(request.getAudio()).getAllData();
+		assertEquals(numParagraphs * SAMPLES_PER_PARAGRAPH, audio.length);
+	}
+}
@@ -0,0 +1,71 @@
+package marytts.signalproc.effects;
+
+import java.io.ByteArrayInputStream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import marytts.util.data.BufferedDoubleDataSource;
+import marytts.util.data.audio.AudioDoubleDataSource;
+import marytts.util.data.audio.DDSAudioInputStream;
+import marytts.util.signal.SignalProcUtils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EffectsApplierTest {
+	private static final int SAMPLING_RATE = 16000;
+
+	private static AudioInputStream createAudio(int numSamples) {
+		double[] signal = new double[numSamples];
+		for (int i=0; i<numSamples; i++) {
+			signal[i] = 0.5 * Math.sin(2 * Math.PI * 200 * i / SAMPLING_RATE);
+		}
+		AudioFormat format = new AudioFormat(SAMPLING_RATE, 16, 1, true, false);
+		return new DDSAudioInputStream(new BufferedDoubleDataSource(signal), format);
+	}
+
+	@Test
+	public void keepsLengthOfInput() throws Exception {
+		for (String effects : new String[] {"Volume(amount:2.0)", "Robot(amount:100)", "Whisper(amount:100)",
+				"Stadium(amount:100)", "JetPilot", "Robot(amount:50)+Volume(amount:0.5)+Chorus"}) {
+			AudioInputStream output = new EffectsApplier().apply(createAudio(12345), effects);
+			assertEquals(effects, 12345, output.getFrameLength());
+			double[] samples = new AudioDoubleDataSource(output).getAllData();
+			assertEquals(effects, 12345, samples.length);
+		}
+	}
+
+	@Test
+	public void appliesVolume() throws Exception {
+		AudioInputStream input = createAudio(1000);
+		double[] expected = new AudioDoubleDataSource(createAudio(1000)).getAllData();
+		double[] actual = new AudioDoubleDataSource(new EffectsApplier().apply(input, "Volume(amount:0.5)")).getAllData();
+		assertEquals(expected.length, actual.length);
+		for (int i=0; i<expected.length; i++) {
+			assertEquals(0.5 * expected[i], actual[i], 1.e-4);
+		}
+	}
+
+	@Test
+	public void sumsLookahead() {
+		EffectsApplier applier = new EffectsApplier();
+		applier.parseEffectsAndParams("Volume(amount:2.0)", SAMPLING_RATE);
+		assertEquals(0, applier.getLookahead());
+		applier.parseEffectsAndParams("Volume(amount:2.0)+Chorus", SAMPLING_RATE);
+		assertEquals(1024, applier.getLookahead());
+		applier.parseEffectsAndParams("Robot(amount:100)+Chorus", SAMPLING_RATE);
+		assertTrue(applier.getLookahead() > 1024);
+	}
+
+	@Test
+	public void sumsLookaheadOfFrameBasedEffects() {
+		EffectsApplier applier = new EffectsApplier();
+		applier.parseEffectsAndParams("Robot(amount:100)+Whisper(amount:100)", SAMPLING_RATE);
+		int robot = SignalProcUtils.getDFTSize(SAMPLING_RATE);
+		int whisper = Integer.getInteger("signalproc.lpcanalysissynthesis.framelength", 512);
+		assertEquals(robot + whisper, applier.getLookahead());
+		assertEquals(whisper, new LpcWhisperiserEffect(SAMPLING_RATE).getLookahead());
+	}
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package marytts.unitselection.select;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import marytts.unitselection.weightingfunctions.WeightFunc;
+import marytts.unitselection.weightingfunctions.WeightFunctionManager;
+import marytts.util.data.MaryHeader;
+
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class JoinCostFeaturesTest {
+    private static final int NUM_UNITS = 50;
+    private static final int NUM_FEATURES = 6;
+
+    /**
+     * Write a join cost file for the given per-unit feature arrays.
+     */
+    private File writeJoinCostFile(float[] weights, String[] weightFunctions, float[][] left, float[][] right) throws Exception {
+        File file = File.createTempFile("joinCostFeatures", ".mry");
+        file.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        new MaryHeader(MaryHeader.JOINFEATS).writeTo(out);
+        out.writeInt(weights.length);
+        for (int i=0; i<weights.length; i++) {
+            out.writeFloat(weights[i]);
+            out.writeUTF(weightFunctions[i]);
+        }
+        out.writeInt(left.length);
+        for (int u=0; u<left.length; u++) {
+            for (float f : left[u]) out.writeFloat(f);
+            for (float f : right[u]) out.writeFloat(f);
+        }
+        out.close();
+        return file;
+    }
+
+    /**
+     * The join cost as computed from the per-unit arrays before they were flattened.
+     */
+    private double expectedCost(float[] weights, WeightFunc[] weightFunctions, float[] rightOfLeftUnit, float[] leftOfRightUnit) {
+        double res = 0;
+        for (int i=0; i<weights.length; i++) {
+            float a = rightOfLeftUnit[i];
+            float b = leftOfRightUnit[i];
+            if (!Float.isNaN(a) && !Float.isNaN(b)) {
+                if (weightFunctions[i].whoAmI().equals("linear")) {
+                    res += weights[i] * (a > b ? (a-b) : (b-a));
+                } else {
+                    res += weights[i] * weightFunctions[i].cost(a, b);
+                }
+            }
+        }
+        return res;
+    }
+
+    private void assertSameAsPerUnitArrays(String[] weightFunctionNames) throws Exception {
+        Random random = new Random(7);
+        float[] weights = new float[NUM_FEATURES];
+        WeightFunc[] weightFunctions = new WeightFunc[NUM_FEATURES];
+        WeightFunctionManager wfm = new WeightFunctionManager();
+        for (int i=0; i<NUM_FEATURES; i++) {
+            weights[i] = random.nextFloat();
+            weightFunctions[i] = wfm.getWeightFunction(weightFunctionNames[i]);
+        }
+        float[][] left = new float[NUM_UNITS][NUM_FEATURES];
+        float[][] right = new float[NUM_UNITS][NUM_FEATURES];
+        for (int u=0; u<NUM_UNITS; u++) {
+            for (int i=0; i<NUM_FEATURES; i++) {
+                left[u][i] = random.nextInt(10) == 0 ? Float.NaN : random.nextFloat() * 100;
+                right[u][i] = random.nextInt(10) == 0 ? Float.NaN : random.nextFloat() * 100;
+            }
+        }
+        File file = writeJoinCostFile(weights, weightFunctionNames, left, right);
+        JoinCostFeatures jcf = new JoinCostFeatures(file.getPath());
+        assertEquals(NUM_UNITS, jcf.getNumberOfUnits());
+        for (int u=0; u<NUM_UNITS; u++) {
+            assertArrayEquals(left[u], jcf.getLeftJCF(u), 0);
+            assertArrayEquals(right[u], jcf.getRightJCF(u), 0);
+        }
+        for (int u1=0; u1<NUM_UNITS; u1++) {
+            for (int u2=0; u2<NUM_UNITS; u2++) {
+                assertEquals(expectedCost(weights, weightFunctions, right[u1], left[u2]), jcf.cost(u1, u2), 0);
+            }
+        }
+        double[] diff = new double[NUM_FEATURES];
+        for (int u1=0; u1<NUM_UNITS; u1++) {
+            for (int u2=0; u2<NUM_UNITS; u2++) {
+                jcf.getJCFDifference(u1, u2, diff);
+                for (int i=0; i<NUM_FEATURES; i++) {
+                    assertEquals((double) right[u1][i] - left[u2][i], diff[i], 0);
+                }
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void linearWeightFunctions() throws Exception {
+        assertSameAsPerUnitArrays(new String[] {"linear", "linear", "linear", "linear", "linear", "linear"});
+    }
+
+    @Test
+    public void mixedWeightFunctions() throws Exception {
+        assertSameAsPerUnitArrays(new String[] {"linear", "step 20%", "linear", "linear", "step 20%", "linear"});
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsUnitIndexEqualToNumberOfUnits() throws Exception {
+        float[][] features = new float[NUM_UNITS][NUM_FEATURES];
+        File file = writeJoinCostFile(new float[NUM_FEATURES], new String[] {"", "", "", "", "", ""}, features, features);
+        file.deleteOnExit();
+        new JoinCostFeatures(file.getPath()).getLeftJCF(NUM_UNITS);
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package marytts.unitselection.select;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class SparseCostMatrixTest {
+
+    private SparseCostMatrix buildExample() {
+        SparseCostMatrix.Builder builder = new SparseCostMatrix.Builder();
+        // rows and columns in random order
+        builder.add(5, 3, 0.5f);
+        builder.add(0, 7, 1.5f);
+        builder.add(5, 1, 2.5f);
+        builder.add(2, 2, 3.5f);
+        builder.add(5, 2000000, 4.5f);
+        builder.add(0, 7, 1.5f); // duplicate
+        return builder.build(10);
+    }
+
+    private void assertExample(SparseCostMatrix m) {
+        assertEquals(10, m.getNumberOfRows());
+        assertEquals(5, m.getNumberOfEntries());
+        assertEquals(0.5f, m.get(5, 3), 0);
+        assertEquals(1.5f, m.get(0, 7), 0);
+        assertEquals(2.5f, m.get(5, 1), 0);
+        assertEquals(3.5f, m.get(2, 2), 0);
+        assertEquals(4.5f, m.get(5, 2000000), 0);
+        assertTrue(Float.isNaN(m.get(5, 2)));
+        assertTrue(Float.isNaN(m.get(1, 7)));
+        assertTrue(Float.isNaN(m.get(9, 0)));
+        assertTrue(Float.isNaN(m.get(10, 0)));
+        assertTrue(Float.isNaN(m.get(-1, 0)));
+    }
+
+    @Test
+    public void lookup() {
+        assertExample(buildExample());
+    }
+
+    @Test
+    public void manyEntries() {
+        SparseCostMatrix.Builder builder = new SparseCostMatrix.Builder();
+        for (int row = 99; row >= 0; row--) {
+            for (int col = 0; col < 300; col += 3) {
+                builder.add(row, col, row * 1000 + col);
+            }
+        }
+        SparseCostMatrix m = builder.build(0);
+        assertEquals(100, m.getNumberOfRows());
+        assertEquals(100 * 100, m.getNumberOfEntries());
+        for (int row = 0; row < 100; row++) {
+            for (int col = 0; col < 300; col++) {
+                if (col % 3 == 0) {
+                    assertEquals(row * 1000 + col, m.get(row, col), 0);
+                } else {
+                    assertTrue(Float.isNaN(m.get(row, col)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        buildExample().writeTo(new DataOutputStream(baos));
+        ByteBuffer bb = ByteBuffer.wrap(baos.toByteArray());
+        assertExample(SparseCostMatrix.read(bb));
+        assertEquals(0, bb.remaining());
+    }
+}
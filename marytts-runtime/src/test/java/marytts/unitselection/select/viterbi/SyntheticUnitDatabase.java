@@ -0,0 +1,167 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select.viterbi;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureProcessorManager;
+import marytts.features.FeatureVector;
+import marytts.unitselection.data.FeatureFileReader;
+import marytts.unitselection.data.Unit;
+import marytts.unitselection.data.UnitDatabase;
+import marytts.unitselection.select.JoinCostFunction;
+import marytts.unitselection.select.Target;
+import marytts.unitselection.select.TargetCostFunction;
+
+/**
+ * A unit database with pseudo-random but deterministic candidates, target costs and join costs,
+ * for testing and benchmarking the Viterbi search without a voice.
+ * Units that are adjacent in the database join at zero cost, as they do
+ * with the real join cost functions, and a few joins have infinite cost, as with
+ * precomputed join costs. Costs can be coarsely quantised so that there are many ties.
+ *
+ * @author marc
+ *
+ */
+public class SyntheticUnitDatabase extends UnitDatabase
+{
+    private final Unit[] units;
+    private final int minCandidates;
+    private final int maxCandidates;
+    private final double quantum;
+
+    /**
+     * @param numUnits the number of units in the database
+     * @param minCandidates the minimum number of candidates per target
+     * @param maxCandidates the maximum number of candidates per target
+     * @param quantum if positive, all costs are multiples of this
+     */
+    public SyntheticUnitDatabase(int numUnits, int minCandidates, int maxCandidates, double quantum)
+    {
+        this.units = new Unit[numUnits];
+        for (int i=0; i<numUnits; i++) {
+            units[i] = new Unit(i * 800L, 800, i);
+        }
+        this.numUnits = numUnits;
+        this.minCandidates = minCandidates;
+        this.maxCandidates = maxCandidates;
+        this.quantum = quantum;
+        this.targetCostFunction = new SyntheticTargetCostFunction();
+        this.joinCostFunction = new SyntheticJoinCostFunction();
+    }
+
+    /**
+     * Create a sequence of targets such as a sentence of the given number of halfphones.
+     * @param length
+     * @param seed
+     * @return
+     */
+    public List<Target> createTargets(int length, long seed)
+    {
+        Random random = new Random(seed);
+        List<Target> targets = new ArrayList<Target>(length);
+        for (int i=0; i<length; i++) {
+            targets.add(new Target("t"+random.nextInt(1000000), null));
+        }
+        return targets;
+    }
+
+    /**
+     * The candidates of a target depend only on its name.
+     */
+    @Override
+    public List<ViterbiCandidate> getCandidates(Target target)
+    {
+        Random random = new Random(target.getName().hashCode());
+        int n = minCandidates + random.nextInt(maxCandidates - minCandidates + 1);
+        List<ViterbiCandidate> candidates = new ArrayList<ViterbiCandidate>(n);
+        for (int i=0; i<n; i++) {
+            candidates.add(new ViterbiCandidate(target, units[random.nextInt(units.length)], targetCostFunction));
+        }
+        return candidates;
+    }
+
+    @Override
+    public String getFilenameAndTime(Unit unit)
+    {
+        return "unit"+unit.index;
+    }
+
+    private double quantise(double cost)
+    {
+        if (quantum > 0) {
+            return Math.floor(cost / quantum) * quantum;
+        }
+        return cost;
+    }
+
+    private static double hashToUnitInterval(long a, long b)
+    {
+        long h = a * 0x9E3779B97F4A7C15L + b;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    private class SyntheticTargetCostFunction implements TargetCostFunction
+    {
+        public double cost(Target target, Unit unit)
+        {
+            return quantise(2 * hashToUnitInterval(target.getName().hashCode(), unit.index));
+        }
+
+        public String getFeature(Unit unit, String featureName)
+        {
+            return "u";
+        }
+
+        public void load(String featureFileName, InputStream weightsStream, FeatureProcessorManager featProc) {}
+        public void load(FeatureFileReader featureFileReader, InputStream weightsStream, FeatureProcessorManager featProc) {}
+        public void computeTargetFeatures(Target target) {}
+        public FeatureDefinition getFeatureDefinition() { return null; }
+        public FeatureVector getFeatureVector(Unit unit) { return null; }
+        public FeatureVector[] getFeatureVectors() { return null; }
+    }
+
+    private class SyntheticJoinCostFunction implements JoinCostFunction
+    {
+        public double cost(Target t1, Unit u1, Target t2, Unit u2)
+        {
+            if (u1.index + 1 == u2.index) {
+                return 0;
+            }
+            double h = hashToUnitInterval(u1.index, u2.index);
+            if (h < 0.02) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return quantise(3 * h);
+        }
+
+        public void init(String configPrefix) {}
+        public void load(String joinFileName, InputStream weightStream, String precompiledCostFileName, float wSignal) {}
+    }
+}
@@ -0,0 +1,65 @@
+package marytts.unitselection.select.viterbi;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import marytts.unitselection.select.Target;
+
+/**
+ * Micro-benchmark comparing {@link Viterbi} and {@link ArrayViterbi} in time and allocated
+ * memory per utterance. Utterances are target sequences of 40-120 halfphones on a
+ * {@link SyntheticUnitDatabase} with 200-1500 candidates per target, which is the range
+ * seen with arctic-sized voices; the beam size is the default of 100.
+ * This is not run as part of the unit tests; start it with
+ * <code>java marytts.unitselection.select.viterbi.ViterbiBenchmark [beamSize]</code>.
+ *
+ * @author marc
+ *
+ */
+public class ViterbiBenchmark {
+    private static final int NUM_UTTERANCES = 200;
+
+    public static void main(String[] args) throws Exception {
+        int beamSize = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        SyntheticUnitDatabase db = new SyntheticUnitDatabase(100000, 200, 1500, 0);
+        List<List<Target>> utterances = new ArrayList<List<Target>>();
+        for (int i=0; i<NUM_UTTERANCES; i++) {
+            utterances.add(db.createTargets(40 + (i * 37) % 81, i));
+        }
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round "+round+", beam size "+beamSize+":");
+            measure("classic", db, utterances, beamSize, false);
+            measure("arrays", db, utterances, beamSize, true);
+        }
+    }
+
+    private static void measure(String name, SyntheticUnitDatabase db, List<List<Target>> utterances,
+            int beamSize, boolean arrays) throws Exception {
+        long bytesBefore = allocatedBytes();
+        long t0 = System.nanoTime();
+        int numUnits = 0;
+        for (List<Target> targets : utterances) {
+            Viterbi viterbi = arrays ? new ArrayViterbi(targets, db, 0.3f, beamSize)
+                                     : new Viterbi(targets, db, 0.3f, beamSize);
+            viterbi.apply();
+            numUnits += viterbi.getSelectedUnits().size();
+        }
+        long t = System.nanoTime() - t0;
+        long bytes = allocatedBytes() - bytesBefore;
+        System.out.printf("  %-10s %7.2f ms/utterance  %8.1f kB allocated/utterance  (%d units)%n", name,
+                t / 1000000. / utterances.size(), bytes / 1024. / utterances.size(), numUnits);
+    }
+
+    /**
+     * The number of bytes allocated by the current thread, or -1 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
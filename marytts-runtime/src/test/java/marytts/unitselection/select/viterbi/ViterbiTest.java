@@ -0,0 +1,86 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.unitselection.select.viterbi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import marytts.unitselection.select.SelectedUnit;
+import marytts.unitselection.select.Target;
+
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class ViterbiTest {
+
+    private void assertSameSelection(SyntheticUnitDatabase db, int numTargets, int beamSize) throws Exception {
+        for (long seed = 0; seed < 10; seed++) {
+            List<Target> targets = db.createTargets(numTargets, seed);
+            Viterbi classic = new Viterbi(targets, db, 0.3f, beamSize);
+            classic.apply();
+            List<SelectedUnit> expected = classic.getSelectedUnits();
+            Viterbi arrays = new ArrayViterbi(targets, db, 0.3f, beamSize);
+            arrays.apply();
+            List<SelectedUnit> actual = arrays.getSelectedUnits();
+            assertNotNull(expected);
+            assertNotNull(actual);
+            assertEquals(numTargets, expected.size());
+            assertEquals(expected.size(), actual.size());
+            for (int i=0; i<expected.size(); i++) {
+                assertEquals("seed "+seed+", beam "+beamSize+", unit "+i,
+                        expected.get(i).getUnit().index, actual.get(i).getUnit().index);
+                assertSame(expected.get(i).getTarget(), actual.get(i).getTarget());
+            }
+        }
+    }
+
+    @Test
+    public void sameSelectionWithoutBeam() throws Exception {
+        assertSameSelection(new SyntheticUnitDatabase(5000, 20, 60, 0), 15, -1);
+    }
+
+    @Test
+    public void sameSelectionWithBeam() throws Exception {
+        SyntheticUnitDatabase db = new SyntheticUnitDatabase(5000, 20, 300, 0);
+        assertSameSelection(db, 25, 5);
+        assertSameSelection(db, 25, 40);
+        assertSameSelection(db, 25, 100);
+    }
+
+    @Test
+    public void sameSelectionWithTies() throws Exception {
+        // costs are multiples of 0.5, so that there are many equal target costs and path scores:
+        SyntheticUnitDatabase db = new SyntheticUnitDatabase(300, 20, 200, 0.5);
+        assertSameSelection(db, 25, -1);
+        assertSameSelection(db, 25, 7);
+        assertSameSelection(db, 25, 50);
+    }
+
+    @Test
+    public void singleTarget() throws Exception {
+        assertSameSelection(new SyntheticUnitDatabase(100, 1, 10, 0.5), 1, 3);
+    }
+}
@@ -24,10 +24,13 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.sql.SQLException;
 
+import marytts.util.cache.TieredCacheEngine;
+
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -130,4 +133,53 @@ public class MaryCacheTest
         assertNull(lookupAudio);
     }
     
+    @Test
+    public void countsHitsAndMisses() throws Exception
+    {
+        c.insertText(inputtype, outputtype, locale, voice, inputtext2, targetValue2);
+        long hitsBefore = c.getHitCount();
+        long missesBefore = c.getMissCount();
+        c.lookupText(inputtype, outputtype, locale, voice, inputtext2);
+        c.lookupText(inputtype, outputtype, locale, voice, "text that is not in the cache");
+        assertEquals(hitsBefore + 1, c.getHitCount());
+        assertEquals(missesBefore + 1, c.getMissCount());
+    }
+    
+    @Test
+    public void keepsMostRecentEntriesWithinLimits() throws Exception
+    {
+        File smallCacheFile = new File("tmp/testfiles-small-deleteme");
+        TieredCacheEngine engine = new TieredCacheEngine(smallCacheFile, true, 64*1024, 8*1024, 32*1024);
+        MaryCache small = new MaryCache(engine);
+        byte[] audio = new byte[1000];
+        for (int i=0; i<200; i++) {
+            small.insertAudio(inputtype, locale, voice, "text "+i, audio);
+        }
+        assertTrue(small.getEvictionCount() > 0);
+        assertTrue(engine.getDiskBytes() <= 32*1024 + 8*1024);
+        assertNotNull(small.lookupAudio(inputtype, locale, voice, "text 199"));
+        assertNull(small.lookupAudio(inputtype, locale, voice, "text 0"));
+        small.shutdown();
+    }
+    
+    @Test
+    public void compactionKeepsEntriesUsedFromMemory() throws Exception
+    {
+        File smallCacheFile = new File("tmp/testfiles-small-deleteme");
+        MaryCache small = new MaryCache(new TieredCacheEngine(smallCacheFile, true, 64*1024, 8*1024, 32*1024));
+        byte[] audio = new byte[1000];
+        small.insertAudio(inputtype, locale, voice, "hot text", audio);
+        for (int i=0; i<200; i++) {
+            small.insertAudio(inputtype, locale, voice, "text "+i, audio);
+            // served from the memory tier every time:
+            assertNotNull(small.lookupAudio(inputtype, locale, voice, "hot text"));
+        }
+        small.shutdown();
+        // only what is still on disk survives a restart:
+        small = new MaryCache(new TieredCacheEngine(smallCacheFile, false, 64*1024, 8*1024, 32*1024));
+        assertNotNull(small.lookupAudio(inputtype, locale, voice, "hot text"));
+        assertNull(small.lookupAudio(inputtype, locale, voice, "text 0"));
+        small.shutdown();
+    }
+    
 }
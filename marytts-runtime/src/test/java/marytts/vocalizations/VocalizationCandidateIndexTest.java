@@ -0,0 +1,80 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.vocalizations;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class VocalizationCandidateIndexTest {
+
+    /**
+     * The best candidates from the grouped costs must be the ones that sorting
+     * all units by cost gives, in the same order.
+     */
+    @Test
+    public void bestCandidatesAsSortedUnits() {
+        Random random = new Random(42);
+        for (int trial=0; trial<200; trial++) {
+            int numberUnits = 1 + random.nextInt(60);
+            int numberGroups = 1 + random.nextInt(numberUnits);
+            // few distinct costs, so that different groups often have the same cost:
+            double[] costs = new double[numberGroups];
+            for (int g=0; g<numberGroups; g++) {
+                costs[g] = random.nextInt(5) * 0.25;
+            }
+            List<List<Integer>> groups = new ArrayList<List<Integer>>();
+            for (int g=0; g<numberGroups; g++) {
+                groups.add(new ArrayList<Integer>());
+            }
+            VocalizationCandidate[] all = new VocalizationCandidate[numberUnits];
+            for (int i=0; i<numberUnits; i++) {
+                int g = i < numberGroups ? i : random.nextInt(numberGroups);
+                groups.get(g).add(i);
+                all[i] = new VocalizationCandidate(i, costs[g]);
+            }
+            int[][] members = new int[numberGroups][];
+            for (int g=0; g<numberGroups; g++) {
+                members[g] = new int[groups.get(g).size()];
+                for (int j=0; j<members[g].length; j++) {
+                    members[g][j] = groups.get(g).get(j);
+                }
+            }
+            Arrays.sort(all);
+            int k = 1 + random.nextInt(numberUnits + 5);
+            VocalizationCandidate[] best = VocalizationCandidateIndex.getBestCandidates(costs, members, k);
+            assertEquals(Math.min(k, numberUnits), best.length);
+            for (int i=0; i<best.length; i++) {
+                assertEquals(all[i].unitIndex, best[i].unitIndex);
+                assertEquals(all[i].cost, best[i].cost, 0);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.vocalizations;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class VocalizationSelectorTest {
+
+    private static final int TARGET_OFFSET = 1000;
+
+    /**
+     * The pruned search for the best pair must find the pair that computing the costs
+     * of all pairs and sorting them puts first; sorting is stable, so among pairs with
+     * the same cost this is the first one in (source, target) order.
+     */
+    @Test
+    public void bestPairAsSortedPairs() {
+        Random random = new Random(42);
+        for (int trial=0; trial<500; trial++) {
+            int numberSources = 1 + random.nextInt(15);
+            int numberTargets = 1 + random.nextInt(15);
+            // few distinct costs, so that different pairs often have the same cost:
+            double contourCostWeight = random.nextInt(5) * 0.25;
+            int[] sourceIndices = new int[numberSources];
+            double[] unitMergeCosts = new double[numberSources];
+            for (int i=0; i<numberSources; i++) {
+                sourceIndices[i] = i;
+                unitMergeCosts[i] = random.nextInt(4) * 0.5;
+            }
+            int[] targetIndices = new int[numberTargets];
+            double[] contourMergeCosts = new double[numberTargets];
+            for (int j=0; j<numberTargets; j++) {
+                targetIndices[j] = TARGET_OFFSET + j;
+                contourMergeCosts[j] = random.nextInt(4) * 0.5;
+            }
+            final double[][] distances = new double[numberSources][numberTargets];
+            for (int i=0; i<numberSources; i++) {
+                for (int j=0; j<numberTargets; j++) {
+                    distances[i][j] = random.nextInt(4) * 0.5;
+                }
+            }
+            VocalizationSelector.ContourDistance contourDistance = new VocalizationSelector.ContourDistance() {
+                public double distance(int sourceIndex, int targetIndex) {
+                    return distances[sourceIndex][targetIndex - TARGET_OFFSET];
+                }
+            };
+
+            // the old way: all pairs, sorted by cost
+            SourceTargetPair[] pairs = new SourceTargetPair[numberSources * numberTargets];
+            for (int i=0; i<numberSources; i++) {
+                for (int j=0; j<numberTargets; j++) {
+                    double weightedMergeCost = (unitMergeCosts[i] + contourMergeCosts[j]) * (1 - contourCostWeight);
+                    double cost = distances[i][j] * contourCostWeight + weightedMergeCost;
+                    pairs[i * numberTargets + j] = new SourceTargetPair(sourceIndices[i], targetIndices[j], cost);
+                }
+            }
+            Arrays.sort(pairs);
+
+            SourceTargetPair best = VocalizationSelector.bestPair(sourceIndices, unitMergeCosts, targetIndices,
+                    contourMergeCosts, contourCostWeight, contourDistance);
+            assertEquals(pairs[0].getSourceUnitIndex(), best.getSourceUnitIndex());
+            assertEquals(pairs[0].getTargetUnitIndex(), best.getTargetUnitIndex());
+        }
+    }
+}
@@ -19,24 +19,25 @@
  */
 package marytts.server;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.Reader;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.Collections;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
@@ -48,6 +49,7 @@ import marytts.config.LanguageConfig;
 import marytts.config.MaryConfig;
 import marytts.datatypes.MaryDataType;
 import marytts.htsengine.HMMVoice;
+import marytts.htsengine.HTSVocoder;
 import marytts.modules.synthesis.Voice;
 import marytts.signalproc.effects.AudioEffect;
 import marytts.signalproc.effects.AudioEffects;
@@ -63,7 +65,9 @@ import org.apache.log4j.Logger;
 /**
  * Listen for clients on socket port
  *          <code>MaryProperties.socketPort()</code>.
- *          For each new client, create a new RequestHandler thread.
+ * All connections are served by a single thread with a selector;
+ * the requests are processed by {@link RequestHandler}s on the worker threads
+ * of a {@link RequestScheduler}, configured by the <code>server.synthesis.*</code> settings.
  * <p>
  * Clients are expected to follow the following <b>protocol</b>:
  * <p>
@@ -169,99 +173,341 @@ import org.apache.log4j.Logger;
  */
 public class MaryServer implements Runnable {
 
-    private ServerSocket server;
+    /** how long an info connection waits for its data connection before it is given up */
+    private static final long PAIRING_TIMEOUT_MILLIS = 60000;
+
+    private ServerSocketChannel server;
+    private Selector selector;
     private Logger logger;
     private int runningNumber = 1;
-    private Map<Integer, Object[]> clientMap = Collections.synchronizedMap(new HashMap<Integer, Object[]>());
-    private Executor clients = Executors.newCachedThreadPool();
+    private int port;
+    private RequestScheduler scheduler;
+    // the info connections waiting for their data connection, by request id; used in the selector thread only
+    private Map<Integer, ClientHandler> clientMap = new HashMap<Integer, ClientHandler>();
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<Runnable>();
+    private final Executor selectorThread = new Executor() {
+        public void execute(Runnable task) {
+            selectorTasks.add(task);
+            Selector s = selector;
+            if (s != null) {
+                s.wakeup();
+            }
+        }
+    };
+    private volatile boolean stopped = false;
 
     public MaryServer() {
         logger = MaryUtils.getLogger("server");
     }
 
+    /**
+     * @param port the port to listen on
+     * @param scheduler the scheduler to process the requests
+     */
+    MaryServer(int port, RequestScheduler scheduler) {
+        this();
+        this.port = port;
+        this.scheduler = scheduler;
+    }
+
     public void run() {
         logger.info("Starting server.");
         try {
-            server = new ServerSocket(MaryProperties.needInteger("socket.port"));
-
-            while (true) {
-                logger.info("Waiting for client to connect on port " + server.getLocalPort());
-                Socket client = server.accept();
-                logger.info(
-                        "Connection from " + client.getInetAddress().getHostName() + " (" + client.getInetAddress().getHostAddress() + ").");
-                clients.execute(new ClientHandler(client));
+            if (port <= 0) {
+                port = MaryProperties.needInteger("socket.port");
+            }
+            if (scheduler == null) {
+                scheduler = RequestScheduler.fromProperties("Synthesis", "server.synthesis");
+            }
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.socket().bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            logger.info("Waiting for clients to connect on port " + server.socket().getLocalPort());
+
+            long timeout = 0;
+            while (!stopped) {
+                selector.select(timeout);
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        try {
+                            accept();
+                        } catch (IOException e) {
+                            logger.warn("Cannot accept connection", e);
+                        }
+                    } else {
+                        ((ClientHandler) key.attachment()).handleEvents(key);
+                    }
+                }
+                // expire waiting requests here, so that this happens even if no new requests arrive:
+                timeout = removeStaleRequests(System.currentTimeMillis());
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
+        } finally {
+            close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
         }
+        channel.configureBlocking(false);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new ClientHandler(new SocketConnection(channel, key, selectorThread)));
+        // no reverse lookup of the host name here, it would hold up all other clients
+        logger.info("Connection from " + channel.socket().getInetAddress().getHostAddress() + ".");
+    }
+
+    /**
+     * Stop accepting and serving clients. Requests which are being processed are completed.
+     */
+    public void shutdown() {
+        stopped = true;
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    private void close() {
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+        } catch (IOException e) {
+            logger.info("Problem closing connections", e);
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+            logger.info(scheduler.toString());
+        }
+        if (HTSVocoder.getFirstAudioCount() > 0) {
+            logger.info(HTSVocoder.getFirstAudioStatistics());
+        }
+    }
+
+    /**
+     * Give up requests whose data connection did not arrive in time.
+     * @param now the current time, as given by System.currentTimeMillis()
+     * @return the number of milliseconds until the next waiting request expires,
+     * or 0 if no requests are waiting.
+     */
+    private long removeStaleRequests(long now) {
+        long next = 0;
+        Iterator<ClientHandler> it = clientMap.values().iterator();
+        while (it.hasNext()) {
+            ClientHandler waiting = it.next();
+            long remaining = waiting.waitingSince + PAIRING_TIMEOUT_MILLIS - now;
+            if (remaining <= 0) {
+                logger.info("No data connection for request " + waiting.requestId + ", closing its info connection.");
+                it.remove();
+                waiting.state = State.DONE;
+                waiting.connection.close();
+            } else if (next == 0 || remaining < next) {
+                next = remaining;
+            }
+        }
+        return next;
     }
 
     private synchronized int getID() {
         return runningNumber++;
     }
 
-    public class ClientHandler implements Runnable {
+    private enum State {
+        /** reading request lines */
+        LINES,
+        /** a synthesis request was received, waiting for the data connection */
+        WAITING_FOR_DATA,
+        /** reading the input data after the request id */
+        READING_DATA,
+        /** the request is being processed, or the connection is being closed */
+        DONE
+    }
+
+    /**
+     * The protocol state of one client connection.
+     * Everything in here is run in the selector thread.
+     */
+    private class ClientHandler {
+
+        SocketConnection connection;
+        StringWriter reply = new StringWriter();
+        PrintWriter clientOut = new PrintWriter(reply);
+        State state = State.LINES;
+        // received bytes not yet consumed as lines:
+        byte[] pending = new byte[256];
+        int pendingLength = 0;
+        // for an info connection, the request waiting for its data:
+        Request request;
+        int requestId;
+        long waitingSince;
+        // for a data connection, the info connection and the input data:
+        ClientHandler info;
+        ByteArrayOutputStream input;
+
+        public ClientHandler(SocketConnection connection) {
+            this.connection = connection;
+        }
+
+        void handleEvents(SelectionKey key) {
+            try {
+                if (key.isReadable()) {
+                    readable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.writeQueued();
+                }
+            } catch (IOException e) {
+                logger.info("Client seems to have disconnected: " + e.getMessage());
+                closed();
+            } catch (RuntimeException e) {
+                logger.warn("Problem handling client connection", e);
+                closed();
+            }
+        }
+
+        private void closed() {
+            connection.close();
+            if (state == State.WAITING_FOR_DATA) {
+                clientMap.remove(requestId);
+            } else if (state == State.READING_DATA) {
+                info.connection.close();
+            }
+            state = State.DONE;
+        }
 
-        Socket client;
-        PrintWriter clientOut;
+        private void readable() throws IOException {
+            ByteBuffer buffer = connection.read();
+            if (buffer == null) {
+                endOfInput();
+                return;
+            }
+            if (state == State.LINES) {
+                int n = buffer.remaining();
+                if (pendingLength + n > pending.length) {
+                    byte[] newPending = new byte[Math.max(2 * pending.length, pendingLength + n)];
+                    System.arraycopy(pending, 0, newPending, 0, pendingLength);
+                    pending = newPending;
+                }
+                buffer.get(pending, pendingLength, n);
+                pendingLength += n;
+                handleLines(false);
+            } else if (state == State.READING_DATA) {
+                input.write(buffer.array(), buffer.position(), buffer.remaining());
+            }
+            // anything else the client sends is ignored
+        }
 
-        public ClientHandler(Socket client) throws IOException {
-            this.client = client;
+        private void endOfInput() throws IOException {
+            connection.stopReading();
+            if (state == State.LINES) {
+                if (pendingLength > 0) {
+                    // the last line need not be terminated
+                    handleLines(true);
+                }
+                if (state == State.LINES) {
+                    state = State.DONE;
+                    connection.closeWhenWritten();
+                }
+            }
+            if (state == State.READING_DATA) {
+                startRequest();
+            }
+            // an info connection waiting for its data connection may still receive warnings
         }
 
-        public void run() {
-            logger = MaryUtils.getLogger("server");
+        /**
+         * Handle the complete lines received so far.
+         * @param all whether to handle what remains after the last line break as a line too.
+         */
+        private void handleLines(boolean all) throws IOException {
+            int start = 0;
             try {
-                OutputStreamWriter clientUTFOutput = new OutputStreamWriter(client.getOutputStream(), "UTF-8");
-                clientOut = new PrintWriter(clientUTFOutput, true);
-                handle();
-            } catch (UnsupportedEncodingException ex) {
-                throw new AssertionError("UTF-8 is always a supported encoding.");
+                while (state == State.LINES && start < pendingLength) {
+                    int end = start;
+                    while (end < pendingLength && pending[end] != '\n') {
+                        end++;
+                    }
+                    if (end == pendingLength && !all) {
+                        break;
+                    }
+                    int next = end + 1;
+                    if (end > start && pending[end-1] == '\r') {
+                        end--;
+                    }
+                    String line = new String(pending, start, end-start, "UTF-8");
+                    start = next;
+                    handleLine(line);
+                }
             } catch (Exception e) {
                 logger.info("Error parsing request:", e);
-                if (clientOut == null) {
-                    logger.info("Cannot write to client.");
-                } else {
-                    clientOut.println("Error parsing request:");
-                    clientOut.println(e.getMessage());
-                }
-            } finally {
-                // info Sockets must not be closed before the corresponding data socket is here and the request parsed: 
-                //FileUtils.close(client, clientOut);
+                clientOut.println("Error parsing request:");
+                clientOut.println(e.getMessage());
+                state = State.DONE;
+                connection.stopReading();
+            }
+            sendReply();
+            if (state == State.DONE) {
+                connection.closeWhenWritten();
+            }
+            start = Math.min(start, pendingLength);
+            if (state == State.READING_DATA) {
+                // the rest is input data
+                input.write(pending, start, pendingLength-start);
+                pendingLength = 0;
+                pending = null;
+            } else if (state == State.LINES) {
+                System.arraycopy(pending, start, pending, 0, pendingLength-start);
+                pendingLength -= start;
+            } else {
+                pendingLength = 0;
+            }
+        }
+
+        private void sendReply() throws UnsupportedEncodingException {
+            clientOut.flush();
+            if (reply.getBuffer().length() > 0) {
+                connection.send(reply.toString().getBytes("UTF-8"));
+                reply.getBuffer().setLength(0);
             }
         }
 
         //Implement the protocol for communicating with a socket client.
-        private void handle() throws Exception {
+        private void handleLine(String line) throws Exception {
             // !!!! reject all clients that are not from authorized domains?
-
-            // Read one line from client
-            BufferedReader buffReader = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
-            String line = buffReader.readLine();
             logger.debug("read request: `" + line + "'");
 
-            if (line == null) {
-                logger.info("Client seems to have disconnected - cannot read.");
-                return;
-            }
-
             // A: General information request, no synthesis.
             // This may consist of one or several lines of info requests and
             // may either stand alone or precede another request.
-            while (handleInfoRequest(line)) {
-                // In case this precedes another request, try to read another line:
-                line = buffReader.readLine();
-                if (line == null) {
-                    return;
-                }
+            if (handleInfoRequest(line)) {
+                return;
             }
 
             // VARIANT B1: Synthesis request.
             if (handleSynthesisRequest(line)) {
-                return;
+                state = State.WAITING_FOR_DATA;
                 // VARIANT B2: Second connection of synthesis request.
-            } else if (handleNumberRequest(line, buffReader)) {
-                return;
+            } else if (handleNumberRequest(line)) {
+                state = State.READING_DATA;
             } else {
                 // complain
                 String nl = System.getProperty("line.separator");
@@ -271,6 +517,20 @@ public class MaryServer implements Runnable {
 
         }
 
+        /**
+         * Process the request once its input data is complete.
+         */
+        private void startRequest() {
+            state = State.DONE;
+            info.state = State.DONE;
+            RequestHandler handler = new RequestHandler(info.request, info.connection.getOutputStream(),
+                    connection.getOutputStream(), input.toByteArray());
+            input = null;
+            if (!scheduler.submit(connection.getInetAddress().getHostAddress(), handler, handler.getStreamingWriter())) {
+                handler.reject();
+            }
+        }
+
         private boolean handleInfoRequest(String inputLine) {
             if (inputLine.startsWith("MARY VERSION")) {
                 logger.debug("InfoRequest " + inputLine);
@@ -406,13 +666,12 @@ public class MaryServer implements Runnable {
             }
 
             AudioFileFormat audioFileFormat = new AudioFileFormat(audioFileFormatType, audioFormat, AudioSystem.NOT_SPECIFIED);
-            Request request = new Request(inputType, outputType, locale, voice, effects, style, id, audioFileFormat, streamingAudio, null);
+            request = new Request(inputType, outputType, locale, voice, effects, style, id, audioFileFormat, streamingAudio, null);
+            requestId = id;
+            waitingSince = System.currentTimeMillis();
             clientOut.println(id);
             //   -- create new clientMap entry
-            Object[] value = new Object[2];
-            value[0] = client;
-            value[1] = request;
-            clientMap.put(id, value);
+            clientMap.put(id, this);
             return true;
         }
 
@@ -486,7 +745,7 @@ public class MaryServer implements Runnable {
             return MaryUtils.string2locale(localeString);
         }
 
-        private boolean handleNumberRequest(String inputLine, Reader reader)
+        private boolean handleNumberRequest(String inputLine)
                 throws Exception {
             // * if number
             int id = 0;
@@ -495,25 +754,12 @@ public class MaryServer implements Runnable {
             } catch (NumberFormatException e) {
                 return false;
             }
-            //   -- find corresponding infoSocket and request in clientMap
-            Socket infoSocket = null;
-            Request request = null;
-            // Wait up to TIMEOUT milliseconds for the first ClientHandler
-            // to write its clientMap entry:
-            long TIMEOUT = 1000;
-            long startTime = System.currentTimeMillis();
-            Object[] value = null;
-            do {
-                Thread.yield();
-                value = (Object[]) clientMap.get(id);
-            } while (value == null && System.currentTimeMillis() - startTime < TIMEOUT);
-            if (value != null) {
-                infoSocket = (Socket) value[0];
-                request = (Request) value[1];
-            }
+            //   -- find corresponding info connection and request in clientMap;
+            // it is there already, because the client learns the id only after it has been registered.
+            ClientHandler infoHandler = clientMap.get(id);
             // Verify that the request is non-null and that the
             // corresponding socket comes from the same IP address:
-            if (request == null || infoSocket == null || !infoSocket.getInetAddress().equals(client.getInetAddress())) {
+            if (infoHandler == null || !infoHandler.connection.getInetAddress().equals(connection.getInetAddress())) {
                 throw new Exception("Invalid identification number.");
                 // Don't be more specific, because in general it is none of
                 // their business whether in principle someone else has
@@ -521,14 +767,9 @@ public class MaryServer implements Runnable {
             }
 
             //   -- delete clientMap entry
-            try {
-                clientMap.remove(id);
-            } catch (UnsupportedOperationException e) {
-                logger.info("Cannot remove clientMap entry", e);
-            }
-            //   -- send off to new request
-            RequestHandler rh = new RequestHandler(request, infoSocket, client, reader);
-            rh.start();
+            clientMap.remove(id);
+            info = infoHandler;
+            input = new ByteArrayOutputStream();
             return true;
         }
 
@@ -21,15 +21,17 @@ package marytts.server;
 
 // General Java Classes
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.Reader;
-import java.net.Socket;
+import java.io.UnsupportedEncodingException;
 
 import javax.sound.sampled.AudioSystem;
 import javax.xml.transform.TransformerException;
@@ -49,54 +51,95 @@ import org.xml.sax.SAXParseException;
 
 
 /**
- * A lightweight process handling one Request in a thread of its own.
- * This is to be used when running as a socket server.
+ * Handles one Request of a socket client, on a worker thread of the {@link MaryServer}.
+ * Warnings and errors go to the client's info connection, which is closed
+ * before the output is sent on the data connection.
  * @author Marc Schr&ouml;der
  */
 
-public class RequestHandler extends Thread {
+public class RequestHandler implements Runnable {
     private Request request;
-    private Socket infoSocket;
-    private Socket dataSocket;
+    private OutputStream infoOutput;
+    private OutputStream dataOutput;
     private LoggingReader inputReader;
     private Logger logger;
     private Logger clientLogger;
+    private StreamingOutputWriter streamingWriter;
 
     /**
      * Constructor to be used for Socket processing (running as a standalone
-     * socket server).  <code>inputReader</code> is a Reader reading from from
-     * <code>dataSocket.inputStream()</code>. Passing this on is necessary
-     * because the mary server does a buffered read on that input stream, and
-     * without passing that buffered reader on, data gets lost.
+     * socket server).
+     * @param request the request
+     * @param infoOutput the stream to the client's info socket
+     * @param dataOutput the stream to the client's data socket
+     * @param input the input data received on the data socket, in UTF-8
      */
     public RequestHandler(
         Request request,
-        Socket infoSocket,
-        Socket dataSocket,
-        Reader inputReader) {
+        OutputStream infoOutput,
+        OutputStream dataOutput,
+        byte[] input) {
         if (request == null)
             throw new NullPointerException("Cannot handle null request");
         this.request = request;
-        if (infoSocket == null)
-            throw new NullPointerException("Received null infoSocket");
-        this.infoSocket = infoSocket;
-        if (dataSocket == null)
-            throw new NullPointerException("Received null dataSocket");
-        this.dataSocket = dataSocket;
-        this.setName("RH " + request.getId());
-        logger = MaryUtils.getLogger(this.getName());
-        this.inputReader = new LoggingReader(inputReader, logger);
-        clientLogger = MaryUtils.getLogger(this.getName() + " client");
+        if (infoOutput == null)
+            throw new NullPointerException("Received null infoOutput");
+        this.infoOutput = infoOutput;
+        if (dataOutput == null)
+            throw new NullPointerException("Received null dataOutput");
+        this.dataOutput = dataOutput;
+        logger = MaryUtils.getLogger("RH " + request.getId());
         try {
-            clientLogger.addAppender(
-                new WriterAppender(
-                    new SimpleLayout(),
-                    new PrintWriter(infoSocket.getOutputStream(), true)));
-            clientLogger.setLevel(Level.WARN);
-            // What goes to clientLogger does not go to the normal logfile:
-            clientLogger.setAdditivity(false);
+            this.inputReader = new LoggingReader(new InputStreamReader(new ByteArrayInputStream(input), "UTF-8"), logger);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("UTF-8 is always a supported encoding.");
+        }
+        clientLogger = MaryUtils.getLogger("RH " + request.getId() + " client");
+        clientLogger.addAppender(
+            new WriterAppender(
+                new SimpleLayout(),
+                new PrintWriter(new OutputStreamWriter(infoOutput), true)));
+        clientLogger.setLevel(Level.WARN);
+        // What goes to clientLogger does not go to the normal logfile:
+        clientLogger.setAdditivity(false);
+        if (request.getOutputType().equals(MaryDataType.get("AUDIO"))
+                && request.getStreamAudio()) {
+            streamingWriter = new StreamingOutputWriter(request, dataOutput);
+        }
+    }
+
+    /**
+     * The writer which sends the audio to the client while it is produced,
+     * to be run in parallel to this handler; or null if the output is not streamed.
+     */
+    public Runnable getStreamingWriter() {
+        return streamingWriter;
+    }
+
+    /**
+     * Tell the client that its request cannot be processed because the server is too busy,
+     * and close the connections. To be called instead of {@link #run()}.
+     */
+    public void reject() {
+        clientLogger.warn("Server busy, cannot process request -- please try again later.");
+        finishInfo();
+        try {
+            dataOutput.close();
+        } catch (IOException e) {
+            logger.warn("Couldn't close data socket properly.", e);
+        }
+        logger.info("Request rejected, server busy.");
+    }
+
+    private void finishInfo() {
+        if (clientLogger != null) {
+            clientLogger.removeAllAppenders();
+            clientLogger = null;
+        }
+        try {
+            infoOutput.close();
         } catch (IOException e) {
-            logger.warn("Cannot write warnings to client", e);
+            logger.warn("Couldn't close info socket properly.", e);
         }
     }
 
@@ -124,7 +167,7 @@ public class RequestHandler extends Thread {
      * Perform the actual processing by calling the appropriate methods
      * of the associated <code>Request</code> object.
      * <p>
-     * Note that while different request handlers run as different threads,
+     * Note that while different request handlers run in different threads,
      * they all use the same module objects. How a given module deals with
      * several requests simultaneously is its own problem, the simplest
      * solution being a synchronized <code>process()</code> method.
@@ -151,18 +194,10 @@ public class RequestHandler extends Thread {
             ok = false;
         }
 
-        boolean streamingOutput = false;
-        StreamingOutputWriter rw = null;
         // Process input data to output data
+        // (the streaming writer is already running in parallel)
         if (ok)
             try {
-                if (request.getOutputType().equals(MaryDataType.get("AUDIO"))
-                		&& request.getStreamAudio()) {
-                    streamingOutput = true;
-                    rw = new StreamingOutputWriter(request, dataSocket.getOutputStream());
-                    rw.start();
-                }
-                
                 request.process();
             } catch (Throwable e) {
                 String message = "Processing failed.";
@@ -170,43 +205,32 @@ public class RequestHandler extends Thread {
                 clientLogError(message, e);
                 ok = false;
             }
+        if (!ok && streamingWriter != null) {
+            // let the streaming writer finish:
+            request.getAudio().doneAppending();
+        }
 
         // For simple clients, we need to close the infoSocket before sending
         // the data on dataSocket. Otherwise there may be deadlock.
-        try {
-            if (clientLogger != null) {
-                clientLogger.removeAllAppenders();
-                clientLogger = null;
-            }
-            infoSocket.close();
-        } catch (IOException e) {
-            logger.warn("Couldn't close info socket properly.", e);
-            ok = false;
-        }
+        finishInfo();
 
-        // Write output:
-        if (ok) {
-            if (!streamingOutput) {
+        // Write output; streaming output is written and closed by the streaming writer.
+        if (streamingWriter == null) {
+            if (ok) {
                 try {
-                    request.writeOutputData(dataSocket.getOutputStream());
+                    request.writeOutputData(dataOutput);
                 } catch (Exception e) {
                     String message = "Cannot write output, client seems to have disconnected.";
                     logger.warn(message, e);
                     ok = false;
                 }
-            } else { // streaming output
-                try {
-                    rw.join();
-                } catch (InterruptedException ie) {
-                    logger.warn(ie);
-                }
             }
-        }            
-        try {
-            dataSocket.close();
-        } catch (IOException e) {
-            logger.warn("Couldn't close data socket properly.", e);
-            ok = false;
+            try {
+                dataOutput.close();
+            } catch (IOException e) {
+                logger.warn("Couldn't close data socket properly.", e);
+                ok = false;
+            }
         }
         if (ok)
             logger.info("Request handled successfully.");
@@ -220,18 +244,17 @@ public class RequestHandler extends Thread {
 
     } // run()
 
-    public static class StreamingOutputWriter extends Thread
+    public static class StreamingOutputWriter implements Runnable
     {
         private Request request;
         private OutputStream output;
         private Logger logger;
         
-        public StreamingOutputWriter(Request request, OutputStream output) throws Exception
+        public StreamingOutputWriter(Request request, OutputStream output)
         {
             this.request = request;
             this.output = output;
-            this.setName("RW " + request.getId());
-            logger = MaryUtils.getLogger(this.getName());
+            logger = MaryUtils.getLogger("RW " + request.getId());
         }
         
         public void run()
@@ -239,11 +262,16 @@ public class RequestHandler extends Thread {
             try {
                 AudioSystem.write(request.getAudio(), request.getAudioFileFormat().getType(), output);
                 output.flush();
-                output.close();                
                 logger.info("Finished writing output");
             } catch (IOException ioe) {
                 logger.info("Cannot write output, client seems to have disconnected. ", ioe);
                 request.abort();
+            } finally {
+                try {
+                    output.close();
+                } catch (IOException ioe) {
+                    logger.warn("Couldn't close data socket properly.", ioe);
+                }
             }
         }
     }
@@ -332,8 +360,10 @@ public class RequestHandler extends Thread {
                 }
                 else if (binaryWriter!=null)
                 {
-                    while ((val=input.read())!=-1)
-                        binaryWriter.write((byte)val);
+                    byte[] buf = new byte[8192];
+                    int len;
+                    while ((len=input.read(buf))!=-1)
+                        binaryWriter.write(buf, 0, len);
                     
                     input.close(); 
                 }
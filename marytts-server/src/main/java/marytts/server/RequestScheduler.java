@@ -0,0 +1,347 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import marytts.util.MaryUtils;
+import marytts.util.concurrent.MaryThreadPool;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs requests on a bounded pool of worker threads, separate from the threads
+ * talking to the clients. At most <code>numThreads</code> requests are processed
+ * at the same time, and at most <code>queueCapacity</code> more wait for a worker;
+ * further requests are rejected immediately, so that the server can tell the client
+ * it is busy instead of piling up work.
+ * <p>
+ * Waiting requests are taken from the clients in turn, so that one client sending
+ * many requests does not hold up the others; optionally, the number of requests
+ * of a single client that are processed or waiting can be limited as well.
+ * <p>
+ * A request may come with a writer, which is run in parallel to the request,
+ * e.g. to send streaming audio to the client while it is being produced.
+ * The request counts against the limits until both have finished.
+ *
+ * @author marc
+ *
+ */
+public class RequestScheduler
+{
+    private Logger logger = MaryUtils.getLogger("RequestScheduler");
+
+    private final String name;
+    private final int numThreads;
+    private final int maxRequests;
+    private final int maxPerClient;
+    private final MaryThreadPool workers;
+    private final MaryThreadPool writers;
+
+    // guarded by this:
+    private final Map<String, Deque<Job>> waiting = new HashMap<String, Deque<Job>>();
+    private final Deque<String> clientTurns = new ArrayDeque<String>();
+    private final Map<String, Integer> perClient = new HashMap<String, Integer>();
+    private int numRequests = 0;
+
+    private final AtomicLong numAccepted = new AtomicLong(0);
+    private final AtomicLong numCompleted = new AtomicLong(0);
+    private final AtomicLong numRejectedBusy = new AtomicLong(0);
+    private final AtomicLong numRejectedClient = new AtomicLong(0);
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong(0);
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong(0);
+    private final AtomicLong totalProcessingNanos = new AtomicLong(0);
+
+    /**
+     * Create a scheduler configured by the MaryProperties <code>prefix.threads</code>,
+     * <code>prefix.queuesize</code> and <code>prefix.maxperclient</code>.
+     * @param name the name of the scheduler, used for its threads and in messages.
+     * @param prefix
+     * @return
+     */
+    public static RequestScheduler fromProperties(String name, String prefix)
+    {
+        return new RequestScheduler(name,
+                MaryThreadPool.threadsFromSetting(MaryProperties.getInteger(prefix+".threads", 0)),
+                MaryProperties.getInteger(prefix+".queuesize", 50),
+                MaryProperties.getInteger(prefix+".maxperclient", 0));
+    }
+
+    /**
+     * @param name the name of the scheduler, used for its threads and in messages.
+     * @param numThreads the maximum number of requests processed at the same time, must be positive.
+     * @param queueCapacity the maximum number of requests waiting for a worker thread.
+     * @param maxPerClient the maximum number of requests of one client processed or waiting at the same time,
+     * or 0 for no limit.
+     */
+    public RequestScheduler(String name, int numThreads, int queueCapacity, int maxPerClient)
+    {
+        if (numThreads < 1) throw new IllegalArgumentException("Need at least one thread, got "+numThreads);
+        if (queueCapacity < 0) throw new IllegalArgumentException("Negative queue capacity "+queueCapacity);
+        this.name = name;
+        this.numThreads = numThreads;
+        this.maxRequests = numThreads + queueCapacity;
+        this.maxPerClient = maxPerClient;
+        // Admission is controlled here, so the pools never need to reject anything;
+        // their queues leave room for threads that are just returning to the pool.
+        workers = new MaryThreadPool(name, numThreads, maxRequests);
+        writers = new MaryThreadPool(name+"Writer", maxRequests, maxRequests);
+        logger.info(name+": up to "+numThreads+" requests in parallel, up to "+queueCapacity+" waiting"
+                + (maxPerClient > 0 ? ", up to "+maxPerClient+" per client" : ""));
+    }
+
+    /**
+     * Schedule the given request.
+     * @param client an identifier of the client, such as its address.
+     * @param request
+     * @return true if the request was accepted, false if it was rejected because the server
+     * or the client has too many requests already.
+     */
+    public boolean submit(String client, Runnable request)
+    {
+        return submit(client, request, null);
+    }
+
+    /**
+     * Schedule the given request, and run the given writer in parallel.
+     * The writer is started right away, even if the request has to wait for a worker.
+     * @param client an identifier of the client, such as its address.
+     * @param request
+     * @param writer the writer, or null.
+     * @return true if the request was accepted, false if it was rejected because the server
+     * or the client has too many requests already.
+     */
+    public boolean submit(String client, Runnable request, Runnable writer)
+    {
+        Job job = new Job(client, request, writer);
+        synchronized (this) {
+            if (numRequests >= maxRequests) {
+                numRejectedBusy.incrementAndGet();
+                logger.info("Rejecting request from "+client+": "+this);
+                return false;
+            }
+            Integer clientRequests = perClient.get(client);
+            int n = clientRequests != null ? clientRequests : 0;
+            if (maxPerClient > 0 && n >= maxPerClient) {
+                numRejectedClient.incrementAndGet();
+                logger.info("Rejecting request from "+client+": "+n+" requests already");
+                return false;
+            }
+            numRequests++;
+            perClient.put(client, n+1);
+            Deque<Job> clientJobs = waiting.get(client);
+            if (clientJobs == null) {
+                clientJobs = new ArrayDeque<Job>();
+                waiting.put(client, clientJobs);
+                clientTurns.add(client);
+            }
+            clientJobs.add(job);
+        }
+        numAccepted.incrementAndGet();
+        if (writer != null) {
+            writers.execute(job.writerTask());
+        }
+        // each accepted job puts one turn into the pool, which runs whichever job is next:
+        workers.execute(new Runnable() {
+            public void run() {
+                runNext();
+            }
+        });
+        return true;
+    }
+
+    private void runNext()
+    {
+        Job job;
+        synchronized (this) {
+            String client = clientTurns.poll();
+            Deque<Job> clientJobs = waiting.get(client);
+            job = clientJobs.poll();
+            if (clientJobs.isEmpty()) {
+                waiting.remove(client);
+            } else {
+                clientTurns.add(client);
+            }
+        }
+        long start = System.nanoTime();
+        long waited = start - job.submitted;
+        totalQueueWaitNanos.addAndGet(waited);
+        long max;
+        while (waited > (max = maxQueueWaitNanos.get())) {
+            if (maxQueueWaitNanos.compareAndSet(max, waited)) break;
+        }
+        try {
+            job.request.run();
+        } catch (Throwable t) {
+            logger.error("Request from "+job.client+" failed", t);
+        } finally {
+            totalProcessingNanos.addAndGet(System.nanoTime() - start);
+            numCompleted.incrementAndGet();
+            job.partDone();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(toString());
+        }
+    }
+
+    private synchronized void release(String client)
+    {
+        numRequests--;
+        int n = perClient.get(client) - 1;
+        if (n == 0) {
+            perClient.remove(client);
+        } else {
+            perClient.put(client, n);
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * The number of requests currently processed or waiting, including those whose writer is still running.
+     */
+    public synchronized int getNumberOfRequests()
+    {
+        return numRequests;
+    }
+
+    public long getAcceptedCount()
+    {
+        return numAccepted.get();
+    }
+
+    public long getCompletedCount()
+    {
+        return numCompleted.get();
+    }
+
+    /**
+     * The number of requests rejected because the maximum number of requests was reached.
+     */
+    public long getRejectedBusyCount()
+    {
+        return numRejectedBusy.get();
+    }
+
+    /**
+     * The number of requests rejected because their client had the maximum number of requests.
+     */
+    public long getRejectedClientCount()
+    {
+        return numRejectedClient.get();
+    }
+
+    /**
+     * The average time requests waited for a worker, in milliseconds.
+     */
+    public double getMeanQueueWaitMillis()
+    {
+        long completed = numCompleted.get();
+        if (completed == 0) return 0;
+        return totalQueueWaitNanos.get() / 1.e6 / completed;
+    }
+
+    /**
+     * The longest time any request waited for a worker, in milliseconds.
+     */
+    public double getMaxQueueWaitMillis()
+    {
+        return maxQueueWaitNanos.get() / 1.e6;
+    }
+
+    /**
+     * The average time it took to process a request, in milliseconds.
+     */
+    public double getMeanProcessingMillis()
+    {
+        long completed = numCompleted.get();
+        if (completed == 0) return 0;
+        return totalProcessingNanos.get() / 1.e6 / completed;
+    }
+
+    /**
+     * Stop the worker threads once the accepted requests are done.
+     */
+    public void shutdown()
+    {
+        workers.shutdown();
+        writers.shutdown();
+    }
+
+    /**
+     * A one-line summary of the current state and statistics of this scheduler.
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("%s: %d/%d requests (%d threads), %d accepted, %d completed, "
+                + "%d rejected as busy, %d rejected per client, queue wait mean %.1f ms max %.1f ms, processing mean %.1f ms",
+                name, getNumberOfRequests(), maxRequests, numThreads, getAcceptedCount(), getCompletedCount(),
+                getRejectedBusyCount(), getRejectedClientCount(),
+                getMeanQueueWaitMillis(), getMaxQueueWaitMillis(), getMeanProcessingMillis());
+    }
+
+    private class Job
+    {
+        final String client;
+        final Runnable request;
+        final Runnable writer;
+        final long submitted = System.nanoTime();
+        private final AtomicInteger partsLeft;
+
+        Job(String client, Runnable request, Runnable writer)
+        {
+            this.client = client;
+            this.request = request;
+            this.writer = writer;
+            partsLeft = new AtomicInteger(writer != null ? 2 : 1);
+        }
+
+        Runnable writerTask()
+        {
+            return new Runnable() {
+                public void run() {
+                    try {
+                        writer.run();
+                    } catch (Throwable t) {
+                        logger.error("Writer for request from "+client+" failed", t);
+                    } finally {
+                        partDone();
+                    }
+                }
+            };
+        }
+
+        void partDone()
+        {
+            if (partsLeft.decrementAndGet() == 0) {
+                release(client);
+            }
+        }
+    }
+}
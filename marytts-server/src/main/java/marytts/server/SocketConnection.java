@@ -0,0 +1,256 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * A non-blocking client connection of the {@link MaryServer}.
+ * Reading is done by the selector thread only. Output can be queued from any thread;
+ * the selector thread sends it with gathering writes whenever the channel is writable.
+ * Worker threads write through {@link #getOutputStream()}, which blocks while
+ * a lot of output is waiting for a slow client, so that memory use stays bounded.
+ *
+ * @author marc
+ *
+ */
+class SocketConnection
+{
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int OUTPUT_CHUNK_SIZE = 16384;
+    private static final int MAX_BUFFERS_PER_WRITE = 64;
+    private static final int MAX_QUEUED_BYTES = 1 << 20;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final Executor selectorThread;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    // guarded by this:
+    private final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+    private long queuedBytes = 0;
+    private boolean writeScheduled = false;
+    private boolean closeRequested = false;
+    private boolean closed = false;
+
+    private final Runnable enableWrite = new Runnable() {
+        public void run() {
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+    };
+
+    /**
+     * @param channel a connected channel in non-blocking mode
+     * @param key the key of the channel with the selector
+     * @param selectorThread executes tasks in the selector thread, which must be woken up for them
+     */
+    SocketConnection(SocketChannel channel, SelectionKey key, Executor selectorThread)
+    {
+        this.channel = channel;
+        this.key = key;
+        this.selectorThread = selectorThread;
+    }
+
+    InetAddress getInetAddress()
+    {
+        return channel.socket().getInetAddress();
+    }
+
+    /**
+     * Read what is available. Must be called in the selector thread.
+     * @return a buffer with the bytes read, ready for reading,
+     * valid until the next call; or null at the end of the input.
+     * @throws IOException
+     */
+    ByteBuffer read() throws IOException
+    {
+        readBuffer.clear();
+        if (channel.read(readBuffer) < 0) {
+            return null;
+        }
+        readBuffer.flip();
+        return readBuffer;
+    }
+
+    /**
+     * Stop reading from the client, e.g. at the end of its input. Must be called in the selector thread.
+     */
+    void stopReading()
+    {
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Queue the given bytes for sending without waiting.
+     * @param bytes the bytes, which must not be modified afterwards.
+     */
+    synchronized void send(byte[] bytes)
+    {
+        if (closeRequested || bytes.length == 0) {
+            return;
+        }
+        enqueue(ByteBuffer.wrap(bytes));
+    }
+
+    private void enqueue(ByteBuffer buffer)
+    {
+        assert Thread.holdsLock(this);
+        output.add(buffer);
+        queuedBytes += buffer.remaining();
+        scheduleWrite();
+    }
+
+    private void scheduleWrite()
+    {
+        if (!writeScheduled) {
+            writeScheduled = true;
+            selectorThread.execute(enableWrite);
+        }
+    }
+
+    /**
+     * Queue a copy of the given bytes, waiting while too much output is queued already.
+     * @throws IOException if the connection is closed or closing.
+     */
+    private synchronized void sendBlocking(byte[] b, int off, int len) throws IOException
+    {
+        while (queuedBytes > MAX_QUEUED_BYTES && !closeRequested) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting for client to read");
+            }
+        }
+        if (closeRequested) {
+            throw new IOException("Connection closed");
+        }
+        byte[] copy = new byte[len];
+        System.arraycopy(b, off, copy, 0, len);
+        enqueue(ByteBuffer.wrap(copy));
+    }
+
+    /**
+     * Send as much of the queued output as the channel takes. Must be called in the selector thread
+     * when the channel is writable.
+     * @throws IOException
+     */
+    synchronized void writeQueued() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        if (!output.isEmpty()) {
+            ByteBuffer[] buffers = new ByteBuffer[Math.min(output.size(), MAX_BUFFERS_PER_WRITE)];
+            int i = 0;
+            for (ByteBuffer b : output) {
+                if (i == buffers.length) break;
+                buffers[i++] = b;
+            }
+            long written = channel.write(buffers);
+            queuedBytes -= written;
+            while (!output.isEmpty() && !output.peek().hasRemaining()) {
+                output.poll();
+            }
+            notifyAll();
+        }
+        if (output.isEmpty()) {
+            writeScheduled = false;
+            if (closeRequested) {
+                close();
+            } else if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * Close the connection as soon as all queued output has been sent.
+     */
+    synchronized void closeWhenWritten()
+    {
+        closeRequested = true;
+        notifyAll();
+        scheduleWrite();
+    }
+
+    /**
+     * Close the connection right away, dropping any queued output.
+     */
+    synchronized void close()
+    {
+        closeRequested = true;
+        if (closed) {
+            return;
+        }
+        closed = true;
+        output.clear();
+        queuedBytes = 0;
+        notifyAll();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing we can do
+        }
+    }
+
+    synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * A buffered stream for writing to the client from threads other than the selector thread.
+     * Writing blocks while a lot of output is waiting to be sent; closing the stream
+     * closes the connection once everything has been sent.
+     */
+    OutputStream getOutputStream()
+    {
+        return new BufferedOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (len > 0) {
+                    sendBlocking(b, off, len);
+                }
+            }
+
+            @Override
+            public void close() {
+                closeWhenWritten();
+            }
+        }, OUTPUT_CHUNK_SIZE);
+    }
+}
@@ -19,10 +19,12 @@
  */
 package marytts.server.http;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -52,19 +54,18 @@ import marytts.util.string.StringUtils;
 import marytts.vocalizations.VocalizationSynthesizer;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.MethodNotSupportedException;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.nio.ContentDecoder;
-import org.apache.http.nio.ContentDecoderChannel;
-import org.apache.http.nio.FileContentDecoder;
 import org.apache.http.nio.IOControl;
 import org.apache.http.nio.entity.ConsumingNHttpEntity;
-import org.apache.http.nio.entity.ConsumingNHttpEntityTemplate;
-import org.apache.http.nio.entity.ContentListener;
-import org.apache.http.nio.protocol.SimpleNHttpRequestHandler;
+import org.apache.http.nio.protocol.NHttpRequestHandler;
+import org.apache.http.nio.protocol.NHttpResponseTrigger;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpRequestHandler;
 import org.apache.http.util.EntityUtils;
@@ -75,20 +76,22 @@ import org.apache.log4j.Logger;
  * 
  * @author Oytun T&uuml;rk, Marc Schröder
  */
-public abstract class BaseHttpRequestHandler extends SimpleNHttpRequestHandler implements HttpRequestHandler  
+public abstract class BaseHttpRequestHandler implements NHttpRequestHandler, HttpRequestHandler  
 {
-    private final boolean useFileChannels = true;
-    
+    /** the default maximum size of a request body, in bytes */
+    public static final int DEFAULT_MAX_ENTITY_SIZE = 1000000;
+
     protected static Logger logger;
     private int runningNumber = 1;
     private Map<String,Object[]> requestMap;
+    private int maxEntitySize;
 
     public BaseHttpRequestHandler()
     {
         super();
         logger = MaryUtils.getLogger("server");
         requestMap = Collections.synchronizedMap(new HashMap<String, Object[]>());
-
+        maxEntitySize = MaryProperties.getInteger("server.http.maxrequestsize", DEFAULT_MAX_ENTITY_SIZE);
     }
     
 
@@ -98,6 +101,18 @@ public abstract class BaseHttpRequestHandler extends SimpleNHttpRequestHandler i
      */
     public void handle(final HttpRequest request, final HttpResponse response, final HttpContext context)
     throws HttpException, IOException
+    {
+        handle(request, response, null, context);
+    }
+
+    /**
+     * The entry point of all requests from the MaryHttpServer.
+     * The response is sent to the client when it is submitted to the trigger,
+     * which may be after this method returns.
+     */
+    public void handle(final HttpRequest request, final HttpResponse response, final NHttpResponseTrigger trigger,
+            final HttpContext context)
+    throws HttpException, IOException
     {
         try {
             Header[] tmp = request.getHeaders("Host");
@@ -109,6 +124,17 @@ public abstract class BaseHttpRequestHandler extends SimpleNHttpRequestHandler i
                 throw new MethodNotSupportedException(method + " method not supported");
             }
 
+            if (request instanceof HttpEntityEnclosingRequest) {
+                HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+                if (entity instanceof LimitedBufferingNHttpEntity && ((LimitedBufferingNHttpEntity) entity).isTooLarge()) {
+                    MaryHttpServerUtils.errorRequestEntityTooLarge(response, maxEntitySize);
+                    if (trigger != null) {
+                        trigger.submitResponse(response);
+                    }
+                    return;
+                }
+            }
+
             String absPath = null;
             String query = null;
             if (uri != null && uri.length()>0) {
@@ -141,11 +167,38 @@ public abstract class BaseHttpRequestHandler extends SimpleNHttpRequestHandler i
             }
 
             //Parse request and create appropriate response
-            handleClientRequest(absPath, queryItems, response, serverAddressAtClient);
-
+            handleClientRequest(absPath, queryItems, response, serverAddressAtClient, context, trigger);
+            return;
         } catch (RuntimeException re) {
             logger.warn("runtime exception in handle():", re);
         }
+        if (trigger != null) {
+            trigger.submitResponse(response);
+        }
+    }
+
+    /**
+     * Create the response to the given request, and submit it to the trigger, if any.
+     * This calls {@link #handleClientRequest(String, Map, HttpResponse, Address)}
+     * and submits the response right away; subclasses which take longer to respond
+     * can override this to submit the response later, from a different thread.
+     * @param absPath
+     * @param queryItems
+     * @param response
+     * @param serverAddressAtClient
+     * @param context the context of the HTTP connection
+     * @param trigger the trigger to submit the response to, or null if the response is sent
+     * when this method returns.
+     * @throws IOException
+     */
+    protected void handleClientRequest(String absPath, Map<String,String> queryItems, HttpResponse response, Address serverAddressAtClient,
+            HttpContext context, NHttpResponseTrigger trigger)
+    throws IOException
+    {
+        handleClientRequest(absPath, queryItems, response, serverAddressAtClient);
+        if (trigger != null) {
+            trigger.submitResponse(response);
+        }
     }
 
     protected abstract void handleClientRequest(String absPath, Map<String,String> queryItems, HttpResponse response, Address serverAddressAtClient)
@@ -165,12 +218,18 @@ public abstract class BaseHttpRequestHandler extends SimpleNHttpRequestHandler i
     
 
     
+    /**
+     * Buffer the body of POST requests in memory, so that the query can be read from it.
+     * Bodies larger than the property <code>server.http.maxrequestsize</code> (in bytes)
+     * are skipped rather than buffered, and the request is answered with
+     * "413 Request Entity Too Large".
+     */
     public ConsumingNHttpEntity entityRequest(
             final HttpEntityEnclosingRequest request,
             final HttpContext context) throws HttpException, IOException {
-        return new ConsumingNHttpEntityTemplate(
+        return new LimitedBufferingNHttpEntity(
                 request.getEntity(),
-                new FileWriteListener(useFileChannels));
+                maxEntitySize);
     }
     
     
@@ -206,42 +265,86 @@ public abstract class BaseHttpRequestHandler extends SimpleNHttpRequestHandler i
     
     
     
-    static class FileWriteListener implements ContentListener {
-        private final File file;
-        private final FileInputStream inputFile;
-        private final FileChannel fileChannel;
-        private final boolean useFileChannels;
-        private long idx = 0;
+    /**
+     * Buffers an entity in memory up to a maximum size; the content of larger
+     * entities is read and discarded.
+     */
+    static class LimitedBufferingNHttpEntity extends HttpEntityWrapper implements ConsumingNHttpEntity {
+        private final int maxSize;
+        private final ByteBuffer chunk = ByteBuffer.allocate(2048);
+        private ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private boolean tooLarge = false;
+
+        public LimitedBufferingNHttpEntity(HttpEntity entity, int maxSize) {
+            super(entity);
+            this.maxSize = maxSize;
+            if (entity.getContentLength() > maxSize) {
+                setTooLarge();
+            }
+        }
+
+        private void setTooLarge() {
+            tooLarge = true;
+            content = null;
+        }
+
+        /**
+         * Whether the entity is larger than the maximum size, so that its content is not available.
+         */
+        public boolean isTooLarge() {
+            return tooLarge;
+        }
 
-        public FileWriteListener(boolean useFileChannels) throws IOException {
-            this.file = File.createTempFile("tmp", ".tmp", null);
-            this.inputFile = new FileInputStream(file);
-            this.fileChannel = inputFile.getChannel();
-            this.useFileChannels = useFileChannels;
+        public void consumeContent(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+            int read;
+            do {
+                chunk.clear();
+                read = decoder.read(chunk);
+                if (read > 0 && !tooLarge) {
+                    if (content.size() + read > maxSize) {
+                        setTooLarge();
+                    } else {
+                        content.write(chunk.array(), 0, read);
+                    }
+                }
+            } while (read > 0);
+        }
+
+        public void finish() {
+            content = null;
         }
 
-        public void contentAvailable(ContentDecoder decoder, IOControl ioctrl)
-                throws IOException {
-            long transferred;
-            if(useFileChannels && decoder instanceof FileContentDecoder) {
-                transferred = ((FileContentDecoder) decoder).transfer(
-                        fileChannel, idx, Long.MAX_VALUE);
-            } else {
-                transferred = fileChannel.transferFrom(
-                        new ContentDecoderChannel(decoder), idx, Long.MAX_VALUE);
+        @Override
+        public InputStream getContent() throws IOException {
+            if (content == null) {
+                throw new IOException(tooLarge ? "Entity larger than "+maxSize+" bytes" : "Entity already finished");
             }
+            return new ByteArrayInputStream(content.toByteArray());
+        }
+
+        @Override
+        public long getContentLength() {
+            return content != null ? content.size() : -1;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
 
-            if(transferred > 0)
-                idx += transferred;
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(EntityUtils.toByteArray(this));
         }
 
-        public void finished() {
-            try {
-                inputFile.close();
-            } catch(IOException ignored) {}
-            try {
-                fileChannel.close();
-            } catch(IOException ignored) {}
+        @Override
+        @Deprecated
+        public void consumeContent() throws IOException {
         }
     }
 
@@ -26,6 +26,7 @@ import java.util.Map;
 
 import marytts.features.FeatureProcessorManager;
 import marytts.features.FeatureRegistry;
+import marytts.modules.ModuleRegistry;
 import marytts.modules.synthesis.Voice;
 import marytts.util.MaryRuntimeUtils;
 import marytts.util.MaryUtils;
@@ -84,6 +85,7 @@ public class InfoRequestHandler extends BaseHttpRequestHandler
         else if (request.equals("locales")) return MaryRuntimeUtils.getLocales();
         else if (request.equals("voices")) return MaryRuntimeUtils.getVoices();
         else if (request.equals("audioformats")) return MaryRuntimeUtils.getAudioFileFormatTypes();
+        else if (request.equals("routes")) return ModuleRegistry.getRoutingTable();
         else if (request.equals("exampletext")) {
             if (queryItems != null) {
                 // Voice example text
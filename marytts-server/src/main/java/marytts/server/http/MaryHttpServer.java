@@ -23,7 +23,9 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 
+import marytts.htsengine.HTSVocoder;
 import marytts.server.MaryProperties;
+import marytts.server.RequestScheduler;
 import marytts.util.MaryUtils;
 
 import org.apache.http.HttpException;
@@ -32,8 +34,9 @@ import org.apache.http.impl.DefaultHttpResponseFactory;
 import org.apache.http.impl.nio.DefaultServerIOEventDispatch;
 import org.apache.http.impl.nio.reactor.DefaultListeningIOReactor;
 import org.apache.http.nio.NHttpConnection;
-import org.apache.http.nio.protocol.BufferingHttpServiceHandler;
+import org.apache.http.nio.protocol.AsyncNHttpServiceHandler;
 import org.apache.http.nio.protocol.EventListener;
+import org.apache.http.nio.protocol.NHttpRequestHandlerRegistry;
 import org.apache.http.nio.reactor.IOEventDispatch;
 import org.apache.http.nio.reactor.ListeningIOReactor;
 import org.apache.http.params.BasicHttpParams;
@@ -42,7 +45,6 @@ import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.BasicHttpProcessor;
 import org.apache.http.protocol.ExecutionContext;
-import org.apache.http.protocol.HttpRequestHandlerRegistry;
 import org.apache.http.protocol.ResponseConnControl;
 import org.apache.http.protocol.ResponseContent;
 import org.apache.http.protocol.ResponseDate;
@@ -150,6 +152,8 @@ public class MaryHttpServer extends Thread
     
     private boolean isReady = false;
 
+    private RequestScheduler scheduler;
+
     public MaryHttpServer() {
         logger = MaryUtils.getLogger("server");
     }
@@ -157,6 +161,14 @@ public class MaryHttpServer extends Thread
     public boolean isReady() {
     	return isReady;
     }
+
+    /**
+     * The scheduler on which synthesis requests are processed, with its statistics.
+     * @return the scheduler, or null if the server has not been started yet.
+     */
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
     
 
     public void run()
@@ -179,15 +191,19 @@ public class MaryHttpServer extends Thread
         httpproc.addInterceptor(new ResponseContent());
         httpproc.addInterceptor(new ResponseConnControl());
 
-        BufferingHttpServiceHandler handler = new BufferingHttpServiceHandler(
+        // Request handlers submit their responses asynchronously, so that synthesis requests
+        // can be processed on the scheduler's worker threads without blocking the I/O threads:
+        AsyncNHttpServiceHandler handler = new AsyncNHttpServiceHandler(
                 httpproc,
                 new DefaultHttpResponseFactory(),
                 new DefaultConnectionReuseStrategy(),
                 params);
 
+        scheduler = RequestScheduler.fromProperties("Synthesis", "server.synthesis");
+
         // Set up request handlers
-        HttpRequestHandlerRegistry registry = new HttpRequestHandlerRegistry();
-        registry.register("/process", new SynthesisRequestHandler());
+        NHttpRequestHandlerRegistry registry = new NHttpRequestHandlerRegistry();
+        registry.register("/process", new SynthesisRequestHandler(scheduler));
         InfoRequestHandler infoRH = new InfoRequestHandler();
         registry.register("/version", infoRH);
         registry.register("/datatypes", infoRH);
@@ -228,6 +244,11 @@ public class MaryHttpServer extends Thread
         } catch (IOException e) {
             logger.info("Problem with HTTP connection", e);
         }
+        scheduler.shutdown();
+        logger.info(scheduler.toString());
+        if (HTSVocoder.getFirstAudioCount() > 0) {
+            logger.info(HTSVocoder.getFirstAudioStatistics());
+        }
         logger.debug("Shutdown");
     }
     
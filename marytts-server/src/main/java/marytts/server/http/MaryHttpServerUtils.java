@@ -207,6 +207,41 @@ public class MaryHttpServerUtils
         } catch (UnsupportedEncodingException e){}
     }
     
+    /**
+     * Tell the client that the server is too busy to handle the request now.
+     * @param response
+     * @param message
+     */
+    public static void errorServiceUnavailable(HttpResponse response, String message)
+    {
+        int status = HttpStatus.SC_SERVICE_UNAVAILABLE;
+        response.setStatusCode(status);
+        response.setHeader("Retry-After", "1");
+        logger.debug("Returning HTTP status "+status+": "+message);
+        try {
+            NStringEntity entity = new NStringEntity(
+                    "<html><body><h1>Service unavailable</h1><p>"+message+
+                    "</p></body></html>", "UTF-8");
+            entity.setContentType("text/html; charset=UTF-8");
+            response.setEntity(entity);
+        } catch (UnsupportedEncodingException e){}
+    }
+
+    public static void errorRequestEntityTooLarge(HttpResponse response, int maxSize)
+    {
+        int status = HttpStatus.SC_REQUEST_TOO_LONG;
+        response.setStatusCode(status);
+        String message = "Request body must not be larger than " + maxSize + " bytes";
+        logger.debug("Returning HTTP status "+status+": "+message);
+        try {
+            NStringEntity entity = new NStringEntity(
+                    "<html><body><h1>Request entity too large</h1><p>"+message+
+                    ".</p></body></html>", "UTF-8");
+            entity.setContentType("text/html; charset=UTF-8");
+            response.setEntity(entity);
+        } catch (UnsupportedEncodingException e){}
+    }
+
     public static void errorMissingQueryParameter(HttpResponse response, String param)
     {
         int status = HttpStatus.SC_BAD_REQUEST;
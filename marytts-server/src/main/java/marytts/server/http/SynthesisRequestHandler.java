@@ -23,6 +23,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.net.InetAddress;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
@@ -37,6 +38,7 @@ import javax.sound.sampled.AudioSystem;
 import marytts.datatypes.MaryDataType;
 import marytts.modules.synthesis.Voice;
 import marytts.server.Request;
+import marytts.server.RequestScheduler;
 import marytts.server.RequestHandler.StreamingOutputPiper;
 import marytts.server.RequestHandler.StreamingOutputWriter;
 import marytts.util.MaryRuntimeUtils;
@@ -44,8 +46,12 @@ import marytts.util.MaryUtils;
 import marytts.util.data.audio.MaryAudioUtils;
 import marytts.util.http.Address;
 
+import org.apache.http.HttpInetConnection;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.nio.protocol.NHttpResponseTrigger;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
 import org.apache.log4j.Logger;
 
 /**
@@ -69,9 +75,15 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler
     private PipedOutputStream pipedOutput;
     private PipedInputStream pipedInput;
     
-    public SynthesisRequestHandler()
+    private final RequestScheduler scheduler;
+
+    /**
+     * @param scheduler the scheduler on which synthesis requests are processed
+     */
+    public SynthesisRequestHandler(RequestScheduler scheduler)
     {
         super();
+        this.scheduler = scheduler;
 
         outputToStream = null;
         streamToPipe = null;
@@ -99,11 +111,174 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler
 
     }
 
-    
-    
-    
-    
+    /**
+     * Process the request on the scheduler's worker threads, and submit the response to the trigger
+     * when it is ready; if the scheduler is saturated, respond right away with "service unavailable".
+     */
+    @Override
+    protected void handleClientRequest(String absPath, Map<String,String> queryItems, HttpResponse response, Address serverAddressAtClient,
+            HttpContext context, NHttpResponseTrigger trigger)
+    throws IOException
+    {
+        if (trigger == null) {
+            handleClientRequest(absPath, queryItems, response, serverAddressAtClient);
+            return;
+        }
+        logger.debug("New synthesis request: "+absPath);
+        if (queryItems != null) {
+            for (String key : queryItems.keySet()) {
+                logger.debug("    "+key+"="+queryItems.get(key));
+            }
+        }
+        Request maryRequest = createRequest(queryItems, response);
+        if (maryRequest == null) {
+            trigger.submitResponse(response);
+        } else if (maryRequest.getStreamAudio()) {
+            startStreaming(maryRequest, getClient(context), response);
+            trigger.submitResponse(response);
+        } else {
+            Runnable task = processingTask(maryRequest, response, trigger);
+            if (!scheduler.submit(getClient(context), task)) {
+                MaryHttpServerUtils.errorServiceUnavailable(response, "Too many synthesis requests, please try again later.");
+                trigger.submitResponse(response);
+            }
+        }
+    }
+
+    /**
+     * Synchronously process the request, and fill in the response.
+     * For streaming audio, the request is scheduled and the response streams the audio as it becomes available.
+     * @param serverAddressAtClient
+     * @param queryItems
+     * @param response
+     */
     public void process(Address serverAddressAtClient, Map<String, String> queryItems, HttpResponse response)
+    {
+        Request maryRequest = createRequest(queryItems, response);
+        if (maryRequest == null) {
+            logger.info("Request couldn't be handled successfully.");
+        } else if (maryRequest.getStreamAudio()) {
+            startStreaming(maryRequest, null, response);
+        } else {
+            processingTask(maryRequest, response, null).run();
+        }
+    }
+
+    /**
+     * Identify the client by the address it connects from.
+     * @param context the HTTP connection context, or null.
+     * @return the client's address, or "unknown".
+     */
+    private String getClient(HttpContext context)
+    {
+        Object conn = context != null ? context.getAttribute(ExecutionContext.HTTP_CONNECTION) : null;
+        if (conn instanceof HttpInetConnection) {
+            InetAddress address = ((HttpInetConnection) conn).getRemoteAddress();
+            if (address != null) {
+                return address.getHostAddress();
+            }
+        }
+        return "unknown";
+    }
+
+    /**
+     * Schedule the processing of a streaming request, together with an entity writing the audio into the response.
+     */
+    private void startStreaming(final Request maryRequest, String client, HttpResponse response)
+    {
+        Runnable processing = new Runnable() {
+            public void run() 
+            {
+                try {
+                    maryRequest.process();
+                    logger.info("Streaming request "+maryRequest.getId()+" processed successfully.");
+                } catch (Throwable t) {
+                    logger.error("Processing of streaming request "+maryRequest.getId()+" failed.", t);
+                }
+                checkMemory();
+            }
+        };
+        // The entity takes the audio data as it becomes available and writes it into the response.
+        // It does not depend on the processing practically,
+        // because the AppendableSequenceAudioInputStream returned by
+        // maryRequest.getAudio() was already created in the constructor of Request.
+        AudioInputStream audio = maryRequest.getAudio();
+        assert audio != null : "Streaming audio but no audio stream -- very strange indeed! :-(";
+        AudioStreamNHttpEntity entity = new AudioStreamNHttpEntity(maryRequest);
+        if (!scheduler.submit(client != null ? client : "unknown", processing, entity)) {
+            MaryHttpServerUtils.errorServiceUnavailable(response, "Too many synthesis requests, please try again later.");
+            return;
+        }
+        // entity knows its contentType, no need to set explicitly here.
+        response.setEntity(entity);
+        response.setStatusCode(HttpStatus.SC_OK);
+    }
+
+    /**
+     * Create a task processing the given non-streaming request, writing the result into the response
+     * and submitting it to the trigger, if any.
+     */
+    private Runnable processingTask(final Request maryRequest, final HttpResponse response, final NHttpResponseTrigger trigger)
+    {
+        return new Runnable() {
+            public void run()
+            {
+                boolean ok = true;
+                // Process input data to output data
+                try {
+                    maryRequest.process(); // this may take some time
+                } catch (Throwable e) {
+                    String message = "Processing failed.";
+                    logger.error(message, e);
+                    MaryHttpServerUtils.errorInternalServerError(response, message, e);
+                    ok = false;
+                }
+                if (ok) {
+                    // Write output data to client
+                    try {
+                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                        maryRequest.writeOutputData(outputStream);
+                        String contentType;
+                        if (maryRequest.getOutputType().isXMLType() || maryRequest.getOutputType().isTextType()) //text output
+                            contentType = "text/plain; charset=UTF-8";
+                        else //audio output
+                            contentType = MaryHttpServerUtils.getMimeType(maryRequest.getAudioFileFormat().getType());
+                        MaryHttpServerUtils.toHttpResponse(outputStream.toByteArray(), response, contentType);
+                    } catch (Exception e) {
+                        String message = "Cannot write output";
+                        logger.warn(message, e);
+                        MaryHttpServerUtils.errorInternalServerError(response, message, e);
+                        ok = false;
+                    } 
+                }
+                if (trigger != null) {
+                    trigger.submitResponse(response);
+                }
+                if (ok)
+                    logger.info("Request handled successfully.");
+                else
+                    logger.info("Request couldn't be handled successfully.");
+                checkMemory();
+            }
+        };
+    }
+
+    private void checkMemory()
+    {
+        if (MaryRuntimeUtils.lowMemoryCondition()) {
+            logger.info("Low memory condition detected (only " + MaryUtils.availableMemory() + " bytes left). Triggering garbage collection.");
+            Runtime.getRuntime().gc();
+            logger.info("After garbage collection: " + MaryUtils.availableMemory() + " bytes available.");
+        }
+    }
+
+    /**
+     * Parse the query and create the request, with its input data set.
+     * @param queryItems
+     * @param response
+     * @return the request, or null if the query is not valid; in that case, the response contains an error.
+     */
+    private Request createRequest(Map<String, String> queryItems, HttpResponse response)
     {
         if (queryItems == null || !(
                 queryItems.containsKey("INPUT_TYPE") 
@@ -112,7 +287,7 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler
                 && queryItems.containsKey("INPUT_TEXT")
                 )) {
             MaryHttpServerUtils.errorMissingQueryParameter(response, "'INPUT_TEXT' and 'INPUT_TYPE' and 'OUTPUT_TYPE' and 'LOCALE'");
-            return;
+            return null;
         }
         
         String inputText = queryItems.get("INPUT_TEXT");
@@ -120,13 +295,13 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler
         MaryDataType inputType = MaryDataType.get(queryItems.get("INPUT_TYPE"));
         if (inputType == null) {
             MaryHttpServerUtils.errorWrongQueryParameterValue(response, "INPUT_TYPE", queryItems.get("INPUT_TYPE"), null);
-            return;
+            return null;
         }
 
         MaryDataType outputType = MaryDataType.get(queryItems.get("OUTPUT_TYPE"));
         if (outputType == null) {
             MaryHttpServerUtils.errorWrongQueryParameterValue(response, "OUTPUT_TYPE", queryItems.get("OUTPUT_TYPE"), null);
-            return;
+            return null;
         }
         boolean isOutputText = true;
         boolean streamingAudio = false;
@@ -136,7 +311,7 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler
             String audioTypeName = queryItems.get("AUDIO");
             if (audioTypeName == null) {
                 MaryHttpServerUtils.errorMissingQueryParameter(response, "'AUDIO' when OUTPUT_TYPE=AUDIO");
-                return;
+                return null;
             }
             if (audioTypeName.endsWith("_STREAM")) {
                 streamingAudio = true;
@@ -150,14 +325,14 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler
             } catch (Exception ex) {}
             if (audioFileFormatType == null) {
                 MaryHttpServerUtils.errorWrongQueryParameterValue(response, "AUDIO", queryItems.get("AUDIO"), null);
-                return;
+                return null;
             } else if (audioFileFormatType.toString().equals("MP3") && !MaryRuntimeUtils.canCreateMP3()) { 
                 MaryHttpServerUtils.errorWrongQueryParameterValue(response, "AUDIO", queryItems.get("AUDIO"), "Conversion to MP3 not supported.");
-                return;
+                return null;
             } 
             else if (audioFileFormatType.toString().equals("Vorbis") && !MaryRuntimeUtils.canCreateOgg()) {
                 MaryHttpServerUtils.errorWrongQueryParameterValue(response, "AUDIO", queryItems.get("AUDIO"), "Conversion to OGG Vorbis format not supported.");
-                return;
+                return null;
             }
         }
         // optionally, there may be output type parameters
@@ -167,7 +342,7 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler
         Locale locale = MaryUtils.string2locale(queryItems.get("LOCALE"));
         if (locale == null) {
             MaryHttpServerUtils.errorWrongQueryParameterValue(response, "LOCALE", queryItems.get("LOCALE"), null);
-            return;
+            return null;
         }
         
         Voice voice = null;
@@ -181,7 +356,7 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler
             if (voice == null) {
                 // a voice name was given but there is no such voice
                 MaryHttpServerUtils.errorWrongQueryParameterValue(response, "VOICE", queryItems.get("VOICE"), null);
-                return;
+                return null;
             }
         }
         if (voice == null) { // no voice tag -- use locale default if it exists.
@@ -224,8 +399,6 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler
         
         final Request maryRequest = new Request(inputType, outputType, locale, voice, effects, style, getId(), audioFileFormat, streamingAudio, outputTypeParams);
         
-        // Process the request and send back the data
-        boolean ok = true;
         try {
             maryRequest.setInputData(inputText);
             logger.info("Read: "+inputText);
@@ -233,80 +406,9 @@ public class SynthesisRequestHandler extends BaseHttpRequestHandler
             String message = "Problem reading input";
             logger.warn(message, e);
             MaryHttpServerUtils.errorInternalServerError(response, message, e);
-            ok = false;
-        }
-        if (ok) {
-            if (streamingAudio) {
-                // Start two separate threads:
-                // 1. one thread to process the request;
-                new Thread("RH "+maryRequest.getId()) {
-                    public void run() 
-                    {
-                        Logger myLogger = MaryUtils.getLogger(this.getName());
-                        try {
-                            maryRequest.process();
-                            myLogger.info("Streaming request processed successfully.");
-                        } catch (Throwable t) {
-                            myLogger.error("Processing failed.", t);
-                        }
-                    }
-                }.start();
-                
-                // 2. one thread to take the audio data as it becomes available
-                //    and write it into the ProducingNHttpEntity.
-                // The second one does not depend on the first one practically,
-                // because the AppendableSequenceAudioInputStream returned by
-                // maryRequest.getAudio() was already created in the constructor of Request.
-                AudioInputStream audio = maryRequest.getAudio();
-                assert audio != null : "Streaming audio but no audio stream -- very strange indeed! :-(";
-                AudioFileFormat.Type audioType = maryRequest.getAudioFileFormat().getType();
-                AudioStreamNHttpEntity entity = new AudioStreamNHttpEntity(maryRequest);
-                new Thread(entity, "HTTPWriter "+maryRequest.getId()).start();
-                // entity knows its contentType, no need to set explicitly here.
-                response.setEntity(entity);
-                response.setStatusCode(HttpStatus.SC_OK);
-                return;
-            } else { // not streaming audio
-                // Process input data to output data
-                try {
-                    maryRequest.process(); // this may take some time
-                } catch (Throwable e) {
-                    String message = "Processing failed.";
-                    logger.error(message, e);
-                    MaryHttpServerUtils.errorInternalServerError(response, message, e);
-                    ok = false;
-                }
-                if (ok) {
-                    // Write output data to client
-                    try {
-                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                        maryRequest.writeOutputData(outputStream);
-                        String contentType;
-                        if (maryRequest.getOutputType().isXMLType() || maryRequest.getOutputType().isTextType()) //text output
-                            contentType = "text/plain; charset=UTF-8";
-                        else //audio output
-                            contentType = MaryHttpServerUtils.getMimeType(maryRequest.getAudioFileFormat().getType());
-                        MaryHttpServerUtils.toHttpResponse(outputStream.toByteArray(), response, contentType);
-                    } catch (Exception e) {
-                        String message = "Cannot write output";
-                        logger.warn(message, e);
-                        MaryHttpServerUtils.errorInternalServerError(response, message, e);
-                        ok = false;
-                    } 
-                }
-            }
-        }
-
-       
-        if (ok)
-            logger.info("Request handled successfully.");
-        else
-            logger.info("Request couldn't be handled successfully.");
-        if (MaryRuntimeUtils.lowMemoryCondition()) {
-            logger.info("Low memory condition detected (only " + MaryUtils.availableMemory() + " bytes left). Triggering garbage collection.");
-            Runtime.getRuntime().gc();
-            logger.info("After garbage collection: " + MaryUtils.availableMemory() + " bytes available.");
+            return null;
         }
+        return maryRequest;
     }
 
 
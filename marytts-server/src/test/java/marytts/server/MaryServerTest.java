@@ -0,0 +1,139 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the parts of the socket protocol that do not need a running MARY system.
+ * @author marc
+ *
+ */
+public class MaryServerTest {
+    private MaryServer server;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        ServerSocket s = new ServerSocket(0);
+        port = s.getLocalPort();
+        s.close();
+        server = new MaryServer(port, new RequestScheduler("test", 1, 1, 0));
+        Thread t = new Thread(server, "MaryServerTest");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    private Socket connect() throws Exception {
+        for (int i=0; ; i++) {
+            try {
+                Socket socket = new Socket("localhost", port);
+                socket.setSoTimeout(10000);
+                return socket;
+            } catch (ConnectException e) {
+                if (i == 100) throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static PrintWriter writer(Socket socket) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+    }
+
+    @Test
+    public void answersSeveralInfoRequests() throws Exception {
+        Socket socket = connect();
+        PrintWriter out = writer(socket);
+        BufferedReader in = reader(socket);
+        for (int i=0; i<3; i++) {
+            out.println("MARY VERSION");
+            assertTrue(in.readLine().startsWith("Mary TTS server "));
+            assertEquals("", in.readLine());
+        }
+        socket.close();
+    }
+
+    @Test
+    public void answersRequestsSentInPieces() throws Exception {
+        Socket socket = connect();
+        BufferedReader in = reader(socket);
+        socket.getOutputStream().write("MARY VER".getBytes("UTF-8"));
+        socket.getOutputStream().flush();
+        Thread.sleep(100);
+        // the last line need not be terminated:
+        socket.getOutputStream().write("SION\r\nMARY VERSION".getBytes("UTF-8"));
+        socket.shutdownOutput();
+        assertTrue(in.readLine().startsWith("Mary TTS server "));
+        assertEquals("", in.readLine());
+        assertTrue(in.readLine().startsWith("Mary TTS server "));
+        assertEquals("", in.readLine());
+        assertNull(in.readLine());
+        socket.close();
+    }
+
+    @Test
+    public void rejectsUnknownRequest() throws Exception {
+        Socket socket = connect();
+        writer(socket).println("HELLO");
+        BufferedReader in = reader(socket);
+        assertEquals("Error parsing request:", in.readLine());
+        assertTrue(in.readLine().startsWith("Expected either a line"));
+        in.readLine();
+        in.readLine();
+        assertNull(in.readLine());
+        socket.close();
+    }
+
+    @Test
+    public void rejectsUnknownRequestId() throws Exception {
+        Socket socket = connect();
+        writer(socket).println("12345");
+        BufferedReader in = reader(socket);
+        assertEquals("Error parsing request:", in.readLine());
+        assertEquals("Invalid identification number.", in.readLine());
+        assertNull(in.readLine());
+        socket.close();
+    }
+}
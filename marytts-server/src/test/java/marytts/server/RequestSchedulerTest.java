@@ -0,0 +1,140 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class RequestSchedulerTest {
+    private RequestScheduler scheduler;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private Runnable blocking(final CountDownLatch started) {
+        return new Runnable() {
+            public void run() {
+                if (started != null) {
+                    started.countDown();
+                }
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+    }
+
+    private Runnable recording(final List<String> log, final String entry, final CountDownLatch done) {
+        return new Runnable() {
+            public void run() {
+                log.add(entry);
+                done.countDown();
+            }
+        };
+    }
+
+    private void waitUntilIdle() throws InterruptedException {
+        for (int i=0; i<1000 && scheduler.getNumberOfRequests() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, scheduler.getNumberOfRequests());
+    }
+
+    @Test
+    public void rejectsWhenFull() throws Exception {
+        scheduler = new RequestScheduler("test", 1, 2, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        assertTrue(scheduler.submit("a", blocking(started)));
+        started.await(10, TimeUnit.SECONDS);
+        assertTrue(scheduler.submit("b", blocking(null)));
+        assertTrue(scheduler.submit("c", blocking(null)));
+        assertFalse(scheduler.submit("d", blocking(null)));
+        assertEquals(1, scheduler.getRejectedBusyCount());
+        release.countDown();
+        waitUntilIdle();
+        assertEquals(3, scheduler.getCompletedCount());
+        assertTrue(scheduler.submit("d", blocking(null)));
+    }
+
+    @Test
+    public void limitsRequestsPerClient() throws Exception {
+        scheduler = new RequestScheduler("test", 1, 10, 2);
+        assertTrue(scheduler.submit("a", blocking(null)));
+        assertTrue(scheduler.submit("a", blocking(null)));
+        assertFalse(scheduler.submit("a", blocking(null)));
+        assertTrue(scheduler.submit("b", blocking(null)));
+        assertEquals(1, scheduler.getRejectedClientCount());
+        assertEquals(0, scheduler.getRejectedBusyCount());
+    }
+
+    @Test
+    public void takesClientsInTurn() throws Exception {
+        scheduler = new RequestScheduler("test", 1, 10, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit("x", blocking(started));
+        started.await(10, TimeUnit.SECONDS);
+        List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(5);
+        scheduler.submit("a", recording(log, "a1", done));
+        scheduler.submit("a", recording(log, "a2", done));
+        scheduler.submit("a", recording(log, "a3", done));
+        scheduler.submit("b", recording(log, "b1", done));
+        scheduler.submit("b", recording(log, "b2", done));
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("[a1, b1, a2, b2, a3]", log.toString());
+    }
+
+    @Test
+    public void writerHoldsRequest() throws Exception {
+        scheduler = new RequestScheduler("test", 1, 0, 0);
+        CountDownLatch done = new CountDownLatch(1);
+        CountDownLatch writing = new CountDownLatch(1);
+        List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        assertTrue(scheduler.submit("a", recording(log, "request", done), blocking(writing)));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+        assertFalse(scheduler.submit("b", blocking(null)));
+        release.countDown();
+        waitUntilIdle();
+        assertTrue(scheduler.submit("b", recording(log, "next", new CountDownLatch(1))));
+    }
+}
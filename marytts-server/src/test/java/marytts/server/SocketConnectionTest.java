@@ -0,0 +1,183 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class SocketConnectionTest {
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final Executor selectorThread = new Executor() {
+        public void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+    };
+    private volatile boolean stopped = false;
+    // the first exception in the selector or writer thread, to fail the test with
+    private volatile Throwable failure = null;
+
+    @Before
+    public void setUp() throws Exception {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress("localhost", 0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Throwable failed = failure;
+        stopped = true;
+        selector.wakeup();
+        serverChannel.close();
+        if (failed != null) {
+            throw new AssertionError(failed);
+        }
+    }
+
+    private void fail(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+    }
+
+    /**
+     * Accept one client, then write to it from the selector thread as SocketConnection expects.
+     */
+    private SocketConnection acceptAndServe() throws Exception {
+        SocketChannel channel = serverChannel.accept();
+        channel.configureBlocking(false);
+        SelectionKey key = channel.register(selector, 0);
+        SocketConnection connection = new SocketConnection(channel, key, selectorThread);
+        key.attach(connection);
+        Thread loop = new Thread("selector") {
+            public void run() {
+                try {
+                    while (!stopped) {
+                        selector.select();
+                        Runnable task;
+                        while ((task = tasks.poll()) != null) {
+                            task.run();
+                        }
+                        for (SelectionKey k : selector.selectedKeys()) {
+                            if (k.isValid() && k.isWritable()) {
+                                ((SocketConnection) k.attachment()).writeQueued();
+                            }
+                        }
+                        selector.selectedKeys().clear();
+                    }
+                } catch (Exception e) {
+                    fail(e);
+                }
+            }
+        };
+        loop.setDaemon(true);
+        loop.start();
+        return connection;
+    }
+
+    @Test
+    public void sendsLargeOutputToSlowClient() throws Exception {
+        Socket client = new Socket("localhost", serverChannel.socket().getLocalPort());
+        final SocketConnection connection = acceptAndServe();
+        final int size = 5 << 20;
+        final boolean[] writerDone = new boolean[1];
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    OutputStream out = connection.getOutputStream();
+                    byte[] chunk = new byte[1000];
+                    for (int i=0; i<size; i+=chunk.length) {
+                        for (int j=0; j<chunk.length; j++) {
+                            chunk[j] = (byte) ((i + j) % 251);
+                        }
+                        out.write(chunk, 0, Math.min(chunk.length, size - i));
+                    }
+                    out.close();
+                    writerDone[0] = true;
+                } catch (Exception e) {
+                    fail(e);
+                }
+            }
+        };
+        writer.start();
+        // the writer must wait for the client instead of queueing everything:
+        Thread.sleep(200);
+        assertTrue(writer.isAlive());
+
+        InputStream in = client.getInputStream();
+        byte[] buf = new byte[4096];
+        int total = 0;
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            for (int j=0; j<n; j++) {
+                assertEquals((byte) ((total + j) % 251), buf[j]);
+            }
+            total += n;
+        }
+        assertEquals(size, total);
+        writer.join(10000);
+        assertTrue(writerDone[0]);
+        assertTrue(connection.isClosed());
+        client.close();
+    }
+
+    @Test
+    public void mixesQueuedAndStreamedOutputInOrder() throws Exception {
+        Socket client = new Socket("localhost", serverChannel.socket().getLocalPort());
+        SocketConnection connection = acceptAndServe();
+        connection.send("1\n".getBytes("UTF-8"));
+        OutputStream out = connection.getOutputStream();
+        out.write("2\n".getBytes("UTF-8"));
+        out.flush();
+        connection.send("3\n".getBytes("UTF-8"));
+        out.close();
+        connection.send("dropped after close\n".getBytes("UTF-8"));
+        InputStream in = client.getInputStream();
+        StringBuilder received = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            received.append((char) c);
+        }
+        assertEquals("1\n2\n3\n", received.toString());
+        client.close();
+    }
+}
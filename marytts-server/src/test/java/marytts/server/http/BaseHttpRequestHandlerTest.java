@@ -0,0 +1,131 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.server.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import marytts.util.http.Address;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.entity.ConsumingNHttpEntity;
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class BaseHttpRequestHandlerTest {
+
+    private static class RecordingHandler extends BaseHttpRequestHandler {
+        Map<String, String> queryItems;
+
+        @Override
+        protected void handleClientRequest(String absPath, Map<String, String> queryItems, HttpResponse response,
+                Address serverAddressAtClient) throws IOException {
+            this.queryItems = queryItems;
+        }
+    }
+
+    /**
+     * Delivers the given bytes in small chunks, as the I/O reactor would.
+     */
+    private static class BytesDecoder implements ContentDecoder {
+        private final byte[] bytes;
+        private int pos = 0;
+
+        BytesDecoder(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public int read(ByteBuffer dst) {
+            if (pos == bytes.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(dst.remaining(), 1000), bytes.length - pos);
+            dst.put(bytes, pos, n);
+            pos += n;
+            return n;
+        }
+
+        public boolean isCompleted() {
+            return pos == bytes.length;
+        }
+    }
+
+    private HttpResponse post(RecordingHandler handler, byte[] body, long declaredLength) throws Exception {
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", "/process");
+        request.addHeader("Host", "localhost:59125");
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContentLength(declaredLength);
+        request.setEntity(entity);
+        ConsumingNHttpEntity consuming = handler.entityRequest(request, null);
+        consuming.consumeContent(new BytesDecoder(body), null);
+        request.setEntity(consuming);
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        handler.handle(request, response, null);
+        return response;
+    }
+
+    private static byte[] query(int length) throws UnsupportedEncodingException {
+        char[] text = new char[length - "INPUT_TEXT=".length()];
+        Arrays.fill(text, 'a');
+        return ("INPUT_TEXT=" + new String(text)).getBytes("ASCII");
+    }
+
+    @Test
+    public void readsQueryFromBody() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        byte[] body = query(BaseHttpRequestHandler.DEFAULT_MAX_ENTITY_SIZE);
+        HttpResponse response = post(handler, body, -1);
+        assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        assertEquals(BaseHttpRequestHandler.DEFAULT_MAX_ENTITY_SIZE - "INPUT_TEXT=".length(),
+                handler.queryItems.get("INPUT_TEXT").length());
+    }
+
+    @Test
+    public void rejectsTooLargeBody() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        byte[] body = query(BaseHttpRequestHandler.DEFAULT_MAX_ENTITY_SIZE + 1);
+        HttpResponse response = post(handler, body, -1);
+        assertEquals(HttpStatus.SC_REQUEST_TOO_LONG, response.getStatusLine().getStatusCode());
+        assertNull(handler.queryItems);
+    }
+
+    @Test
+    public void rejectsTooLargeContentLength() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        HttpResponse response = post(handler, query(100), BaseHttpRequestHandler.DEFAULT_MAX_ENTITY_SIZE + 1);
+        assertEquals(HttpStatus.SC_REQUEST_TOO_LONG, response.getStatusLine().getStatusCode());
+        assertNull(handler.queryItems);
+    }
+}
@@ -22,8 +22,8 @@ package marytts.signalproc.analysis;
 import java.util.Arrays;
 
 import marytts.util.math.ComplexArray;
-import marytts.util.math.FFT;
 import marytts.util.math.FFTMixedRadix;
+import marytts.util.math.FFTPlan;
 import marytts.util.math.Hilbert;
 import marytts.util.math.MathUtils;
 import marytts.util.signal.SignalProcUtils;
@@ -57,7 +57,7 @@ public class CepstrumSpeechAnalyser
         System.arraycopy(frame, 0, real, 0, Math.min(frame.length, fftSize));
         
         if (MathUtils.isPowerOfTwo(fftSize))
-            FFT.transform(real, imag, false);
+            FFTPlan.get(fftSize).transform(real, imag, false);
         else
             FFTMixedRadix.fftComplex(real, imag);
         
@@ -69,7 +69,7 @@ public class CepstrumSpeechAnalyser
         // Now real + j*imag is the complex cepstrum
         if (MathUtils.isPowerOfTwo(fftSize))
         {
-            FFT.transform(real, imag, true);
+            FFTPlan.get(fftSize).transform(real, imag, true);
             return new ComplexArray(real, imag);
         }
         else
@@ -72,7 +72,7 @@ public class ShortTermPhaseSpectrumAnalyser extends ShortTermSpectrumAnalyser {
         System.arraycopy(frame, 0, real, real.length-middle, middle);
         if (real.length > frame.length)
             Arrays.fill(real, len-middle, real.length-middle, 0);
-        FFT.realTransform(real, false);
+        fft.realTransform(real, false);
         return FFT.computePhaseSpectrum_FD(real);
     }
 
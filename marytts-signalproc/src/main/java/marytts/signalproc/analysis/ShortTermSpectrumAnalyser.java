@@ -23,7 +23,7 @@ import java.util.Arrays;
 
 import marytts.signalproc.window.Window;
 import marytts.util.data.DoubleDataSource;
-import marytts.util.math.FFT;
+import marytts.util.math.FFTPlan;
 import marytts.util.math.MathUtils;
 
 
@@ -37,6 +37,7 @@ import marytts.util.math.MathUtils;
 public class ShortTermSpectrumAnalyser extends FrameBasedAnalyser<double[]>
 {
     protected double[] real;
+    protected FFTPlan fft;
 
     /**
      * Initialise a FrameBasedAnalyser.
@@ -58,6 +59,7 @@ public class ShortTermSpectrumAnalyser extends FrameBasedAnalyser<double[]>
         if (!MathUtils.isPowerOfTwo(fftSize))
             throw new IllegalArgumentException("fftSize must be a power of two!");
         real = new double[fftSize];
+        fft = FFTPlan.get(fftSize);
         assert real.length >= frame.length;
     }
 
@@ -76,8 +78,10 @@ public class ShortTermSpectrumAnalyser extends FrameBasedAnalyser<double[]>
         System.arraycopy(frame, 0, real, 0, frame.length);
         if (real.length > frame.length)
             Arrays.fill(real, frame.length, real.length, 0);
-        FFT.realTransform(real, false);
-        return FFT.computePowerSpectrum_FD(real);
+        fft.realTransform(real, false);
+        double[] powerSpectrum = new double[real.length/2];
+        fft.powerSpectrum(real, powerSpectrum);
+        return powerSpectrum;
     }
 
     /**
@@ -39,6 +39,7 @@ import marytts.signalproc.analysis.PitchMarks;
 import marytts.signalproc.analysis.PitchReaderWriter;
 import marytts.signalproc.window.DynamicWindow;
 import marytts.signalproc.window.Window;
+import marytts.util.data.BlockwiseDoubleDataSource;
 import marytts.util.data.BufferedDoubleDataSource;
 import marytts.util.data.Datagram;
 import marytts.util.data.DatagramDoubleDataSource;
@@ -332,7 +333,7 @@ public class FDPSOLAProcessor extends VocalTractModifier {
             maxFreq = fftSize/2+1;
 
             outBuffLen = 500000;
-            outBuff = MathUtils.zeros(outBuffLen);
+            outBuff = null; // allocated when first needed, see ensureOutBuff()
             outBuffStart = 1;
             totalWrittenToFile = 0;
 
@@ -385,22 +386,7 @@ public class FDPSOLAProcessor extends VocalTractModifier {
             // for each datagram in that unit:
             for (int j = 0; j < datagrams[i].length; j++) {
 
-                // awkwardly determine next Datagram, which defaults to silence as long as this Datagram...
-                int length = datagrams[i][j].getLength();
-                Datagram nextDatagram = new Datagram(length, new byte[2 * length]);
-                // ...unless it's not the last in this unit...
-                if (j < datagrams[i].length - 1) {
-                    nextDatagram = datagrams[i][j + 1];
-                } else
-                // ...or we have a right context...
-                if (rightContexts[i] != null) {
-                    nextDatagram = rightContexts[i];
-                } else
-                // ...or we have a next unit
-                // TODO but what if that unit has no frames?
-                if (i < datagrams.length - 1) {
-                    nextDatagram = datagrams[i + 1][0];
-                }
+                Datagram nextDatagram = nextDatagram(datagrams, rightContexts, i, j);
                 assert nextDatagram.getDuration() > 0;
 
                 // ARG #1, actual frame data for this and the next Datagram:
@@ -469,6 +455,231 @@ public class FDPSOLAProcessor extends VocalTractModifier {
         BufferedDoubleDataSource buffer = new BufferedDoubleDataSource(output);
         DDSAudioInputStream stream = new DDSAudioInputStream(buffer, audioformat);
         return stream;
+    }
+
+    /**
+     * The Datagram following datagrams[i][j], which is analysed together with it:
+     * the next Datagram in the unit, or the unit's right context, or the first Datagram of the next unit,
+     * or else silence as long as datagrams[i][j].
+     */
+    private static Datagram nextDatagram(Datagram[][] datagrams, Datagram[] rightContexts, int i, int j) {
+        if (j < datagrams[i].length - 1) {
+            return datagrams[i][j + 1];
+        }
+        if (rightContexts != null && rightContexts[i] != null) {
+            return rightContexts[i];
+        }
+        // TODO but what if that unit has no frames?
+        if (i < datagrams.length - 1) {
+            return datagrams[i + 1][0];
+        }
+        int length = datagrams[i][j].getLength();
+        return new Datagram(length, new byte[2 * length]);
+    }
+
+    /**
+     * Streaming version of {@link #processDecrufted}: the same modifications, but the frames are processed one by one
+     * while the returned audio stream is read, so that only a few pitch periods of audio are held in memory
+     * and the first audio is available before the whole utterance is processed.
+     * <p>
+     * The durations of the datagrams are updated to the durations after modification before this method returns;
+     * this is possible because they depend only on the durations and scales, not on the signal.
+     * This processor must not be used for anything else afterwards.
+     * 
+     * @param datagrams
+     *            array of Datagram arrays, one element per SelectedUnit
+     * @param rightContexts
+     *            array of Datagrams, one element per SelectedUnit
+     * @param audioformat
+     *            the audio format of the datagrams
+     * @param voicings
+     *            array of boolean arrays, matching <b>datagrams</b>
+     * @param pitchScales
+     *            array of double arrays, matching <b>datagrams</b>, pitch modification factors
+     * @param timeScales
+     *            array of double arrays, matching <b>datagrams</b>, duration modification factors
+     * @return modified audio as a DoubleDataSource audio stream of known length
+     */
+    public DDSAudioInputStream processStreaming(Datagram[][] datagrams, Datagram[] rightContexts, AudioFormat audioformat,
+            boolean[][] voicings, double[][] pitchScales, double[][] timeScales) {
+        tscaleSingle = -1;
+        origLen = 0;
+        numfrm = 0;
+        // The frames are read from copies, because the durations of the datagrams are updated right away:
+        Datagram[][] frames = new Datagram[datagrams.length][];
+        Datagram[] contexts = rightContexts != null ? new Datagram[rightContexts.length] : null;
+        for (int i = 0; i < datagrams.length; i++) {
+            frames[i] = new Datagram[datagrams[i].length];
+            for (int j = 0; j < datagrams[i].length; j++) {
+                frames[i][j] = new Datagram(datagrams[i][j].getDuration(), datagrams[i][j].getData());
+                origLen += datagrams[i][j].getDuration();
+            }
+            if (contexts != null && rightContexts[i] != null) {
+                contexts[i] = new Datagram(rightContexts[i].getDuration(), rightContexts[i].getData());
+                if (datagrams[i].length > 0) {
+                    origLen += rightContexts[i].getDuration();
+                }
+            }
+            numfrm += datagrams[i].length;
+        }
+
+        // Compute the output durations as processFrame() and writeFinal() will produce them:
+        long totalLength = 0;
+        for (int i = 0; i < frames.length; i++) {
+            for (int j = 0; j < frames[i].length; j++) {
+                boolean bLastInputFrame = (i == frames.length - 1) && (j == frames[i].length - 1);
+                int currentPeriod = (int) frames[i][j].getDuration();
+                int inputFrameSize = currentPeriod + (int) nextDatagram(frames, contexts, i, j).getDuration();
+                double pscale = MathUtils.CheckLimits(pitchScales[i][j], MIN_PSCALE, MAX_PSCALE);
+                double tscale = MathUtils.CheckLimits(timeScales[i][j], MIN_TSCALE, MAX_TSCALE);
+                computeRepeatSkipCount(voicings[i][j], pscale, tscale, bLastInputFrame, inputFrameSize);
+                int duration = 0;
+                if (repeatSkipCount > -1) {
+                    int skipSize = voicings[i][j] ? (int) Math.floor(currentPeriod / pscale + 0.5) : currentPeriod;
+                    for (int r = 0; r <= repeatSkipCount; r++) {
+                        synthFrameInd++;
+                        if (synthFrameInd > 1 && bLastInputFrame && r == repeatSkipCount) {
+                            synthTotal = synthSt + newFrmSize - 1;
+                        } else {
+                            synthTotal = synthSt + newFrmSize;
+                        }
+                        synthSt += skipSize;
+                        duration += skipSize;
+                    }
+                }
+                datagrams[i][j].setDuration(duration);
+                totalLength += duration;
+            }
+        }
+        int finalLength = Math.max(0, synthTotal - synthSt + 1);
+        Datagram finalDatagram = datagrams[datagrams.length - 1][datagrams[datagrams.length - 1].length - 1];
+        finalDatagram.setDuration(finalDatagram.getDuration() + finalLength);
+        totalLength += finalLength;
+
+        // back to the initial state for the actual processing:
+        frmSize = 0;
+        newFrmSize = 0;
+        newPeriod = 0;
+        localDurDiff = 0.0;
+        repeatSkipCount = 0;
+        sumLocalDurDiffs = 0.0;
+        nextAdd = 0.0;
+        synthSt = 0;
+        synthTotal = 0;
+        synthFrameInd = 0;
+        bLastFrame = false;
+        // Output is taken from the buffer after every frame, so it only needs to hold the output of one frame:
+        outBuffLen = 2 * maxNewFrmSize;
+        outBuff = new double[outBuffLen];
+        outBuffStart = 1;
+
+        return new DDSAudioInputStream(new StreamingOutput(frames, contexts, voicings, pitchScales, timeScales, totalLength),
+                audioformat);
+    }
+
+    /**
+     * The output of {@link #processStreaming}, processing one frame at a time as data is requested.
+     */
+    private class StreamingOutput extends BlockwiseDoubleDataSource {
+        private final Datagram[][] frames;
+        private final Datagram[] contexts;
+        private final boolean[][] voicings;
+        private final double[][] pitchScales;
+        private final double[][] timeScales;
+        private int unit = 0;
+        private int frame = 0;
+        private boolean finished = false;
+        private long produced = 0;
+        private double[] block;
+
+        StreamingOutput(Datagram[][] frames, Datagram[] contexts, boolean[][] voicings, double[][] pitchScales,
+                double[][] timeScales, long totalLength) {
+            super(null, 0);
+            this.frames = frames;
+            this.contexts = contexts;
+            this.voicings = voicings;
+            this.pitchScales = pitchScales;
+            this.timeScales = timeScales;
+            this.dataLength = totalLength;
+        }
+
+        @Override
+        public boolean hasMoreData() {
+            return currentlyInBuffer() > 0 || !finished;
+        }
+
+        @Override
+        protected void prepareBlock() {
+            try {
+                block = nextBlock();
+            } catch (IOException e) {
+                throw new RuntimeException("Frames could not be processed!", e);
+            }
+            produced += block.length;
+            assert !finished || produced == dataLength : "produced " + produced + " samples, expected " + dataLength;
+        }
+
+        @Override
+        protected int getBlockSize() {
+            return block.length;
+        }
+
+        @Override
+        protected int readBlock(double[] target, int pos) {
+            System.arraycopy(block, 0, target, pos, block.length);
+            return block.length;
+        }
+
+        /**
+         * Process frames until there is some output; after the last frame, get the final output.
+         * @return the output samples, or an empty array at the end.
+         */
+        private double[] nextBlock() throws IOException {
+            while (unit < frames.length) {
+                if (frame >= frames[unit].length) {
+                    unit++;
+                    frame = 0;
+                    continue;
+                }
+                int i = unit;
+                int j = frame++;
+                Datagram nextDatagram = nextDatagram(frames, contexts, i, j);
+                double[] frmIn = new DatagramDoubleDataSource(new Datagram[] { frames[i][j], nextDatagram }).getAllData();
+                boolean bLastInputFrame = (i == frames.length - 1) && (j == frames[i].length - 1);
+                int currentPeriod = (int) frames[i][j].getDuration();
+                int inputFrameSize = currentPeriod + (int) nextDatagram.getDuration();
+                double[] wrapped = processFrame(frmIn, voicings[i][j], pitchScales[i][j], timeScales[i][j], 1.0, 1.0,
+                        bLastInputFrame, currentPeriod, inputFrameSize);
+                double[] output = takeOutput(wrapped);
+                if (output.length > 0) {
+                    return output;
+                }
+            }
+            if (!finished) {
+                finished = true;
+                double[] output = writeFinal();
+                if (output != null) {
+                    return output;
+                }
+            }
+            return new double[0];
+        }
+
+        /**
+         * The output of the last processFrame() call: what it returned because the buffer was full,
+         * followed by what is in the buffer. Empties the buffer.
+         */
+        private double[] takeOutput(double[] wrapped) {
+            int inBuffer = outBuffStart - 1;
+            int fromWrapped = wrapped != null ? wrapped.length : 0;
+            double[] output = new double[fromWrapped + inBuffer];
+            if (wrapped != null) {
+                System.arraycopy(wrapped, 0, output, 0, fromWrapped);
+            }
+            System.arraycopy(outBuff, 0, output, fromWrapped, inBuffer);
+            outBuffStart = 1;
+            return output;
+        }
     }
 
     //FD-PSOLA using all concatenation units
@@ -1166,24 +1377,14 @@ public class FDPSOLAProcessor extends VocalTractModifier {
         inputAudio.close();
     }
     
-    public double [] processFrame(double [] frmIn, boolean isVoiced, double pscale, double tscale, double escale, double vscale, boolean isLastInputFrame, int currentPeriod, int inputFrameSize) throws IOException
-    {   
-        if (pscale<MIN_PSCALE)
-            pscale = MIN_PSCALE;
-        if (pscale>MAX_PSCALE)
-            pscale = MAX_PSCALE;
-        if (tscale<MIN_TSCALE)
-            tscale = MIN_TSCALE;
-        if (tscale>MAX_TSCALE)
-            tscale = MAX_TSCALE;
-        
-        double [] output = null;
-        double [] outputTmp = null;
-        int j, k, wInd, kMax;
-        int tmpFix, tmpAdd, tmpMul;
-        int remain;
-        int kInd;
-        
+    /**
+     * Compute the new frame sizes and how often the pitch-scaled frame is to be repeated (or whether it is skipped)
+     * to compensate for the change in duration. This only depends on the sizes and scales of the frames so far,
+     * not on the signal.
+     * Sets frmSize, newFrmSize, newPeriod, repeatSkipCount and the duration compensation state.
+     */
+    protected void computeRepeatSkipCount(boolean isVoiced, double pscale, double tscale, boolean isLastInputFrame, int inputFrameSize)
+    {
         repeatSkipCount = 0; // -1:skip frame, 0:no repetition (use synthesized frame as it is), >0: number of repetitions for synthesized frame
 
         // Compute new frame sizes, change in durations due to pitch scaling, and required compensation amount in samples
@@ -1258,6 +1459,39 @@ public class FDPSOLAProcessor extends VocalTractModifier {
             repeatSkipCount++;
             bLastFrame = true;
         }
+    }
+
+    /**
+     * Allocate the output buffer used when processing all at once, unless it exists already;
+     * {@link #processStreaming} sets up its own, much smaller buffer instead.
+     */
+    protected void ensureOutBuff()
+    {
+        if (outBuff == null)
+            outBuff = new double[outBuffLen];
+    }
+    
+    public double [] processFrame(double [] frmIn, boolean isVoiced, double pscale, double tscale, double escale, double vscale, boolean isLastInputFrame, int currentPeriod, int inputFrameSize) throws IOException
+    {   
+        ensureOutBuff();
+        
+        if (pscale<MIN_PSCALE)
+            pscale = MIN_PSCALE;
+        if (pscale>MAX_PSCALE)
+            pscale = MAX_PSCALE;
+        if (tscale<MIN_TSCALE)
+            tscale = MIN_TSCALE;
+        if (tscale>MAX_TSCALE)
+            tscale = MAX_TSCALE;
+        
+        double [] output = null;
+        double [] outputTmp = null;
+        int j, k, wInd, kMax;
+        int tmpFix, tmpAdd, tmpMul;
+        int remain;
+        int kInd;
+        
+        computeRepeatSkipCount(isVoiced, pscale, tscale, isLastInputFrame, inputFrameSize);
         
         if (repeatSkipCount>-1)
         {
@@ -1683,6 +1917,8 @@ public class FDPSOLAProcessor extends VocalTractModifier {
     
     public double [] writeFinal() throws IOException
     {
+        ensureOutBuff();
+        
         double [] output = null;
         double [] outputTmp = null;
         
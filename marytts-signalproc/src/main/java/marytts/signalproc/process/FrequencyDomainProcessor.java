@@ -21,7 +21,7 @@ package marytts.signalproc.process;
 
 import java.util.Arrays;
 
-import marytts.util.math.FFT;
+import marytts.util.math.FFTPlan;
 import marytts.util.math.MathUtils;
 import marytts.util.signal.SignalProcUtils;
 
@@ -31,6 +31,8 @@ public class FrequencyDomainProcessor implements InlineDataProcessor
 {
     private double[] real;
     private double[] imag;
+    private double[] dataOut;
+    private FFTPlan fft;
     private double amount; //A double value between 0.5 and 1.0, if 1.0 full modification, if 0.5 half modification
     private double oneMinusAmount; //1.0-amount
     /**
@@ -46,6 +48,8 @@ public class FrequencyDomainProcessor implements InlineDataProcessor
         }
         this.real = new double[fftSize];
         this.imag = new double[fftSize];
+        this.dataOut = new double[fftSize];
+        this.fft = FFTPlan.get(fftSize);
         this.amount = amount;
         this.oneMinusAmount = 1.0-this.amount;
     }
@@ -70,7 +74,6 @@ public class FrequencyDomainProcessor implements InlineDataProcessor
     public void applyInline(double[] data, int pos, int len)
     {
         int i;
-        double [] dataOut = new double[len];
         
         if (len > real.length) {
             throw new IllegalArgumentException("Length must not be larger than FFT size");
@@ -85,9 +88,9 @@ public class FrequencyDomainProcessor implements InlineDataProcessor
             Arrays.fill(real, len-middle, real.length-middle, 0);
         Arrays.fill(imag, 0, imag.length, 0.);
         // Convert to polar coordinates in frequency domain
-        FFT.transform(real, imag, false);
+        fft.transform(real, imag, false);
         process(real, imag);
-        FFT.transform(real, imag, true);
+        fft.transform(real, imag, true);
         
         System.arraycopy(real, 0, dataOut, pos+middle, len-middle);
         System.arraycopy(real, real.length-middle, dataOut, pos, middle);
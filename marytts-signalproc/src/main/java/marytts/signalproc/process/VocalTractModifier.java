@@ -24,7 +24,7 @@ import java.util.Arrays;
 import marytts.signalproc.analysis.LpcAnalyser;
 import marytts.signalproc.analysis.LpcAnalyser.LpCoeffs;
 import marytts.util.math.ComplexArray;
-import marytts.util.math.FFT;
+import marytts.util.math.FFTPlan;
 import marytts.util.math.MathUtils;
 import marytts.util.signal.SignalProcUtils;
 
@@ -42,6 +42,8 @@ public class VocalTractModifier implements InlineDataProcessor {
     protected ComplexArray h;
     protected double [] vtSpectrum;
     private ComplexArray expTerm;
+    private int expTermP;
+    private FFTPlan fft;
     private boolean bAnalysisOnly;
     public static int tmpCount = 0;
     /**
@@ -70,11 +72,21 @@ public class VocalTractModifier implements InlineDataProcessor {
         this.fs = fsIn;
         this.fftSize = fftSizeIn;
         fftSize = MathUtils.closestPowerOfTwoAbove(fftSize);
-        h = new ComplexArray(fftSize);
+        // FDPSOLA re-initialises for every frame, so reuse what we can:
+        if (h == null || h.real.length != fftSize) {
+            h = new ComplexArray(fftSize);
+            expTerm = null;
+        } else {
+            Arrays.fill(h.real, 0.);
+            Arrays.fill(h.imag, 0.);
+        }
         this.maxFreq = SignalProcUtils.halfSpectrumSize(fftSize);
         this.vtSpectrum = new double[maxFreq];
-        this.expTerm = new ComplexArray(p*maxFreq);
-        this.expTerm = LpcAnalyser.calcExpTerm(fftSize, p);
+        if (expTerm == null || expTermP != p) {
+            this.expTerm = LpcAnalyser.calcExpTerm(fftSize, p);
+            this.expTermP = p;
+        }
+        this.fft = FFTPlan.get(fftSize);
         this.bAnalysisOnly = bAnalysisOnlyIn;
     }
     
@@ -112,7 +124,7 @@ public class VocalTractModifier implements InlineDataProcessor {
         
         // Convert to polar coordinates in frequency domain
         //h = FFTMixedRadix.fftComplexArray(h);
-        FFT.transform(h.real, h.imag, false);
+        fft.transform(h.real, h.imag, false);
         
         vtSpectrum = LpcAnalyser.calcSpecLinear(coeffs.getA(), p, fftSize, expTerm);
         
@@ -147,7 +159,7 @@ public class VocalTractModifier implements InlineDataProcessor {
             //
 
             //h = FFTMixedRadix.ifft(h);
-            FFT.transform(h.real, h.imag, true);
+            fft.transform(h.real, h.imag, true);
             
             double newAvgEnergy = SignalProcUtils.getAverageSampleEnergy(h.real, len);
             double scale = origAvgEnergy/newAvgEnergy;
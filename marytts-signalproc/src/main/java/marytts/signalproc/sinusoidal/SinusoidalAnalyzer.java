@@ -42,8 +42,8 @@ import marytts.util.data.audio.AudioDoubleDataSource;
 import marytts.util.io.FileUtils;
 import marytts.util.math.ArrayUtils;
 import marytts.util.math.ComplexArray;
-import marytts.util.math.FFT;
 import marytts.util.math.FFTMixedRadix;
+import marytts.util.math.FFTPlan;
 import marytts.util.math.MathUtils;
 import marytts.util.signal.SignalProcUtils;
 
@@ -438,7 +438,7 @@ public class SinusoidalAnalyzer extends BaseSinusoidalAnalyzer {
 
         //Compute DFT
         if (MathUtils.isPowerOfTwo(params.fftSize))
-            FFT.transform(frameDft.real, frameDft.imag, false);
+            FFTPlan.get(params.fftSize).transform(frameDft.real, frameDft.imag, false);
         else
             frameDft = FFTMixedRadix.fftComplex(frameDft);
         //
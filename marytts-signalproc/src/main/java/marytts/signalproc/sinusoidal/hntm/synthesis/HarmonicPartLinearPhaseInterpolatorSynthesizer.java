@@ -87,6 +87,7 @@ public class HarmonicPartLinearPhaseInterpolatorSynthesizer
     private int currentFrameIndex;
     
     private HntmSpeechSignal hnmSignal;
+    private int outputLen;
     private boolean isReseted;
 
     public HarmonicPartLinearPhaseInterpolatorSynthesizer(HntmSpeechSignal hnmSignalIn,
@@ -116,9 +117,10 @@ public class HarmonicPartLinearPhaseInterpolatorSynthesizer
         halfTransitionWinLeft = transitionWin.getCoeffsLeftHalf();
         halfTransitionWinRight = transitionWin.getCoeffsRightHalf();
         
-        isReseted = false;
+        outputLen = SignalProcUtils.time2sample(hnmSignal.originalDurationInSeconds, hnmSignal.samplingRateInHz);
         
-        reset();
+        //The buffers are allocated when synthesis starts, so that HntmBlockSynthesizer can render frames without them
+        isReseted = false;
     }
     
     //Reset synthesis variables to start synthesis from the beginning
@@ -127,7 +129,6 @@ public class HarmonicPartLinearPhaseInterpolatorSynthesizer
         if (!isReseted)
         {
             isReseted = true;
-            int outputLen = SignalProcUtils.time2sample(hnmSignal.originalDurationInSeconds, hnmSignal.samplingRateInHz);
 
             harmonicPart = new double[outputLen]; //In fact, this should be prosody scaled length when you implement prosody modifications
             Arrays.fill(harmonicPart, 0.0);
@@ -205,6 +206,9 @@ public class HarmonicPartLinearPhaseInterpolatorSynthesizer
     {
         assert currentFrameIndex<hnmSignal.frames.length;
         
+        if (harmonicPart==null)
+            reset();
+        
         double[] output = null;
 
         HntmSpeechFrame prevFrame, nextFrame;
@@ -227,7 +231,7 @@ public class HarmonicPartLinearPhaseInterpolatorSynthesizer
         if (currentFrameIndex==hnmSignal.frames.length-1)
             isLastSynthesisFrame = true;
 
-        processFrame(prevFrame, hnmSignal.frames[currentFrameIndex], nextFrame, isFirstSynthesisFrame, isLastSynthesisFrame);
+        processFrame(prevFrame, hnmSignal.frames[currentFrameIndex], nextFrame, isFirstSynthesisFrame, isLastSynthesisFrame, harmonicTracks, winOverlapWgt, 0);
 
         //Start to generate output as soon as a few frames are processed
         if (currentFrameIndex>synthesisParams.synthesisFramesToAccumulateBeforeAudioGeneration)
@@ -243,11 +247,20 @@ public class HarmonicPartLinearPhaseInterpolatorSynthesizer
         return output;
     }
     
-    private void processFrame(HntmSpeechFrame prevFrame, 
-                              HntmSpeechFrame currentFrame, 
-                              HntmSpeechFrame nextFrame,
-                              boolean isFirstSynthesisFrame, 
-                              boolean isLastSynthesisFrame)
+    /**
+     * Synthesize the harmonic tracks of one frame.
+     * Track k of the frame overwrites tracks[k][n-offset] for the output samples n it covers,
+     * and adds its window to overlapWgts[k][n-offset] if overlapping harmonic part synthesis is used;
+     * tracks and overlapWgts must have enough tracks and cover all samples the frame can write.
+     */
+    void processFrame(HntmSpeechFrame prevFrame, 
+                      HntmSpeechFrame currentFrame, 
+                      HntmSpeechFrame nextFrame,
+                      boolean isFirstSynthesisFrame, 
+                      boolean isLastSynthesisFrame,
+                      double[][] tracks,
+                      double[][] overlapWgts,
+                      int offset)
     {
         int i, k, n;
         int currentHarmonicNo;
@@ -463,7 +476,7 @@ public class HarmonicPartLinearPhaseInterpolatorSynthesizer
                 Mk = (int)Math.floor((phasekiPlusOneEstimate-phasekiPlusOne)/MathUtils.TWOPI + 0.5);
                 //
 
-                for (n=Math.max(0, trackStartIndex); n<=Math.min(trackEndIndex, harmonicPart.length-1); n++)
+                for (n=Math.max(0, trackStartIndex); n<=Math.min(trackEndIndex, outputLen-1); n++)
                 {
                     double t = SignalProcUtils.sample2time(n, hnmSignal.samplingRateInHz);
                     
@@ -485,23 +498,68 @@ public class HarmonicPartLinearPhaseInterpolatorSynthesizer
                         if (synthesisParams.overlappingHarmonicPartSynthesis)
                         {
                             currentOverlapWinWgt = overlapWinWgt[n-Math.max(0, trackStartIndex)];
-                            winOverlapWgt[k][n] += currentOverlapWinWgt;
+                            overlapWgts[k][n-offset] += currentOverlapWinWgt;
                         }
                         else
                             currentOverlapWinWgt = 1.0;
                         
                         if (!isPrevTrackVoiced && n-trackStartIndex<transitionLen)
-                            harmonicTracks[k][n] = currentOverlapWinWgt*halfTransitionWinLeft[n-trackStartIndex]*akt*Math.cos(phasekt);
+                            tracks[k][n-offset] = currentOverlapWinWgt*halfTransitionWinLeft[n-trackStartIndex]*akt*Math.cos(phasekt);
                         else if (!isNextTrackVoiced && trackEndIndex-n<transitionLen)
-                            harmonicTracks[k][n] = currentOverlapWinWgt*halfTransitionWinRight[transitionLen-(trackEndIndex-n)-1]*akt*Math.cos(phasekt);
+                            tracks[k][n-offset] = currentOverlapWinWgt*halfTransitionWinRight[transitionLen-(trackEndIndex-n)-1]*akt*Math.cos(phasekt);
                         else
-                            harmonicTracks[k][n] = currentOverlapWinWgt*akt*Math.cos(phasekt);
+                            tracks[k][n-offset] = currentOverlapWinWgt*akt*Math.cos(phasekt);
                     }
                 } 
             }
         }
     }
     
+    /**
+     * The number of harmonic tracks that processFrame() synthesizes for the current frame.
+     */
+    int getNumTracks(HntmSpeechFrame currentFrame, HntmSpeechFrame nextFrame)
+    {
+        if (currentFrame.h!=null && currentFrame.h.complexAmps!=null && currentFrame.h.complexAmps.length>0)
+            return currentFrame.h.complexAmps.length;
+        else if (nextFrame!=null && nextFrame.h!=null && nextFrame.h.complexAmps!=null && nextFrame.h.complexAmps.length>0)
+            return nextFrame.h.complexAmps.length;
+        else
+            return 0;
+    }
+    
+    /**
+     * The range of output samples that processFrame() can write for the current frame, as {first, last+1}.
+     * The range is limited to the output, so it can be empty.
+     */
+    int[] getFrameRange(HntmSpeechFrame currentFrame, HntmSpeechFrame nextFrame,
+                        boolean isFirstSynthesisFrame, boolean isLastSynthesisFrame)
+    {
+        double tsik = currentFrame.tAnalysisInSeconds;
+        double trackStartInSeconds = isFirstSynthesisFrame ? 0.0 : tsik;
+        double trackEndInSeconds = (isLastSynthesisFrame || nextFrame==null) ? hnmSignal.originalDurationInSeconds : nextFrame.tAnalysisInSeconds;
+        int transition = transitionLen;
+        if (synthesisParams.overlappingHarmonicPartSynthesis)
+        {
+            trackStartInSeconds -= synthesisParams.harmonicSynthesisOverlapInSeconds;
+            trackEndInSeconds += synthesisParams.harmonicSynthesisOverlapInSeconds;
+            transition = 0;
+        }
+        
+        int first = Math.max(0, SignalProcUtils.time2sample(trackStartInSeconds, hnmSignal.samplingRateInHz)-transition);
+        int last = Math.min(outputLen-1, SignalProcUtils.time2sample(trackEndInSeconds, hnmSignal.samplingRateInHz)+transition);
+        
+        return new int[] {first, Math.max(first, last+1)};
+    }
+    
+    /**
+     * The number of output samples of the harmonic part.
+     */
+    int getOutputLength()
+    {
+        return outputLen;
+    }
+    
     public double[] generateOutput(boolean pipeOutAllOutput)
     {
         double[] output = null;
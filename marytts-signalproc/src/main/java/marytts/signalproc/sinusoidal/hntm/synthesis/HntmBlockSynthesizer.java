@@ -0,0 +1,384 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.signalproc.sinusoidal.hntm.synthesis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import marytts.signalproc.adaptation.prosody.BasicProsodyModifierParams;
+import marytts.signalproc.sinusoidal.hntm.analysis.HntmAnalyzerParams;
+import marytts.signalproc.sinusoidal.hntm.analysis.HntmPlusTransientsSpeechSignal;
+import marytts.signalproc.sinusoidal.hntm.analysis.HntmSpeechFrame;
+import marytts.signalproc.sinusoidal.hntm.analysis.HntmSpeechSignal;
+import marytts.signalproc.sinusoidal.hntm.analysis.HntmSpeechSignalWithContext;
+import marytts.signalproc.sinusoidal.hntm.modification.HntmProsodyModifier;
+import marytts.util.concurrent.ParallelTasks;
+import marytts.util.data.ProducingDoubleDataSource;
+
+/**
+ * Synthesizes the same output as {@link HntmSynthesizer}, for linear phase interpolation
+ * of the harmonic part and a waveform noise part, but renders blocks of frames in parallel
+ * and streams the output as soon as it is complete.
+ * <p>
+ * The harmonic tracks and the noise waveform of each block are rendered into buffers
+ * covering only the samples of that block. The blocks are then added to the output in order:
+ * where the tracks of neighbouring blocks overlap, the later frame overwrites the earlier one, and the
+ * noise windows are summed, exactly as when all frames are processed one after the other.
+ * All output before the first sample that a later block can write is complete and is
+ * passed on to the reader.
+ * <p>
+ * Call {@link #start()} to start synthesis on the shared producer thread pool.
+ *
+ * @author marc
+ *
+ */
+public class HntmBlockSynthesizer extends ProducingDoubleDataSource
+{
+    public static final int DEFAULT_FRAMES_PER_BLOCK = 32;
+
+    private final HntmSpeechSignal hnmSignal;
+    private final HntmSpeechFrame[] leftContexts;
+    private final HntmSpeechFrame[] rightContexts;
+    private final HarmonicPartLinearPhaseInterpolatorSynthesizer harmonics;
+    private final boolean overlapping;
+    private final int outputLen;
+    private final Executor executor;
+    private final int parallelism;
+    private int framesPerBlock = DEFAULT_FRAMES_PER_BLOCK;
+    private double outputScale = 1.0;
+
+    // The part of the output not passed on yet, starting at pendingStart; only used by the producer thread.
+    // Track samples not written by any frame are NaN, so that they do not overwrite earlier frames.
+    private int pendingStart;
+    private double[][] pendingTracks;
+    private double[][] pendingOverlapWgts;
+    private double[] pendingNoise;
+    private double[] pendingNoiseWgts;
+
+    /**
+     * @param hntmSignal
+     * @param leftContexts
+     * @param rightContexts
+     * @param pmodParams
+     * @param analysisParams
+     * @param synthesisParams
+     * @param executor the executor providing helper threads, or null to render all blocks in the producer thread.
+     * @param parallelism the maximum number of threads rendering blocks at the same time.
+     * @throws IllegalArgumentException if the parameters ask for a model that this synthesizer does not support
+     * (see {@link #isSupported(HntmAnalyzerParams, HntmSynthesizerParams)})
+     */
+    public HntmBlockSynthesizer(HntmSpeechSignal hntmSignal,
+                                HntmSpeechFrame[] leftContexts,
+                                HntmSpeechFrame[] rightContexts,
+                                BasicProsodyModifierParams pmodParams,
+                                HntmAnalyzerParams analysisParams,
+                                HntmSynthesizerParams synthesisParams,
+                                Executor executor, int parallelism)
+    {
+        if (!isSupported(analysisParams, synthesisParams) || hntmSignal instanceof HntmPlusTransientsSpeechSignal) {
+            throw new IllegalArgumentException("Only linear phase interpolation with a waveform noise part is supported");
+        }
+        HntmSpeechSignalWithContext prosodyModified = HntmProsodyModifier.modify(hntmSignal, leftContexts, rightContexts, pmodParams, analysisParams);
+        this.hnmSignal = prosodyModified.hntmSignal;
+        this.leftContexts = prosodyModified.leftContexts;
+        this.rightContexts = prosodyModified.rightContexts;
+        this.harmonics = new HarmonicPartLinearPhaseInterpolatorSynthesizer(hnmSignal, analysisParams, synthesisParams);
+        this.overlapping = synthesisParams.overlappingHarmonicPartSynthesis;
+        this.outputLen = harmonics.getOutputLength();
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.dataLength = outputLen;
+    }
+
+    /**
+     * Whether this synthesizer can synthesize signals with the given parameters.
+     */
+    public static boolean isSupported(HntmAnalyzerParams analysisParams, HntmSynthesizerParams synthesisParams)
+    {
+        return synthesisParams.harmonicPartSynthesisMethod == HntmSynthesizerParams.LINEAR_PHASE_INTERPOLATION
+            && analysisParams.noiseModel == HntmAnalyzerParams.WAVEFORM;
+    }
+
+    /**
+     * Set the number of frames rendered together as one block. Must be called before {@link #start()}.
+     */
+    public void setFramesPerBlock(int framesPerBlock)
+    {
+        this.framesPerBlock = Math.max(1, framesPerBlock);
+    }
+
+    /**
+     * Set a factor by which all output is multiplied. Must be called before {@link #start()}.
+     */
+    public void setOutputScale(double outputScale)
+    {
+        this.outputScale = outputScale;
+    }
+
+    public void run()
+    {
+        int numFrames = hnmSignal.frames!=null ? hnmSignal.frames.length : 0;
+        int numBlocks = (numFrames+framesPerBlock-1)/framesPerBlock;
+        int[] firstSamples = getFirstSamples(numBlocks);
+        int blocksPerRound = 2*parallelism;
+
+        pendingStart = 0;
+        for (int b=0; b<numBlocks; b+=blocksPerRound)
+        {
+            List<Block> blocks = new ArrayList<Block>();
+            for (int i=b; i<Math.min(b+blocksPerRound, numBlocks); i++)
+                blocks.add(new Block(i*framesPerBlock, Math.min((i+1)*framesPerBlock, numFrames)));
+            ParallelTasks.runAll(parallelism > 1 ? executor : null, blocks, parallelism);
+
+            for (int i=0; i<blocks.size(); i++)
+            {
+                int next = b+i+1;
+                merge(blocks.get(i));
+                blocks.set(i, null);
+                putOutput(next<numBlocks ? firstSamples[next] : outputLen);
+            }
+        }
+        putOutput(outputLen);
+        putEndOfStream();
+    }
+
+    /**
+     * For each block, the first output sample that it or any later block can write.
+     */
+    private int[] getFirstSamples(int numBlocks)
+    {
+        int[] firstSamples = new int[numBlocks];
+        int first = outputLen;
+        for (int b=numBlocks-1; b>=0; b--)
+        {
+            for (int i=b*framesPerBlock; i<Math.min((b+1)*framesPerBlock, hnmSignal.frames.length); i++)
+            {
+                if (i<hnmSignal.frames.length-1)
+                    first = Math.min(first, harmonics.getFrameRange(hnmSignal.frames[i], hnmSignal.frames[i+1], i==0, false)[0]);
+                int[] noiseRange = getNoiseRange(i);
+                if (noiseRange!=null)
+                    first = Math.min(first, Math.max(0, noiseRange[0]));
+            }
+            firstSamples[b] = first;
+        }
+        return firstSamples;
+    }
+
+    private int[] getNoiseRange(int i)
+    {
+        HntmSpeechFrame[] frames = hnmSignal.frames;
+        return NoisePartWaveformSynthesizer.getFrameRange(i>0 ? frames[i-1] : null, frames[i], i<frames.length-1 ? frames[i+1] : null,
+                hnmSignal.samplingRateInHz, i==0, i==frames.length-1,
+                leftContexts!=null, leftContexts!=null ? leftContexts[i] : null,
+                rightContexts!=null, rightContexts!=null ? rightContexts[i] : null);
+    }
+
+    /**
+     * Add the harmonic tracks and the noise of a block to the pending output.
+     */
+    private void merge(Block block)
+    {
+        assert block.tracksLength==0 || block.tracksStart>=pendingStart;
+        assert block.noise.length==0 || block.noiseStart>=pendingStart;
+        int numTracks = Math.max(pendingTracks!=null ? pendingTracks.length : 0, block.tracks.length);
+        int end = pendingStart;
+        if (block.tracksLength>0)
+            end = Math.max(end, block.tracksStart+block.tracksLength);
+        if (block.noise.length>0)
+            end = Math.max(end, block.noiseStart+block.noise.length);
+        ensurePending(numTracks, end);
+
+        int offset = block.tracksStart-pendingStart;
+        for (int k=0; k<block.tracks.length; k++)
+        {
+            for (int n=0; n<block.tracksLength; n++)
+            {
+                double value = block.tracks[k][n];
+                if (!Double.isNaN(value))
+                    pendingTracks[k][offset+n] = value;
+                if (overlapping)
+                    pendingOverlapWgts[k][offset+n] += block.overlapWgts[k][n];
+            }
+        }
+
+        offset = block.noiseStart-pendingStart;
+        for (int n=0; n<block.noise.length; n++)
+        {
+            pendingNoise[offset+n] += block.noise[n];
+            pendingNoiseWgts[offset+n] += block.noiseWgts[n];
+        }
+    }
+
+    /**
+     * Pass on the output up to the given sample, which must not be written by any block still to be merged.
+     */
+    private void putOutput(int end)
+    {
+        if (end<=pendingStart)
+            return;
+        ensurePending(pendingTracks!=null ? pendingTracks.length : 0, end);
+        int len = end-pendingStart;
+        double[] output = new double[len];
+        for (int k=0; k<pendingTracks.length; k++)
+        {
+            for (int n=0; n<len; n++)
+            {
+                double value = pendingTracks[k][n];
+                if (Double.isNaN(value))
+                    continue;
+                if (overlapping && pendingOverlapWgts[k][n]>0.0f)
+                    output[n] += value/pendingOverlapWgts[k][n];
+                else
+                    output[n] += value;
+            }
+        }
+        for (int n=0; n<len; n++)
+        {
+            double noise = pendingNoise[n];
+            if (pendingNoiseWgts[n]>1.0e-10)
+                noise /= pendingNoiseWgts[n];
+            output[n] = (output[n]+noise)*outputScale;
+        }
+        putData(output, 0, len);
+
+        // keep only the part which is not complete yet:
+        int remaining = pendingNoise.length-len;
+        for (int k=0; k<pendingTracks.length; k++)
+        {
+            pendingTracks[k] = Arrays.copyOfRange(pendingTracks[k], len, len+remaining);
+            if (overlapping)
+                pendingOverlapWgts[k] = Arrays.copyOfRange(pendingOverlapWgts[k], len, len+remaining);
+        }
+        pendingNoise = Arrays.copyOfRange(pendingNoise, len, len+remaining);
+        pendingNoiseWgts = Arrays.copyOfRange(pendingNoiseWgts, len, len+remaining);
+        pendingStart = end;
+    }
+
+    /**
+     * Make sure the pending output has at least numTracks tracks and extends at least up to sample end.
+     */
+    private void ensurePending(int numTracks, int end)
+    {
+        int oldLen = pendingNoise!=null ? pendingNoise.length : 0;
+        int len = Math.max(oldLen, end-pendingStart);
+        int oldTracks = pendingTracks!=null ? pendingTracks.length : 0;
+        if (len==oldLen && numTracks<=oldTracks)
+            return;
+
+        double[][] tracks = new double[Math.max(numTracks, oldTracks)][];
+        double[][] overlapWgts = overlapping ? new double[tracks.length][] : null;
+        for (int k=0; k<tracks.length; k++)
+        {
+            tracks[k] = new double[len];
+            Arrays.fill(tracks[k], Double.NaN);
+            if (overlapping)
+                overlapWgts[k] = new double[len];
+            if (k<oldTracks)
+            {
+                System.arraycopy(pendingTracks[k], 0, tracks[k], 0, oldLen);
+                if (overlapping)
+                    System.arraycopy(pendingOverlapWgts[k], 0, overlapWgts[k], 0, oldLen);
+            }
+        }
+        pendingTracks = tracks;
+        pendingOverlapWgts = overlapWgts;
+        double[] noise = new double[len];
+        double[] noiseWgts = new double[len];
+        if (oldLen>0)
+        {
+            System.arraycopy(pendingNoise, 0, noise, 0, oldLen);
+            System.arraycopy(pendingNoiseWgts, 0, noiseWgts, 0, oldLen);
+        }
+        pendingNoise = noise;
+        pendingNoiseWgts = noiseWgts;
+    }
+
+    /**
+     * The harmonic tracks and noise of the frames from start to end-1, rendered into buffers
+     * covering only the output samples they write.
+     */
+    private class Block implements Runnable
+    {
+        private final int start;
+        private final int end;
+        int tracksStart;
+        int tracksLength;
+        double[][] tracks;
+        double[][] overlapWgts;
+        int noiseStart;
+        double[] noise;
+        double[] noiseWgts;
+
+        Block(int start, int end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        public void run()
+        {
+            HntmSpeechFrame[] frames = hnmSignal.frames;
+            // As in HarmonicPartLinearPhaseInterpolatorSynthesizer.synthesizeAll(),
+            // the harmonic part is synthesized from each frame to the next one, so not for the last frame:
+            int harmonicsEnd = Math.min(end, frames.length-1);
+            int numTracks = 0;
+            tracksStart = outputLen;
+            int tracksEnd = 0;
+            for (int i=start; i<harmonicsEnd; i++)
+            {
+                int[] range = harmonics.getFrameRange(frames[i], frames[i+1], i==0, false);
+                tracksStart = Math.min(tracksStart, range[0]);
+                tracksEnd = Math.max(tracksEnd, range[1]);
+                numTracks = Math.max(numTracks, harmonics.getNumTracks(frames[i], frames[i+1]));
+            }
+            tracksLength = Math.max(0, tracksEnd-tracksStart);
+            tracks = new double[numTracks][tracksLength];
+            overlapWgts = overlapping ? new double[numTracks][tracksLength] : null;
+            for (int k=0; k<numTracks; k++)
+                Arrays.fill(tracks[k], Double.NaN);
+            for (int i=start; i<harmonicsEnd; i++)
+                harmonics.processFrame(i>0 ? frames[i-1] : null, frames[i], frames[i+1], i==0, false, tracks, overlapWgts, tracksStart);
+
+            noiseStart = outputLen;
+            int noiseEnd = 0;
+            for (int i=start; i<end; i++)
+            {
+                int[] range = getNoiseRange(i);
+                if (range!=null)
+                {
+                    noiseStart = Math.min(noiseStart, Math.max(0, range[0]));
+                    noiseEnd = Math.max(noiseEnd, Math.min(outputLen, range[1]));
+                }
+            }
+            noise = new double[Math.max(0, noiseEnd-noiseStart)];
+            noiseWgts = new double[noise.length];
+            for (int i=start; i<end; i++)
+            {
+                NoisePartWaveformSynthesizer.processFrame(i>0 ? frames[i-1] : null, frames[i], i<frames.length-1 ? frames[i+1] : null,
+                        hnmSignal.samplingRateInHz, i==0, i==frames.length-1,
+                        noise, noiseWgts, noiseStart, outputLen,
+                        leftContexts!=null, leftContexts!=null ? leftContexts[i] : null,
+                        rightContexts!=null, rightContexts!=null ? rightContexts[i] : null);
+            }
+        }
+    }
+}
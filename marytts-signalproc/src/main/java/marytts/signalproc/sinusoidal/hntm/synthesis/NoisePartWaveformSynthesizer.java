@@ -154,6 +154,23 @@ public class NoisePartWaveformSynthesizer
                                     double[] noisePartWaveform, double[] wgts, 
                                     boolean existsLeftContexts, HntmSpeechFrame currentLeftContext,
                                     boolean existsRightContexts, HntmSpeechFrame currentRightContext)
+    {
+        processFrame(prevFrame, currentFrame, nextFrame, 
+                     samplingRateInHz, isFirstSynthesisFrame, isLastSynthesisFrame,
+                     noisePartWaveform, wgts, 0, noisePartWaveform.length,
+                     existsLeftContexts, currentLeftContext,
+                     existsRightContexts, currentRightContext);
+    }
+    
+    /**
+     * Overlap-add the noise waveform of the current frame, with its left and right contexts, to the output samples
+     * n&lt;outputLen it covers (see {@link #getFrameRange}), which are stored in noisePartWaveform[n-offset] and wgts[n-offset].
+     */
+    public static void processFrame(HntmSpeechFrame prevFrame, HntmSpeechFrame currentFrame, HntmSpeechFrame nextFrame,
+                                    int samplingRateInHz, boolean isFirstSynthesisFrame, boolean isLastSynthesisFrame,
+                                    double[] noisePartWaveform, double[] wgts, int offset, int outputLen,
+                                    boolean existsLeftContexts, HntmSpeechFrame currentLeftContext,
+                                    boolean existsRightContexts, HntmSpeechFrame currentRightContext)
     {
         double[] frameWaveform = null;
         int waveformNoiseStartInd;
@@ -166,52 +183,12 @@ public class NoisePartWaveformSynthesizer
         {
             frameWaveform = ((FrameNoisePartWaveform)currentFrame.n).waveform2Doubles();
             
-            if (!existsLeftContexts) //Take the previous frame parameters as left context (i.e. the HNM signal is a continuous one, not concatenated one
-            {
-                if (!isFirstSynthesisFrame)
-                    leftContextWaveform = ((FrameNoisePartWaveform)prevFrame.n).waveform2Doubles();
-                else
-                {
-                    leftContextWaveform = new double[frameWaveform.length];
-                    Arrays.fill(leftContextWaveform, 0.0);
-                }
-            }
-            else
-            {
-                if (currentLeftContext!=null && currentLeftContext.n != null) {
-                    leftContextWaveform = ArrayUtils.copy(((FrameNoisePartWaveform)currentLeftContext.n).waveform2Doubles());
-                }
-                else
-                {
-                    leftContextWaveform = new double[frameWaveform.length];
-                    Arrays.fill(leftContextWaveform, 0.0);
-                }   
-            }
+            leftContextWaveform = getLeftContextWaveform(prevFrame, frameWaveform.length, isFirstSynthesisFrame, existsLeftContexts, currentLeftContext);
 
             waveformNoiseStartInd = SignalProcUtils.time2sample(currentFrame.tAnalysisInSeconds, samplingRateInHz);
             waveformNoiseStartInd -= leftContextWaveform.length;
             
-            if (!existsRightContexts) //Take the next frame parameters as right context (i.e. the HNM signal is a continuous one, not concatenated one
-            {
-                if (!isLastSynthesisFrame)
-                    rightContextWaveform = ((FrameNoisePartWaveform)nextFrame.n).waveform2Doubles();
-                else
-                {
-                    rightContextWaveform = new double[frameWaveform.length];
-                    Arrays.fill(rightContextWaveform, 0.0);
-                }
-            }
-            else
-            {
-                if (currentRightContext!=null && currentRightContext.n != null) {
-                    rightContextWaveform = ArrayUtils.copy(((FrameNoisePartWaveform)currentRightContext.n).waveform2Doubles());
-                }
-                else
-                {
-                    rightContextWaveform = new double[frameWaveform.length];
-                    Arrays.fill(rightContextWaveform, 0.0);
-                }
-            }
+            rightContextWaveform = getRightContextWaveform(nextFrame, frameWaveform.length, isLastSynthesisFrame, existsRightContexts, currentRightContext);
 
             frameWaveform = ArrayUtils.combine(leftContextWaveform, frameWaveform);
             frameWaveform = ArrayUtils.combine(frameWaveform, rightContextWaveform);
@@ -220,16 +197,97 @@ public class NoisePartWaveformSynthesizer
             {
                 Window w = new HammingWindow(frameWaveform.length);
                 double[] wgt = w.getCoeffs();
-                for (j=waveformNoiseStartInd; j<Math.min(waveformNoiseStartInd+frameWaveform.length, noisePartWaveform.length); j++)
+                for (j=waveformNoiseStartInd; j<Math.min(waveformNoiseStartInd+frameWaveform.length, outputLen); j++)
                 {
                     if (waveformNoiseStartInd+j>=0)
                     {
-                        noisePartWaveform[j] += frameWaveform[j-waveformNoiseStartInd]*wgt[j-waveformNoiseStartInd];
-                        wgts[j] += wgt[j-waveformNoiseStartInd];
+                        noisePartWaveform[j-offset] += frameWaveform[j-waveformNoiseStartInd]*wgt[j-waveformNoiseStartInd];
+                        wgts[j-offset] += wgt[j-waveformNoiseStartInd];
                     }
                 }
             }
         }
     }
+    
+    /**
+     * The range of output samples covered by the noise waveform of the current frame with its left and right contexts,
+     * as {first, last+1}; the first sample can be negative. 
+     * @return the range, or null if the frame has no waveform noise part.
+     */
+    public static int[] getFrameRange(HntmSpeechFrame prevFrame, HntmSpeechFrame currentFrame, HntmSpeechFrame nextFrame,
+                                      int samplingRateInHz, boolean isFirstSynthesisFrame, boolean isLastSynthesisFrame,
+                                      boolean existsLeftContexts, HntmSpeechFrame currentLeftContext,
+                                      boolean existsRightContexts, HntmSpeechFrame currentRightContext)
+    {
+        if (currentFrame.n==null || !(currentFrame.n instanceof FrameNoisePartWaveform))
+            return null;
+        
+        int frameLen = ((FrameNoisePartWaveform)currentFrame.n).getVectorSize();
+        int leftLen = getLeftContextWaveform(prevFrame, frameLen, isFirstSynthesisFrame, existsLeftContexts, currentLeftContext).length;
+        int rightLen = getRightContextWaveform(nextFrame, frameLen, isLastSynthesisFrame, existsRightContexts, currentRightContext).length;
+        int first = SignalProcUtils.time2sample(currentFrame.tAnalysisInSeconds, samplingRateInHz) - leftLen;
+        
+        return new int[] {first, first+leftLen+frameLen+rightLen};
+    }
+    
+    private static double[] getLeftContextWaveform(HntmSpeechFrame prevFrame, int frameLen, boolean isFirstSynthesisFrame,
+                                                   boolean existsLeftContexts, HntmSpeechFrame currentLeftContext)
+    {
+        double[] leftContextWaveform;
+        
+        if (!existsLeftContexts) //Take the previous frame parameters as left context (i.e. the HNM signal is a continuous one, not concatenated one
+        {
+            if (!isFirstSynthesisFrame)
+                leftContextWaveform = ((FrameNoisePartWaveform)prevFrame.n).waveform2Doubles();
+            else
+            {
+                leftContextWaveform = new double[frameLen];
+                Arrays.fill(leftContextWaveform, 0.0);
+            }
+        }
+        else
+        {
+            if (currentLeftContext!=null && currentLeftContext.n != null) {
+                leftContextWaveform = ArrayUtils.copy(((FrameNoisePartWaveform)currentLeftContext.n).waveform2Doubles());
+            }
+            else
+            {
+                leftContextWaveform = new double[frameLen];
+                Arrays.fill(leftContextWaveform, 0.0);
+            }   
+        }
+        
+        return leftContextWaveform;
+    }
+    
+    private static double[] getRightContextWaveform(HntmSpeechFrame nextFrame, int frameLen, boolean isLastSynthesisFrame,
+                                                    boolean existsRightContexts, HntmSpeechFrame currentRightContext)
+    {
+        double[] rightContextWaveform;
+        
+        if (!existsRightContexts) //Take the next frame parameters as right context (i.e. the HNM signal is a continuous one, not concatenated one
+        {
+            if (!isLastSynthesisFrame)
+                rightContextWaveform = ((FrameNoisePartWaveform)nextFrame.n).waveform2Doubles();
+            else
+            {
+                rightContextWaveform = new double[frameLen];
+                Arrays.fill(rightContextWaveform, 0.0);
+            }
+        }
+        else
+        {
+            if (currentRightContext!=null && currentRightContext.n != null) {
+                rightContextWaveform = ArrayUtils.copy(((FrameNoisePartWaveform)currentRightContext.n).waveform2Doubles());
+            }
+            else
+            {
+                rightContextWaveform = new double[frameLen];
+                Arrays.fill(rightContextWaveform, 0.0);
+            }
+        }
+        
+        return rightContextWaveform;
+    }
 }
 
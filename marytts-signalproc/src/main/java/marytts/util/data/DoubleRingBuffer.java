@@ -0,0 +1,277 @@
+/**
+ * Copyright 2009 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package marytts.util.data;
+
+/**
+ * A bounded single-producer / single-consumer channel for primitive doubles.
+ * Data is copied into a fixed ring of doubles, so that neither writing nor reading
+ * allocates any objects. Exactly one thread may write and exactly one thread may read
+ * at any time; the two threads only synchronize when the ring is full or empty.
+ *
+ * After the producer has written all its data, it must call {@link #close()};
+ * the consumer will then drain the remaining data and see end of stream.
+ * If the consumer stops reading altogether, a producer blocked on the full ring
+ * gives up after the write timeout, so that it does not block its thread forever.
+ *
+ * @author marc
+ *
+ */
+public class DoubleRingBuffer {
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private final double[] ring;
+    private final int mask;
+    private final long writeTimeoutMillis;
+    private final Object lock = new Object();
+
+    // Total number of doubles ever written / read; the difference is the fill level.
+    // Only the producer writes writeCount, only the consumer writes readCount.
+    private volatile long writeCount = 0;
+    private volatile long readCount = 0;
+    private volatile boolean closed = false;
+    private volatile boolean readerWaiting = false;
+    // how many doubles the waiting reader needs before it is worth waking it up
+    private volatile int readerNeeds = 1;
+    private volatile boolean writerWaiting = false;
+
+    public DoubleRingBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DoubleRingBuffer(int minCapacity) {
+        this(minCapacity, 0);
+    }
+
+    /**
+     * Create a ring buffer that can hold at least the given number of doubles.
+     * @param minCapacity the minimum capacity; the actual capacity is the next power of two.
+     * @param writeTimeoutMillis how long a producer waits for space in the full ring, while
+     * the consumer reads nothing at all, before giving up; 0 means wait forever.
+     */
+    public DoubleRingBuffer(int minCapacity, long writeTimeoutMillis) {
+        if (minCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive, but is "+minCapacity);
+        }
+        int capacity = 1;
+        while (capacity < minCapacity) capacity <<= 1;
+        ring = new double[capacity];
+        mask = capacity - 1;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    /**
+     * The number of doubles that can currently be read without blocking.
+     * @return
+     */
+    public int available() {
+        return (int) (writeCount - readCount);
+    }
+
+    /**
+     * Whether the producer has signalled that no more data will be written.
+     * Note that there may still be data available for reading.
+     * @return
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Whether the producer has closed the buffer and all data has been read.
+     * @return
+     */
+    public boolean isExhausted() {
+        // read closed before available: all data is written before close() is called.
+        return closed && available() == 0;
+    }
+
+    /**
+     * Write a single value, blocking while the ring is full.
+     * To be called from the producing thread only.
+     * @param value
+     */
+    public void put(double value) {
+        long w = writeCount;
+        if (w - readCount == ring.length) {
+            awaitSpace();
+        }
+        ring[(int) w & mask] = value;
+        writeCount = w + 1;
+        if (readerWaiting && w + 1 - readCount >= readerNeeds) {
+            signal();
+        }
+    }
+
+    /**
+     * Write len values from data, starting at off, blocking while the ring is full.
+     * To be called from the producing thread only.
+     * @param data
+     * @param off
+     * @param len
+     */
+    public void put(double[] data, int off, int len) {
+        if (off < 0 || len < 0 || off + len > data.length) {
+            throw new IndexOutOfBoundsException("off="+off+", len="+len+", data.length="+data.length);
+        }
+        while (len > 0) {
+            long w = writeCount;
+            int free = ring.length - (int) (w - readCount);
+            if (free == 0) {
+                awaitSpace();
+                continue;
+            }
+            int n = Math.min(free, len);
+            int pos = (int) w & mask;
+            int firstPart = Math.min(n, ring.length - pos);
+            System.arraycopy(data, off, ring, pos, firstPart);
+            if (firstPart < n) {
+                System.arraycopy(data, off + firstPart, ring, 0, n - firstPart);
+            }
+            writeCount = w + n;
+            off += n;
+            len -= n;
+            if (readerWaiting && writeCount - readCount >= readerNeeds) {
+                signal();
+            }
+        }
+    }
+
+    /**
+     * Signal that no more data will be written.
+     * To be called from the producing thread only.
+     */
+    public void close() {
+        closed = true;
+        signal();
+    }
+
+    /**
+     * Read up to len values into target, starting at off. This blocks until either len values
+     * have been read or the producer has closed the buffer and all data has been read.
+     * To be called from the consuming thread only.
+     * @param target
+     * @param off
+     * @param len
+     * @return the number of values read; this is less than len only at the end of the stream.
+     */
+    public int get(double[] target, int off, int len) {
+        if (off < 0 || len < 0 || off + len > target.length) {
+            throw new IndexOutOfBoundsException("off="+off+", len="+len+", target.length="+target.length);
+        }
+        int readSum = 0;
+        while (readSum < len) {
+            long r = readCount;
+            int avail = (int) (writeCount - r);
+            if (avail == 0) {
+                if (!awaitData(len - readSum)) {
+                    break; // end of stream
+                }
+                continue;
+            }
+            int n = Math.min(avail, len - readSum);
+            int pos = (int) r & mask;
+            int firstPart = Math.min(n, ring.length - pos);
+            System.arraycopy(ring, pos, target, off + readSum, firstPart);
+            if (firstPart < n) {
+                System.arraycopy(ring, 0, target, off + readSum + firstPart, n - firstPart);
+            }
+            readCount = r + n;
+            readSum += n;
+            if (writerWaiting) {
+                signal();
+            }
+        }
+        return readSum;
+    }
+
+    private void signal() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Block the producer until there is space in the ring.
+     * @throws IllegalStateException if the consumer has not read anything within the write timeout.
+     */
+    private void awaitSpace() {
+        synchronized (lock) {
+            writerWaiting = true;
+            try {
+                // the volatile write of writerWaiting precedes the re-check,
+                // so the consumer either sees the flag or we see its progress.
+                long deadline = System.currentTimeMillis() + writeTimeoutMillis;
+                while (writeCount - readCount == ring.length) {
+                    if (writeTimeoutMillis <= 0) {
+                        lock.wait();
+                    } else {
+                        long toWait = deadline - System.currentTimeMillis();
+                        if (toWait <= 0) {
+                            throw new IllegalStateException("Consumer has not read any data for "+writeTimeoutMillis+" ms -- giving up");
+                        }
+                        lock.wait(toWait);
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Unexpected interruption", e);
+            } finally {
+                writerWaiting = false;
+            }
+        }
+    }
+
+    /**
+     * Block the consumer until there is data in the ring or the stream is closed.
+     * The producer is asked to wake us up only once <code>needed</code> values (or as many as fit
+     * into the ring) are available, so that a producer writing single values does not
+     * have to hand over every single one of them.
+     * @param needed the number of values the consumer is waiting for
+     * @return true if data is available, false if the stream is closed and empty.
+     */
+    private boolean awaitData(int needed) {
+        synchronized (lock) {
+            readerNeeds = Math.min(needed, ring.length);
+            readerWaiting = true;
+            try {
+                while (writeCount - readCount < readerNeeds) {
+                    if (closed) {
+                        // data written before close() is visible now; check once more
+                        return writeCount != readCount;
+                    }
+                    if (writerWaiting) {
+                        // the producer is blocked on a full ring; take what there is
+                        break;
+                    }
+                    lock.wait();
+                }
+                return true;
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Unexpected interruption", e);
+            } finally {
+                readerWaiting = false;
+            }
+        }
+    }
+}
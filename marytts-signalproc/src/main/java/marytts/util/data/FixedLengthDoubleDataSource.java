@@ -0,0 +1,75 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.data;
+
+import java.util.Arrays;
+
+/**
+ * A double data source delivering exactly a given number of samples from its input:
+ * if the input is longer, the rest is not read; if it is shorter, silence is appended.
+ * This makes the length of a stream known in advance without reading it.
+ *
+ * @author marc
+ *
+ */
+public class FixedLengthDoubleDataSource extends BaseDoubleDataSource {
+    protected long remaining;
+
+    /**
+     * @param inputSource the source of the data
+     * @param length the number of samples to deliver
+     */
+    public FixedLengthDoubleDataSource(DoubleDataSource inputSource, long length) {
+        super(inputSource);
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative");
+        }
+        this.remaining = length;
+        this.dataLength = length;
+    }
+
+    public boolean hasMoreData()
+    {
+        return remaining > 0;
+    }
+
+    public int available()
+    {
+        // once the input is exhausted, the padding is available right away:
+        int fromInput = inputSource.hasMoreData() ? inputSource.available() : Integer.MAX_VALUE;
+        return (int) Math.min(remaining, fromInput);
+    }
+
+    public int getData(double[] target, int targetPos, int length)
+    {
+        if (target.length - targetPos < length) {
+            throw new IllegalArgumentException("Target array cannot hold enough data ("+(target.length-targetPos) + " left, but " + length + " requested)");
+        }
+        int toDeliver = (int) Math.min(length, remaining);
+        int read = 0;
+        if (inputSource.hasMoreData()) {
+            read = inputSource.getData(target, targetPos, toDeliver);
+        }
+        Arrays.fill(target, targetPos+read, targetPos+toDeliver, 0.);
+        remaining -= toDeliver;
+        return toDeliver;
+    }
+
+}
@@ -20,22 +20,48 @@
 
 package marytts.util.data;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import marytts.signalproc.process.InlineDataProcessor;
+import marytts.util.MaryUtils;
+import marytts.util.concurrent.MaryThreadPool;
 
 /**
+ * A double data source whose data is produced by a separate thread.
+ * The producing thread hands its data to the reading thread through a
+ * {@link DoubleRingBuffer}, so that data is passed as primitive doubles
+ * without any per-sample allocation.
+ * <p>
+ * The producers of all instances are run on one shared thread pool
+ * (see {@link #setProducerExecutor(ExecutorService)}). The ring buffer provides
+ * back-pressure: a producer that gets too far ahead of its reader blocks until
+ * the reader catches up, and keeps its thread meanwhile. So that producers blocked on
+ * readers that are not reading yet cannot hold up other producers, a reader never waits
+ * for a producer that has no thread: if the pool rejected the producer, or the producer is
+ * still waiting in the pool's queue when its data is first read, the reading thread runs it
+ * itself, collecting all its data in this data source's buffer. No threads are created
+ * beyond those of the pool.
  * @author marc
  *
  */
 public abstract class ProducingDoubleDataSource extends BufferedDoubleDataSource implements Runnable {
-    private static final Double END_OF_STREAM = Double.NEGATIVE_INFINITY;
+    public static final int DEFAULT_QUEUE_SIZE = 0;
+    public static final long DEFAULT_PRODUCER_TIMEOUT = 300000;
     
+    private static ExecutorService producerExecutor = null;
+    private static volatile long producerTimeout = DEFAULT_PRODUCER_TIMEOUT;
     
-    protected ArrayBlockingQueue<Double> queue = new ArrayBlockingQueue<Double>(1024);
-    private Thread dataProducingThread = null;
-    private boolean hasSentEndOfStream = false;
-    private boolean hasReceivedEndOfStream = false;
+    protected DoubleRingBuffer ringBuffer = new DoubleRingBuffer(DoubleRingBuffer.DEFAULT_CAPACITY, producerTimeout);
+    private boolean started = false;
+    // the task running the producer, and the executor it was given to
+    private Runnable producerTask;
+    private ExecutorService producerTaskExecutor;
+    private volatile boolean producerTaskRejected = false;
+    // used by the reading thread only:
+    private boolean producerTaskChecked = false;
+    private boolean producingInline = false;
 
 
     
@@ -57,58 +83,168 @@ public abstract class ProducingDoubleDataSource extends BufferedDoubleDataSource
         this.dataLength = numDataThatWillBeProduced;
     }
 
+    /**
+     * Set the executor on which the producers of all ProducingDoubleDataSources are run.
+     * Any previously set executor is not shut down, so producers already running on it
+     * can complete. Producers it rejects, and, if it is a {@link ThreadPoolExecutor}, producers
+     * still in its queue when their data is first read, are run by the reading thread.
+     * @param executor
+     */
+    public static synchronized void setProducerExecutor(ExecutorService executor) {
+        producerExecutor = executor;
+    }
+    
+    /**
+     * Set how long, in milliseconds, a producer waits for its reader to read any data
+     * before it gives up and frees its thread. This applies to data sources created afterwards.
+     * @param millis the timeout, or 0 to wait forever.
+     */
+    public static void setProducerTimeout(long millis) {
+        producerTimeout = millis;
+    }
+    
+    /**
+     * Get the executor on which producers are run. If none has been set,
+     * a {@link MaryThreadPool} with one thread per processor and no queue is created.
+     * @return
+     */
+    public static synchronized ExecutorService getProducerExecutor() {
+        if (producerExecutor == null) {
+            producerExecutor = new MaryThreadPool("DataProducer", MaryThreadPool.threadsFromSetting(0), DEFAULT_QUEUE_SIZE);
+        }
+        return producerExecutor;
+    }
+
+    /**
+     * Start producing data on the shared producer executor. If the executor
+     * has no thread available, the data is produced by the reading thread
+     * when it first reads from this data source.
+     */
     public void start() {
-        dataProducingThread = new Thread(this);
-        dataProducingThread.start();
+        producerTask = new Runnable() {
+            public void run() {
+                try {
+                    ProducingDoubleDataSource.this.run();
+                } finally {
+                    // make sure the reader is not left waiting if run() fails
+                    ringBuffer.close();
+                }
+            }
+        };
+        producerTaskExecutor = getProducerExecutor();
+        try {
+            producerTaskExecutor.execute(producerTask);
+        } catch (RejectedExecutionException e) {
+            producerTaskRejected = true;
+        }
+        started = true;
+    }
+
+    /**
+     * Make sure that the data is being produced before the reading thread waits for it:
+     * if the producer did not get a thread, run it in the reading thread.
+     * @throws IllegalStateException if start() has not been called
+     */
+    private void ensureProducing() throws IllegalStateException {
+        checkStarted();
+        if (producerTaskChecked) {
+            return;
+        }
+        producerTaskChecked = true;
+        if (producerTaskRejected
+                || producerTaskExecutor instanceof ThreadPoolExecutor
+                && ((ThreadPoolExecutor) producerTaskExecutor).remove(producerTask)) {
+            producingInline = true;
+            try {
+                producerTask.run();
+            } catch (RuntimeException e) {
+                // as on a pool thread, a failing producer ends the data rather than the reader
+                MaryUtils.getLogger("ProducingDoubleDataSource").warn("Producer failed", e);
+            } finally {
+                producingInline = false;
+            }
+        }
     }
 
     /**
      * Subclasses must implement this method such that it produces data and sends it through
-     * {@link #putOneDataPoint(double)}.
+     * {@link #putOneDataPoint(double)} or {@link #putData(double[], int, int)}.
      * When all data is sent, the subclass must call {@link #putEndOfStream()} exactly once.
      */
     public abstract void run();
     
     /**
-     * The producing thread tries to put ont data item into the queue.
+     * The producing thread tries to put one data item into the queue.
      * @param value
      */
     public void putOneDataPoint(double value) {
-        try {
-            queue.put(value);
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Unexpected interruption", e);
+        if (producingInline) {
+            makeRoomInBuffer(1);
+            buf[writePos] = value;
+            addedToBuffer(1);
+        } else {
+            ringBuffer.put(value);
         }
     }
+
+    /**
+     * The producing thread tries to put len data items from data, starting at off, into the queue.
+     * This is considerably more efficient than calling {@link #putOneDataPoint(double)} for each item.
+     * @param data
+     * @param off
+     * @param len
+     */
+    public void putData(double[] data, int off, int len) {
+        if (producingInline) {
+            makeRoomInBuffer(len);
+            System.arraycopy(data, off, buf, writePos, len);
+            addedToBuffer(len);
+        } else {
+            ringBuffer.put(data, off, len);
+        }
+    }
+
+    /**
+     * Make room for len data produced in the reading thread, to be written to the buffer at writePos.
+     */
+    private void makeRoomInBuffer(int len) {
+        if (bufferSpaceLeft() < len) {
+            increaseBufferSize(currentlyInBuffer() + len);
+        } else if (buf.length - writePos < len) {
+            compact();
+        }
+    }
+
+    /**
+     * Process the len data produced in the reading thread that were written to the buffer at writePos.
+     */
+    private void addedToBuffer(int len) {
+        if (dataProcessor != null) {
+            dataProcessor.applyInline(buf, writePos, len);
+        }
+        writePos += len;
+    }
     
     
     protected void putEndOfStream() {
-        putOneDataPoint(END_OF_STREAM);
-        hasSentEndOfStream  = true;
+        ringBuffer.close();
     }
     
 
     @Override
     public boolean hasMoreData() {
-        checkStarted();
-        return !isAllProductionDataRead() || available() > 0; 
+        ensureProducing();
+        return !isAllProductionDataRead() || currentlyInBuffer() > 0; 
     }
     
     @Override
     public int available() {
-        checkStarted();
+        ensureProducing();
         return currentlyInBuffer() + currentlyInQueue();
     }
 
     private int currentlyInQueue() {
-        if (isAllProductionDataRead()) {
-            return 0;
-        }
-        int inQueue = queue.size();
-        if (hasSentEndOfStream && !hasReceivedEndOfStream) {
-            inQueue -= 1;
-        }
-        return inQueue;
+        return ringBuffer.available();
     }
 
 
@@ -116,7 +252,7 @@ public abstract class ProducingDoubleDataSource extends BufferedDoubleDataSource
     @Override
     protected boolean readIntoBuffer(int minLength)
     {
-        checkStarted();
+        ensureProducing();
         if (isAllProductionDataRead()) {
             return false;
         }
@@ -128,35 +264,14 @@ public abstract class ProducingDoubleDataSource extends BufferedDoubleDataSource
             compact(); // create a contiguous space for the new data
         }
         // Now we have a buffer that can hold at least minLength new data points
-        int readSum = 0;
-        while (readSum < minLength) {
-            double data = getOneDataPoint();
-            if (data == END_OF_STREAM) {
-                hasReceivedEndOfStream = true;
-                break;
-            }
-            buf[writePos] = data;
-            writePos++;
-            readSum++;
-        }
+        int readSum = ringBuffer.get(buf, writePos, minLength);
+        writePos += readSum;
         if (dataProcessor != null) {
             dataProcessor.applyInline(buf, writePos-readSum, readSum);
         }
         return readSum == minLength;
     }
 
-    /**
-     * The reading thread tries to get one data item from the queue.
-     * @return
-     */
-    private double getOneDataPoint() {
-        try {
-            return queue.take();
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Unexpected interruption", e);
-        }
-    }
-    
     /**
      * @throws IllegalStateException
      */
@@ -167,11 +282,11 @@ public abstract class ProducingDoubleDataSource extends BufferedDoubleDataSource
     }
 
     private boolean isStarted() {
-        return dataProducingThread != null;
+        return started;
     }
 
 
     private boolean isAllProductionDataRead() {
-        return hasReceivedEndOfStream;
+        return ringBuffer.isExhausted();
     }
 }
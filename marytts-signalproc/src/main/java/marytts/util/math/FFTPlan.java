@@ -0,0 +1,324 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.math;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A precomputed FFT for one power-of-two size. Unlike {@link FFT}, which recomputes
+ * the bit-reversal permutation and the twiddle factors on every call, a plan computes
+ * them once; plans are cached per size and can be shared between threads.
+ * <p>
+ * The transforms work in place and compute exactly what the corresponding methods
+ * in {@link FFT} compute, with the same data layout and scaling:
+ * {@link #transform(double[], double[], boolean)} like {@link FFT#transform(double[], double[], boolean)},
+ * {@link #transform(double[], boolean)} like {@link FFT#transform(double[], boolean)}, and
+ * {@link #realTransform(double[], boolean)} like {@link FFT#realTransform(double[], boolean)},
+ * which computes the transform of a real signal of length N by a complex transform of size N/2.
+ * Variants with an offset and for several frames at once allow transforming frames stored in a
+ * larger array without copying.
+ *
+ * @author marc
+ *
+ */
+public final class FFTPlan
+{
+    private static final AtomicReferenceArray<FFTPlan> plans = new AtomicReferenceArray<FFTPlan>(31);
+
+    /**
+     * Get the plan for the given size.
+     * @param n the size of the transform, which must be a power of two of at least 2
+     * @return the plan
+     * @throws IllegalArgumentException if n is not a power of two
+     */
+    public static FFTPlan get(int n)
+    {
+        if (!MathUtils.isPowerOfTwo(n)) {
+            throw new IllegalArgumentException("FFT size must be a power of two, got "+n);
+        }
+        int log2n = Integer.numberOfTrailingZeros(n);
+        FFTPlan plan = plans.get(log2n);
+        if (plan == null) {
+            // if two threads get here at once, both plans are equally good:
+            plan = new FFTPlan(n);
+            plans.set(log2n, plan);
+        }
+        return plan;
+    }
+
+    private final int n;
+    // pairs of indices to swap for the bit-reversal permutation:
+    private final int[] swaps;
+    // cos and sin of -2*PI*k/n, for 0<=k<n/2:
+    private final double[] cos;
+    private final double[] sin;
+    // the plan of size n/2 used by the real transform:
+    private final FFTPlan halfPlan;
+
+    private FFTPlan(int n)
+    {
+        this.n = n;
+        int log2n = Integer.numberOfTrailingZeros(n);
+        int numSwaps = 0;
+        int[] allSwaps = new int[n];
+        for (int i=0; i<n && log2n>0; i++) {
+            int iReverse = Integer.reverse(i) >>> (32 - log2n);
+            if (i < iReverse) {
+                allSwaps[numSwaps++] = i;
+                allSwaps[numSwaps++] = iReverse;
+            }
+        }
+        swaps = new int[numSwaps];
+        System.arraycopy(allSwaps, 0, swaps, 0, numSwaps);
+        cos = new double[n/2];
+        sin = new double[n/2];
+        for (int k=0; k<n/2; k++) {
+            double phi = -MathUtils.TWOPI * k / n;
+            cos[k] = Math.cos(phi);
+            sin[k] = Math.sin(phi);
+        }
+        halfPlan = n >= 4 ? get(n/2) : null;
+    }
+
+    /**
+     * @return the size of the transforms computed by this plan
+     */
+    public int getSize()
+    {
+        return n;
+    }
+
+    /**
+     * Carry out the FFT or inverse FFT in place, as {@link FFT#transform(double[], double[], boolean)} does.
+     * @param real the real parts, of length {@link #getSize()}
+     * @param imag the imaginary parts, of length {@link #getSize()}
+     * @param inverse whether to calculate the FFT or the inverse FFT.
+     */
+    public void transform(double[] real, double[] imag, boolean inverse)
+    {
+        if (real == null || imag == null)
+            throw new NullPointerException("Received null argument");
+        if (real.length != n || imag.length != n)
+            throw new IllegalArgumentException("Arrays must have length "+n);
+        for (int s=0; s<swaps.length; s+=2) {
+            int i = swaps[s];
+            int j = swaps[s+1];
+            double tmp = real[i]; real[i] = real[j]; real[j] = tmp;
+            tmp = imag[i]; imag[i] = imag[j]; imag[j] = tmp;
+        }
+        double sign = inverse ? -1 : 1;
+        for (int half=1, stride=n>>1; half<n; half<<=1, stride>>=1) {
+            int blockLength = half<<1;
+            for (int start=0; start<n; start+=blockLength) {
+                for (int k=0, t=0; k<half; k++, t+=stride) {
+                    double wReal = cos[t];
+                    double wImag = sign*sin[t];
+                    int i = start+k;
+                    int j = i+half;
+                    double tmpReal = wReal*real[j] - wImag*imag[j];
+                    double tmpImag = wReal*imag[j] + wImag*real[j];
+                    real[j] = real[i] - tmpReal;
+                    imag[j] = imag[i] - tmpImag;
+                    real[i] += tmpReal;
+                    imag[i] += tmpImag;
+                }
+            }
+        }
+        if (inverse) {
+            double scale = 1./n;
+            for (int i=0; i<n; i++) {
+                real[i] *= scale;
+                imag[i] *= scale;
+            }
+        }
+    }
+
+    /**
+     * Carry out the FFT or inverse FFT in place, as {@link FFT#transform(double[], boolean)} does.
+     * @param realAndImag the complex numbers, real parts at even and imaginary parts at odd indices,
+     * of length 2*{@link #getSize()}
+     * @param inverse whether to calculate the FFT or the inverse FFT.
+     */
+    public void transform(double[] realAndImag, boolean inverse)
+    {
+        if (realAndImag == null)
+            throw new NullPointerException("Received null argument");
+        if (realAndImag.length != 2*n)
+            throw new IllegalArgumentException("Array must have length "+(2*n));
+        transform(realAndImag, 0, inverse);
+    }
+
+    /**
+     * Carry out the FFT or inverse FFT in place on the complex numbers stored from offset on,
+     * real parts at even and imaginary parts at odd positions relative to offset.
+     * @param realAndImag the array holding 2*{@link #getSize()} values from offset on
+     * @param offset the position of the real part of the first complex number
+     * @param inverse whether to calculate the FFT or the inverse FFT.
+     */
+    public void transform(double[] realAndImag, int offset, boolean inverse)
+    {
+        if (offset < 0 || realAndImag.length - offset < 2*n)
+            throw new IllegalArgumentException("Array cannot hold "+n+" complex numbers from offset "+offset);
+        for (int s=0; s<swaps.length; s+=2) {
+            int i = offset + (swaps[s]<<1);
+            int j = offset + (swaps[s+1]<<1);
+            double tmp = realAndImag[i]; realAndImag[i] = realAndImag[j]; realAndImag[j] = tmp;
+            tmp = realAndImag[i+1]; realAndImag[i+1] = realAndImag[j+1]; realAndImag[j+1] = tmp;
+        }
+        double sign = inverse ? -1 : 1;
+        for (int half=1, stride=n>>1; half<n; half<<=1, stride>>=1) {
+            int blockLength = half<<1;
+            for (int start=0; start<n; start+=blockLength) {
+                for (int k=0, t=0; k<half; k++, t+=stride) {
+                    double wReal = cos[t];
+                    double wImag = sign*sin[t];
+                    int i = offset + ((start+k)<<1);
+                    int j = i + (half<<1);
+                    double tmpReal = wReal*realAndImag[j] - wImag*realAndImag[j+1];
+                    double tmpImag = wReal*realAndImag[j+1] + wImag*realAndImag[j];
+                    realAndImag[j] = realAndImag[i] - tmpReal;
+                    realAndImag[j+1] = realAndImag[i+1] - tmpImag;
+                    realAndImag[i] += tmpReal;
+                    realAndImag[i+1] += tmpImag;
+                }
+            }
+        }
+        if (inverse) {
+            double scale = 1./n;
+            for (int i=offset, end=offset+2*n; i<end; i++) {
+                realAndImag[i] *= scale;
+            }
+        }
+    }
+
+    /**
+     * Carry out the FFT of a real signal, or its inverse, in place, as {@link FFT#realTransform(double[], boolean)} does.
+     * In the frequency domain, fft[0] = real[0], fft[1] = real[N/2], fft[2*i] = real[i], fft[2*i+1] = imag[i] for 1<=i<N/2.
+     * @param data the signal or its transform, of length {@link #getSize()}, which must be at least 4
+     * @param inverse whether to calculate the FFT or the inverse FFT.
+     */
+    public void realTransform(double[] data, boolean inverse)
+    {
+        if (data == null)
+            throw new NullPointerException("Received null argument");
+        if (data.length != n)
+            throw new IllegalArgumentException("Array must have length "+n);
+        realTransform(data, 0, inverse);
+    }
+
+    /**
+     * Carry out the FFT of the real signal of length {@link #getSize()} stored from offset on, or its inverse, in place.
+     * @param data the array holding the signal or its transform from offset on
+     * @param offset the position of the first value
+     * @param inverse whether to calculate the FFT or the inverse FFT.
+     * @see #realTransform(double[], boolean)
+     */
+    public void realTransform(double[] data, int offset, boolean inverse)
+    {
+        if (halfPlan == null)
+            throw new IllegalArgumentException("Real transform needs a size of at least 4, not "+n);
+        if (offset < 0 || data.length - offset < n)
+            throw new IllegalArgumentException("Array cannot hold "+n+" values from offset "+offset);
+        double c2;
+        double sign;
+        if (!inverse) {
+            c2 = -0.5;
+            sign = 1;
+            halfPlan.transform(data, offset, false);
+        } else {
+            c2 = 0.5;
+            sign = -1;
+        }
+        // Separate the transforms of the even and odd samples, and recombine them
+        // to form the transform of the real signal:
+        int n4 = n>>2;
+        for (int i=1; i<n4; i++) {
+            int twoI = offset + (i<<1);
+            int nMinusTwoI = offset + n - (i<<1);
+            double h1r = 0.5*(data[twoI]+data[nMinusTwoI]);
+            double h1i = 0.5*(data[twoI+1]-data[nMinusTwoI+1]);
+            double h2r = -c2*(data[twoI+1]+data[nMinusTwoI+1]);
+            double h2i = c2*(data[twoI]-data[nMinusTwoI]);
+            double wReal = cos[i];
+            double wImag = sign*sin[i];
+            data[twoI] = h1r+wReal*h2r-wImag*h2i;
+            data[twoI+1] = h1i+wReal*h2i+wImag*h2r;
+            data[nMinusTwoI] = h1r-wReal*h2r+wImag*h2i;
+            data[nMinusTwoI+1] = -h1i+wReal*h2i+wImag*h2r;
+        }
+        double tmp = data[offset];
+        if (!inverse) {
+            data[offset] += data[offset+1];
+            data[offset+1] = tmp - data[offset+1];
+            data[offset+n/2+1] = -data[offset+n/2+1];
+        } else {
+            data[offset] = 0.5*(tmp+data[offset+1]);
+            data[offset+1] = 0.5*(tmp-data[offset+1]);
+            data[offset+n/2+1] = -data[offset+n/2+1];
+            halfPlan.transform(data, offset, true);
+        }
+    }
+
+    /**
+     * Carry out the real transform of numFrames consecutive frames of length {@link #getSize()}, in place.
+     * @param frames the array holding the frames one after the other
+     * @param numFrames the number of frames
+     * @param inverse whether to calculate the FFT or the inverse FFT.
+     * @see #realTransform(double[], boolean)
+     */
+    public void realTransformFrames(double[] frames, int numFrames, boolean inverse)
+    {
+        for (int f=0, offset=0; f<numFrames; f++, offset+=n) {
+            realTransform(frames, offset, inverse);
+        }
+    }
+
+    /**
+     * Carry out the complex transform of several frames, in place.
+     * @param real the real parts of the frames, each of length {@link #getSize()}
+     * @param imag the imaginary parts of the frames, each of length {@link #getSize()}
+     * @param inverse whether to calculate the FFT or the inverse FFT.
+     */
+    public void transformFrames(double[][] real, double[][] imag, boolean inverse)
+    {
+        if (real.length != imag.length)
+            throw new IllegalArgumentException("Need as many real as imaginary frames");
+        for (int f=0; f<real.length; f++) {
+            transform(real[f], imag[f], inverse);
+        }
+    }
+
+    /**
+     * From the result of {@link #realTransform(double[], boolean)}, compute the power
+     * for each positive frequency, as {@link FFT#computePowerSpectrum_FD(double[])} does, without allocating.
+     * @param fft the transform of a real signal
+     * @param powerSpectrum the array of length {@link #getSize()}/2 to write the power spectrum into
+     */
+    public void powerSpectrum(double[] fft, double[] powerSpectrum)
+    {
+        if (fft.length != n || powerSpectrum.length != n/2)
+            throw new IllegalArgumentException("Arrays must have length "+n+" and "+(n/2));
+        powerSpectrum[0] = fft[0]*fft[0];
+        for (int i=2; i<n; i+=2) {
+            powerSpectrum[i>>1] = fft[i]*fft[i] + fft[i+1]*fft[i+1];
+        }
+    }
+
+}
@@ -54,6 +54,7 @@ import marytts.util.math.ArrayUtils;
 import marytts.util.math.ComplexArray;
 import marytts.util.math.FFT;
 import marytts.util.math.FFTMixedRadix;
+import marytts.util.math.FFTPlan;
 import marytts.util.math.MathUtils;
 import marytts.util.string.StringUtils;
 
@@ -2310,7 +2311,7 @@ public class SignalProcUtils {
         System.arraycopy(windowedFrame, 0, X.real, 0, windowedFrame.length);
         
         if (MathUtils.isPowerOfTwo(fftSize))
-            FFT.transform(X.real, X.imag, false);
+            FFTPlan.get(fftSize).transform(X.real, X.imag, false);
         else
             X = FFTMixedRadix.fftComplex(X);
         
@@ -2338,7 +2339,7 @@ public class SignalProcUtils {
         }
         
         if (MathUtils.isPowerOfTwo(fftSize))
-            FFT.transform(Y.real, Y.imag, true);
+            FFTPlan.get(fftSize).transform(Y.real, Y.imag, true);
         else
             Y = FFTMixedRadix.ifft(Y);
         
@@ -2370,7 +2371,7 @@ public class SignalProcUtils {
         }
 
         if (MathUtils.isPowerOfTwo(fftSize))
-            FFT.transform(frameDft.real, frameDft.imag, true);
+            FFTPlan.get(fftSize).transform(frameDft.real, frameDft.imag, true);
         else
             frameDft = FFTMixedRadix.ifft(frameDft);
 
@@ -2434,7 +2435,7 @@ public class SignalProcUtils {
         }
 
         if (MathUtils.isPowerOfTwo(fftSize))
-            FFT.transform(frameDft.real, frameDft.imag, true);
+            FFTPlan.get(fftSize).transform(frameDft.real, frameDft.imag, true);
         else
             frameDft = FFTMixedRadix.ifft(frameDft);
 
@@ -2489,7 +2490,7 @@ public class SignalProcUtils {
         System.arraycopy(frameW, 0, frameDft.real, 0, frame.length);
         
         if (MathUtils.isPowerOfTwo(fftSize))
-            FFT.transform(frameDft.real, frameDft.imag, false);
+            FFTPlan.get(fftSize).transform(frameDft.real, frameDft.imag, false);
         else
             frameDft = FFTMixedRadix.fftComplex(frameDft);
   
@@ -2620,7 +2621,7 @@ public class SignalProcUtils {
         System.arraycopy(frameW, 0, frameDft.real, 0, frame.length);
         
         if (MathUtils.isPowerOfTwo(fftSize))
-            FFT.transform(frameDft.real, frameDft.imag, false);
+            FFTPlan.get(fftSize).transform(frameDft.real, frameDft.imag, false);
         else
             frameDft = FFTMixedRadix.fftComplex(frameDft);
         
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.signalproc.process;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import marytts.util.data.Datagram;
+
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class FDPSOLAProcessorTest
+{
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, true);
+
+    private Datagram[][] datagrams;
+    private Datagram[] rightContexts;
+    private boolean[][] voicings;
+    private double[][] pitchScales;
+    private double[][] timeScales;
+
+    /**
+     * Units of pitch periods of a decaying pulse train with some noise, with random modifications.
+     */
+    private void createUnits(int numUnits, long seed)
+    {
+        Random random = new Random(seed);
+        datagrams = new Datagram[numUnits][];
+        rightContexts = new Datagram[numUnits];
+        voicings = new boolean[numUnits][];
+        pitchScales = new double[numUnits][];
+        timeScales = new double[numUnits][];
+        for (int i=0; i<numUnits; i++) {
+            int numFrames = 1 + random.nextInt(8);
+            boolean voiced = random.nextInt(3) > 0;
+            double pscale = 0.7 + 0.6 * random.nextDouble();
+            double tscale = 0.6 + 1.2 * random.nextDouble();
+            datagrams[i] = new Datagram[numFrames];
+            voicings[i] = new boolean[numFrames];
+            pitchScales[i] = new double[numFrames];
+            timeScales[i] = new double[numFrames];
+            for (int j=0; j<numFrames; j++) {
+                datagrams[i][j] = period(80 + random.nextInt(100), random);
+                voicings[i][j] = voiced;
+                pitchScales[i][j] = pscale;
+                timeScales[i][j] = tscale;
+            }
+            if (random.nextBoolean()) {
+                rightContexts[i] = period(80 + random.nextInt(100), random);
+            }
+        }
+    }
+
+    private static Datagram period(int length, Random random)
+    {
+        byte[] data = new byte[2 * length];
+        for (int k=0; k<length; k++) {
+            short sample = (short) (8000 * Math.exp(-5.0 * k / length) + 500 * random.nextGaussian());
+            data[2*k] = (byte) (sample >> 8);
+            data[2*k+1] = (byte) sample;
+        }
+        return new Datagram(length, data);
+    }
+
+    private static Datagram[][] copy(Datagram[][] datagrams)
+    {
+        Datagram[][] copy = new Datagram[datagrams.length][];
+        for (int i=0; i<datagrams.length; i++) {
+            copy[i] = new Datagram[datagrams[i].length];
+            for (int j=0; j<datagrams[i].length; j++) {
+                copy[i][j] = new Datagram(datagrams[i][j].getDuration(), datagrams[i][j].getData());
+            }
+        }
+        return copy;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void streamingGivesSameAudio() throws Exception
+    {
+        for (long seed=1; seed<=5; seed++) {
+            createUnits(40, seed);
+            Datagram[][] decrufted = copy(datagrams);
+            Datagram[][] streamed = copy(datagrams);
+            byte[] expected = readAll(new FDPSOLAProcessor().processDecrufted(decrufted, rightContexts, FORMAT,
+                    voicings, pitchScales, timeScales));
+            byte[] actual = readAll(new FDPSOLAProcessor().processStreaming(streamed, rightContexts, FORMAT,
+                    voicings, pitchScales, timeScales));
+            assertArrayEquals("seed "+seed, expected, actual);
+
+            long total = 0;
+            for (int i=0; i<streamed.length; i++) {
+                for (int j=0; j<streamed[i].length; j++) {
+                    total += streamed[i][j].getDuration();
+                    if (i < streamed.length-1 || j < streamed[i].length-1) {
+                        assertEquals(decrufted[i][j].getDuration(), streamed[i][j].getDuration());
+                    }
+                }
+            }
+            // the durations add up to the audio length:
+            assertEquals(actual.length / 2, total);
+        }
+    }
+
+    @Test
+    public void lengthIsKnownBeforeProcessing() throws Exception
+    {
+        createUnits(400, 7);
+        AudioInputStream audio = new FDPSOLAProcessor().processStreaming(datagrams, rightContexts, FORMAT,
+                voicings, pitchScales, timeScales);
+        long total = 0;
+        for (Datagram[] unit : datagrams) {
+            for (Datagram d : unit) {
+                total += d.getDuration();
+            }
+        }
+        assertEquals(total, audio.getFrameLength());
+        assertEquals(2 * total, readAll(audio).length);
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.signalproc.sinusoidal.hntm.synthesis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import marytts.signalproc.adaptation.prosody.BasicProsodyModifierParams;
+import marytts.signalproc.sinusoidal.hntm.analysis.FrameHarmonicPart;
+import marytts.signalproc.sinusoidal.hntm.analysis.FrameNoisePartWaveform;
+import marytts.signalproc.sinusoidal.hntm.analysis.HntmAnalyzerParams;
+import marytts.signalproc.sinusoidal.hntm.analysis.HntmSpeechFrame;
+import marytts.signalproc.sinusoidal.hntm.analysis.HntmSpeechSignal;
+import marytts.util.concurrent.MaryThreadPool;
+import marytts.util.math.ComplexNumber;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class HntmBlockSynthesizerTest {
+    private static final int SAMPLING_RATE = 16000;
+    private static final MaryThreadPool pool = new MaryThreadPool("HntmBlockSynthesizerTest", 3, 10);
+
+    @AfterClass
+    public static void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * A signal of alternating voiced and unvoiced stretches, with waveform noise in every frame.
+     */
+    private static HntmSpeechSignal createSignal(int numFrames, Random random) {
+        HntmSpeechFrame[] frames = new HntmSpeechFrame[numFrames];
+        float t = 0;
+        for (int i=0; i<numFrames; i++) {
+            boolean voiced = (i / 7) % 3 != 2;
+            float f0 = voiced ? 100 + random.nextInt(100) : 0;
+            HntmSpeechFrame frame = new HntmSpeechFrame(f0);
+            frame.h = new FrameHarmonicPart();
+            if (voiced) {
+                frame.h.complexAmps = new ComplexNumber[5 + random.nextInt(20)];
+                for (int k=0; k<frame.h.complexAmps.length; k++) {
+                    frame.h.complexAmps[k] = new ComplexNumber(1000*random.nextGaussian(), 1000*random.nextGaussian());
+                }
+            }
+            float delta = voiced ? 1.0f/f0 : 0.005f;
+            short[] noise = new short[(int) (delta * SAMPLING_RATE)];
+            for (int j=0; j<noise.length; j++) {
+                noise[j] = (short) (500 * random.nextGaussian());
+            }
+            frame.n = new FrameNoisePartWaveform(noise);
+            frame.deltaAnalysisTimeInSeconds = delta;
+            t += delta;
+            frame.tAnalysisInSeconds = t;
+            frames[i] = frame;
+        }
+        HntmSpeechSignal signal = new HntmSpeechSignal(numFrames, SAMPLING_RATE, t);
+        signal.frames = frames;
+        return signal;
+    }
+
+    private static void assertSameOutput(HntmSpeechSignal signal, HntmSpeechFrame[] leftContexts, HntmSpeechFrame[] rightContexts,
+            HntmSynthesizerParams synthesisParams, int framesPerBlock, int parallelism) {
+        HntmAnalyzerParams analysisParams = new HntmAnalyzerParams();
+        double[] expected = new HntmSynthesizer().synthesize(signal, leftContexts, rightContexts,
+                new BasicProsodyModifierParams(), null, analysisParams, synthesisParams).output;
+
+        HntmBlockSynthesizer synthesizer = new HntmBlockSynthesizer(signal, leftContexts, rightContexts,
+                new BasicProsodyModifierParams(), analysisParams, synthesisParams, pool, parallelism);
+        synthesizer.setFramesPerBlock(framesPerBlock);
+        synthesizer.setOutputScale(0.5);
+        assertEquals(expected.length, synthesizer.getDataLength());
+        synthesizer.start();
+        double[] actual = synthesizer.getAllData();
+
+        assertEquals(expected.length, actual.length);
+        for (int i=0; i<expected.length; i++) {
+            assertEquals("sample "+i, 0.5*expected[i], actual[i], 1.e-9 * Math.max(1, Math.abs(expected[i])));
+        }
+    }
+
+    @Test
+    public void sameAsSequentialSynthesis() {
+        Random random = new Random(1);
+        HntmSpeechSignal signal = createSignal(200, random);
+        for (int framesPerBlock : new int[] {1, 3, 32, 1000}) {
+            assertSameOutput(signal, null, null, new HntmSynthesizerParams(), framesPerBlock, 3);
+        }
+    }
+
+    @Test
+    public void sameAsSequentialSynthesisWithContexts() {
+        Random random = new Random(2);
+        HntmSpeechSignal signal = createSignal(150, random);
+        HntmSpeechSignal contexts = createSignal(150, random);
+        HntmSpeechFrame[] leftContexts = new HntmSpeechFrame[150];
+        HntmSpeechFrame[] rightContexts = new HntmSpeechFrame[150];
+        for (int i=0; i<150; i+=10) {
+            // as if a new unit started every 10 frames:
+            leftContexts[i] = contexts.frames[i];
+            rightContexts[i+9] = contexts.frames[i+9];
+        }
+        assertSameOutput(signal, leftContexts, rightContexts, new HntmSynthesizerParams(), 4, 1);
+        assertSameOutput(signal, leftContexts, rightContexts, new HntmSynthesizerParams(), 4, 3);
+    }
+
+    @Test
+    public void sameAsSequentialSynthesisWithOverlappingHarmonics() {
+        HntmSpeechSignal signal = createSignal(120, new Random(3));
+        HntmSynthesizerParams synthesisParams = new HntmSynthesizerParams();
+        synthesisParams.overlappingHarmonicPartSynthesis = true;
+        assertSameOutput(signal, null, null, synthesisParams, 5, 3);
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+
+import marytts.util.math.FFTTest;
+
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class FixedLengthDoubleDataSourceTest
+{
+    @Test
+    public void truncatesLongerInput()
+    {
+        double[] signal = FFTTest.getSampleSignal(10000);
+        DoubleDataSource source = new FixedLengthDoubleDataSource(new BufferedDoubleDataSource(signal), 6000);
+        assertEquals(6000, source.getDataLength());
+        double[] result = source.getAllData();
+        assertEquals(6000, result.length);
+        for (int i=0; i<result.length; i++) {
+            assertEquals(signal[i], result[i], 0);
+        }
+        assertFalse(source.hasMoreData());
+    }
+
+    @Test
+    public void padsShorterInput()
+    {
+        double[] signal = FFTTest.getSampleSignal(1000);
+        DoubleDataSource source = new FixedLengthDoubleDataSource(new BufferedDoubleDataSource(signal), 2500);
+        double[] first = new double[700];
+        assertEquals(700, source.getData(first, 0, 700));
+        double[] rest = source.getAllData();
+        assertEquals(1800, rest.length);
+        for (int i=0; i<700; i++) {
+            assertEquals(signal[i], first[i], 0);
+        }
+        for (int i=0; i<300; i++) {
+            assertEquals(signal[700+i], rest[i], 0);
+        }
+        assertArrayEquals(new double[1500], Arrays.copyOfRange(rest, 300, 1800), 0);
+    }
+
+}
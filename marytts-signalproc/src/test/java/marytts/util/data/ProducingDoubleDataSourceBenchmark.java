@@ -0,0 +1,146 @@
+package marytts.util.data;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Micro-benchmark comparing the throughput and GC activity of {@link ProducingDoubleDataSource}
+ * (with per-sample and block-wise production) against the boxed <code>ArrayBlockingQueue&lt;Double&gt;</code>
+ * transport it used previously. This is not run as part of the unit tests; start it with
+ * <code>java marytts.util.data.ProducingDoubleDataSourceBenchmark [numSamples]</code>.
+ *
+ * @author marc
+ *
+ */
+public class ProducingDoubleDataSourceBenchmark {
+    private static final int READ_BLOCK = 4096;
+    private static final int FRAME = 80;
+
+    public static void main(String[] args) throws Exception {
+        int numSamples = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round "+round+", "+numSamples+" samples:");
+            measure("boxed queue", new BoxedQueueRun(numSamples));
+            measure("ring buffer, one by one", new ProducerRun(numSamples, 1));
+            measure("ring buffer, frames of "+FRAME, new ProducerRun(numSamples, FRAME));
+        }
+    }
+
+    private static void measure(String name, Runnable run) {
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        long t0 = System.nanoTime();
+        run.run();
+        long t = System.nanoTime() - t0;
+        System.out.printf("  %-30s %8.2f Msamples/s   %4d GCs (%d ms)%n", name,
+                ((Counted)run).count() * 1000. / t, gcCount() - gcCountBefore, gcTime() - gcTimeBefore);
+    }
+
+    private static long gcCount() {
+        long sum = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sum += Math.max(0, gc.getCollectionCount());
+        }
+        return sum;
+    }
+
+    private static long gcTime() {
+        long sum = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sum += Math.max(0, gc.getCollectionTime());
+        }
+        return sum;
+    }
+
+    private interface Counted {
+        long count();
+    }
+
+    private static class ProducerRun implements Runnable, Counted {
+        private int numSamples;
+        private int blockSize;
+        private long count;
+
+        ProducerRun(int numSamples, int blockSize) {
+            this.numSamples = numSamples;
+            this.blockSize = blockSize;
+        }
+
+        public void run() {
+            ProducingDoubleDataSource source = new ProducingDoubleDataSource(numSamples) {
+                public void run() {
+                    double[] block = new double[blockSize];
+                    for (int sent = 0; sent < numSamples; sent += blockSize) {
+                        int len = Math.min(blockSize, numSamples - sent);
+                        if (len == 1) {
+                            putOneDataPoint(sent);
+                        } else {
+                            for (int i = 0; i < len; i++) {
+                                block[i] = sent + i;
+                            }
+                            putData(block, 0, len);
+                        }
+                    }
+                    putEndOfStream();
+                }
+            };
+            source.start();
+            double[] target = new double[READ_BLOCK];
+            int read;
+            count = 0;
+            while ((read = source.getData(target, 0, READ_BLOCK)) > 0) {
+                count += read;
+            }
+        }
+
+        public long count() {
+            return count;
+        }
+    }
+
+    private static class BoxedQueueRun implements Runnable, Counted {
+        private static final Double END_OF_STREAM = Double.NEGATIVE_INFINITY;
+        private int numSamples;
+        private long count;
+
+        BoxedQueueRun(int numSamples) {
+            this.numSamples = numSamples;
+        }
+
+        public void run() {
+            final ArrayBlockingQueue<Double> queue = new ArrayBlockingQueue<Double>(1024);
+            Thread producer = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < numSamples; i++) {
+                            queue.put((double) i);
+                        }
+                        queue.put(END_OF_STREAM);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            producer.start();
+            double[] target = new double[READ_BLOCK];
+            count = 0;
+            try {
+                int pos = 0;
+                while (true) {
+                    double d = queue.take();
+                    if (d == END_OF_STREAM) break;
+                    target[pos++] = d;
+                    if (pos == READ_BLOCK) pos = 0;
+                    count++;
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public long count() {
+            return count;
+        }
+    }
+}
@@ -1,13 +1,18 @@
 package marytts.util.data;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 
 import marytts.signalproc.process.InlineDataProcessor;
+import marytts.util.concurrent.MaryThreadPool;
 import marytts.util.data.audio.DDSAudioInputStream;
 
 import org.junit.Test;
@@ -111,7 +116,122 @@ public class ProducingDoubleDataSourceTest {
         }
     }
     
+    @Test
+    public void canReadBlockProducedDoubles() {
+        int numDoubles = 100000;
+        BlockTestProducer producer = new BlockTestProducer(numDoubles, 333);
+        producer.start();
+        double[] result = producer.getAllData();
+        assertEquals(numDoubles, result.length);
+        for (int i=0; i<numDoubles; i++) {
+            assertEquals(i, result[i], 1.e-10);
+        }
+    }
     
+    @Test
+    public void canTransportNegativeInfinity() {
+        final int numDoubles = 10;
+        ProducingDoubleDataSource producer = new ProducingDoubleDataSource(numDoubles) {
+            public void run() {
+                for (int i=0; i<numDoubles; i++) {
+                    putOneDataPoint(Double.NEGATIVE_INFINITY);
+                }
+                putEndOfStream();
+            }
+        };
+        producer.start();
+        double[] result = producer.getAllData();
+        assertEquals(numDoubles, result.length);
+        assertEquals(Double.NEGATIVE_INFINITY, result[numDoubles-1], 0);
+    }
+
+    @Test(timeout=10000)
+    public void readerIsReleasedIfProducerFails() {
+        ProducingDoubleDataSource producer = new ProducingDoubleDataSource() {
+            public void run() {
+                putOneDataPoint(1);
+                throw new RuntimeException("producer failure provoked by test");
+            }
+        };
+        producer.start();
+        double[] result = producer.getAllData();
+        assertEquals(1, result.length);
+    }
+
+    @Test(timeout=10000)
+    public void blockedProducersDoNotHoldUpOthers() {
+        MaryThreadPool pool = new MaryThreadPool("test", 2, 0);
+        ProducingDoubleDataSource.setProducerExecutor(pool);
+        try {
+            // more producers than pool threads, each producing more than fits into its ring buffer:
+            int numDoubles = 4 * DoubleRingBuffer.DEFAULT_CAPACITY;
+            BlockTestProducer[] producers = new BlockTestProducer[5];
+            for (int i=0; i<producers.length; i++) {
+                producers[i] = new BlockTestProducer(numDoubles, 100);
+                producers[i].start();
+            }
+            // read them in reverse order, so that the first ones block their threads meanwhile:
+            for (int i=producers.length-1; i>=0; i--) {
+                assertEquals(numDoubles, producers[i].getAllData().length);
+            }
+        } finally {
+            ProducingDoubleDataSource.setProducerExecutor(null);
+            pool.shutdown();
+        }
+    }
+    
+
+    @Test(timeout=10000)
+    public void queuedProducersAreRunByTheirReaders() {
+        MaryThreadPool pool = new MaryThreadPool("test", 1, 10);
+        ProducingDoubleDataSource.setProducerExecutor(pool);
+        try {
+            int numDoubles = 4 * DoubleRingBuffer.DEFAULT_CAPACITY;
+            BlockTestProducer[] producers = new BlockTestProducer[5];
+            for (int i=0; i<producers.length; i++) {
+                producers[i] = new BlockTestProducer(numDoubles, 100);
+                producers[i].start();
+            }
+            // the first producer blocks the only pool thread until it is read last:
+            for (int i=producers.length-1; i>=0; i--) {
+                assertEquals(numDoubles, producers[i].getAllData().length);
+            }
+        } finally {
+            ProducingDoubleDataSource.setProducerExecutor(null);
+            pool.shutdown();
+        }
+    }
+
+    @Test(timeout=10000)
+    public void producersRunOnPoolOrReaderThreads() {
+        MaryThreadPool pool = new MaryThreadPool("test", 2, 0);
+        ProducingDoubleDataSource.setProducerExecutor(pool);
+        try {
+            final int numDoubles = 4 * DoubleRingBuffer.DEFAULT_CAPACITY;
+            final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+            ProducingDoubleDataSource[] producers = new ProducingDoubleDataSource[5];
+            for (int i=0; i<producers.length; i++) {
+                producers[i] = new BlockTestProducer(numDoubles, 100) {
+                    public void run() {
+                        threadNames.add(Thread.currentThread().getName());
+                        super.run();
+                    }
+                };
+                producers[i].start();
+            }
+            for (int i=producers.length-1; i>=0; i--) {
+                assertEquals(numDoubles, producers[i].getAllData().length);
+            }
+            threadNames.remove(Thread.currentThread().getName());
+            for (String name : threadNames) {
+                assertTrue(name, name.startsWith("test"));
+            }
+            assertTrue(threadNames.size() <= 2);
+        } finally {
+            ProducingDoubleDataSource.setProducerExecutor(null);
+            pool.shutdown();
+        }
+    }
 
     private static class TestProducer extends ProducingDoubleDataSource {
         double DUMMY = 0.23;
@@ -137,4 +257,28 @@ public class ProducingDoubleDataSourceTest {
         }
         
     }
+    
+    private static class BlockTestProducer extends ProducingDoubleDataSource {
+        private int blockSize;
+        
+        public BlockTestProducer(int numToSend, int blockSize) {
+            super(numToSend);
+            this.blockSize = blockSize;
+        }
+        
+        public void run() {
+            int numToSend = (int) getDataLength();
+            double[] block = new double[blockSize];
+            int sent = 0;
+            while (sent < numToSend) {
+                int len = Math.min(blockSize, numToSend - sent);
+                for (int i=0; i<len; i++) {
+                    block[i] = sent + i;
+                }
+                putData(block, 0, len);
+                sent += len;
+            }
+            putEndOfStream();
+        }
+    }
 }
@@ -0,0 +1,150 @@
+package marytts.util.math;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Micro-benchmark comparing {@link FFTPlan} against {@link FFT} and {@link FFTMixedRadix},
+ * for complex and real forward transforms of typical frame sizes.
+ * This is not run as part of the unit tests; start it with
+ * <code>java marytts.util.math.FFTBenchmark [numTransforms]</code>.
+ *
+ * @author marc
+ *
+ */
+public class FFTBenchmark {
+    private static final int FRAMES_PER_BATCH = 64;
+    // keeps the JIT from discarding the transforms:
+    private static double sink;
+
+    public static void main(String[] args) throws Exception {
+        int numTransforms = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round "+round+", "+numTransforms+" transforms per size (ns per transform):");
+            System.out.printf("  %6s %12s %12s %12s %12s %12s %12s%n", "n", "FFT", "MixedRadix", "Plan", "FFT real", "Plan real", "Plan batch");
+            for (int n = 256; n <= 4096; n <<= 1) {
+                int count = (int) Math.max(10, (long) numTransforms * 256 / n);
+                System.out.printf("  %6d %12.0f %12.0f %12.0f %12.0f %12.0f %12.0f%n", n,
+                        measure(new ComplexFFT(n), count),
+                        measure(new MixedRadixFFT(n), count / 4),
+                        measure(new ComplexPlan(n), count),
+                        measure(new RealFFT(n), count),
+                        measure(new RealPlan(n), count),
+                        measure(new BatchedRealPlan(n), count / FRAMES_PER_BATCH) / FRAMES_PER_BATCH);
+            }
+        }
+        System.out.println(sink);
+    }
+
+    private static double measure(Transform transform, int count) {
+        long t0 = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            transform.run();
+        }
+        long t = System.nanoTime() - t0;
+        sink += transform.result();
+        return (double) t / count;
+    }
+
+    private static double[] signal(int n) {
+        Random random = new Random(n);
+        double[] signal = new double[n];
+        for (int i = 0; i < n; i++) {
+            signal[i] = random.nextGaussian();
+        }
+        return signal;
+    }
+
+    private static abstract class Transform {
+        protected final double[] signal;
+        protected final double[] real;
+        protected final double[] imag;
+
+        Transform(int n) {
+            signal = signal(n);
+            real = new double[n];
+            imag = new double[n];
+        }
+
+        /** Copy the signal into the work arrays and transform it. */
+        abstract void run();
+
+        double result() {
+            return real[1];
+        }
+    }
+
+    private static class ComplexFFT extends Transform {
+        ComplexFFT(int n) { super(n); }
+
+        void run() {
+            System.arraycopy(signal, 0, real, 0, real.length);
+            Arrays.fill(imag, 0.);
+            FFT.transform(real, imag, false);
+        }
+    }
+
+    private static class MixedRadixFFT extends Transform {
+        MixedRadixFFT(int n) { super(n); }
+
+        void run() {
+            System.arraycopy(signal, 0, real, 0, real.length);
+            Arrays.fill(imag, 0.);
+            FFTMixedRadix.fftComplexInPlace(real, imag);
+        }
+    }
+
+    private static class ComplexPlan extends Transform {
+        private final FFTPlan plan;
+
+        ComplexPlan(int n) { super(n); plan = FFTPlan.get(n); }
+
+        void run() {
+            System.arraycopy(signal, 0, real, 0, real.length);
+            Arrays.fill(imag, 0.);
+            plan.transform(real, imag, false);
+        }
+    }
+
+    private static class RealFFT extends Transform {
+        RealFFT(int n) { super(n); }
+
+        void run() {
+            System.arraycopy(signal, 0, real, 0, real.length);
+            FFT.realTransform(real, false);
+        }
+    }
+
+    private static class RealPlan extends Transform {
+        private final FFTPlan plan;
+
+        RealPlan(int n) { super(n); plan = FFTPlan.get(n); }
+
+        void run() {
+            System.arraycopy(signal, 0, real, 0, real.length);
+            plan.realTransform(real, false);
+        }
+    }
+
+    private static class BatchedRealPlan extends Transform {
+        private final FFTPlan plan;
+        private final double[] frames;
+
+        BatchedRealPlan(int n) {
+            super(n);
+            plan = FFTPlan.get(n);
+            frames = new double[n * FRAMES_PER_BATCH];
+        }
+
+        void run() {
+            for (int f = 0; f < FRAMES_PER_BATCH; f++) {
+                System.arraycopy(signal, 0, frames, f * signal.length, signal.length);
+            }
+            plan.realTransformFrames(frames, FRAMES_PER_BATCH, false);
+        }
+
+        double result() {
+            return frames[1];
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.util.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author marc
+ *
+ */
+public class FFTPlanTest
+{
+    private static double[] randomSignal(int n, Random random)
+    {
+        double[] signal = new double[n];
+        for (int i=0; i<n; i++) {
+            signal[i] = random.nextGaussian();
+        }
+        return signal;
+    }
+
+    private static void assertClose(double[] expected, double[] actual)
+    {
+        assertEquals(expected.length, actual.length);
+        for (int i=0; i<expected.length; i++) {
+            assertEquals("index "+i, expected[i], actual[i], 1.e-9 * Math.max(1, Math.abs(expected[i])));
+        }
+    }
+
+    @Test
+    public void plansAreCached()
+    {
+        assertSame(FFTPlan.get(512), FFTPlan.get(512));
+        assertEquals(512, FFTPlan.get(512).getSize());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void rejectsNonPowerOfTwo()
+    {
+        FFTPlan.get(100);
+    }
+
+    @Test
+    public void complexTransformAsFFT()
+    {
+        Random random = new Random(1);
+        for (int n=2; n<=4096; n<<=1) {
+            double[] real = randomSignal(n, random);
+            double[] imag = randomSignal(n, random);
+            double[] expectedReal = real.clone();
+            double[] expectedImag = imag.clone();
+            for (boolean inverse : new boolean[] {false, true}) {
+                FFT.transform(expectedReal, expectedImag, inverse);
+                FFTPlan.get(n).transform(real, imag, inverse);
+                assertClose(expectedReal, real);
+                assertClose(expectedImag, imag);
+            }
+        }
+    }
+
+    @Test
+    public void interleavedTransformAsFFT()
+    {
+        Random random = new Random(2);
+        for (int n=2; n<=4096; n<<=1) {
+            double[] data = randomSignal(2*n, random);
+            double[] expected = data.clone();
+            for (boolean inverse : new boolean[] {false, true}) {
+                FFT.transform(expected, inverse);
+                FFTPlan.get(n).transform(data, inverse);
+                assertClose(expected, data);
+            }
+        }
+    }
+
+    @Test
+    public void realTransformAsFFT()
+    {
+        Random random = new Random(3);
+        for (int n=4; n<=4096; n<<=1) {
+            double[] signal = randomSignal(n, random);
+            double[] expected = signal.clone();
+            double[] data = signal.clone();
+            FFT.realTransform(expected, false);
+            FFTPlan.get(n).realTransform(data, false);
+            assertClose(expected, data);
+            FFTPlan.get(n).realTransform(data, true);
+            assertClose(signal, data);
+        }
+    }
+
+    @Test
+    public void transformsFramesInPlace()
+    {
+        Random random = new Random(4);
+        int n = 256;
+        int numFrames = 5;
+        double[] frames = randomSignal(n*numFrames, random);
+        double[] expected = frames.clone();
+        FFTPlan.get(n).realTransformFrames(frames, numFrames, false);
+        for (int f=0; f<numFrames; f++) {
+            double[] frame = new double[n];
+            System.arraycopy(expected, f*n, frame, 0, n);
+            FFT.realTransform(frame, false);
+            double[] actual = new double[n];
+            System.arraycopy(frames, f*n, actual, 0, n);
+            assertClose(frame, actual);
+        }
+        FFTPlan.get(n).realTransformFrames(frames, numFrames, true);
+        assertClose(expected, frames);
+    }
+
+    @Test
+    public void powerSpectrumAsFFT()
+    {
+        double[] fft = randomSignal(1024, new Random(5));
+        double[] powerSpectrum = new double[512];
+        FFTPlan.get(1024).powerSpectrum(fft, powerSpectrum);
+        assertClose(FFT.computePowerSpectrum_FD(fft), powerSpectrum);
+    }
+
+}
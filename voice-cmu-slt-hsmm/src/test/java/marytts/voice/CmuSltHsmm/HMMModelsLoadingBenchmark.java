@@ -0,0 +1,164 @@
+/**
+ * Copyright 2011 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.voice.CmuSltHsmm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import marytts.features.FeatureDefinition;
+import marytts.features.FeatureVector;
+import marytts.htsengine.CartTreeSet;
+import marytts.htsengine.HMMData;
+import marytts.htsengine.HMMModelsWriter;
+import marytts.htsengine.HTSModel;
+import marytts.util.io.PropertiesAccessor;
+
+/**
+ * Compares the startup time of this voice's HMM models loaded from the HTS text trees and pdf files
+ * with that of the same models compiled by {@link HMMModelsWriter}, and checks that both predict
+ * the same durations and pdfs for random feature vectors.
+ * Run from the voice-cmu-slt-hsmm directory, with optional arguments: number of loads per format (default 20).
+ *
+ * @author marc
+ *
+ */
+public class HMMModelsLoadingBenchmark {
+    private static final String VOICE = "cmu-slt-hsmm";
+    private static final String BASE = "src/main/resources";
+    private static final String CONFIG = "/marytts/voice/CmuSltHsmm/voice.config";
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+        HMMData text = new HMMData();
+        text.initHMMData(VOICE, BASE, CONFIG);
+        File compiled = File.createTempFile("hmm-models", ".bin");
+        compiled.deleteOnExit();
+        new HMMModelsWriter().dumpHMMModels(text, compiled.getPath());
+
+        // the voice config with the compiled models:
+        Properties props = new Properties();
+        FileInputStream fis = new FileInputStream(BASE + CONFIG);
+        props.load(fis);
+        fis.close();
+        props.setProperty("voice." + VOICE + ".compiledModels", compiled.getAbsolutePath());
+        Map<String, String> maryBaseReplacer = new HashMap<String, String>();
+        maryBaseReplacer.put("jar:", BASE);
+        PropertiesAccessor compiledConfig = new PropertiesAccessor(props, false, maryBaseReplacer);
+
+        HMMData binary = new HMMData();
+        binary.initHMMData(compiledConfig, VOICE);
+        checkSamePredictions(text, binary);
+
+        System.out.println("Text files: " + totalSize(new File(BASE + "/marytts/voice/CmuSltHsmm")) + " bytes, compiled file: "
+                + compiled.length() + " bytes");
+        double[] textTimes = new double[runs];
+        double[] binaryTimes = new double[runs];
+        for (int i=0; i<runs; i++) {
+            long t0 = System.nanoTime();
+            new HMMData().initHMMData(VOICE, BASE, CONFIG);
+            long t1 = System.nanoTime();
+            new HMMData().initHMMData(compiledConfig, VOICE);
+            long t2 = System.nanoTime();
+            textTimes[i] = (t1 - t0) / 1.e6;
+            binaryTimes[i] = (t2 - t1) / 1.e6;
+        }
+        report("text trees and pdfs", textTimes);
+        report("compiled models", binaryTimes);
+    }
+
+    private static long totalSize(File dir) {
+        long size = 0;
+        for (File f : dir.listFiles()) {
+            String name = f.getName();
+            if (name.endsWith(".inf") || name.endsWith(".pdf") || name.endsWith(".pfeats")) {
+                size += f.length();
+            }
+        }
+        return size;
+    }
+
+    private static void report(String name, double[] times) {
+        double[] sorted = times.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-20s first load %8.1f ms, median %8.1f ms, min %8.1f ms%n",
+                name, times[0], sorted[sorted.length / 2], sorted[0]);
+    }
+
+    private static void checkSamePredictions(HMMData expected, HMMData actual) throws Exception {
+        FeatureDefinition featDef = expected.getFeatureDefinition();
+        if (!featDef.featureEquals(actual.getFeatureDefinition())) {
+            throw new IllegalStateException("Different feature definitions");
+        }
+        CartTreeSet e = expected.getCartTreeSet();
+        CartTreeSet a = actual.getCartTreeSet();
+        int numStates = e.getNumStates();
+        Random random = new Random(1);
+        int numBytes = featDef.getNumberOfByteFeatures();
+        int numShorts = featDef.getNumberOfShortFeatures();
+        for (int n=0; n<1000; n++) {
+            byte[] bytes = new byte[numBytes];
+            for (int i=0; i<numBytes; i++) {
+                bytes[i] = (byte) random.nextInt(featDef.getNumberOfValues(i));
+            }
+            short[] shorts = new short[numShorts];
+            for (int i=0; i<numShorts; i++) {
+                shorts[i] = (short) random.nextInt(featDef.getNumberOfValues(numBytes + i));
+            }
+            FeatureVector fv = featDef.toFeatureVector(0, bytes, shorts, new float[featDef.getNumberOfContinuousFeatures()]);
+            HTSModel me = new HTSModel(numStates);
+            HTSModel ma = new HTSModel(numStates);
+            e.searchDurInCartTree(me, fv, expected, 0);
+            a.searchDurInCartTree(ma, fv, actual, 0);
+            e.searchLf0InCartTree(me, fv, featDef, expected.getUV());
+            a.searchLf0InCartTree(ma, fv, featDef, actual.getUV());
+            e.searchMgcInCartTree(me, fv, featDef);
+            a.searchMgcInCartTree(ma, fv, featDef);
+            e.searchStrInCartTree(me, fv, featDef);
+            a.searchStrInCartTree(ma, fv, featDef);
+            for (int s=0; s<numStates; s++) {
+                check(me.getDur(s) == ma.getDur(s) && me.getVoiced(s) == ma.getVoiced(s), n);
+                for (int i=0; i<e.getLf0Stream(); i++) {
+                    check(me.getLf0Mean(s, i) == ma.getLf0Mean(s, i) && me.getLf0Variance(s, i) == ma.getLf0Variance(s, i), n);
+                }
+                for (int i=0; i<e.getMcepVsize(); i++) {
+                    check(me.getMcepMean(s, i) == ma.getMcepMean(s, i) && me.getMcepVariance(s, i) == ma.getMcepVariance(s, i), n);
+                }
+                for (int i=0; i<e.getStrVsize(); i++) {
+                    check(me.getStrMean(s, i) == ma.getStrMean(s, i) && me.getStrVariance(s, i) == ma.getStrVariance(s, i), n);
+                }
+            }
+        }
+        check(Arrays.equals(expected.getGVModelSet().getGVmeanMgc(), actual.getGVModelSet().getGVmeanMgc())
+                && Arrays.equals(expected.getGVModelSet().getGVcovInvMgc(), actual.getGVModelSet().getGVcovInvMgc()), -1);
+        System.out.println("Text and compiled models predict the same for 1000 random feature vectors");
+    }
+
+    private static void check(boolean same, int n) {
+        if (!same) {
+            throw new IllegalStateException("Different predictions for feature vector " + n);
+        }
+    }
+}